@@ -0,0 +1,129 @@
+package edu.mit.puzzle.cube.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.CubeDatabaseSchema;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
+import edu.mit.puzzle.cube.core.db.JdbcConnectionFactory;
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.User;
+import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Creates the hunt databases that benchmarks run against.
+ */
+public class BenchmarkDatabase {
+    /** A shared in-memory SQLite database, as used by development environments and tests. */
+    public static final String IN_MEMORY = "memory";
+    /** An SQLite database in a temporary file, accessed through JdbcConnectionFactory. */
+    public static final String FILE = "file";
+
+    /**
+     * The standard visibility statuses, except that a solved puzzle may go back to being
+     * visible, so that benchmarks can keep changing the same visibilities.
+     */
+    public static class CyclingVisibilityStatusSet extends StandardVisibilityStatusSet {
+        @Override
+        public Set<String> getAllowedAntecedents(String status) {
+            if (status.equals("VISIBLE")) {
+                return ImmutableSet.of("INVISIBLE", "SOLVED");
+            }
+            return super.getAllowedAntecedents(status);
+        }
+
+        public String getNextStatus(String status) {
+            switch (status) {
+                case "INVISIBLE":   return "VISIBLE";
+                case "VISIBLE":     return "UNLOCKED";
+                case "UNLOCKED":    return "SOLVED";
+                case "SOLVED":      return "VISIBLE";
+                default:            throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    public static List<String> createTeamIds(int teamCount) {
+        return IntStream.range(0, teamCount)
+                .mapToObj(i -> "team" + i)
+                .collect(Collectors.toList());
+    }
+
+    public static List<Puzzle> createPuzzles(int puzzleCount) {
+        return IntStream.range(0, puzzleCount)
+                .mapToObj(i -> Puzzle.create("puzzle" + i, "ANSWER" + i))
+                .collect(Collectors.toList());
+    }
+
+    public static ConnectionFactory create(
+            String backend,
+            VisibilityStatusSet visibilityStatusSet,
+            List<String> teamIds,
+            List<Puzzle> puzzles
+    ) throws IOException, SQLException {
+        switch (backend) {
+        case IN_MEMORY:
+            return new InMemoryConnectionFactory(
+                    visibilityStatusSet,
+                    teamIds,
+                    puzzles,
+                    ImmutableList.<User>of());
+        case FILE:
+            return createFileDatabase(visibilityStatusSet, teamIds, puzzles);
+        default:
+            throw new IllegalArgumentException("Unknown benchmark database backend " + backend);
+        }
+    }
+
+    private static ConnectionFactory createFileDatabase(
+            VisibilityStatusSet visibilityStatusSet,
+            List<String> teamIds,
+            List<Puzzle> puzzles
+    ) throws IOException, SQLException {
+        File databaseFile = File.createTempFile("cube-benchmark", ".db");
+        databaseFile.deleteOnExit();
+
+        ConnectionFactory connectionFactory = JdbcConnectionFactory.builder()
+                .setDriverClassName("org.sqlite.JDBC")
+                .setJdbcUrl("jdbc:sqlite:" + databaseFile.getAbsolutePath())
+                .setUsername("")
+                .setPassword("")
+                .build();
+
+        CubeDatabaseSchema cubeDatabaseSchema = new CubeDatabaseSchema(
+                connectionFactory.getDatabaseDialect().getDriverClassName(),
+                visibilityStatusSet
+        );
+        try (Connection connection = connectionFactory.getConnection()) {
+            cubeDatabaseSchema.execute(connection);
+        }
+
+        DatabaseHelper.insertBatch(
+                connectionFactory,
+                "INSERT INTO teams (teamId) VALUES (?)",
+                teamIds.stream()
+                        .map(teamId -> Lists.<Object>newArrayList(teamId))
+                        .collect(Collectors.toList()));
+        DatabaseHelper.insertBatch(
+                connectionFactory,
+                "INSERT INTO puzzles (puzzleId) VALUES (?)",
+                puzzles.stream()
+                        .map(puzzle -> Lists.<Object>newArrayList(puzzle.getPuzzleId()))
+                        .collect(Collectors.toList()));
+
+        return connectionFactory;
+    }
+}
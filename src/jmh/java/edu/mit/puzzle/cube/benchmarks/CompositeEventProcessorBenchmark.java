@@ -0,0 +1,79 @@
+package edu.mit.puzzle.cube.benchmarks;
+
+import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.Event;
+import edu.mit.puzzle.cube.core.events.HuntStartEvent;
+import edu.mit.puzzle.cube.core.events.PeriodicTimerEvent;
+import edu.mit.puzzle.cube.core.events.SubmissionCompleteEvent;
+import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of dispatching events through a CompositeEventProcessor with a number of
+ * registered processors for several event classes, as a hunt definition would set it up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompositeEventProcessorBenchmark {
+    @Param({"1", "10"})
+    public int processorsPerEventClass;
+
+    private CompositeEventProcessor compositeEventProcessor;
+    private VisibilityChangeEvent visibilityChangeEvent;
+    private PeriodicTimerEvent periodicTimerEvent;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        compositeEventProcessor = new CompositeEventProcessor();
+        for (int i = 0; i < processorsPerEventClass; ++i) {
+            compositeEventProcessor.addEventProcessor(Event.class, this::consume);
+            compositeEventProcessor.addEventProcessor(VisibilityChangeEvent.class, this::consume);
+            compositeEventProcessor.addEventProcessor(SubmissionCompleteEvent.class, this::consume);
+            compositeEventProcessor.addEventProcessor(HuntStartEvent.class, this::consume);
+        }
+
+        visibilityChangeEvent = VisibilityChangeEvent.builder()
+                .setVisibility(Visibility.builder()
+                        .setTeamId("team")
+                        .setPuzzleId("puzzle")
+                        .setStatus("UNLOCKED")
+                        .build())
+                .build();
+        periodicTimerEvent = PeriodicTimerEvent.builder().build();
+    }
+
+    private void consume(Event event) {
+        blackhole.consume(event);
+    }
+
+    @Benchmark
+    public void processVisibilityChangeEvent() {
+        compositeEventProcessor.process(visibilityChangeEvent);
+    }
+
+    @Benchmark
+    public void processUnhandledEventClass() {
+        compositeEventProcessor.process(periodicTimerEvent);
+    }
+}
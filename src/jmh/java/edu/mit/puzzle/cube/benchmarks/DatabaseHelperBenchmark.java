@@ -0,0 +1,89 @@
+package edu.mit.puzzle.cube.benchmarks;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.Visibility;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading every explicit visibility through DatabaseHelper, both mapped to model
+ * objects and as a Table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseHelperBenchmark {
+    @Param({BenchmarkDatabase.IN_MEMORY, BenchmarkDatabase.FILE})
+    public String backend;
+
+    @Param({"10", "100"})
+    public int teamCount;
+
+    @Param({"20", "200"})
+    public int puzzleCount;
+
+    private ConnectionFactory connectionFactory;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        StandardVisibilityStatusSet visibilityStatusSet = new StandardVisibilityStatusSet();
+        List<String> teamIds = BenchmarkDatabase.createTeamIds(teamCount);
+        List<Puzzle> puzzles = BenchmarkDatabase.createPuzzles(puzzleCount);
+        connectionFactory = BenchmarkDatabase.create(backend, visibilityStatusSet, teamIds, puzzles);
+
+        HuntStatusStore huntStatusStore = new HuntStatusStore(
+                connectionFactory, visibilityStatusSet, event -> {});
+        Table<String,String,String> visibilities = HashBasedTable.create();
+        for (String teamId : teamIds) {
+            for (Puzzle puzzle : puzzles) {
+                visibilities.put(teamId, puzzle.getPuzzleId(), "UNLOCKED");
+            }
+        }
+        huntStatusStore.setVisibilityBatch(visibilities, false);
+    }
+
+    @Benchmark
+    public List<Visibility> queryModels() {
+        return DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM visibilities",
+                ImmutableList.<Object>of(),
+                Visibility.class
+        );
+    }
+
+    @Benchmark
+    public Table<Integer,String,Object> queryTable() {
+        return DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM visibilities",
+                ImmutableList.<Object>of()
+        );
+    }
+}
@@ -0,0 +1,112 @@
+package edu.mit.puzzle.cube.benchmarks;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures visibility reads and writes through HuntStatusStore. Each write moves visibilities
+ * one step around the cycle VISIBLE, UNLOCKED, SOLVED, VISIBLE, so that every call really
+ * changes the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HuntStatusStoreBenchmark {
+    @Param({BenchmarkDatabase.IN_MEMORY, BenchmarkDatabase.FILE})
+    public String backend;
+
+    @Param({"10", "100"})
+    public int teamCount;
+
+    @Param({"20", "200"})
+    public int puzzleCount;
+
+    private BenchmarkDatabase.CyclingVisibilityStatusSet visibilityStatusSet;
+    private HuntStatusStore huntStatusStore;
+    private List<String> teamIds;
+    private List<Puzzle> puzzles;
+
+    // The current status of each visibility, indexed by team and then puzzle.
+    private String[][] statuses;
+    private int nextTeam = 0;
+    private int nextPuzzle = 0;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        visibilityStatusSet = new BenchmarkDatabase.CyclingVisibilityStatusSet();
+        teamIds = BenchmarkDatabase.createTeamIds(teamCount);
+        puzzles = BenchmarkDatabase.createPuzzles(puzzleCount);
+        ConnectionFactory connectionFactory =
+                BenchmarkDatabase.create(backend, visibilityStatusSet, teamIds, puzzles);
+        huntStatusStore = new HuntStatusStore(connectionFactory, visibilityStatusSet, event -> {});
+
+        statuses = new String[teamCount][puzzleCount];
+        for (String[] teamStatuses : statuses) {
+            Arrays.fill(teamStatuses, visibilityStatusSet.getDefaultVisibilityStatus());
+        }
+    }
+
+    private int advanceTeam() {
+        int team = nextTeam;
+        nextTeam = (nextTeam + 1) % teamCount;
+        return team;
+    }
+
+    @Benchmark
+    public boolean setVisibility() {
+        int team = advanceTeam();
+        int puzzle = nextPuzzle;
+        if (team == teamCount - 1) {
+            nextPuzzle = (nextPuzzle + 1) % puzzleCount;
+        }
+        statuses[team][puzzle] = visibilityStatusSet.getNextStatus(statuses[team][puzzle]);
+        return huntStatusStore.setVisibility(
+                teamIds.get(team),
+                puzzles.get(puzzle).getPuzzleId(),
+                statuses[team][puzzle],
+                false
+        );
+    }
+
+    @Benchmark
+    public boolean setVisibilityBatchForTeam() {
+        int team = advanceTeam();
+        Table<String,String,String> batch = HashBasedTable.create();
+        for (int puzzle = 0; puzzle < puzzleCount; ++puzzle) {
+            statuses[team][puzzle] = visibilityStatusSet.getNextStatus(statuses[team][puzzle]);
+            batch.put(teamIds.get(team), puzzles.get(puzzle).getPuzzleId(), statuses[team][puzzle]);
+        }
+        return huntStatusStore.setVisibilityBatch(batch, false);
+    }
+
+    @Benchmark
+    public List<Visibility> getVisibilitiesForTeam() {
+        return huntStatusStore.getVisibilitiesForTeam(teamIds.get(advanceTeam()));
+    }
+}
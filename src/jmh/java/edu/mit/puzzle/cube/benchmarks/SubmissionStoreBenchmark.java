@@ -0,0 +1,132 @@
+package edu.mit.puzzle.cube.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.Submission;
+import edu.mit.puzzle.cube.core.model.SubmissionStatus;
+import edu.mit.puzzle.cube.core.model.SubmissionStore;
+import edu.mit.puzzle.cube.core.model.SubmissionStore.FilterOptions;
+import edu.mit.puzzle.cube.core.model.SubmissionStore.PaginationOptions;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SubmissionStore.getSubmissions with the filters used by the submission queue and
+ * team pages. Every team has submissionsPerPuzzle incorrect submissions for every puzzle, and
+ * one pending submission for each of the first few puzzles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubmissionStoreBenchmark {
+    private static final int PENDING_PUZZLES_PER_TEAM = 3;
+
+    @Param({BenchmarkDatabase.IN_MEMORY, BenchmarkDatabase.FILE})
+    public String backend;
+
+    @Param({"10", "100"})
+    public int teamCount;
+
+    @Param({"20", "200"})
+    public int puzzleCount;
+
+    @Param({"5"})
+    public int submissionsPerPuzzle;
+
+    private SubmissionStore submissionStore;
+    private String teamId;
+    private String puzzleId;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        StandardVisibilityStatusSet visibilityStatusSet = new StandardVisibilityStatusSet();
+        List<String> teamIds = BenchmarkDatabase.createTeamIds(teamCount);
+        List<Puzzle> puzzles = BenchmarkDatabase.createPuzzles(puzzleCount);
+        ConnectionFactory connectionFactory =
+                BenchmarkDatabase.create(backend, visibilityStatusSet, teamIds, puzzles);
+
+        Timestamp timestamp = Timestamp.from(Instant.now());
+        List<List<Object>> submissions = Lists.newArrayList();
+        for (String teamId : teamIds) {
+            for (int i = 0; i < puzzles.size(); ++i) {
+                String puzzleId = puzzles.get(i).getPuzzleId();
+                for (int j = 0; j < submissionsPerPuzzle; ++j) {
+                    submissions.add(Lists.newArrayList(
+                            puzzleId, teamId, "WRONG" + j, timestamp,
+                            SubmissionStatus.INCORRECT.toString()));
+                }
+                if (i < PENDING_PUZZLES_PER_TEAM) {
+                    submissions.add(Lists.newArrayList(
+                            puzzleId, teamId, "GUESS", timestamp,
+                            SubmissionStatus.SUBMITTED.toString()));
+                }
+            }
+        }
+        DatabaseHelper.insertBatch(
+                connectionFactory,
+                "INSERT INTO submissions (puzzleId, teamId, submission, timestamp, status) " +
+                        "VALUES (?,?,?,?,?)",
+                submissions);
+
+        HuntStatusStore huntStatusStore = new HuntStatusStore(
+                connectionFactory, visibilityStatusSet, event -> {});
+        submissionStore = new SubmissionStore(connectionFactory, event -> {}, huntStatusStore);
+        teamId = teamIds.get(teamIds.size() / 2);
+        puzzleId = puzzles.get(puzzles.size() / 2).getPuzzleId();
+    }
+
+    @Benchmark
+    public List<Submission> getFirstPageOfAllSubmissions() {
+        return submissionStore.getAllSubmissions(PaginationOptions.builder()
+                .setPageSize(Optional.of(100))
+                .build());
+    }
+
+    @Benchmark
+    public List<Submission> getPendingSubmissions() {
+        return submissionStore.getSubmissions(
+                FilterOptions.builder()
+                        .setStatuses(ImmutableList.of(
+                                SubmissionStatus.SUBMITTED, SubmissionStatus.ASSIGNED))
+                        .build(),
+                PaginationOptions.none());
+    }
+
+    @Benchmark
+    public List<Submission> getSubmissionsByTeam() {
+        return submissionStore.getSubmissionsByTeam(PaginationOptions.none(), teamId);
+    }
+
+    @Benchmark
+    public List<Submission> getSubmissionsByTeamAndPuzzle() {
+        return submissionStore.getSubmissionsByTeamAndPuzzle(
+                PaginationOptions.none(), teamId, puzzleId);
+    }
+}
@@ -8,13 +8,20 @@ import edu.mit.puzzle.cube.core.db.CubeJdbcRealm;
 import edu.mit.puzzle.cube.core.environments.DevelopmentEnvironment;
 import edu.mit.puzzle.cube.core.environments.ProductionEnvironment;
 import edu.mit.puzzle.cube.core.environments.ServiceEnvironment;
+import edu.mit.puzzle.cube.core.events.AsyncEventProcessor;
 import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.Event;
+import edu.mit.puzzle.cube.core.events.EventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.EventStreamBroker;
 import edu.mit.puzzle.cube.core.events.PeriodicTimerEvent;
+import edu.mit.puzzle.cube.core.model.AnswerIndex;
 import edu.mit.puzzle.cube.core.model.HintRequestStore;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
 import edu.mit.puzzle.cube.core.model.PuzzleStore;
 import edu.mit.puzzle.cube.core.model.SubmissionStore;
 import edu.mit.puzzle.cube.core.model.UserStore;
+import edu.mit.puzzle.cube.core.ratelimit.RateLimiter;
 import edu.mit.puzzle.cube.core.serverresources.AbstractCubeResource;
 
 import org.apache.shiro.SecurityUtils;
@@ -24,25 +31,36 @@ import org.apache.shiro.mgt.DefaultSubjectDAO;
 import org.restlet.Application;
 import org.restlet.Component;
 import org.restlet.Restlet;
+import org.restlet.Server;
 import org.restlet.data.Protocol;
 import org.restlet.service.CorsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 public class CubeApplication extends Application {
     private static Logger LOGGER = LoggerFactory.getLogger(CubeApplication.class);
 
+    // The number of HTTP server threads for requests other than event streams.
+    private static final int REQUEST_THREADS = 10;
+
     private final SubmissionStore submissionStore;
     private final HuntStatusStore huntStatusStore;
     private final UserStore userStore;
     private final PuzzleStore puzzleStore;
     private final HintRequestStore hintRequestStore;
-    private final CompositeEventProcessor eventProcessor;
+    private final EventProcessor<Event> eventProcessor;
+    private final EventStreamBroker eventStreamBroker;
+    private final ConnectionFactory connectionFactory;
+    private final RateLimiter submissionRateLimiter;
+    private final RateLimiter hintRequestRateLimiter;
 
+    // Processes PeriodicTimerEvents, for hunt definitions that poll for changes over time.
     private final Service timingEventService;
+    private final Service schedulerService;
 
     public CubeApplication(CubeConfig config) throws SQLException {
         CorsService corsService = new CorsService();
@@ -68,22 +86,35 @@ public class CubeApplication extends Application {
             System.exit(1);
         }
 
-        ConnectionFactory connectionFactory = serviceEnvironment.getConnectionFactory();
+        connectionFactory = serviceEnvironment.getConnectionFactory();
 
-        setupAuthentication(connectionFactory);
+        CubeJdbcRealm realm = setupAuthentication(connectionFactory);
 
-        eventProcessor = huntDefinition.generateCompositeEventProcessor();
-        submissionStore = new SubmissionStore(
-                connectionFactory,
-                eventProcessor
-        );
+        CompositeEventProcessor compositeEventProcessor = huntDefinition.generateCompositeEventProcessor();
+        if (config.getAsyncEventProcessorThreads() > 0) {
+            eventProcessor = new AsyncEventProcessor(
+                    compositeEventProcessor,
+                    config.getAsyncEventProcessorThreads()
+            );
+        } else {
+            eventProcessor = compositeEventProcessor;
+        }
         huntStatusStore = new HuntStatusStore(
                 connectionFactory,
                 huntDefinition.getVisibilityStatusSet(),
                 eventProcessor
         );
+        submissionStore = new SubmissionStore(
+                connectionFactory,
+                eventProcessor,
+                huntStatusStore,
+                config.getAutoGradeSubmissions()
+                        ? Optional.of(new AnswerIndex(huntDefinition.getPuzzles()))
+                        : Optional.empty()
+        );
         userStore = new UserStore(
-                connectionFactory
+                connectionFactory,
+                Optional.of(realm)
         );
         puzzleStore = new PuzzleStore(
                 huntDefinition.getPuzzles()
@@ -95,10 +126,25 @@ public class CubeApplication extends Application {
                 eventProcessor
         );
 
+        submissionRateLimiter = new RateLimiter(
+                Optional.ofNullable(config.getTeamRateLimit()),
+                Optional.ofNullable(config.getTeamPuzzleRateLimit())
+        );
+        hintRequestRateLimiter = new RateLimiter(
+                Optional.ofNullable(config.getTeamRateLimit()),
+                Optional.ofNullable(config.getTeamPuzzleRateLimit())
+        );
+
+        EventScheduler eventScheduler = new EventScheduler(connectionFactory, eventProcessor);
+        huntDefinition.addScheduledEvents(eventScheduler);
         huntDefinition.addToEventProcessor(
-                eventProcessor,
+                compositeEventProcessor,
                 huntStatusStore
         );
+        eventScheduler.loadScheduledEvents();
+
+        eventStreamBroker = new EventStreamBroker(config.getMaxEventStreamSubscribers());
+        compositeEventProcessor.addEventProcessor(Event.class, eventStreamBroker);
 
         timingEventService = new AbstractScheduledService() {
             @Override
@@ -116,9 +162,37 @@ public class CubeApplication extends Application {
             }
         };
         timingEventService.startAsync();
+
+        schedulerService = new AbstractScheduledService() {
+            @Override
+            protected void runOneIteration() throws Exception {
+                try {
+                    eventScheduler.fireDueEvents();
+                } catch (Exception e) {
+                    LOGGER.error("Failure while processing scheduled events", e);
+                }
+            }
+
+            @Override
+            protected Scheduler scheduler() {
+                return Scheduler.newFixedRateSchedule(
+                        0, EventScheduler.TICK_DURATION.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        };
+        schedulerService.startAsync();
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        timingEventService.stopAsync();
+        schedulerService.stopAsync();
+        if (eventProcessor instanceof AsyncEventProcessor) {
+            ((AsyncEventProcessor) eventProcessor).shutdown();
+        }
+        super.stop();
     }
 
-    private void setupAuthentication(ConnectionFactory connectionFactory) {
+    private CubeJdbcRealm setupAuthentication(ConnectionFactory connectionFactory) {
         CubeJdbcRealm realm = new CubeJdbcRealm();
         realm.setDataSource(connectionFactory.getDataSource());
 
@@ -132,6 +206,8 @@ public class CubeApplication extends Application {
         securityManager.setSubjectDAO(subjectDAO);
 
         SecurityUtils.setSecurityManager(securityManager);
+
+        return realm;
     }
 
     @Override
@@ -143,24 +219,38 @@ public class CubeApplication extends Application {
         getContext().getAttributes().put(AbstractCubeResource.PUZZLE_STORE_KEY, puzzleStore);
         getContext().getAttributes().put(AbstractCubeResource.HINT_REQUEST_STORE_KEY, hintRequestStore);
         getContext().getAttributes().put(AbstractCubeResource.EVENT_PROCESSOR_KEY, eventProcessor);
+        getContext().getAttributes().put(AbstractCubeResource.EVENT_STREAM_BROKER_KEY, eventStreamBroker);
+        getContext().getAttributes().put(AbstractCubeResource.CONNECTION_FACTORY_KEY, connectionFactory);
+        getContext().getAttributes().put(AbstractCubeResource.SUBMISSION_RATE_LIMITER_KEY, submissionRateLimiter);
+        getContext().getAttributes().put(AbstractCubeResource.HINT_REQUEST_RATE_LIMITER_KEY, hintRequestRateLimiter);
 
         return new CubeRestlet(getContext());
     }
 
-    public static void main (String[] args) throws Exception {
-        CubeConfig config = CubeConfig.readFromConfigJson();
-
+    /**
+     * Creates a Component that serves a new CubeApplication over HTTP.
+     */
+    public static Component createComponent(CubeConfig config) throws SQLException {
         // Create a new Component.
         Component component = new Component();
 
-        // Add a new HTTP server.
-        component.getServers().add(Protocol.HTTP, config.getPort());
+        // Add a new HTTP server. Open event streams each hold a thread, so the server gets a
+        // thread for each of them on top of the threads for other requests.
+        Server server = component.getServers().add(Protocol.HTTP, config.getPort());
+        server.getContext().getParameters().add(
+                "maxThreads",
+                String.valueOf(REQUEST_THREADS + config.getMaxEventStreamSubscribers()));
 
         // Attach this application.
         component.getDefaultHost().attach("", new CubeApplication(config));
+        return component;
+    }
+
+    public static void main (String[] args) throws Exception {
+        CubeConfig config = CubeConfig.readFromConfigJson();
 
         // Start the component.
-        component.start();
+        createComponent(config).start();
     }
 
 }
@@ -15,6 +15,8 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 @AutoValue
 @JsonDeserialize(builder = AutoValue_CubeConfig.Builder.class)
 public abstract class CubeConfig {
@@ -46,6 +48,26 @@ public abstract class CubeConfig {
         @JsonProperty("password") public abstract String getPassword();
     }
 
+    /**
+     * A token bucket limit: up to burst requests may be made at once, and after that requests
+     * may be made at a rate of perMinute.
+     */
+    @AutoValue
+    public static abstract class RateLimitConfig {
+        @JsonCreator
+        public static RateLimitConfig create(
+                @JsonProperty("burst") int burst,
+                @JsonProperty("perMinute") int perMinute
+        ) {
+            checkArgument(burst > 0, "The rate limit burst must be positive");
+            checkArgument(perMinute > 0, "The rate limit rate must be positive");
+            return new AutoValue_CubeConfig_RateLimitConfig(burst, perMinute);
+        }
+
+        @JsonProperty("burst") public abstract int getBurst();
+        @JsonProperty("perMinute") public abstract int getPerMinute();
+    }
+
     @AutoValue.Builder
     public static abstract class Builder {
         @JsonProperty("port") public abstract Builder setPort(int port);
@@ -53,6 +75,11 @@ public abstract class CubeConfig {
         @JsonProperty("huntDefinitionClassName") public abstract Builder setHuntDefinitionClassName(String huntDefinitionClassName);
         @JsonProperty("serviceEnvironment") public abstract Builder setServiceEnvironment(ServiceEnvironment serviceEnvironment);
         @Nullable @JsonProperty("databaseConfig") public abstract Builder setDatabaseConfig(DatabaseConfig databaseConfig);
+        @JsonProperty("asyncEventProcessorThreads") public abstract Builder setAsyncEventProcessorThreads(int asyncEventProcessorThreads);
+        @JsonProperty("autoGradeSubmissions") public abstract Builder setAutoGradeSubmissions(boolean autoGradeSubmissions);
+        @Nullable @JsonProperty("teamRateLimit") public abstract Builder setTeamRateLimit(RateLimitConfig teamRateLimit);
+        @Nullable @JsonProperty("teamPuzzleRateLimit") public abstract Builder setTeamPuzzleRateLimit(RateLimitConfig teamPuzzleRateLimit);
+        @JsonProperty("maxEventStreamSubscribers") public abstract Builder setMaxEventStreamSubscribers(int maxEventStreamSubscribers);
 
         public abstract CubeConfig build();
     }
@@ -62,7 +89,10 @@ public abstract class CubeConfig {
                 .setPort(8182)
                 .setCorsAllowedOrigins(ImmutableSet.of("http://localhost:8081"))
                 .setHuntDefinitionClassName("edu.mit.puzzle.cube.huntimpl.linearexample.LinearExampleHuntDefinition")
-                .setServiceEnvironment(ServiceEnvironment.DEVELOPMENT);
+                .setServiceEnvironment(ServiceEnvironment.DEVELOPMENT)
+                .setAsyncEventProcessorThreads(0)
+                .setAutoGradeSubmissions(false)
+                .setMaxEventStreamSubscribers(64);
     }
 
     public static CubeConfig readFromConfigJson() {
@@ -84,4 +114,37 @@ public abstract class CubeConfig {
     @JsonProperty("huntDefinitionClassName") public abstract String getHuntDefinitionClassName();
     @JsonProperty("serviceEnvironment") public abstract ServiceEnvironment getServiceEnvironment();
     @Nullable @JsonProperty("databaseConfig") public abstract DatabaseConfig getDatabaseConfig();
+
+    /**
+     * The number of threads used to process events asynchronously. If this is 0, events are
+     * processed synchronously on the thread that produced them.
+     */
+    @JsonProperty("asyncEventProcessorThreads") public abstract int getAsyncEventProcessorThreads();
+
+    /**
+     * Whether submissions are checked against the puzzles' acceptable answers as they arrive. If
+     * this is true, submissions are marked CORRECT or INCORRECT immediately, and only the ones
+     * that can't be checked automatically are left for a human to grade.
+     */
+    @JsonProperty("autoGradeSubmissions") public abstract boolean getAutoGradeSubmissions();
+
+    /**
+     * The limit on the submissions, and separately on the hint requests, that each team may make,
+     * or null for no limit.
+     */
+    @Nullable @JsonProperty("teamRateLimit") public abstract RateLimitConfig getTeamRateLimit();
+
+    /**
+     * The limit on the submissions, and separately on the hint requests, that each team may make
+     * for each puzzle, or null for no limit.
+     */
+    @Nullable @JsonProperty("teamPuzzleRateLimit") public abstract RateLimitConfig getTeamPuzzleRateLimit();
+
+    /**
+     * The number of event streams that may be open at once. Each open event stream holds one of
+     * the HTTP server's threads, so the server gets this many threads on top of the ones it uses
+     * for other requests, and further event stream requests are rejected with 503 Service
+     * Unavailable.
+     */
+    @JsonProperty("maxEventStreamSubscribers") public abstract int getMaxEventStreamSubscribers();
 }
@@ -1,5 +1,8 @@
 package edu.mit.puzzle.cube.core;
 
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.UnitOfWork;
+import edu.mit.puzzle.cube.core.metrics.CubeMetrics;
 import edu.mit.puzzle.cube.core.serverresources.*;
 
 import org.apache.shiro.SecurityUtils;
@@ -12,30 +15,69 @@ import org.restlet.Response;
 import org.restlet.data.ChallengeResponse;
 import org.restlet.data.ChallengeScheme;
 import org.restlet.data.Method;
+import org.restlet.resource.ServerResource;
 import org.restlet.routing.Filter;
 import org.restlet.routing.Router;
 import org.restlet.security.ChallengeAuthenticator;
 import org.restlet.security.Verifier;
 
 public class CubeRestlet extends Filter {
+    /**
+     * Records the latency and response status of the requests handled by one route, labelled
+     * with the route's URI template rather than the request URI so that each route has a
+     * fixed set of series.
+     */
+    private static class RouteMetricsFilter extends Filter {
+        private final String route;
+
+        private RouteMetricsFilter(Context context, String route, Class<? extends ServerResource> resourceClass) {
+            super(context);
+            this.route = route;
+            setNext(resourceClass);
+        }
+
+        @Override
+        protected int doHandle(Request request, Response response) {
+            long startNanos = System.nanoTime();
+            try {
+                return super.doHandle(request, response);
+            } finally {
+                String method = request.getMethod().getName();
+                CubeMetrics.HTTP_REQUEST_DURATION.observeNanos(
+                        System.nanoTime() - startNanos, route, method);
+                CubeMetrics.HTTP_RESPONSES.inc(
+                        route, method, Integer.toString(response.getStatus().getCode()));
+            }
+        }
+    }
+
+    private static void attach(Router router, String route, Class<? extends ServerResource> resourceClass) {
+        router.attach(route, new RouteMetricsFilter(router.getContext(), route, resourceClass));
+    }
+
     public CubeRestlet(Context context) {
         super(context);
 
         Router router = new Router(context);
-        router.attach("/authorized", AuthorizedResource.class);
-        router.attach("/events", EventsResource.class);
-        router.attach("/hintrequests", HintRequestsResource.class);
-        router.attach("/hintrequests/{id}", HintRequestResource.class);
-        router.attach("/puzzle/{id}", PuzzleResource.class);
-        router.attach("/submissions", SubmissionsResource.class);
-        router.attach("/submissions/{id}", SubmissionResource.class);
-        router.attach("/teams", TeamsResource.class);
-        router.attach("/teams/{id}", TeamResource.class);
-        router.attach("/users", UsersResource.class);
-        router.attach("/users/{id}", UserResource.class);
-        router.attach("/visibilities", VisibilitiesResource.class);
-        router.attach("/visibilities/{teamId}/{puzzleId}", VisibilityResource.class);
-        router.attach("/visibilitychanges", VisibilityChangesResource.class);
+        attach(router, "/authorized", AuthorizedResource.class);
+        attach(router, "/events", EventsResource.class);
+        attach(router, "/eventstream", EventStreamResource.class);
+        attach(router, "/hintrequestclaims", HintRequestClaimsResource.class);
+        attach(router, "/hintrequests", HintRequestsResource.class);
+        attach(router, "/hintrequests/{id}", HintRequestResource.class);
+        attach(router, "/metrics", MetricsResource.class);
+        attach(router, "/puzzle/{id}", PuzzleResource.class);
+        attach(router, "/submissionclaims", SubmissionClaimsResource.class);
+        attach(router, "/submissions", SubmissionsResource.class);
+        attach(router, "/submissions/{id}", SubmissionResource.class);
+        attach(router, "/teams", TeamsResource.class);
+        attach(router, "/teams/{id}", TeamResource.class);
+        attach(router, "/teams/{id}/snapshot", TeamSnapshotResource.class);
+        attach(router, "/users", UsersResource.class);
+        attach(router, "/users/{id}", UserResource.class);
+        attach(router, "/visibilities", VisibilitiesResource.class);
+        attach(router, "/visibilities/{teamId}/{puzzleId}", VisibilityResource.class);
+        attach(router, "/visibilitychanges", VisibilityChangesResource.class);
 
         // Create an authenticator for all routes.
         ChallengeAuthenticator authenticator = new ChallengeAuthenticator(
@@ -73,4 +115,19 @@ public class CubeRestlet extends Filter {
 
         setNext(authenticator);
     }
+
+    @Override
+    protected int doHandle(Request request, Response response) {
+        // Handle each request, including any events that it triggers, with a single database
+        // connection. The connection is returned to the pool while the request blocks on a lock
+        // or on event processing backpressure; see UnitOfWork.releasePinnedConnection.
+        ConnectionFactory connectionFactory = (ConnectionFactory) getContext().getAttributes().get(
+                AbstractCubeResource.CONNECTION_FACTORY_KEY);
+        if (connectionFactory == null) {
+            return super.doHandle(request, response);
+        }
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(connectionFactory)) {
+            return super.doHandle(request, response);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package edu.mit.puzzle.cube.core;
 
 import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
 import edu.mit.puzzle.cube.core.model.HintRequest;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
 import edu.mit.puzzle.cube.core.model.Puzzle;
@@ -29,6 +30,15 @@ public interface HuntDefinition {
             CompositeEventProcessor eventProcessor,
             HuntStatusStore huntStatusStore);
 
+    /**
+     * Gives the hunt definition an EventScheduler, for hunts that process events at a later
+     * time. This is called before addToEventProcessor, so the EventScheduler can be kept for the
+     * handlers registered there. Any event classes of the hunt definition's own that it
+     * schedules must be registered with the EventScheduler here.
+     */
+    default void addScheduledEvents(EventScheduler eventScheduler) {
+    }
+
     /**
      * @return true if this team may currently request a hint for this puzzle. Hunt definitions may
      * override this to implement behaviors such as:<p><ul>
@@ -31,4 +31,10 @@ public interface ConnectionFactory {
      */
     DataSource getDataSource();
 
+    /**
+     * Gets the SQL dialect spoken by the hunt database.
+     * @return The DatabaseDialect of the hunt database
+     */
+    DatabaseDialect getDatabaseDialect();
+
 }
@@ -1,7 +1,11 @@
 package edu.mit.puzzle.cube.core.db;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.io.Resources;
 
 import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
@@ -14,54 +18,106 @@ import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public class CubeDatabaseSchema {
     private static final String VAR_AUTO_INCREMENT_TYPE = "auto_increment_type";
     private static final String VAR_DEFAULT_VISIBILITY_STATUS = "default_visibility_status";
 
-    private final String schema;
+    /**
+     * The version of the schema created by execute. Version 1 is the tables in cube.sql with
+     * no secondary indexes, which is what databases created before schema versions were
+     * recorded contain.
+     */
+    public static final int SCHEMA_VERSION = 6;
+
+    // Scripts that create or alter the tables changed after version 1, by the schema version that
+    // changed them. They are templates, like cube.sql.
+    private static final ImmutableSortedMap<Integer, String> TABLE_SCRIPTS = ImmutableSortedMap.of(
+            3, "cube_v3.sql",
+            4, "cube_v4.sql",
+            5, "cube_v5.sql",
+            6, "cube_v6.sql");
+
+    @AutoValue
+    abstract static class Index {
+        static Index create(int version, String name, String table, List<String> columns) {
+            return new AutoValue_CubeDatabaseSchema_Index(
+                    version, name, table, ImmutableList.copyOf(columns), Optional.empty());
+        }
+
+        static Index createPartial(
+                int version,
+                String name,
+                String table,
+                List<String> columns,
+                String where
+        ) {
+            return new AutoValue_CubeDatabaseSchema_Index(
+                    version, name, table, ImmutableList.copyOf(columns), Optional.of(where));
+        }
+
+        // The schema version that added this index.
+        abstract int getVersion();
+        abstract String getName();
+        abstract String getTable();
+        abstract ImmutableList<String> getColumns();
+        // For a partial index, the condition a row must satisfy to be included.
+        abstract Optional<String> getWhere();
+    }
+
+    // The WHERE clause of a partial index has to appear verbatim in a query's WHERE clause for
+    // the query to be able to use the index, so these must be kept in sync with the stores.
+    static final List<Index> INDEXES = ImmutableList.of(
+            Index.create(2, "submissions_team_puzzle", "submissions",
+                    ImmutableList.of("teamId", "puzzleId", "submissionId")),
+            Index.create(2, "submissions_status", "submissions",
+                    ImmutableList.of("status", "submissionId")),
+            Index.create(2, "submissions_caller", "submissions",
+                    ImmutableList.of("callerUsername", "submissionId")),
+            // Covers the solved puzzle queries, so that they never have to read the table.
+            Index.createPartial(2, "submissions_solved", "submissions",
+                    ImmutableList.of("teamId", "puzzleId", "canonicalAnswer"),
+                    "canonicalAnswer IS NOT NULL"),
+            Index.create(2, "visibilities_puzzle", "visibilities",
+                    ImmutableList.of("puzzleId")),
+            Index.create(2, "visibility_history_team_puzzle", "visibility_history",
+                    ImmutableList.of("teamId", "puzzleId", "timestamp")),
+            Index.create(2, "visibility_history_timestamp", "visibility_history",
+                    ImmutableList.of("timestamp")),
+            Index.create(2, "hint_requests_team_puzzle", "hint_requests",
+                    ImmutableList.of("teamId", "puzzleId")),
+            Index.create(2, "hint_requests_status", "hint_requests",
+                    ImmutableList.of("status", "hintRequestId"))
+    );
+
+    private final DatabaseDialect databaseDialect;
+    private final StrSubstitutor schemaSubstitutor;
 
     public CubeDatabaseSchema(String jdbcDriverClassName, VisibilityStatusSet visibilityStatusSet) {
+        databaseDialect = DatabaseDialect.forDriverClassName(jdbcDriverClassName);
         Map<String, String> schemaTemplateMap = new HashMap<>();
         schemaTemplateMap.put(
                 VAR_DEFAULT_VISIBILITY_STATUS,
                 visibilityStatusSet.getDefaultVisibilityStatus()
         );
-        switch (jdbcDriverClassName) {
-        case "org.sqlite.JDBC":
-            schemaTemplateMap.put(VAR_AUTO_INCREMENT_TYPE, "INTEGER");
-            break;
-        case "org.postgresql.Driver":
-            schemaTemplateMap.put(VAR_AUTO_INCREMENT_TYPE, "SERIAL");
-            break;
-        case "com.mysql.jdbc.Driver":
-            schemaTemplateMap.put(VAR_AUTO_INCREMENT_TYPE, "INT NOT NULL AUTO_INCREMENT");
-            break;
-        default:
-            throw new RuntimeException(
-                    "Unsupported database driver: " + jdbcDriverClassName);
-        }
+        schemaTemplateMap.put(
+                VAR_AUTO_INCREMENT_TYPE,
+                databaseDialect.getAutoIncrementType()
+        );
 
-        URL schemaUrl = Resources.getResource("cube.sql");
-        String schemaTemplate;
-        try {
-            schemaTemplate = Resources.toString(schemaUrl, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        schema = new StrSubstitutor(schemaTemplateMap).replace(schemaTemplate);
+        schemaSubstitutor = new StrSubstitutor(schemaTemplateMap);
     }
 
     public void execute(Connection connection) throws SQLException {
-        Splitter schemaSplitter = Splitter.on(";").omitEmptyStrings().trimResults();
-        for (String schemaStatement : schemaSplitter.split(schema)) {
-            try (PreparedStatement statement = connection.prepareStatement(schemaStatement)) {
-                statement.execute();
-            }
-        }
+        executeScript(connection, "cube.sql");
+        upgradeFrom(connection, 1);
+        createVersionTable(connection);
 
         try (
                 PreparedStatement insertRole = connection.prepareStatement(
@@ -82,4 +138,111 @@ public class CubeDatabaseSchema {
             }
         }
     }
+
+    /**
+     * Brings a database created by an older version of Cube up to SCHEMA_VERSION, by creating
+     * the tables and indexes that were added since the version recorded in the database.
+     *
+     * @return The version the database was at before upgrading.
+     */
+    public int upgrade(Connection connection) throws SQLException {
+        int version = getVersion(connection);
+        if (version >= SCHEMA_VERSION) {
+            return version;
+        }
+        upgradeFrom(connection, version);
+        if (version == 1) {
+            createVersionTable(connection);
+        } else {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE schema_version SET version = ?")) {
+                statement.setInt(1, SCHEMA_VERSION);
+                statement.executeUpdate();
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return The schema version recorded in the database, or 1 if none is recorded.
+     */
+    public static int getVersion(Connection connection) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(
+                null, null, "schema_version", null)) {
+            if (!tables.next()) {
+                return 1;
+            }
+        }
+        try (
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT version FROM schema_version");
+                ResultSet resultSet = statement.executeQuery()
+        ) {
+            if (!resultSet.next()) {
+                throw new RuntimeException("The schema_version table is empty");
+            }
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void createVersionTable(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "CREATE TABLE schema_version (version INTEGER)")) {
+            statement.execute();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO schema_version (version) VALUES (?)")) {
+            statement.setInt(1, SCHEMA_VERSION);
+            statement.executeUpdate();
+        }
+    }
+
+    private void executeScript(Connection connection, String scriptName) throws SQLException {
+        URL scriptUrl = Resources.getResource(scriptName);
+        String scriptTemplate;
+        try {
+            scriptTemplate = Resources.toString(scriptUrl, Charsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String script = schemaSubstitutor.replace(scriptTemplate);
+        Splitter scriptSplitter = Splitter.on(";").omitEmptyStrings().trimResults();
+        for (String scriptStatement : scriptSplitter.split(script)) {
+            try (PreparedStatement statement = connection.prepareStatement(scriptStatement)) {
+                statement.execute();
+            }
+        }
+    }
+
+    private void upgradeFrom(Connection connection, int fromVersion) throws SQLException {
+        for (int version = fromVersion + 1; version <= SCHEMA_VERSION; ++version) {
+            if (TABLE_SCRIPTS.containsKey(version)) {
+                executeScript(connection, TABLE_SCRIPTS.get(version));
+            }
+            createIndexes(connection, version);
+        }
+    }
+
+    private void createIndexes(Connection connection, int version) throws SQLException {
+        for (Index index : INDEXES) {
+            if (index.getVersion() != version) {
+                continue;
+            }
+            // Indexing every row instead would mostly duplicate the full indexes, so skip it.
+            if (index.getWhere().isPresent() && !databaseDialect.supportsPartialIndexes()) {
+                continue;
+            }
+            String sql = String.format(
+                    "CREATE INDEX %s ON %s (%s)",
+                    index.getName(),
+                    index.getTable(),
+                    Joiner.on(", ").join(index.getColumns()));
+            if (index.getWhere().isPresent()) {
+                sql += " WHERE " + index.getWhere().get();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.execute();
+            }
+        }
+    }
 }
@@ -1,25 +1,152 @@
 package edu.mit.puzzle.cube.core.db;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.authc.credential.HashedCredentialsMatcher;
+import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.realm.jdbc.JdbcRealm;
+import org.apache.shiro.subject.PrincipalCollection;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A JdbcRealm for the Cube users tables.
+ *
+ * Clients authenticate on every request, so successfully verified credentials and the
+ * authorization info of each user are cached for a short time. Credentials are cached as a
+ * salted digest, and a cached entry is only used when the presented credentials have the same
+ * digest. Anything that changes a user's password, roles or permissions must call
+ * clearCachedUser.
+ */
 public class CubeJdbcRealm extends JdbcRealm {
 
+    private static final long MAXIMUM_CACHED_USERS = 10000;
+    private static final long CACHE_EXPIRATION_MINUTES = 5;
+
+    private static class VerifiedCredentials {
+        private final byte[] credentialsDigest;
+        private final AuthenticationInfo authenticationInfo;
+
+        private VerifiedCredentials(byte[] credentialsDigest, AuthenticationInfo authenticationInfo) {
+            this.credentialsDigest = credentialsDigest;
+            this.authenticationInfo = authenticationInfo;
+        }
+    }
+
+    private final Cache<String, VerifiedCredentials> verifiedCredentialsCache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_USERS)
+            .expireAfterWrite(CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private final Cache<String, AuthorizationInfo> authorizationInfoCache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_USERS)
+            .expireAfterWrite(CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    // Incremented whenever a user is cleared, so that credentials read from the database before
+    // the user changed are not cached after the change.
+    private final AtomicLong cacheGeneration = new AtomicLong();
+    private final ThreadLocal<Long> authenticationGeneration = new ThreadLocal<>();
+
+    private final byte[] credentialsDigestSalt = new byte[32];
+
     public CubeJdbcRealm() {
         super();
         setCredentialsMatcher(new HashedCredentialsMatcher("SHA-512"));
         setAuthorizationCachingEnabled(false);
         setPermissionsLookupEnabled(true);
         setSaltStyle(JdbcRealm.SaltStyle.COLUMN);
+        new SecureRandom().nextBytes(credentialsDigestSalt);
+    }
+
+    /**
+     * Discards any cached credentials and authorization info for a user.
+     */
+    public void clearCachedUser(String username) {
+        cacheGeneration.incrementAndGet();
+        verifiedCredentialsCache.invalidate(username);
+        authorizationInfoCache.invalidate(username);
+    }
+
+    @Override
+    protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token)
+            throws AuthenticationException {
+        if (token instanceof UsernamePasswordToken) {
+            UsernamePasswordToken usernamePasswordToken = (UsernamePasswordToken) token;
+            VerifiedCredentials verifiedCredentials =
+                    verifiedCredentialsCache.getIfPresent(usernamePasswordToken.getUsername());
+            if (verifiedCredentials != null && MessageDigest.isEqual(
+                    verifiedCredentials.credentialsDigest, digestCredentials(usernamePasswordToken))) {
+                authenticationGeneration.remove();
+                return verifiedCredentials.authenticationInfo;
+            }
+        }
+        authenticationGeneration.set(cacheGeneration.get());
+        return super.doGetAuthenticationInfo(token);
+    }
+
+    @Override
+    protected void assertCredentialsMatch(AuthenticationToken token, AuthenticationInfo info)
+            throws AuthenticationException {
+        Long generation = authenticationGeneration.get();
+        if (generation == null) {
+            // The credentials were already verified and cached.
+            return;
+        }
+        authenticationGeneration.remove();
+
+        super.assertCredentialsMatch(token, info);
+
+        if (token instanceof UsernamePasswordToken && generation == cacheGeneration.get()) {
+            UsernamePasswordToken usernamePasswordToken = (UsernamePasswordToken) token;
+            verifiedCredentialsCache.put(
+                    usernamePasswordToken.getUsername(),
+                    new VerifiedCredentials(digestCredentials(usernamePasswordToken), info));
+        }
+    }
+
+    @Override
+    protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+        String username = (String) getAvailablePrincipal(principals);
+        long generation = cacheGeneration.get();
+        AuthorizationInfo authorizationInfo = authorizationInfoCache.getIfPresent(username);
+        if (authorizationInfo == null) {
+            authorizationInfo = super.doGetAuthorizationInfo(principals);
+            if (generation == cacheGeneration.get()) {
+                authorizationInfoCache.put(username, authorizationInfo);
+            }
+        }
+        return authorizationInfo;
+    }
+
+    private byte[] digestCredentials(UsernamePasswordToken token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(credentialsDigestSalt);
+            ByteBuffer password = StandardCharsets.UTF_8.encode(CharBuffer.wrap(token.getPassword()));
+            digest.update(password);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     protected Set<String> getPermissions(
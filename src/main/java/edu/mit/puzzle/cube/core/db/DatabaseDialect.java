@@ -0,0 +1,127 @@
+package edu.mit.puzzle.cube.core.db;
+
+import com.google.common.base.Joiner;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The flavors of SQL that Cube supports, and the places where their syntax differs.
+ */
+public enum DatabaseDialect {
+    SQLITE("org.sqlite.JDBC", "INTEGER", true),
+    POSTGRESQL("org.postgresql.Driver", "SERIAL", true),
+    MYSQL("com.mysql.jdbc.Driver", "INT NOT NULL AUTO_INCREMENT", false);
+
+    private final String driverClassName;
+    private final String autoIncrementType;
+    private final boolean supportsPartialIndexes;
+
+    DatabaseDialect(String driverClassName, String autoIncrementType, boolean supportsPartialIndexes) {
+        this.driverClassName = driverClassName;
+        this.autoIncrementType = autoIncrementType;
+        this.supportsPartialIndexes = supportsPartialIndexes;
+    }
+
+    public static DatabaseDialect forDriverClassName(String driverClassName) {
+        for (DatabaseDialect dialect : values()) {
+            if (dialect.driverClassName.equals(driverClassName)) {
+                return dialect;
+            }
+        }
+        throw new RuntimeException("Unsupported database driver: " + driverClassName);
+    }
+
+    public String getDriverClassName() {
+        return driverClassName;
+    }
+
+    /**
+     * @return The column type to use for an auto incrementing integer primary key.
+     */
+    public String getAutoIncrementType() {
+        return autoIncrementType;
+    }
+
+    /**
+     * @return Whether CREATE INDEX accepts a WHERE clause restricting the index to some rows.
+     */
+    public boolean supportsPartialIndexes() {
+        return supportsPartialIndexes;
+    }
+
+    /**
+     * @return Whether UPDATE statements accept a RETURNING clause that returns the updated rows.
+     */
+    public boolean supportsUpdateReturning() {
+        return this == POSTGRESQL;
+    }
+
+    /**
+     * @return Whether SELECT ... FOR UPDATE accepts SKIP LOCKED, so that concurrent transactions
+     * can each lock a different set of rows instead of waiting for each other.
+     */
+    public boolean supportsSkipLocked() {
+        return this == POSTGRESQL || this == MYSQL;
+    }
+
+    /**
+     * @return Whether a query only fetches rows in batches of the statement's fetch size, using a
+     * server-side cursor, when it runs inside a transaction rather than in auto-commit mode.
+     */
+    public boolean requiresTransactionForCursor() {
+        return this == POSTGRESQL;
+    }
+
+    /**
+     * Translates the number of rows a streaming query should fetch at a time into the fetch
+     * size to set on its statement.
+     */
+    public int getStreamingFetchSize(int fetchSize) {
+        switch (this) {
+        case SQLITE:
+        case POSTGRESQL:
+            return fetchSize;
+        case MYSQL:
+            // Connector/J either reads the whole result into memory, or streams it one row at a
+            // time when the fetch size is exactly Integer.MIN_VALUE.
+            return Integer.MIN_VALUE;
+        default:
+            throw new IllegalStateException("Unhandled database dialect " + this);
+        }
+    }
+
+    /**
+     * Builds an INSERT statement that silently does nothing if a row with the same key already
+     * exists, instead of failing with a constraint violation.
+     *
+     * @param table The table to insert into
+     * @param columns The columns to insert; the statement has one parameter for each
+     * @param keyColumns The columns of the primary key or unique constraint that may conflict
+     * @return The prepared INSERT statement
+     */
+    public String insertIgnoringDuplicates(String table, List<String> columns, List<String> keyColumns) {
+        String columnList = Joiner.on(", ").join(columns);
+        String valueList = Joiner.on(", ").join(Collections.nCopies(columns.size(), "?"));
+        switch (this) {
+        case SQLITE:
+            // The SQLite versions we support predate the ON CONFLICT upsert clause.
+            return String.format(
+                    "INSERT OR IGNORE INTO %s (%s) VALUES (%s)",
+                    table, columnList, valueList);
+        case POSTGRESQL:
+            return String.format(
+                    "INSERT INTO %s (%s) VALUES (%s) ON CONFLICT (%s) DO NOTHING",
+                    table, columnList, valueList, Joiner.on(", ").join(keyColumns));
+        case MYSQL:
+            return String.format(
+                    "INSERT INTO %s (%s) VALUES (%s) ON DUPLICATE KEY UPDATE %s",
+                    table, columnList, valueList, Joiner.on(", ").join(keyColumns.stream()
+                            .map(column -> String.format("%s = %s", column, column))
+                            .collect(Collectors.toList())));
+        default:
+            throw new IllegalStateException("Unhandled database dialect " + this);
+        }
+    }
+}
@@ -1,28 +1,33 @@
 package edu.mit.puzzle.cube.core.db;
 
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
 
+import edu.mit.puzzle.cube.core.metrics.CubeMetrics;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.time.Instant;
-import java.time.temporal.ChronoField;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
 
 /**
  * DatabaseHelper is a class of static methods that wrap common calls to query or update
@@ -31,13 +36,53 @@ import java.util.stream.IntStream;
  * annoying.
  *
  * This class makes some assumptions about how you want queried data back through its heavy
- * uses of the Google Guava interface Table<R,C,V>. This also assumes that retrieved data is
- * small enough to fit within the JVM memory, but this should be true for Mystery Hunts. (If
- * it's not, please reconsider the size/complexity of what you're doing.)
+ * uses of the Google Guava interface Table<R,C,V>. Most methods also assume that retrieved data
+ * is small enough to fit within the JVM memory, but this should be true for Mystery Hunts. (If
+ * it's not, please reconsider the size/complexity of what you're doing.) For the few reads that
+ * cover the whole history of a hunt, queryStream and queryForEach fetch rows in batches and map
+ * them one at a time instead.
  */
 public class DatabaseHelper {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
-            .configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
+
+    /**
+     * The number of rows that streaming queries fetch from the database at a time by default.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /**
+     * Records the duration, row count and outcome of one statement in CubeMetrics. The duration
+     * includes getting a Connection, which CubeMetrics also records on its own.
+     */
+    private static class QueryTimer {
+        private final String fingerprint;
+        private final long startNanos = System.nanoTime();
+        private boolean recorded = false;
+
+        private QueryTimer(String sql) {
+            fingerprint = CubeMetrics.sqlFingerprint(sql);
+        }
+
+        private void succeeded(long rows) {
+            if (record()) {
+                CubeMetrics.DB_QUERY_ROWS.observe(rows, fingerprint);
+            }
+        }
+
+        private void failed() {
+            if (record()) {
+                CubeMetrics.DB_QUERY_ERRORS.inc(fingerprint);
+            }
+        }
+
+        private boolean record() {
+            if (recorded) {
+                return false;
+            }
+            recorded = true;
+            CubeMetrics.DB_QUERY_DURATION.observeNanos(System.nanoTime() - startNanos, fingerprint);
+            return true;
+        }
+    }
 
     /**
      * Queries a database (connected to by a Connection from ConnectionFactory) with the given
@@ -116,8 +161,42 @@ public class DatabaseHelper {
         List<Object> parameters,
         Function<ResultSet,KEY_TYPE> keyFunction
     ) {
-        try (Connection connection = connectionFactory.getConnection();
-             PreparedStatement statement = connection.prepareStatement(preparedQuery)) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return query(connection, preparedQuery, parameters, keyFunction);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Queries a database on a Connection that the caller manages, so that the query can be part
+     * of a larger transaction. The rows are keyed by their position in the results.
+     *
+     * @param connection The Connection to run the query on
+     * @param preparedQuery A String with a SELECT query
+     * @param parameters The parameters to go into the query. If there are no parameters, pass in an empty List.
+     * @return A Table with results. Row keys are Integers, column keys are the SELECTed columns.
+     * @throws SQLException
+     */
+    public static Table<Integer,String,Object> query(
+            Connection connection,
+            String preparedQuery,
+            List<Object> parameters
+    ) throws SQLException {
+        AtomicInteger counter = new AtomicInteger(0);
+        Function<ResultSet,Integer> keyFunction = rs -> counter.getAndIncrement();
+
+        return query(connection, preparedQuery, parameters, keyFunction);
+    }
+
+    private static <KEY_TYPE> Table<KEY_TYPE,String,Object> query(
+            Connection connection,
+            String preparedQuery,
+            List<Object> parameters,
+            Function<ResultSet,KEY_TYPE> keyFunction
+    ) throws SQLException {
+        QueryTimer timer = new QueryTimer(preparedQuery);
+        try (PreparedStatement statement = connection.prepareStatement(preparedQuery)) {
 
             for (int i = 0; i < parameters.size(); ++i) {
                 statement.setObject(i + 1, parameters.get(i));
@@ -130,7 +209,9 @@ public class DatabaseHelper {
             }
 
             ImmutableTable.Builder<KEY_TYPE,String,Object> tableBuilder = ImmutableTable.builder();
+            int rows = 0;
             while (rs.next()) {
+                ++rows;
                 KEY_TYPE rowKey = keyFunction.apply(rs);
                 for (String columnKey : columnKeys) {
                     Object value = rs.getObject(columnKey);
@@ -140,10 +221,12 @@ public class DatabaseHelper {
                 }
             }
 
+            timer.succeeded(rows);
             return tableBuilder.build();
 
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            timer.failed();
+            throw e;
         }
 
     }
@@ -154,36 +237,173 @@ public class DatabaseHelper {
             List<Object> parameters,
             Class<MODEL_TYPE> resultClass
     ) {
-        try (
-                Connection connection = connectionFactory.getConnection();
-                PreparedStatement statement = connection.prepareStatement(preparedQuery)
-        ) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return query(connection, preparedQuery, parameters, resultClass);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Queries a database on a Connection that the caller manages, so that the query can be part
+     * of a larger transaction, and maps each row to the given model class.
+     *
+     * @param connection The Connection to run the query on
+     * @param preparedQuery A String with a SELECT query
+     * @param parameters The parameters to go into the query. If there are no parameters, pass in an empty List.
+     * @param resultClass The model class that rows are mapped to
+     * @return The mapped rows, in the order the query returns them
+     * @throws SQLException
+     */
+    public static <MODEL_TYPE> List<MODEL_TYPE> query(
+            Connection connection,
+            String preparedQuery,
+            List<Object> parameters,
+            Class<MODEL_TYPE> resultClass
+    ) throws SQLException {
+        QueryTimer timer = new QueryTimer(preparedQuery);
+        try (PreparedStatement statement = connection.prepareStatement(preparedQuery)) {
             for (int i = 0; i < parameters.size(); ++i) {
                 statement.setObject(i + 1, parameters.get(i));
             }
             ResultSet rs = statement.executeQuery();
 
+            RowMapper<MODEL_TYPE> rowMapper = RowMappers.forResultSet(rs.getMetaData(), resultClass);
             ImmutableList.Builder<MODEL_TYPE> results = ImmutableList.builder();
             while (rs.next()) {
-                ObjectNode objectNode = OBJECT_MAPPER.createObjectNode();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    Object value;
-                    switch (rs.getMetaData().getColumnType(i)) {
-                    case Types.TIMESTAMP:
-                        Instant instant = rs.getTimestamp(i).toInstant();
-                        value = instant.getLong(ChronoField.INSTANT_SECONDS) * 1000
-                                + instant.getLong(ChronoField.MILLI_OF_SECOND);
-                        break;
-                    default:
-                        value = rs.getObject(i);
-                        break;
+                results.add(rowMapper.map(rs));
+            }
+
+            List<MODEL_TYPE> resultList = results.build();
+            timer.succeeded(resultList.size());
+            return resultList;
+        } catch (SQLException e) {
+            timer.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * Queries a database and passes each resulting row, mapped to the given model class, to a
+     * callback as it is read, so that large results never have to be held in memory at once.
+     * The connection stays open until the callback has seen every row, so the callback should
+     * not block for long.
+     *
+     * @param connectionFactory Provides a Connection to the database
+     * @param preparedQuery A String with a SELECT query
+     * @param parameters The parameters to go into the query. If there are no parameters, pass in an empty List.
+     * @param resultClass The model class that rows are mapped to
+     * @param consumer Called with each row, in the order the query returns them
+     */
+    public static <MODEL_TYPE> void queryForEach(
+            ConnectionFactory connectionFactory,
+            String preparedQuery,
+            List<Object> parameters,
+            Class<MODEL_TYPE> resultClass,
+            Consumer<? super MODEL_TYPE> consumer
+    ) {
+        try (Stream<MODEL_TYPE> results = queryStream(
+                connectionFactory, preparedQuery, parameters, resultClass, DEFAULT_FETCH_SIZE)) {
+            results.forEachOrdered(consumer);
+        }
+    }
+
+    /**
+     * Queries a database and returns a Stream that maps each resulting row to the given model
+     * class as it is consumed. Rows are fetched from the database fetchSize at a time. On
+     * PostgreSQL, the query runs inside a transaction so that the driver uses a server-side
+     * cursor; on MySQL, rows are streamed one at a time.
+     *
+     * The Stream holds a Connection until it is closed, so it must be used in a
+     * try-with-resources block, and should be consumed promptly.
+     *
+     * @param connectionFactory Provides a Connection to the database
+     * @param preparedQuery A String with a SELECT query
+     * @param parameters The parameters to go into the query. If there are no parameters, pass in an empty List.
+     * @param resultClass The model class that rows are mapped to
+     * @param fetchSize The number of rows to fetch from the database at a time
+     * @return A sequential, ordered Stream of the mapped rows
+     */
+    public static <MODEL_TYPE> Stream<MODEL_TYPE> queryStream(
+            ConnectionFactory connectionFactory,
+            String preparedQuery,
+            List<Object> parameters,
+            Class<MODEL_TYPE> resultClass,
+            int fetchSize
+    ) {
+        QueryTimer timer = new QueryTimer(preparedQuery);
+        DatabaseDialect dialect = connectionFactory.getDatabaseDialect();
+        Connection connection = null;
+        boolean startedTransaction = false;
+        PreparedStatement statement = null;
+        try {
+            connection = connectionFactory.getConnection();
+            if (dialect.requiresTransactionForCursor() && connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                startedTransaction = true;
+            }
+            statement = connection.prepareStatement(
+                    preparedQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(dialect.getStreamingFetchSize(fetchSize));
+            for (int i = 0; i < parameters.size(); ++i) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            ResultSet rs = statement.executeQuery();
+            RowMapper<MODEL_TYPE> rowMapper = RowMappers.forResultSet(rs.getMetaData(), resultClass);
+
+            AtomicInteger rows = new AtomicInteger(0);
+            Spliterator<MODEL_TYPE> spliterator = new Spliterators.AbstractSpliterator<MODEL_TYPE>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super MODEL_TYPE> action) {
+                    try {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        rows.incrementAndGet();
+                        action.accept(rowMapper.map(rs));
+                        return true;
+                    } catch (SQLException e) {
+                        timer.failed();
+                        throw new RuntimeException(e);
                     }
-                    objectNode.putPOJO(rs.getMetaData().getColumnName(i), value);
                 }
-                results.add(OBJECT_MAPPER.convertValue(objectNode, resultClass));
+            };
+            Connection streamConnection = connection;
+            PreparedStatement streamStatement = statement;
+            boolean streamStartedTransaction = startedTransaction;
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                timer.succeeded(rows.get());
+                closeQueryStream(streamConnection, streamStatement, streamStartedTransaction);
+            });
+        } catch (SQLException | RuntimeException e) {
+            timer.failed();
+            if (connection != null) {
+                try {
+                    closeQueryStream(connection, statement, startedTransaction);
+                } catch (RuntimeException closeException) {
+                    e.addSuppressed(closeException);
+                }
             }
+            Throwables.propagateIfPossible(e);
+            throw new RuntimeException(e);
+        }
+    }
 
-            return results.build();
+    private static void closeQueryStream(
+            Connection connection,
+            @Nullable PreparedStatement statement,
+            boolean startedTransaction
+    ) {
+        try (Connection c = connection) {
+            if (statement != null) {
+                statement.close();
+            }
+            if (startedTransaction) {
+                // Nothing was written, so ending the transaction either way is equivalent.
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -194,9 +414,40 @@ public class DatabaseHelper {
             String preparedUpdate,
             List<List<Object>> parameterLists
     ) {
-        try (Connection connection = connectionFactory.getConnection();
-             PreparedStatement statement = connection.prepareStatement(preparedUpdate)) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            connection.setAutoCommit(false);
+            List<Integer> updatedRows = updateBatch(connection, preparedUpdate, parameterLists);
+            connection.setAutoCommit(true);
 
+            return updatedRows;
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Executes a batch update on a Connection that the caller manages, so that the batch can
+     * be part of a larger transaction. The Connection's auto-commit mode is left untouched.
+     *
+     * @param connection The Connection to execute the batch on
+     * @param preparedUpdate A String with an UPDATE (or INSERT) statement
+     * @param parameterLists The parameters for each execution of the statement
+     * @return The number of rows updated by each execution of the statement, or
+     *         Statement.SUCCESS_NO_INFO if the driver doesn't report it. Use isUpdated to tell
+     *         whether an execution updated anything.
+     * @throws SQLException
+     */
+    public static List<Integer> updateBatch(
+            Connection connection,
+            String preparedUpdate,
+            List<List<Object>> parameterLists
+    ) throws SQLException {
+        if (parameterLists.isEmpty()) {
+            return ImmutableList.of();
+        }
+        QueryTimer timer = new QueryTimer(preparedUpdate);
+        try (PreparedStatement statement = connection.prepareStatement(preparedUpdate)) {
             for (List<Object> parameters : parameterLists) {
                 for (int i = 0; i < parameters.size(); ++i) {
                     statement.setObject(i + 1, parameters.get(i));
@@ -204,50 +455,107 @@ public class DatabaseHelper {
                 statement.addBatch();
             }
 
-            connection.setAutoCommit(false);
             int[] updatedRowsArray = statement.executeBatch();
-            connection.setAutoCommit(true);
 
+            // Drivers may report SUCCESS_NO_INFO, which is negative, instead of a row count.
+            timer.succeeded(IntStream.of(updatedRowsArray).filter(n -> n > 0).sum());
             return IntStream.of(updatedRowsArray).boxed().collect(Collectors.toList());
-
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            timer.failed();
+            throw e;
         }
     }
 
+    /**
+     * @param updateCount The number of rows updated by one execution of a batch update
+     * @return true unless the execution is known not to have updated any rows. A driver that
+     *         reports Statement.SUCCESS_NO_INFO only says that the execution succeeded, so it is
+     *         taken to have updated its rows.
+     */
+    public static boolean isUpdated(int updateCount) {
+        return updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO;
+    }
+
     public static Integer update(
             ConnectionFactory connectionFactory,
             String preparedUpdate,
             List<Object> parameters
     ) {
-        try (Connection connection = connectionFactory.getConnection();
-             PreparedStatement statement = connection.prepareStatement(preparedUpdate)) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return update(connection, preparedUpdate, parameters);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Executes an update on a Connection that the caller manages, so that the update can be part
+     * of a larger transaction. The Connection's auto-commit mode is left untouched.
+     *
+     * @param connection The Connection to execute the update on
+     * @param preparedUpdate A String with an UPDATE (or INSERT) statement
+     * @param parameters The parameters to go into the statement
+     * @return The number of rows updated
+     * @throws SQLException
+     */
+    public static Integer update(
+            Connection connection,
+            String preparedUpdate,
+            List<Object> parameters
+    ) throws SQLException {
+        QueryTimer timer = new QueryTimer(preparedUpdate);
+        try (PreparedStatement statement = connection.prepareStatement(preparedUpdate)) {
 
             for (int i = 0; i < parameters.size(); ++i) {
                 statement.setObject(i + 1, parameters.get(i));
             }
 
-            return statement.executeUpdate();
+            int updatedRows = statement.executeUpdate();
+            timer.succeeded(updatedRows);
+            return updatedRows;
 
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            timer.failed();
+            throw e;
         }
     }
 
-
     public static Optional<Integer> insert(
             ConnectionFactory connectionFactory,
             String preparedInsert,
             List<Object> parameters
     ) {
-        try (Connection connection = connectionFactory.getConnection();
-             PreparedStatement statement = connection.prepareStatement(preparedInsert, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return insert(connection, preparedInsert, parameters);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Executes an insert on a Connection that the caller manages, so that the insert can be part
+     * of a larger transaction. The Connection's auto-commit mode is left untouched.
+     *
+     * @param connection The Connection to execute the insert on
+     * @param preparedInsert A String with an INSERT statement
+     * @param parameters The parameters to go into the statement
+     * @return The generated key of the inserted row, or empty if nothing was inserted
+     * @throws SQLException
+     */
+    public static Optional<Integer> insert(
+            Connection connection,
+            String preparedInsert,
+            List<Object> parameters
+    ) throws SQLException {
+        QueryTimer timer = new QueryTimer(preparedInsert);
+        try (PreparedStatement statement = connection.prepareStatement(preparedInsert, Statement.RETURN_GENERATED_KEYS)) {
 
             for (int i = 0; i < parameters.size(); ++i) {
                 statement.setObject(i + 1, parameters.get(i));
             }
 
             int updates = statement.executeUpdate();
+            timer.succeeded(updates);
             if (updates < 1) {
                 return Optional.empty();
             }
@@ -262,7 +570,8 @@ public class DatabaseHelper {
             return insertedId;
 
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            timer.failed();
+            throw e;
         }
     }
 
@@ -271,22 +580,30 @@ public class DatabaseHelper {
             String preparedInsert,
             List<List<Object>> parameterLists
     ) {
-        try (Connection connection = connectionFactory.getConnection();
-             PreparedStatement statement = connection.prepareStatement(preparedInsert)) {
-
-            for (List<Object> parameters : parameterLists) {
-                for (int i = 0; i < parameters.size(); ++i) {
-                    statement.setObject(i + 1, parameters.get(i));
-                }
-                statement.addBatch();
-            }
-
+        try (Connection connection = connectionFactory.getConnection()) {
             connection.setAutoCommit(false);
-            statement.executeBatch();
+            insertBatch(connection, preparedInsert, parameterLists);
             connection.setAutoCommit(true);
 
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Executes a batch insert on a Connection that the caller manages, so that the batch can
+     * be part of a larger transaction. The Connection's auto-commit mode is left untouched.
+     *
+     * @param connection The Connection to execute the batch on
+     * @param preparedInsert A String with an INSERT statement
+     * @param parameterLists The parameters for each row to insert
+     * @throws SQLException
+     */
+    public static void insertBatch(
+            Connection connection,
+            String preparedInsert,
+            List<List<Object>> parameterLists
+    ) throws SQLException {
+        updateBatch(connection, preparedInsert, parameterLists);
+    }
 }
@@ -80,7 +80,7 @@ public class InMemoryConnectionFactory implements ConnectionFactory {
 
     @Override
     public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        return UnitOfWork.getConnection(this, dataSource);
     }
 
     @Override
@@ -88,6 +88,11 @@ public class InMemoryConnectionFactory implements ConnectionFactory {
         return dataSource;
     }
 
+    @Override
+    public DatabaseDialect getDatabaseDialect() {
+        return DatabaseDialect.SQLITE;
+    }
+
     //The initial configuration takes in lists of team ids, puzzle ids and users to preload the
     //database. For a production off-box database, this wouldn't be necessary because you'd
     //just load the data there, but for an in-memory database, we need to set it up in code.
@@ -98,7 +103,7 @@ public class InMemoryConnectionFactory implements ConnectionFactory {
             List<User> userList
     ) {
         CubeDatabaseSchema cubeDatabaseSchema = new CubeDatabaseSchema(
-                "org.sqlite.JDBC",
+                getDatabaseDialect().getDriverClassName(),
                 visibilityStatusSet
         );
         try (Connection connection = getConnection()) {
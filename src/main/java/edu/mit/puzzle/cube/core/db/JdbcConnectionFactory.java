@@ -14,6 +14,10 @@ import javax.sql.DataSource;
  */
 @AutoValue
 public abstract class JdbcConnectionFactory implements ConnectionFactory {
+    private static final int MAX_OPEN_PREPARED_STATEMENTS_PER_CONNECTION = 100;
+    // Fail a request rather than hang forever if the pool stays exhausted.
+    private static final long MAX_CONNECTION_WAIT_MILLIS = 30000;
+
     @AutoValue.Builder
     public static abstract class Builder {
         public abstract Builder setDriverClassName(String driverClassName);
@@ -45,6 +49,12 @@ public abstract class JdbcConnectionFactory implements ConnectionFactory {
 
             dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
 
+            // The stores prepare the same few statements over and over, so keep them prepared
+            // on each pooled connection.
+            dataSource.setPoolPreparedStatements(true);
+            dataSource.setMaxOpenPreparedStatements(MAX_OPEN_PREPARED_STATEMENTS_PER_CONNECTION);
+            dataSource.setMaxWait(MAX_CONNECTION_WAIT_MILLIS);
+
             if (getDriverClassName().equals("org.sqlite.JDBC")) {
                 dataSource.addConnectionProperty("foreign_keys", "true");
             }
@@ -64,7 +74,12 @@ public abstract class JdbcConnectionFactory implements ConnectionFactory {
 
     @Override
     public Connection getConnection() throws SQLException {
-        return getDataSource().getConnection();
+        return UnitOfWork.getConnection(this, getDataSource());
+    }
+
+    @Override
+    public DatabaseDialect getDatabaseDialect() {
+        return DatabaseDialect.forDriverClassName(getDriverClassName());
     }
 
     protected abstract String getDriverClassName();
@@ -0,0 +1,24 @@
+package edu.mit.puzzle.cube.core.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A RowMapper converts the current row of a ResultSet into a model object. Implementations
+ * must not advance the ResultSet.
+ *
+ * @param <T> The model class produced for each row
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the row that the ResultSet is currently positioned on.
+     *
+     * @param resultSet A ResultSet positioned on a valid row
+     * @return The model object for this row
+     * @throws SQLException
+     */
+    T map(ResultSet resultSet) throws SQLException;
+
+}
@@ -0,0 +1,272 @@
+package edu.mit.puzzle.cube.core.db;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * RowMappers creates RowMapper instances that convert ResultSet rows directly into AutoValue
+ * model objects.
+ *
+ * The column layout of a query and the builder setters of the model class are resolved once per
+ * distinct (model class, selected columns) pair, and the resulting RowMapper is cached, so
+ * mapping a row is just a sequence of typed ResultSet reads and builder calls. Builder setters
+ * are matched to columns using their @JsonProperty names, ignoring case, so the same models that
+ * are deserialized from request bodies can be read from the database.
+ *
+ * Model classes that don't declare an AutoValue builder through @JsonDeserialize fall back to a
+ * RowMapper that converts each row with Jackson.
+ */
+public class RowMappers {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType SETTER_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object.class);
+    private static final MethodType BUILD_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    @AutoValue
+    static abstract class QueryShape {
+        static QueryShape create(Class<?> resultClass, List<String> columnLabels) {
+            return new AutoValue_RowMappers_QueryShape(resultClass, ImmutableList.copyOf(columnLabels));
+        }
+
+        abstract Class<?> getResultClass();
+        abstract ImmutableList<String> getColumnLabels();
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader {
+        Object read(ResultSet resultSet, int column) throws SQLException;
+    }
+
+    private static final ConcurrentMap<QueryShape, RowMapper<?>> ROW_MAPPERS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Gets a RowMapper for rows with the given column layout.
+     *
+     * @param metaData The metadata of the ResultSet that will be mapped
+     * @param resultClass The model class to produce for each row
+     * @param <MODEL_TYPE> The model class to produce for each row
+     * @return A RowMapper, shared with all other queries that select the same columns
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    public static <MODEL_TYPE> RowMapper<MODEL_TYPE> forResultSet(
+            ResultSetMetaData metaData,
+            Class<MODEL_TYPE> resultClass
+    ) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        ImmutableList.Builder<String> columnLabels = ImmutableList.builder();
+        for (int i = 1; i <= columnCount; ++i) {
+            columnLabels.add(metaData.getColumnLabel(i));
+        }
+        QueryShape queryShape = QueryShape.create(resultClass, columnLabels.build());
+
+        RowMapper<?> rowMapper = ROW_MAPPERS.get(queryShape);
+        if (rowMapper == null) {
+            rowMapper = ROW_MAPPERS.computeIfAbsent(queryShape, RowMappers::compile);
+        }
+        return (RowMapper<MODEL_TYPE>) rowMapper;
+    }
+
+    private static RowMapper<?> compile(QueryShape queryShape) {
+        Class<?> resultClass = queryShape.getResultClass();
+        JsonDeserialize jsonDeserialize = resultClass.getAnnotation(JsonDeserialize.class);
+        if (jsonDeserialize == null || jsonDeserialize.builder() == Void.class) {
+            return new JacksonRowMapper<>(resultClass, queryShape.getColumnLabels());
+        }
+        Class<?> builderClass = jsonDeserialize.builder();
+
+        Map<String, Method> setters = new HashMap<>();
+        Method buildMethod = null;
+        for (Class<?> c = builderClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                JsonProperty jsonProperty = method.getAnnotation(JsonProperty.class);
+                if (jsonProperty != null && method.getParameterCount() == 1) {
+                    setters.putIfAbsent(jsonProperty.value().toLowerCase(Locale.ROOT), method);
+                } else if (buildMethod == null
+                        && method.getName().equals("build")
+                        && method.getParameterCount() == 0) {
+                    buildMethod = method;
+                }
+            }
+        }
+        if (buildMethod == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Builder %s has no build method", builderClass.getName()));
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<?> constructor = builderClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            MethodHandle constructorHandle = lookup.unreflectConstructor(constructor)
+                    .asType(CONSTRUCTOR_TYPE);
+
+            buildMethod.setAccessible(true);
+            MethodHandle buildHandle = lookup.unreflect(buildMethod).asType(BUILD_TYPE);
+
+            List<String> columnLabels = queryShape.getColumnLabels();
+            MethodHandle[] setterHandles = new MethodHandle[columnLabels.size()];
+            ColumnReader[] columnReaders = new ColumnReader[columnLabels.size()];
+            for (int i = 0; i < columnLabels.size(); ++i) {
+                Method setter = setters.get(columnLabels.get(i).toLowerCase(Locale.ROOT));
+                if (setter == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Column %s does not match any property of %s",
+                            columnLabels.get(i),
+                            resultClass.getName()));
+                }
+                setter.setAccessible(true);
+                setterHandles[i] = lookup.unreflect(setter).asType(SETTER_TYPE);
+                columnReaders[i] = columnReaderFor(
+                        setter.getParameterTypes()[0],
+                        setter.getGenericParameterTypes()[0]);
+            }
+
+            return new BuilderRowMapper<>(
+                    resultClass,
+                    constructorHandle,
+                    setterHandles,
+                    columnReaders,
+                    buildHandle);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static ColumnReader columnReaderFor(Class<?> parameterClass, Type parameterType) {
+        if (parameterClass == String.class) {
+            return ResultSet::getString;
+        } else if (parameterClass == Integer.class || parameterClass == int.class) {
+            return (resultSet, column) -> {
+                int value = resultSet.getInt(column);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (parameterClass == Long.class || parameterClass == long.class) {
+            return (resultSet, column) -> {
+                long value = resultSet.getLong(column);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (parameterClass == Boolean.class || parameterClass == boolean.class) {
+            return (resultSet, column) -> {
+                boolean value = resultSet.getBoolean(column);
+                return resultSet.wasNull() ? null : value;
+            };
+        } else if (parameterClass == Instant.class) {
+            // Instants are exchanged with clients as epoch milliseconds, so truncate to match.
+            return (resultSet, column) -> {
+                Timestamp timestamp = resultSet.getTimestamp(column);
+                return timestamp == null ? null : Instant.ofEpochMilli(timestamp.getTime());
+            };
+        } else if (parameterClass.isEnum()) {
+            Class<? extends Enum> enumClass = (Class<? extends Enum>) parameterClass;
+            return (resultSet, column) -> {
+                String value = resultSet.getString(column);
+                return value == null ? null : Enum.valueOf(enumClass, value);
+            };
+        }
+
+        JavaType javaType = OBJECT_MAPPER.getTypeFactory().constructType(parameterType);
+        return (resultSet, column) -> {
+            Object value = resultSet.getObject(column);
+            return value == null ? null : OBJECT_MAPPER.convertValue(value, javaType);
+        };
+    }
+
+    private static class BuilderRowMapper<MODEL_TYPE> implements RowMapper<MODEL_TYPE> {
+        private final Class<MODEL_TYPE> resultClass;
+        private final MethodHandle constructor;
+        private final MethodHandle[] setters;
+        private final ColumnReader[] columnReaders;
+        private final MethodHandle build;
+
+        BuilderRowMapper(
+                Class<MODEL_TYPE> resultClass,
+                MethodHandle constructor,
+                MethodHandle[] setters,
+                ColumnReader[] columnReaders,
+                MethodHandle build
+        ) {
+            this.resultClass = resultClass;
+            this.constructor = constructor;
+            this.setters = setters;
+            this.columnReaders = columnReaders;
+            this.build = build;
+        }
+
+        @Override
+        public MODEL_TYPE map(ResultSet resultSet) throws SQLException {
+            try {
+                Object builder = (Object) constructor.invokeExact();
+                for (int i = 0; i < setters.length; ++i) {
+                    Object value = columnReaders[i].read(resultSet, i + 1);
+                    // Unset builder properties default to null, so there's no need to set them.
+                    if (value != null) {
+                        Object unused = (Object) setters[i].invokeExact(builder, value);
+                    }
+                }
+                return resultClass.cast((Object) build.invokeExact(builder));
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    private static class JacksonRowMapper<MODEL_TYPE> implements RowMapper<MODEL_TYPE> {
+        private final Class<MODEL_TYPE> resultClass;
+        private final List<String> columnLabels;
+
+        JacksonRowMapper(Class<MODEL_TYPE> resultClass, List<String> columnLabels) {
+            this.resultClass = resultClass;
+            this.columnLabels = columnLabels;
+        }
+
+        @Override
+        public MODEL_TYPE map(ResultSet resultSet) throws SQLException {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            ObjectNode objectNode = OBJECT_MAPPER.createObjectNode();
+            for (int i = 1; i <= columnLabels.size(); ++i) {
+                Object value;
+                if (metaData.getColumnType(i) == Types.TIMESTAMP) {
+                    Timestamp timestamp = resultSet.getTimestamp(i);
+                    value = timestamp == null ? null : timestamp.getTime();
+                } else {
+                    value = resultSet.getObject(i);
+                }
+                objectNode.putPOJO(columnLabels.get(i - 1), value);
+            }
+            return OBJECT_MAPPER.convertValue(objectNode, resultClass);
+        }
+    }
+}
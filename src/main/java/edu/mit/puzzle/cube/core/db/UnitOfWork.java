@@ -0,0 +1,188 @@
+package edu.mit.puzzle.cube.core.db;
+
+import edu.mit.puzzle.cube.core.metrics.CubeMetrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * A UnitOfWork pins one database connection to the current thread for the duration of a
+ * logical operation, such as handling one API request, so that all of the queries made by the
+ * stores during that operation reuse the same connection instead of each borrowing one from
+ * the pool.
+ *
+ * ConnectionFactory implementations hand out the pinned connection from getConnection while a
+ * unit of work is active on the calling thread. Closing the handed out connection does not
+ * close the pinned connection, but resets it the way returning it to the pool would: a
+ * transaction that was left open is rolled back and auto-commit is restored. Transaction
+ * boundaries are therefore exactly the same as without a unit of work. If the pinned
+ * connection is already in use when another connection is requested, for example while a
+ * store is iterating over a ResultSet, a separate connection is borrowed as usual.
+ *
+ * Units of work nest: beginning one while another is active for the same ConnectionFactory
+ * joins the active one, and the pinned connection is released when the outermost one is
+ * closed.
+ *
+ * A thread must not hold a pinned connection while it waits for another thread that may itself
+ * need a connection, or the two can exhaust the pool between them. Code that blocks, such as
+ * waiting for a lock or for room in an event queue, calls releasePinnedConnection first.
+ */
+public class UnitOfWork implements AutoCloseable {
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final ConnectionFactory connectionFactory;
+    private int depth = 1;
+    private Connection pinnedConnection = null;
+    private boolean pinnedConnectionInUse = false;
+
+    private UnitOfWork(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Begins a unit of work on the current thread, or joins the unit of work that is already
+     * active for the same ConnectionFactory.
+     */
+    public static UnitOfWork begin(ConnectionFactory connectionFactory) {
+        UnitOfWork current = CURRENT.get();
+        if (current != null) {
+            if (current.connectionFactory != connectionFactory) {
+                throw new IllegalStateException(
+                        "A unit of work for a different database is already active");
+            }
+            current.depth++;
+            return current;
+        }
+        UnitOfWork unitOfWork = new UnitOfWork(connectionFactory);
+        CURRENT.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * Gets a connection for a ConnectionFactory, which is the connection pinned by the
+     * current unit of work if there is one for this ConnectionFactory and it is not already
+     * in use, or a new connection from the data source otherwise.
+     */
+    static Connection getConnection(
+            ConnectionFactory connectionFactory,
+            DataSource dataSource
+    ) throws SQLException {
+        UnitOfWork current = CURRENT.get();
+        if (current == null || current.connectionFactory != connectionFactory) {
+            return borrowConnection(dataSource);
+        }
+        return current.checkOutConnection(dataSource);
+    }
+
+    /**
+     * Returns the pinned connection of the current unit of work to the pool, if it is not in
+     * use. The next connection requested during the unit of work pins a connection again.
+     */
+    public static void releasePinnedConnection() {
+        UnitOfWork current = CURRENT.get();
+        if (current == null || current.pinnedConnection == null || current.pinnedConnectionInUse) {
+            return;
+        }
+        try {
+            current.pinnedConnection.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            current.pinnedConnection = null;
+        }
+    }
+
+    private static Connection borrowConnection(DataSource dataSource) throws SQLException {
+        long startNanos = System.nanoTime();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            CubeMetrics.DB_CONNECTION_WAIT.observeNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    private Connection checkOutConnection(DataSource dataSource) throws SQLException {
+        if (pinnedConnectionInUse) {
+            return borrowConnection(dataSource);
+        }
+        if (pinnedConnection == null) {
+            pinnedConnection = borrowConnection(dataSource);
+        }
+        pinnedConnectionInUse = true;
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new CheckedOutConnection(pinnedConnection));
+    }
+
+    private void checkInConnection(Connection connection) throws SQLException {
+        pinnedConnectionInUse = false;
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private class CheckedOutConnection implements InvocationHandler {
+        private final Connection connection;
+        private boolean closed = false;
+
+        private CheckedOutConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    checkInConnection(connection);
+                }
+                return null;
+            case "isClosed":
+                return closed || connection.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                if (closed) {
+                    throw new SQLException("Connection is closed");
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends this unit of work. When the outermost unit of work ends, its pinned connection is
+     * returned to the pool.
+     */
+    @Override
+    public void close() {
+        if (--depth > 0) {
+            return;
+        }
+        CURRENT.remove();
+        if (pinnedConnection != null) {
+            try {
+                pinnedConnection.close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pinnedConnection = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.mit.puzzle.cube.core.db.UnitOfWork;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An EventProcessor that hands events off to a fixed pool of worker threads, so that the caller
+ * doesn't wait for the event (and any events that processing it produces) to be processed.
+ *
+ * Events are partitioned by the team they concern, and each partition is processed in order by
+ * a single worker, so events for one team are processed in the order they were submitted, while
+ * different teams progress in parallel. Events that don't concern a single team (hunt start,
+ * full release, timer events) are processed in order with each other, on a partition that they
+ * share with some of the teams.
+ *
+ * Each partition accepts a bounded number of events from outside the worker pool; once it is
+ * full, callers block until the worker catches up. Events submitted by a worker while it is
+ * processing another event are never blocked, so that cascades can't deadlock the pool. If the
+ * event concerns the same team as the event the worker is processing, it is processed
+ * immediately on that worker, just like it would be by a synchronous EventProcessor. Any other
+ * event is queued behind the events already waiting for its team, even if it belongs to the
+ * worker's own partition.
+ *
+ * The worker threads run until shutdown is called.
+ */
+public class AsyncEventProcessor implements EventProcessor<Event> {
+    private static Logger LOGGER = LoggerFactory.getLogger(AsyncEventProcessor.class);
+
+    private static final int DEFAULT_PARTITION_CAPACITY = 1024;
+
+    private static class QueuedEvent {
+        private final Event event;
+        private final boolean holdsPermit;
+
+        private QueuedEvent(Event event, boolean holdsPermit) {
+            this.event = event;
+            this.holdsPermit = holdsPermit;
+        }
+    }
+
+    private class Partition implements Runnable {
+        private final BlockingQueue<QueuedEvent> queue = new LinkedBlockingQueue<>();
+        private final Semaphore permits;
+        private final Thread thread;
+
+        private Partition(ThreadFactory threadFactory, int capacity) {
+            this.permits = new Semaphore(capacity);
+            this.thread = threadFactory.newThread(this);
+        }
+
+        @Override
+        public void run() {
+            CURRENT_PARTITION.set(this);
+            while (true) {
+                QueuedEvent queuedEvent;
+                try {
+                    queuedEvent = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                CURRENT_TEAM_ID.set(getTeamId(queuedEvent.event));
+                try {
+                    delegate.process(queuedEvent.event);
+                } catch (Exception e) {
+                    LOGGER.error("Failure while processing event " + queuedEvent.event, e);
+                } finally {
+                    if (queuedEvent.holdsPermit) {
+                        permits.release();
+                    }
+                    CURRENT_TEAM_ID.remove();
+                    finishEvent();
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<Partition> CURRENT_PARTITION = new ThreadLocal<>();
+    // The team of the event that the current worker thread is processing.
+    private static final ThreadLocal<Optional<String>> CURRENT_TEAM_ID = new ThreadLocal<>();
+
+    private final EventProcessor<Event> delegate;
+    private final Partition[] partitions;
+
+    private final Object pendingLock = new Object();
+    private long pendingEvents = 0;
+
+    public AsyncEventProcessor(EventProcessor<Event> delegate, int threads) {
+        this(delegate, threads, DEFAULT_PARTITION_CAPACITY);
+    }
+
+    public AsyncEventProcessor(EventProcessor<Event> delegate, int threads, int partitionCapacity) {
+        checkArgument(threads > 0, "An AsyncEventProcessor needs at least one thread");
+        checkArgument(partitionCapacity > 0, "Partition capacity must be positive");
+        this.delegate = checkNotNull(delegate);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("cube-event-processor-%d")
+                .setDaemon(true)
+                .build();
+        this.partitions = new Partition[threads];
+        for (int i = 0; i < threads; ++i) {
+            partitions[i] = new Partition(threadFactory, partitionCapacity);
+        }
+        for (Partition partition : partitions) {
+            partition.thread.start();
+        }
+    }
+
+    @Override
+    public void process(Event event) {
+        Optional<String> teamId = getTeamId(event);
+        Partition partition = partitions[Math.floorMod(
+                teamId.orElse("").hashCode(), partitions.length)];
+        Partition currentPartition = CURRENT_PARTITION.get();
+        if (currentPartition == partition && teamId.equals(CURRENT_TEAM_ID.get())) {
+            delegate.process(event);
+            return;
+        }
+
+        boolean holdsPermit = false;
+        if (currentPartition == null) {
+            try {
+                if (!partition.permits.tryAcquire()) {
+                    // Don't hold a database connection that the workers may need while waiting
+                    // for them to catch up.
+                    UnitOfWork.releasePinnedConnection();
+                    partition.permits.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to submit event", e);
+            }
+            holdsPermit = true;
+        }
+        synchronized (pendingLock) {
+            ++pendingEvents;
+        }
+        partition.queue.add(new QueuedEvent(event, holdsPermit));
+    }
+
+    @Override
+    public void processBatch(List<? extends Event> events) {
+        events.forEach(this::process);
+    }
+
+    /**
+     * Blocks until every submitted event, and every event produced while processing them, has
+     * been processed.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @return true if all events were processed, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (pendingLock) {
+            while (pendingEvents > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(pendingLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the worker threads. Events that have not been processed yet are dropped.
+     */
+    public void shutdown() {
+        for (Partition partition : partitions) {
+            partition.thread.interrupt();
+        }
+    }
+
+    private void finishEvent() {
+        synchronized (pendingLock) {
+            --pendingEvents;
+            if (pendingEvents == 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    private static Optional<String> getTeamId(Event event) {
+        if (event instanceof VisibilityChangeEvent) {
+            return Optional.of(((VisibilityChangeEvent) event).getVisibility().getTeamId());
+        } else if (event instanceof SubmissionCompleteEvent) {
+            return Optional.ofNullable(((SubmissionCompleteEvent) event).getSubmission().getTeamId());
+        } else if (event instanceof HintCompleteEvent) {
+            return Optional.ofNullable(((HintCompleteEvent) event).getHintRequest().getTeamId());
+        }
+        return Optional.empty();
+    }
+}
@@ -1,37 +1,81 @@
 package edu.mit.puzzle.cube.core.events;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 
-import java.util.Collection;
+import edu.mit.puzzle.cube.core.metrics.CubeMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class CompositeEventProcessor implements EventProcessor<Event> {
 
+    // LinkedHashMultimap.entries() iterates in the order the processors were added, across all
+    // event classes, which is the order an event is dispatched to them in.
+    @SuppressWarnings("rawtypes")
+    private final Multimap<Class, EventProcessor> eventProcessors = LinkedHashMultimap.create();
+
+    // Maps each concrete event class that has been processed to every processor registered for
+    // that class or one of its supertypes. Replaced with an empty table whenever a processor is
+    // added, so lookups never see a stale entry.
     @SuppressWarnings("rawtypes")
-    private Multimap<Class, EventProcessor> eventProcessors = HashMultimap.create();
+    private volatile ConcurrentMap<Class, EventProcessor[]> dispatchTable = new ConcurrentHashMap<>();
+
+    // How many events are being processed on this thread, by this or any other
+    // CompositeEventProcessor, counting the current one; handlers that emit further events make
+    // this greater than one.
+    private static final ThreadLocal<int[]> CASCADE_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
 
     public CompositeEventProcessor() {
 
     }
 
-    public <T extends Event> void addEventProcessor(
+    public synchronized <T extends Event> void addEventProcessor(
             Class<T> clazz,
             EventProcessor<T> eventProcessor
     ) {
         this.eventProcessors.put(clazz, eventProcessor);
+        this.dispatchTable = new ConcurrentHashMap<>();
     }
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     public void process(Event event) {
-        //Loops over all entries in case we subclass Event types
-        for (Class<? extends Event> eventKeyClass : eventProcessors.keys()) {
-            if (eventKeyClass.isInstance(event)) {
-                Collection<EventProcessor> eventTypeProcessors = eventProcessors.get(eventKeyClass);
-                for (EventProcessor eventProcessor : eventTypeProcessors) {
-                    eventProcessor.process(event);
-                }
+        ConcurrentMap<Class, EventProcessor[]> dispatchTable = this.dispatchTable;
+        EventProcessor[] eventTypeProcessors = dispatchTable.get(event.getClass());
+        if (eventTypeProcessors == null) {
+            eventTypeProcessors = dispatchTable.computeIfAbsent(
+                    event.getClass(), this::resolveEventProcessors);
+        }
+
+        String eventType = event.getClass().getSimpleName();
+        int[] depth = CASCADE_DEPTH.get();
+        CubeMetrics.EVENT_CASCADE_DEPTH.observe(++depth[0], eventType);
+        CubeMetrics.EVENT_HANDLER_INVOCATIONS.add(eventTypeProcessors.length, eventType);
+        long startNanos = System.nanoTime();
+        try {
+            for (EventProcessor eventProcessor : eventTypeProcessors) {
+                eventProcessor.process(event);
+            }
+        } finally {
+            --depth[0];
+            CubeMetrics.EVENT_PROCESSING_DURATION.observeNanos(
+                    System.nanoTime() - startNanos, eventType);
+        }
+    }
+
+    //Includes processors registered for superclasses and interfaces in case we subclass Event types
+    @SuppressWarnings("rawtypes")
+    private synchronized EventProcessor[] resolveEventProcessors(Class eventClass) {
+        List<EventProcessor> resolvedProcessors = new ArrayList<>();
+        for (Map.Entry<Class, EventProcessor> entry : eventProcessors.entries()) {
+            if (entry.getKey().isAssignableFrom(eventClass)) {
+                resolvedProcessors.add(entry.getValue());
             }
         }
+        return resolvedProcessors.toArray(new EventProcessor[resolvedProcessors.size()]);
     }
 
 }
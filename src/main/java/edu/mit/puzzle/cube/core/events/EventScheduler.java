@@ -0,0 +1,175 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Processes events at a given time in the future, for things like timed unlocks and release
+ * schedules, so that hunt definitions don't have to poll to find out whether they are due.
+ *
+ * Scheduled events are stored in the scheduled_events table, so that they survive restarts,
+ * and are held in memory in a TimerWheel. Something has to call fireDueEvents once every
+ * TICK_DURATION; each call only looks at the events due in the time since the previous one.
+ * Events that came due while the server was down are processed by the first call after it
+ * starts again.
+ *
+ * An event is deleted from the table after it has been processed, so if the server stops in
+ * between, the event will be processed again. Events are serialized with the same JSON as
+ * /events accepts, so hunt definitions that schedule their own event classes must register them
+ * with registerEventClass.
+ */
+public class EventScheduler {
+    private static Logger LOGGER = LoggerFactory.getLogger(EventScheduler.class);
+
+    public static final Duration TICK_DURATION = Duration.ofSeconds(1);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConnectionFactory connectionFactory;
+    private final EventProcessor<Event> eventProcessor;
+    private final Clock clock;
+
+    private final TimerWheel<Integer> timerWheel;
+    private final Map<Integer, Event> pendingEvents = new HashMap<>();
+
+    public EventScheduler(ConnectionFactory connectionFactory, EventProcessor<Event> eventProcessor) {
+        this(connectionFactory, eventProcessor, Clock.systemUTC());
+    }
+
+    public EventScheduler(
+            ConnectionFactory connectionFactory,
+            EventProcessor<Event> eventProcessor,
+            Clock clock
+    ) {
+        this.connectionFactory = connectionFactory;
+        this.eventProcessor = eventProcessor;
+        this.clock = clock;
+        this.timerWheel = new TimerWheel<>(TICK_DURATION, clock.instant());
+    }
+
+    public synchronized void registerEventClass(Class<? extends Event> eventClass) {
+        objectMapper.registerSubtypes(eventClass);
+    }
+
+    /**
+     * Loads the events that were scheduled before the server started. This must be called after
+     * any event classes are registered, and before the first call to fireDueEvents.
+     */
+    public synchronized void loadScheduledEvents() {
+        DatabaseHelper.queryForEach(
+                connectionFactory,
+                "SELECT scheduledEventId, dueTimestamp, event FROM scheduled_events",
+                ImmutableList.of(),
+                ScheduledEvent.class,
+                scheduledEvent -> {
+                    Event event;
+                    try {
+                        event = objectMapper.readValue(scheduledEvent.getEventJson(), Event.class);
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to load scheduled event {}",
+                                scheduledEvent.getScheduledEventId(), e);
+                        return;
+                    }
+                    pendingEvents.put(scheduledEvent.getScheduledEventId(), event);
+                    timerWheel.add(scheduledEvent.getScheduledEventId(), scheduledEvent.getDueTimestamp());
+                });
+    }
+
+    /**
+     * Schedules an event to be processed once dueTimestamp has passed.
+     *
+     * @return An id that can be passed to cancel.
+     */
+    public synchronized int schedule(Event event, Instant dueTimestamp) {
+        String eventJson;
+        try {
+            eventJson = objectMapper.writerFor(Event.class).writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        Optional<Integer> scheduledEventId = DatabaseHelper.insert(
+                connectionFactory,
+                "INSERT INTO scheduled_events (dueTimestamp, event) VALUES (?, ?)",
+                Lists.newArrayList(Timestamp.from(dueTimestamp), eventJson));
+        if (!scheduledEventId.isPresent()) {
+            throw new RuntimeException("Failed to schedule event " + event);
+        }
+        pendingEvents.put(scheduledEventId.get(), event);
+        timerWheel.add(scheduledEventId.get(), dueTimestamp);
+        return scheduledEventId.get();
+    }
+
+    /**
+     * @return true if the event was cancelled, or false if it was already processed or cancelled.
+     */
+    public synchronized boolean cancel(int scheduledEventId) {
+        if (pendingEvents.remove(scheduledEventId) == null) {
+            return false;
+        }
+        // The id stays in the timer wheel until its due time, but is ignored when it comes out.
+        DatabaseHelper.update(
+                connectionFactory,
+                "DELETE FROM scheduled_events WHERE scheduledEventId = ?",
+                Lists.newArrayList(scheduledEventId));
+        return true;
+    }
+
+    /**
+     * Processes every event whose due time has passed.
+     */
+    public void fireDueEvents() {
+        List<Integer> dueIds = new ArrayList<>();
+        List<Event> dueEvents = new ArrayList<>();
+        synchronized (this) {
+            for (Integer scheduledEventId : timerWheel.advance(clock.instant())) {
+                Event event = pendingEvents.remove(scheduledEventId);
+                if (event != null) {
+                    dueIds.add(scheduledEventId);
+                    dueEvents.add(event);
+                }
+            }
+        }
+        if (dueEvents.isEmpty()) {
+            return;
+        }
+
+        // Process the events outside of the lock, so that their handlers can schedule events.
+        for (Event event : dueEvents) {
+            try {
+                eventProcessor.process(event);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failure while processing scheduled event {}", event, e);
+            }
+        }
+        List<List<Object>> parameterLists = new ArrayList<>();
+        for (Integer scheduledEventId : dueIds) {
+            parameterLists.add(ImmutableList.of(scheduledEventId));
+        }
+        DatabaseHelper.updateBatch(
+                connectionFactory,
+                "DELETE FROM scheduled_events WHERE scheduledEventId = ?",
+                parameterLists);
+    }
+
+    public synchronized int getPendingEventCount() {
+        return pendingEvents.size();
+    }
+}
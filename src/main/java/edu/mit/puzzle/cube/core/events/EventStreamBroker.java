@@ -0,0 +1,263 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.mit.puzzle.cube.core.model.HintRequest;
+import edu.mit.puzzle.cube.core.model.Submission;
+import edu.mit.puzzle.cube.core.permissions.HintsPermission;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+import edu.mit.puzzle.cube.core.permissions.SubmissionsPermission;
+import edu.mit.puzzle.cube.core.permissions.VisibilitiesPermission;
+
+import org.apache.shiro.authz.Permission;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Fans out visibility, submission and hint events to event stream subscribers.
+ *
+ * Every published event is assigned a sequence number, and the most recent events are kept so
+ * that a subscriber that reconnects can resume after the last event it received. Sequence
+ * numbers are seeded from the clock when the broker is created, so numbers handed out by an
+ * earlier server process are always older than anything this broker has kept, and subscribers
+ * resuming from them are told that they have missed events.
+ *
+ * The number of open subscriptions is limited, since each one is served by a thread that waits
+ * for its events.
+ *
+ * Each subscription has a bounded queue. A subscriber that falls so far behind that its queue
+ * fills up is marked as overflowed, and should be disconnected so that it can resume from the
+ * history once it reconnects.
+ */
+public class EventStreamBroker implements EventProcessor<Event> {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final int DEFAULT_HISTORY_SIZE = 4096;
+
+    public static final String SUBMISSION_CREATED_EVENT_TYPE = "SubmissionCreated";
+
+    public class Subscription implements AutoCloseable {
+        private final Predicate<StreamedEvent> filter;
+        private final Predicate<StreamedEvent> permissionFilter;
+        private final Deque<StreamedEvent> backlog;
+        private final BlockingQueue<StreamedEvent> queue;
+        private final boolean missedEvents;
+        private volatile boolean overflowed = false;
+
+        private Subscription(
+                Predicate<StreamedEvent> filter,
+                Predicate<StreamedEvent> permissionFilter,
+                Deque<StreamedEvent> backlog,
+                int capacity,
+                boolean missedEvents
+        ) {
+            this.filter = filter;
+            this.permissionFilter = permissionFilter;
+            this.backlog = backlog;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.missedEvents = missedEvents;
+        }
+
+        private void offer(StreamedEvent event) {
+            if (!overflowed && filter.test(event) && !queue.offer(event)) {
+                overflowed = true;
+            }
+        }
+
+        /**
+         * @return true if the subscriber asked to resume from an event that is no longer
+         * available, so it may have missed events and should reload its state
+         */
+        public boolean hasMissedEvents() {
+            return missedEvents;
+        }
+
+        /**
+         * @return true if the subscriber fell behind and an event could not be queued for it.
+         * Events queued before the overflow are still returned by poll.
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Returns the next event for this subscriber, waiting up to the given time for one to
+         * be published. Events that the subscriber isn't permitted to receive are skipped.
+         */
+        public Optional<StreamedEvent> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+            while (true) {
+                StreamedEvent event = backlog.pollFirst();
+                if (event == null) {
+                    event = queue.poll();
+                }
+                if (event == null && !overflowed) {
+                    long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (remainingNanos > 0) {
+                        event = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+                if (event == null) {
+                    return Optional.empty();
+                }
+                if (permissionFilter.test(event)) {
+                    return Optional.of(event);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+
+    private final int historySize;
+    private final int maxSubscribers;
+    private final Deque<StreamedEvent> history = new ArrayDeque<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long nextEventId;
+
+    public EventStreamBroker(int maxSubscribers) {
+        this(Clock.systemUTC(), DEFAULT_HISTORY_SIZE, maxSubscribers);
+    }
+
+    public EventStreamBroker(Clock clock, int historySize, int maxSubscribers) {
+        checkArgument(historySize > 0, "History size must be positive");
+        checkArgument(maxSubscribers > 0, "The maximum number of subscribers must be positive");
+        this.historySize = historySize;
+        this.maxSubscribers = maxSubscribers;
+        this.nextEventId = clock.millis() * 1000;
+    }
+
+    /**
+     * Subscribes to events.
+     *
+     * @param lastEventId The sequence number of the last event the subscriber received, if it
+     *                    is resuming a previous subscription
+     * @param filter Selects the events that this subscriber wants to receive
+     * @param capacity The maximum number of events to queue for this subscriber
+     * @return A Subscription, which must be closed when the subscriber goes away, or empty if
+     * there are already as many subscriptions as the broker allows
+     */
+    public Optional<Subscription> subscribe(
+            Optional<Long> lastEventId,
+            Predicate<StreamedEvent> filter,
+            int capacity
+    ) {
+        return subscribe(lastEventId, filter, event -> true, capacity);
+    }
+
+    /**
+     * Subscribes to events.
+     *
+     * The filter is run for every published event while the broker is locked, so it must be
+     * cheap, and must not block. The permission filter is run by Subscription.poll on the
+     * subscriber's own thread, so it may be slower, for example to check permissions with a
+     * realm that goes to the database.
+     *
+     * @param lastEventId The sequence number of the last event the subscriber received, if it
+     *                    is resuming a previous subscription
+     * @param filter Selects the events that this subscriber wants to receive
+     * @param permissionFilter Selects the events that this subscriber is allowed to receive
+     * @param capacity The maximum number of events to queue for this subscriber
+     * @return A Subscription, which must be closed when the subscriber goes away, or empty if
+     * there are already as many subscriptions as the broker allows
+     */
+    public synchronized Optional<Subscription> subscribe(
+            Optional<Long> lastEventId,
+            Predicate<StreamedEvent> filter,
+            Predicate<StreamedEvent> permissionFilter,
+            int capacity
+    ) {
+        checkArgument(capacity > 0, "Subscription capacity must be positive");
+        if (subscriptions.size() >= maxSubscribers) {
+            return Optional.empty();
+        }
+        Deque<StreamedEvent> backlog = new ArrayDeque<>();
+        boolean missedEvents = false;
+        if (lastEventId.isPresent()) {
+            long oldestAvailableId = history.isEmpty() ? nextEventId : history.peekFirst().getId();
+            if (lastEventId.get() < oldestAvailableId - 1 || lastEventId.get() >= nextEventId) {
+                missedEvents = true;
+            } else {
+                for (StreamedEvent event : history) {
+                    if (event.getId() > lastEventId.get() && filter.test(event)) {
+                        backlog.add(event);
+                    }
+                }
+            }
+        }
+
+        Subscription subscription = new Subscription(
+                filter, permissionFilter, backlog, capacity, missedEvents);
+        subscriptions.add(subscription);
+        return Optional.of(subscription);
+    }
+
+    @Override
+    public void process(Event event) {
+        if (event instanceof VisibilityChangeEvent) {
+            String teamId = ((VisibilityChangeEvent) event).getVisibility().getTeamId();
+            publish("VisibilityChange", teamId,
+                    new VisibilitiesPermission(teamId, PermissionAction.READ),
+                    OBJECT_MAPPER.valueToTree(event));
+        } else if (event instanceof SubmissionCompleteEvent) {
+            String teamId = ((SubmissionCompleteEvent) event).getSubmission().getTeamId();
+            publish("SubmissionComplete", teamId,
+                    new SubmissionsPermission(teamId, PermissionAction.READ),
+                    OBJECT_MAPPER.valueToTree(event));
+        } else if (event instanceof HintCompleteEvent) {
+            HintRequest hintRequest = ((HintCompleteEvent) event).getHintRequest();
+            publish("HintComplete", hintRequest.getTeamId(),
+                    new HintsPermission(hintRequest.getTeamId(), PermissionAction.READ),
+                    OBJECT_MAPPER.valueToTree(event));
+        }
+    }
+
+    /**
+     * Publishes a notification that a team has made a new submission.
+     */
+    public void publishSubmissionCreated(Submission submission) {
+        ObjectNode data = OBJECT_MAPPER.createObjectNode();
+        data.put("eventType", SUBMISSION_CREATED_EVENT_TYPE);
+        data.set("submission", OBJECT_MAPPER.valueToTree(submission));
+        publish(SUBMISSION_CREATED_EVENT_TYPE, submission.getTeamId(),
+                new SubmissionsPermission(submission.getTeamId(), PermissionAction.READ),
+                data);
+    }
+
+    private void publish(String eventType, String teamId, Permission requiredPermission, ObjectNode data) {
+        String serializedData;
+        try {
+            serializedData = OBJECT_MAPPER.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+
+        synchronized (this) {
+            StreamedEvent streamedEvent = StreamedEvent.create(
+                    nextEventId++, eventType, teamId, requiredPermission, serializedData);
+            history.addLast(streamedEvent);
+            if (history.size() > historySize) {
+                history.removeFirst();
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(streamedEvent);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+
+import edu.mit.puzzle.cube.core.model.InstantDeserializer;
+
+import java.time.Instant;
+
+/**
+ * A row of the scheduled_events table: an event that an EventScheduler will process at its due
+ * time, stored as the JSON that would be posted to /events.
+ */
+@AutoValue
+@JsonDeserialize(builder = AutoValue_ScheduledEvent.Builder.class)
+public abstract class ScheduledEvent {
+    @AutoValue.Builder
+    public static abstract class Builder {
+        @JsonProperty("scheduledEventId") public abstract Builder setScheduledEventId(int scheduledEventId);
+
+        @JsonProperty("dueTimestamp")
+        @JsonDeserialize(using=InstantDeserializer.class)
+        public abstract Builder setDueTimestamp(Instant dueTimestamp);
+
+        @JsonProperty("event") public abstract Builder setEventJson(String eventJson);
+
+        public abstract ScheduledEvent build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_ScheduledEvent.Builder();
+    }
+
+    public abstract int getScheduledEventId();
+    public abstract Instant getDueTimestamp();
+    public abstract String getEventJson();
+}
@@ -0,0 +1,23 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Scheduled by a ScoreTracker for the next instant at which a team's score reaches a score
+ * threshold.
+ */
+@AutoValue
+@JsonDeserialize(builder = AutoValue_ScoreThresholdEvent.Builder.class)
+@JsonTypeName("ScoreThreshold")
+public abstract class ScoreThresholdEvent extends Event {
+    @AutoValue.Builder
+    public static abstract class Builder {
+        public abstract ScoreThresholdEvent build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_ScoreThresholdEvent.Builder();
+    }
+}
@@ -0,0 +1,29 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.shiro.authz.Permission;
+
+/**
+ * An event as it is delivered to event stream subscribers: a stream-wide sequence number, the
+ * event type, the already serialized JSON payload, and the permission that a subscriber must
+ * have to receive it.
+ */
+@AutoValue
+public abstract class StreamedEvent {
+    static StreamedEvent create(
+            long id,
+            String eventType,
+            String teamId,
+            Permission requiredPermission,
+            String data
+    ) {
+        return new AutoValue_StreamedEvent(id, eventType, teamId, requiredPermission, data);
+    }
+
+    public abstract long getId();
+    public abstract String getEventType();
+    public abstract String getTeamId();
+    public abstract Permission getRequiredPermission();
+    public abstract String getData();
+}
@@ -0,0 +1,124 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.google.common.base.Preconditions;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel, which holds items until their due time passes.
+ *
+ * Time is divided into ticks. The first level of the wheel has one slot for each of the next
+ * SLOTS_PER_LEVEL ticks, and each higher level has one slot for each span of SLOTS_PER_LEVEL
+ * slots of the level below it. Adding an item puts it into the slot covering its due tick, and
+ * advancing the wheel by a tick only looks at the one first level slot for that tick, plus, once
+ * every SLOTS_PER_LEVEL ticks, one higher level slot whose items are moved down a level. So the
+ * cost of adding an item or advancing the wheel doesn't depend on how many items are waiting.
+ *
+ * Items are released in the order of their due ticks, but in no particular order within a tick.
+ * TimerWheel is not thread-safe.
+ */
+class TimerWheel<T> {
+    private static final int BITS_PER_LEVEL = 8;
+    private static final int SLOTS_PER_LEVEL = 1 << BITS_PER_LEVEL;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    private static final int LEVELS = 4;
+
+    private static class Entry<T> {
+        private final T item;
+        private final long dueTick;
+
+        private Entry(T item, long dueTick) {
+            this.item = item;
+            this.dueTick = dueTick;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<List<List<Entry<T>>>> levels = new ArrayList<>();
+    // Items that were added after their due tick had already been reached.
+    private List<T> overdue = new ArrayList<>();
+    private long currentTick;
+    private int size = 0;
+
+    TimerWheel(Duration tickDuration, Instant now) {
+        Preconditions.checkArgument(tickDuration.toMillis() > 0, "The tick duration must be positive");
+        this.tickMillis = tickDuration.toMillis();
+        for (int level = 0; level < LEVELS; ++level) {
+            List<List<Entry<T>>> slots = new ArrayList<>(SLOTS_PER_LEVEL);
+            for (int slot = 0; slot < SLOTS_PER_LEVEL; ++slot) {
+                slots.add(new ArrayList<>());
+            }
+            levels.add(slots);
+        }
+        this.currentTick = toTick(now);
+    }
+
+    void add(T item, Instant dueTimestamp) {
+        // Round up, so that an item is never released before its due time.
+        long dueTick = Math.floorDiv(dueTimestamp.toEpochMilli() + tickMillis - 1, tickMillis);
+        if (dueTick <= currentTick) {
+            overdue.add(item);
+        } else {
+            insert(new Entry<>(item, dueTick));
+        }
+        ++size;
+    }
+
+    /**
+     * Advances the wheel to now.
+     *
+     * @return The items that are now due, and haven't been returned before.
+     */
+    List<T> advance(Instant now) {
+        List<T> due = overdue;
+        overdue = new ArrayList<>();
+        long targetTick = toTick(now);
+        while (currentTick < targetTick) {
+            ++currentTick;
+            for (int level = 1; level < LEVELS; ++level) {
+                if ((currentTick & ((1L << (BITS_PER_LEVEL * level)) - 1)) != 0) {
+                    break;
+                }
+                List<Entry<T>> slot = getSlot(level, currentTick);
+                List<Entry<T>> entries = new ArrayList<>(slot);
+                slot.clear();
+                for (Entry<T> entry : entries) {
+                    insert(entry);
+                }
+            }
+            List<Entry<T>> slot = getSlot(0, currentTick);
+            for (Entry<T> entry : slot) {
+                due.add(entry.item);
+            }
+            slot.clear();
+        }
+        size -= due.size();
+        return due;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private long toTick(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), tickMillis);
+    }
+
+    private List<Entry<T>> getSlot(int level, long tick) {
+        return levels.get(level).get((int) ((tick >> (BITS_PER_LEVEL * level)) & SLOT_MASK));
+    }
+
+    private void insert(Entry<T> entry) {
+        long ticksUntilDue = entry.dueTick - currentTick;
+        for (int level = 0; level < LEVELS; ++level) {
+            if (ticksUntilDue < (1L << (BITS_PER_LEVEL * (level + 1)))) {
+                getSlot(level, entry.dueTick).add(entry);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Can't schedule an item that far in the future");
+    }
+}
@@ -0,0 +1,40 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as the number of requests served.
+ */
+public class Counter extends Metric<LongAdder> {
+
+    Counter(String name, String help, List<String> labelNames) {
+        super(name, help, labelNames);
+    }
+
+    @Override
+    protected String getType() {
+        return "counter";
+    }
+
+    public void inc(String... labelValues) {
+        add(1, labelValues);
+    }
+
+    public void add(long amount, String... labelValues) {
+        getSeries(labelValues, LongAdder::new).add(amount);
+    }
+
+    public long get(String... labelValues) {
+        return getSeries(labelValues, LongAdder::new).sum();
+    }
+
+    @Override
+    protected void writeSeries(StringBuilder out) {
+        for (Map.Entry<List<String>, LongAdder> entry : getAllSeries().entrySet()) {
+            writeSample(out, getName(), entry.getKey(), null, null,
+                    Long.toString(entry.getValue().sum()));
+        }
+    }
+}
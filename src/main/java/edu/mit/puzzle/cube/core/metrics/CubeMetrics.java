@@ -0,0 +1,105 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.regex.Pattern;
+
+/**
+ * The metrics that Cube records about itself, all registered in the default MetricsRegistry
+ * and served by MetricsResource.
+ */
+public class CubeMetrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    public static final Histogram HTTP_REQUEST_DURATION = REGISTRY.histogram(
+            "cube_http_request_duration_seconds",
+            "Time to handle an API request, by route and method.",
+            Histogram.DURATION_BUCKETS,
+            "route", "method");
+
+    public static final Counter HTTP_RESPONSES = REGISTRY.counter(
+            "cube_http_responses_total",
+            "API responses, by route, method and status code.",
+            "route", "method", "status");
+
+    public static final Histogram DB_QUERY_DURATION = REGISTRY.histogram(
+            "cube_db_query_duration_seconds",
+            "Time to execute a database statement and read its results, by SQL fingerprint.",
+            Histogram.DURATION_BUCKETS,
+            "sql");
+
+    public static final Histogram DB_QUERY_ROWS = REGISTRY.histogram(
+            "cube_db_query_rows",
+            "Rows read or written by a database statement, by SQL fingerprint.",
+            Histogram.COUNT_BUCKETS,
+            "sql");
+
+    public static final Counter DB_QUERY_ERRORS = REGISTRY.counter(
+            "cube_db_query_errors_total",
+            "Database statements that failed, by SQL fingerprint.",
+            "sql");
+
+    public static final Histogram DB_CONNECTION_WAIT = REGISTRY.histogram(
+            "cube_db_connection_wait_seconds",
+            "Time spent waiting for a connection from the connection pool.",
+            Histogram.DURATION_BUCKETS);
+
+    public static final Histogram EVENT_PROCESSING_DURATION = REGISTRY.histogram(
+            "cube_event_processing_duration_seconds",
+            "Time for every handler of an event to process it, including any events they " +
+            "trigger, by event type.",
+            Histogram.DURATION_BUCKETS,
+            "event_type");
+
+    public static final Counter EVENT_HANDLER_INVOCATIONS = REGISTRY.counter(
+            "cube_event_handler_invocations_total",
+            "Event handlers invoked, by event type.",
+            "event_type");
+
+    public static final Histogram EVENT_CASCADE_DEPTH = REGISTRY.histogram(
+            "cube_event_cascade_depth",
+            "How deeply nested an event was when it was processed: 1 for an event that was not " +
+            "triggered by the processing of another event, by event type.",
+            Histogram.COUNT_BUCKETS,
+            "event_type");
+
+    private static final int MAX_FINGERPRINT_LENGTH = 200;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final LoadingCache<String, String> FINGERPRINTS = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build(new CacheLoader<String, String>() {
+                @Override
+                public String load(String sql) {
+                    return computeSqlFingerprint(sql);
+                }
+            });
+
+    private CubeMetrics() {
+    }
+
+    /**
+     * Reduces an SQL statement to a label that is the same for every statement that differs
+     * only in literal values or in the length of a parameter list, so that statements built
+     * with formatted LIMITs or IN lists don't each get their own series.
+     */
+    public static String sqlFingerprint(String sql) {
+        return FINGERPRINTS.getUnchecked(sql);
+    }
+
+    static String computeSqlFingerprint(String sql) {
+        String fingerprint = STRING_LITERAL.matcher(sql).replaceAll("?");
+        fingerprint = NUMERIC_LITERAL.matcher(fingerprint).replaceAll("?");
+        fingerprint = PARAMETER_LIST.matcher(fingerprint).replaceAll("(?)");
+        fingerprint = WHITESPACE.matcher(fingerprint).replaceAll(" ").trim();
+        if (fingerprint.length() > MAX_FINGERPRINT_LENGTH) {
+            fingerprint = fingerprint.substring(0, MAX_FINGERPRINT_LENGTH);
+        }
+        return fingerprint;
+    }
+}
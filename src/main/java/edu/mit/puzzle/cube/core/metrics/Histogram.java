@@ -0,0 +1,107 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations, such as request durations, in buckets with fixed upper bounds, and
+ * keeps their total.
+ */
+public class Histogram extends Metric<Histogram.Series> {
+
+    /**
+     * Bucket upper bounds, in seconds, suited to request and query durations.
+     */
+    public static final double[] DURATION_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    /**
+     * Bucket upper bounds suited to small counts, such as rows returned by a query.
+     */
+    public static final double[] COUNT_BUCKETS = {
+            0, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 10000, 100000
+    };
+
+    static class Series {
+        // The last bucket counts observations above every upper bound.
+        private final LongAdder[] bucketCounts;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        private Series(int bucketCount) {
+            bucketCounts = new LongAdder[bucketCount + 1];
+            for (int i = 0; i < bucketCounts.length; ++i) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+    }
+
+    private final double[] upperBounds;
+
+    Histogram(String name, String help, List<String> labelNames, double[] upperBounds) {
+        super(name, help, labelNames);
+        for (int i = 1; i < upperBounds.length; ++i) {
+            Preconditions.checkArgument(
+                    upperBounds[i - 1] < upperBounds[i],
+                    "Histogram bucket upper bounds must be increasing");
+        }
+        this.upperBounds = upperBounds.clone();
+    }
+
+    @Override
+    protected String getType() {
+        return "histogram";
+    }
+
+    public void observe(double value, String... labelValues) {
+        Series series = getSeries(labelValues, () -> new Series(upperBounds.length));
+        int bucket = 0;
+        while (bucket < upperBounds.length && value > upperBounds[bucket]) {
+            ++bucket;
+        }
+        series.bucketCounts[bucket].increment();
+        series.sum.add(value);
+        series.count.increment();
+    }
+
+    /**
+     * Observes a duration measured with System.nanoTime, in seconds.
+     */
+    public void observeNanos(long nanos, String... labelValues) {
+        observe(nanos / 1e9, labelValues);
+    }
+
+    public long getCount(String... labelValues) {
+        return getSeries(labelValues, () -> new Series(upperBounds.length)).count.sum();
+    }
+
+    public double getSum(String... labelValues) {
+        return getSeries(labelValues, () -> new Series(upperBounds.length)).sum.sum();
+    }
+
+    @Override
+    protected void writeSeries(StringBuilder out) {
+        for (Map.Entry<List<String>, Series> entry : getAllSeries().entrySet()) {
+            List<String> labelValues = entry.getKey();
+            Series series = entry.getValue();
+            long cumulativeCount = 0;
+            for (int i = 0; i <= upperBounds.length; ++i) {
+                cumulativeCount += series.bucketCounts[i].sum();
+                double upperBound = i < upperBounds.length ? upperBounds[i] : Double.POSITIVE_INFINITY;
+                writeSample(out, getName() + "_bucket", labelValues,
+                        "le", formatValue(upperBound), Long.toString(cumulativeCount));
+            }
+            writeSample(out, getName() + "_sum", labelValues, null, null,
+                    formatValue(series.sum.sum()));
+            // Report the bucket total rather than the separate count, so that the +Inf bucket
+            // and the count agree even if an observation is in flight.
+            writeSample(out, getName() + "_count", labelValues, null, null,
+                    Long.toString(cumulativeCount));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * A named metric, broken down into a separate series for each combination of label values.
+ *
+ * @param <SERIES> The type that holds the value of one series
+ */
+public abstract class Metric<SERIES> {
+    private final String name;
+    private final String help;
+    private final ImmutableList<String> labelNames;
+    private final ConcurrentMap<List<String>, SERIES> series = new ConcurrentHashMap<>();
+
+    protected Metric(String name, String help, List<String> labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = ImmutableList.copyOf(labelNames);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    public ImmutableList<String> getLabelNames() {
+        return labelNames;
+    }
+
+    /**
+     * @return The Prometheus type of this metric, such as "counter" or "histogram".
+     */
+    protected abstract String getType();
+
+    protected SERIES getSeries(String[] labelValues, Supplier<SERIES> seriesSupplier) {
+        Preconditions.checkArgument(
+                labelValues.length == labelNames.size(),
+                "Metric %s has %s labels, but %s values were given",
+                name, labelNames.size(), labelValues.length);
+        List<String> key = Arrays.asList(labelValues);
+        SERIES value = series.get(key);
+        if (value == null) {
+            value = series.computeIfAbsent(ImmutableList.copyOf(labelValues), k -> seriesSupplier.get());
+        }
+        return value;
+    }
+
+    protected Map<List<String>, SERIES> getAllSeries() {
+        return series;
+    }
+
+    /**
+     * Appends every series of this metric to out, in the Prometheus text exposition format.
+     */
+    protected abstract void writeSeries(StringBuilder out);
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(getType()).append('\n');
+        writeSeries(out);
+    }
+
+    /**
+     * Appends a sample line for one series, with an optional extra label such as a histogram
+     * bucket's upper bound.
+     */
+    protected void writeSample(
+            StringBuilder out,
+            String sampleName,
+            List<String> labelValues,
+            String extraLabelName,
+            String extraLabelValue,
+            String value
+    ) {
+        out.append(sampleName);
+        if (!labelValues.isEmpty() || extraLabelName != null) {
+            out.append('{');
+            for (int i = 0; i < labelValues.size(); ++i) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendLabel(out, labelNames.get(i), labelValues.get(i));
+            }
+            if (extraLabelName != null) {
+                if (!labelValues.isEmpty()) {
+                    out.append(',');
+                }
+                appendLabel(out, extraLabelName, extraLabelValue);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void appendLabel(StringBuilder out, String labelName, String labelValue) {
+        out.append(labelName).append("=\"")
+                .append(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append('"');
+    }
+
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,51 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A MetricsRegistry holds a set of metrics and renders them in the Prometheus text exposition
+ * format.
+ *
+ * Most code should record to the metrics in CubeMetrics, which are registered in the default
+ * registry. Because DatabaseHelper and the other instrumented code paths are static or shared
+ * across applications, there is one default registry per JVM, the same way a logger is shared.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Metric<?>> metrics = new ConcurrentSkipListMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, ImmutableList.copyOf(labelNames)));
+    }
+
+    public Histogram histogram(String name, String help, double[] upperBounds, String... labelNames) {
+        return register(new Histogram(name, help, ImmutableList.copyOf(labelNames), upperBounds));
+    }
+
+    private <METRIC extends Metric<?>> METRIC register(METRIC metric) {
+        if (metrics.putIfAbsent(metric.getName(), metric) != null) {
+            throw new IllegalArgumentException(
+                    "A metric named " + metric.getName() + " is already registered");
+        }
+        return metric;
+    }
+
+    /**
+     * @return Every registered metric, ordered by name, in the Prometheus text format.
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        for (Metric<?> metric : metrics.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the acceptable answers of every puzzle, keyed by their normalized forms, used to
+ * grade submissions as they arrive.
+ *
+ * Normalization folds Unicode compatibility forms and accents, ignores case, and drops
+ * everything other than letters and digits, so "Déjà vu!" and "DEJAVU" are the same answer. A
+ * submission is graded CORRECT if its normalized form is the normalized form of an acceptable
+ * answer, and INCORRECT otherwise. Submissions that can't be graded that way are left for a
+ * human: submissions to puzzles without answers, submissions with no letters or digits, and
+ * submissions that match acceptable answers of more than one of a puzzle's answers.
+ */
+public class AnswerIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Maps each puzzle id to a map from normalized acceptable answers to their canonical
+    // answers. An empty canonical answer marks a normalized form shared by different answers.
+    private final ImmutableMap<String, ImmutableMap<String, Optional<String>>> answersByPuzzleId;
+
+    public AnswerIndex(List<Puzzle> puzzles) {
+        ImmutableMap.Builder<String, ImmutableMap<String, Optional<String>>> answersByPuzzleId =
+                ImmutableMap.builder();
+        for (Puzzle puzzle : puzzles) {
+            if (puzzle.getAnswers() == null || puzzle.getAnswers().isEmpty()) {
+                continue;
+            }
+            Map<String, Optional<String>> answers = new HashMap<>();
+            for (Answer answer : puzzle.getAnswers()) {
+                for (String acceptableAnswer : answer.getAcceptableAnswers()) {
+                    String normalizedAnswer = normalize(acceptableAnswer);
+                    if (normalizedAnswer.isEmpty()) {
+                        continue;
+                    }
+                    Optional<String> canonicalAnswer = Optional.of(answer.getCanonicalAnswer());
+                    answers.merge(
+                            normalizedAnswer,
+                            canonicalAnswer,
+                            (a, b) -> a.equals(b) ? a : Optional.empty());
+                }
+            }
+            answersByPuzzleId.put(puzzle.getPuzzleId(), ImmutableMap.copyOf(answers));
+        }
+        this.answersByPuzzleId = answersByPuzzleId.build();
+    }
+
+    public static String normalize(String answer) {
+        String decomposed = Normalizer.normalize(answer, Normalizer.Form.NFKD);
+        String unaccented = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        return NON_ALPHANUMERIC.matcher(unaccented.toUpperCase(Locale.ROOT)).replaceAll("");
+    }
+
+    /**
+     * @return A copy of the submission with its status set to CORRECT, along with the canonical
+     * answer it matched, or to INCORRECT, or empty if it can't be graded automatically.
+     */
+    public Optional<Submission> grade(Submission submission) {
+        Map<String, Optional<String>> answers = answersByPuzzleId.get(submission.getPuzzleId());
+        if (answers == null || submission.getSubmission() == null) {
+            return Optional.empty();
+        }
+        String normalizedSubmission = normalize(submission.getSubmission());
+        if (normalizedSubmission.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<String> canonicalAnswer = answers.get(normalizedSubmission);
+        if (canonicalAnswer == null) {
+            return Optional.of(submission.toBuilder()
+                    .setStatus(SubmissionStatus.INCORRECT)
+                    .setCanonicalAnswer(null)
+                    .build());
+        }
+        return canonicalAnswer.map(answer -> submission.toBuilder()
+                .setStatus(SubmissionStatus.CORRECT)
+                .setCanonicalAnswer(answer)
+                .build());
+    }
+}
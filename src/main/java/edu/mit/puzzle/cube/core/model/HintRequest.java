@@ -26,6 +26,10 @@ public abstract class HintRequest {
         @JsonDeserialize(using=InstantDeserializer.class)
         public abstract Builder setTimestamp(Instant timestamp);
 
+        @JsonProperty("assignedTimestamp")
+        @JsonDeserialize(using=InstantDeserializer.class)
+        public abstract Builder setAssignedTimestamp(@Nullable Instant assignedTimestamp);
+
         public abstract HintRequest build();
     }
 
@@ -45,4 +49,9 @@ public abstract class HintRequest {
     @JsonProperty("timestamp")
     @JsonSerialize(using=InstantSerializer.class)
     public abstract Instant getTimestamp();
+
+    @Nullable
+    @JsonProperty("assignedTimestamp")
+    @JsonSerialize(using=InstantSerializer.class)
+    public abstract Instant getAssignedTimestamp();
 }
@@ -1,5 +1,6 @@
 package edu.mit.puzzle.cube.core.model;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
@@ -10,14 +11,50 @@ import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
 import edu.mit.puzzle.cube.core.events.HintCompleteEvent;
 
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stores hint requests, and hands them out to the callers who answer them.
+ *
+ * Unanswered hint requests form a queue, ordered by age. A caller claims the oldest requests in
+ * the queue with claimHintRequests, which assigns them to the caller for CLAIM_LEASE_DURATION.
+ * A request that is still ASSIGNED when its lease runs out goes back into the queue in its
+ * original position, ahead of everything requested after it, so requests abandoned by a caller
+ * are picked up again before newer ones.
+ *
+ * The queue's priority is age alone. Hint requests have no other priority for age to be weighed
+ * against, so aging is the whole ordering rather than a boost added to some other priority, and
+ * no request can be starved by newer ones. Weighing in something else, such as how many requests
+ * a team already has waiting, would need an aging term so that it can't starve old requests.
+ */
 public class HintRequestStore {
+    public static final Duration CLAIM_LEASE_DURATION = Duration.ofMinutes(30);
+
+    // Matches the requests in the queue, given the REQUESTED status, the ASSIGNED status, and the
+    // time before which a lease has run out.
+    private static final String CLAIM_QUEUE_CONDITION = "(status = ? OR " +
+            "(status = ? AND (assignedTimestamp IS NULL OR assignedTimestamp < ?)))";
+    static final String CLAIM_CANDIDATES_QUERY =
+            "SELECT hintRequestId, teamId FROM hint_requests WHERE " + CLAIM_QUEUE_CONDITION +
+            " ORDER BY hintRequestId LIMIT ?";
+    static final String TEAM_PUZZLE_HINT_REQUESTS_QUERY =
+            "SELECT * FROM hint_requests WHERE teamId = ? AND puzzleId = ?";
+
     private final ConnectionFactory connectionFactory;
     private final HuntDefinition huntDefinition;
     private final HuntStatusStore huntStatusStore;
@@ -29,9 +66,19 @@ public class HintRequestStore {
             HuntDefinition huntDefinition,
             HuntStatusStore huntStatusStore,
             EventProcessor<Event> eventProcessor
+    ) {
+        this(connectionFactory, Clock.systemUTC(), huntDefinition, huntStatusStore, eventProcessor);
+    }
+
+    public HintRequestStore(
+            ConnectionFactory connectionFactory,
+            Clock clock,
+            HuntDefinition huntDefinition,
+            HuntStatusStore huntStatusStore,
+            EventProcessor<Event> eventProcessor
     ) {
         this.connectionFactory = connectionFactory;
-        this.clock = Clock.systemUTC();
+        this.clock = clock;
         this.huntDefinition = huntDefinition;
         this.huntStatusStore = huntStatusStore;
         this.eventProcessor = eventProcessor;
@@ -41,16 +88,28 @@ public class HintRequestStore {
         if (!huntDefinition.handleHintRequest(hintRequest, huntStatusStore)) {
             return false;
         }
-        return DatabaseHelper.insert(
-                connectionFactory,
-                "INSERT INTO hint_requests (puzzleId, teamId, request, timestamp) " +
-                        "VALUES (?,?,?,?)",
-                Lists.newArrayList(
-                        hintRequest.getPuzzleId(),
-                        hintRequest.getTeamId(),
-                        hintRequest.getRequest(),
-                        Timestamp.from(clock.instant()))
-        ).isPresent();
+        try {
+            return huntStatusStore.getHuntStateVersions().write(
+                    HuntStateVersions.Table.HINT_REQUESTS,
+                    (connection, changedTeamIds) -> {
+                        boolean created = DatabaseHelper.insert(
+                                connection,
+                                "INSERT INTO hint_requests (puzzleId, teamId, request, timestamp) " +
+                                        "VALUES (?,?,?,?)",
+                                Lists.newArrayList(
+                                        hintRequest.getPuzzleId(),
+                                        hintRequest.getTeamId(),
+                                        hintRequest.getRequest(),
+                                        Timestamp.from(clock.instant()))
+                        ).isPresent();
+                        if (created) {
+                            changedTeamIds.add(hintRequest.getTeamId());
+                        }
+                        return created;
+                    }).getValue();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public boolean updateHintRequest(
@@ -59,29 +118,55 @@ public class HintRequestStore {
             @Nullable String callerUsername,
             @Nullable String response
     ) {
-        boolean updated = DatabaseHelper.update(
-                connectionFactory,
-                "UPDATE hint_requests SET status = ?, callerUsername = ?, response = ? " +
-                "WHERE hintRequestId = ? AND (status <> ? OR callerUsername <> ? OR response <> ?)",
-                Lists.newArrayList(
-                        status.toString(),
-                        callerUsername,
-                        response,
-                        hintRequestId,
-                        status.toString(),
-                        callerUsername,
-                        response
-                )
-        ) > 0;
-
-        if (updated && status.isTerminal()) {
-            HintRequest hintRequest = getHintRequest(hintRequestId).get();
+        // Assigning a request starts a new lease, and unassigning it ends the lease. Answering or
+        // rejecting it leaves the time it was assigned in place.
+        String assignedTimestampClause;
+        List<Object> parameters = Lists.newArrayList(status.toString(), callerUsername, response);
+        if (status == HintRequestStatus.ASSIGNED) {
+            assignedTimestampClause = ", assignedTimestamp = ?";
+            parameters.add(Timestamp.from(clock.instant()));
+        } else if (!status.isAssigned()) {
+            assignedTimestampClause = ", assignedTimestamp = NULL";
+        } else {
+            assignedTimestampClause = "";
+        }
+        parameters.addAll(Lists.newArrayList(
+                hintRequestId, status.toString(), callerUsername, response));
+        Optional<HintRequest> updatedHintRequest;
+        try {
+            updatedHintRequest = huntStatusStore.getHuntStateVersions().write(
+                    HuntStateVersions.Table.HINT_REQUESTS,
+                    (connection, changedTeamIds) -> {
+                        boolean updated = DatabaseHelper.update(
+                                connection,
+                                "UPDATE hint_requests SET status = ?, callerUsername = ?, response = ?" +
+                                assignedTimestampClause + " " +
+                                "WHERE hintRequestId = ? AND (status <> ? OR callerUsername <> ? OR response <> ?)",
+                                parameters
+                        ) > 0;
+                        if (!updated) {
+                            return Optional.<HintRequest>empty();
+                        }
+                        HintRequest hintRequest = DatabaseHelper.query(
+                                connection,
+                                "SELECT * FROM hint_requests WHERE hintRequestId = ?",
+                                Lists.newArrayList(hintRequestId),
+                                HintRequest.class
+                        ).get(0);
+                        changedTeamIds.add(hintRequest.getTeamId());
+                        return Optional.of(hintRequest);
+                    }).getValue();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (updatedHintRequest.isPresent() && status.isTerminal()) {
             eventProcessor.process(HintCompleteEvent.builder()
-                    .setHintRequest(hintRequest)
+                    .setHintRequest(updatedHintRequest.get())
                     .build());
         }
 
-        return updated;
+        return updatedHintRequest.isPresent();
     }
 
     public Optional<HintRequest> getHintRequest(int hintRequestId) {
@@ -102,18 +187,145 @@ public class HintRequestStore {
     }
 
     public List<HintRequest> getNonTerminalHintRequests() {
+        return getNonTerminalHintRequests(Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * @param startHintRequestId If present, only requests after this one are returned, so that
+     *                           the last id of a page can be passed to get the next page.
+     * @param pageSize If present, the maximum number of requests to return.
+     * @return The requests that haven't been answered or rejected, oldest first.
+     */
+    public List<HintRequest> getNonTerminalHintRequests(
+            Optional<Integer> startHintRequestId,
+            Optional<Integer> pageSize
+    ) {
+        List<Object> parameters = new ArrayList<>();
+        String query = getNonTerminalHintRequestsQuery(startHintRequestId, pageSize, parameters);
         return DatabaseHelper.query(
                 connectionFactory,
-                "SELECT * FROM hint_requests WHERE status <> 'ANSWERED' AND status <> 'REJECTED'",
-                ImmutableList.of(),
+                query,
+                parameters,
                 HintRequest.class
         );
     }
 
+    static String getNonTerminalHintRequestsQuery(
+            Optional<Integer> startHintRequestId,
+            Optional<Integer> pageSize,
+            List<Object> parameters
+    ) {
+        // Listing the statuses to include, rather than excluding the terminal ones, lets the
+        // query use the index on status.
+        List<String> statuses = Arrays.stream(HintRequestStatus.values())
+                .filter(status -> !status.isTerminal())
+                .map(HintRequestStatus::toString)
+                .collect(Collectors.toList());
+        parameters.addAll(statuses);
+        StringBuilder query = new StringBuilder(String.format(
+                "SELECT * FROM hint_requests WHERE status IN (%s)",
+                Joiner.on(",").join(Collections.nCopies(statuses.size(), "?"))));
+        if (startHintRequestId.isPresent()) {
+            query.append(" AND hintRequestId > ?");
+            parameters.add(startHintRequestId.get());
+        }
+        query.append(" ORDER BY hintRequestId");
+        if (pageSize.isPresent()) {
+            query.append(" LIMIT ?");
+            parameters.add(pageSize.get());
+        }
+        return query.toString();
+    }
+
+    /**
+     * Assigns up to count of the oldest requests in the queue to a caller. A request is in the
+     * queue if it is REQUESTED, or if it is ASSIGNED and its lease has run out. A request that was
+     * ASSIGNED before leases were recorded has no assignedTimestamp, and is treated as having run
+     * out. Callers that claim requests at the same time never claim the same one.
+     *
+     * @return The claimed requests, oldest first
+     */
+    public List<HintRequest> claimHintRequests(String callerUsername, int count) {
+        checkArgument(count > 0, "The number of hint requests to claim must be positive");
+        Instant now = clock.instant();
+        Timestamp leaseCutoff = Timestamp.from(now.minus(CLAIM_LEASE_DURATION));
+        List<Object> queueParameters = ImmutableList.of(
+                HintRequestStatus.REQUESTED.toString(),
+                HintRequestStatus.ASSIGNED.toString(),
+                leaseCutoff);
+
+        // Each candidate is only assigned if it is still in the queue, so a candidate that
+        // another claim took first is skipped, and replaced by the next oldest candidate. Hint
+        // requests arrive slowly enough that this doesn't need the row locking that
+        // SubmissionStore.claimSubmissions uses on databases that support it.
+        List<Integer> claimedHintRequestIds = new ArrayList<>();
+        while (claimedHintRequestIds.size() < count) {
+            List<Object> parameters = new ArrayList<>(queueParameters);
+            parameters.add(count - claimedHintRequestIds.size());
+            // The candidates are assigned in one transaction, so that a failure leaves none of
+            // them assigned. At the pool's default of SERIALIZABLE, an update of a candidate
+            // that another claim is assigning at the same time fails with a serialization error
+            // instead of being skipped, so the transaction is retried with new candidates.
+            Optional<List<Integer>> claimedIds;
+            try {
+                claimedIds = huntStatusStore.getHuntStateVersions().write(
+                        HuntStateVersions.Table.HINT_REQUESTS,
+                        (connection, changedTeamIds) -> {
+                            List<Map<String, Object>> candidates = ImmutableList.copyOf(
+                                    DatabaseHelper.query(connection, CLAIM_CANDIDATES_QUERY, parameters)
+                                            .rowMap().values());
+                            if (candidates.isEmpty()) {
+                                return Optional.<List<Integer>>empty();
+                            }
+                            List<Integer> updatedRows = DatabaseHelper.updateBatch(
+                                    connection,
+                                    "UPDATE hint_requests SET status = ?, callerUsername = ?, " +
+                                            "assignedTimestamp = ? WHERE hintRequestId = ? AND " +
+                                            CLAIM_QUEUE_CONDITION,
+                                    candidates.stream()
+                                            .map(candidate -> ImmutableList.<Object>builder()
+                                                    .add(HintRequestStatus.ASSIGNED.toString())
+                                                    .add(callerUsername)
+                                                    .add(Timestamp.from(now))
+                                                    .add(candidate.get("hintRequestId"))
+                                                    .addAll(queueParameters)
+                                                    .build())
+                                            .collect(Collectors.toList()));
+                            List<Integer> updatedIds = new ArrayList<>();
+                            for (int i = 0; i < candidates.size(); ++i) {
+                                if (DatabaseHelper.isUpdated(updatedRows.get(i))) {
+                                    updatedIds.add(((Number) candidates.get(i).get("hintRequestId")).intValue());
+                                    changedTeamIds.add((String) candidates.get(i).get("teamId"));
+                                }
+                            }
+                            return Optional.of(updatedIds);
+                        }).getValue();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            if (!claimedIds.isPresent()) {
+                break;
+            }
+            claimedHintRequestIds.addAll(claimedIds.get());
+        }
+        if (claimedHintRequestIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        List<HintRequest> claimedHintRequests = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM hint_requests WHERE hintRequestId IN (" +
+                        Joiner.on(",").join(Collections.nCopies(claimedHintRequestIds.size(), "?")) +
+                        ") ORDER BY hintRequestId",
+                ImmutableList.copyOf(claimedHintRequestIds),
+                HintRequest.class);
+        return claimedHintRequests;
+    }
+
     public List<HintRequest> getHintRequestsForTeamAndPuzzle(String teamId, String puzzleId) {
         return DatabaseHelper.query(
                 connectionFactory,
-                "SELECT * FROM hint_requests WHERE teamId = ? AND puzzleId = ?",
+                TEAM_PUZZLE_HINT_REQUESTS_QUERY,
                 ImmutableList.of(teamId, puzzleId),
                 HintRequest.class
         );
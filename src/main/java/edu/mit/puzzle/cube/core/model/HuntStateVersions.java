@@ -0,0 +1,277 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Version counters for the hunt state, which change whenever the state they cover changes, so
+ * that a resource can tell whether a client's copy of the state is still current without reading
+ * the state itself.
+ *
+ * The hunt_state_versions table has a version for the rows of each table that belong to each
+ * team. A write bumps the versions of the rows it changes in the same transaction as the change,
+ * so a committed change always moves its versions, and a version never covers a change that
+ * didn't commit. The version of a team is the sum of its versions in every table, and the version
+ * of a table is the sum of every team's versions in it, so both move up whenever anything they
+ * cover changes. A version row starts from a value derived from the clock, as EventStreamBroker
+ * sequence numbers do, so that versions handed out for an earlier database are very unlikely to
+ * come back.
+ *
+ * Versions are read from an in-memory copy of the table, so checking a version never touches the
+ * database. Writes made through this class update the copy when they commit. Writes made by other
+ * servers, and by CubeTool, are picked up by reading the table again at most once every
+ * REFRESH_INTERVAL, so they are seen within that interval.
+ */
+public class HuntStateVersions {
+    static final Duration REFRESH_INTERVAL = Duration.ofSeconds(1);
+
+    public enum Table {
+        VISIBILITIES,
+        SUBMISSIONS,
+        TEAMS,
+        HINT_REQUESTS,
+    }
+
+    /**
+     * A change to the hunt state, made in a transaction that HuntStateVersions commits after
+     * bumping the versions of the teams that the change touched. The change may be applied more
+     * than once if the transaction fails with a serialization error, so it must not have any
+     * effects outside of the transaction.
+     */
+    @FunctionalInterface
+    public interface Write<T> {
+        /**
+         * @param connection The Connection to make the change on
+         * @param changedTeamIds Collects the IDs of the teams whose rows the change touched
+         * @return The result of the change
+         */
+        T apply(Connection connection, Set<String> changedTeamIds) throws SQLException;
+    }
+
+    @AutoValue
+    public static abstract class Committed<T> {
+        static <T> Committed<T> create(@Nullable T value, ImmutableMap<String, Long> versions) {
+            return new AutoValue_HuntStateVersions_Committed<>(value, versions);
+        }
+
+        @Nullable
+        public abstract T getValue();
+
+        /**
+         * The version of each changed team's rows in the written table, as of the change.
+         */
+        public abstract ImmutableMap<String, Long> getVersions();
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final Clock clock;
+    private final String insertVersionSql;
+
+    // The in-memory copy of the table, and the sums of its versions. They are only changed while
+    // holding the lock on this, and always move up together.
+    private final Map<Table, ConcurrentMap<String, Long>> rowVersions = new EnumMap<>(Table.class);
+    private final ConcurrentMap<String, Long> teamVersions = new ConcurrentHashMap<>();
+    private final AtomicLongArray tableVersions = new AtomicLongArray(Table.values().length);
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile long nextRefreshMillis;
+
+    public HuntStateVersions(ConnectionFactory connectionFactory, Clock clock) {
+        this.connectionFactory = connectionFactory;
+        this.clock = clock;
+        this.insertVersionSql = connectionFactory.getDatabaseDialect().insertIgnoringDuplicates(
+                "hunt_state_versions",
+                ImmutableList.of("tableName", "teamId", "version"),
+                ImmutableList.of("tableName", "teamId"));
+        for (Table table : Table.values()) {
+            rowVersions.put(table, new ConcurrentHashMap<>());
+        }
+        refresh();
+    }
+
+    /**
+     * Makes a change to the rows of a table, and bumps the versions of the teams whose rows it
+     * touched, in a single transaction.
+     */
+    public <T> Committed<T> write(Table table, Write<T> write) throws SQLException {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return write(connection, table, write);
+        }
+    }
+
+    /**
+     * Makes a change in a transaction on a Connection that the caller manages, so that the
+     * caller can choose the Connection's settings, such as its isolation level. The
+     * Connection's auto-commit mode is restored afterwards.
+     */
+    public <T> Committed<T> write(Connection connection, Table table, Write<T> write) throws SQLException {
+        int retryCount = 0;
+        while (true) {
+            connection.setAutoCommit(false);
+            try {
+                Set<String> changedTeamIds = new TreeSet<>();
+                T value = write.apply(connection, changedTeamIds);
+                ImmutableMap<String, Long> versions = increment(connection, table, changedTeamIds);
+                connection.commit();
+                synchronized (this) {
+                    versions.forEach((teamId, version) -> merge(table, teamId, version));
+                }
+                return Committed.create(value, versions);
+            } catch (SQLException e) {
+                connection.rollback();
+                // 40001 is the SQLSTATE error for a serialization failure.
+                if ("40001".equals(e.getSQLState())) {
+                    ++retryCount;
+                    if (retryCount > 3) {
+                        throw e;
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    public long getTableVersion(Table table) {
+        refreshIfDue();
+        return tableVersions.get(table.ordinal());
+    }
+
+    public long getTeamVersion(String teamId) {
+        refreshIfDue();
+        // A version that has never been bumped is older than any version it can be bumped to.
+        return teamVersions.getOrDefault(teamId, 0L);
+    }
+
+    /**
+     * @return The version of the rows of a table that belong to a team
+     */
+    public long getVersion(Table table, String teamId) {
+        refreshIfDue();
+        return rowVersions.get(table).getOrDefault(teamId, 0L);
+    }
+
+    // The versions are updated in sorted order, so that concurrent writes can't deadlock.
+    private ImmutableMap<String, Long> increment(
+            Connection connection,
+            Table table,
+            Set<String> teamIds
+    ) throws SQLException {
+        if (teamIds.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        List<List<Object>> parameterLists = new ArrayList<>();
+        for (String teamId : teamIds) {
+            parameterLists.add(ImmutableList.of(table.name(), teamId));
+        }
+        List<Integer> updatedRows = DatabaseHelper.updateBatch(
+                connection,
+                "UPDATE hunt_state_versions SET version = version + 1 " +
+                        "WHERE tableName = ? AND teamId = ?",
+                parameterLists);
+        List<List<Object>> insertParameterLists = new ArrayList<>();
+        long initialVersion = clock.millis();
+        for (int i = 0; i < updatedRows.size(); ++i) {
+            if (!DatabaseHelper.isUpdated(updatedRows.get(i))) {
+                insertParameterLists.add(ImmutableList.<Object>builder()
+                        .addAll(parameterLists.get(i))
+                        .add(initialVersion)
+                        .build());
+            }
+        }
+        // If another server inserts the same version first, the insert is either ignored or, if
+        // that server's row isn't visible yet, fails with a serialization error, and the next
+        // attempt updates it instead.
+        DatabaseHelper.insertBatch(connection, insertVersionSql, insertParameterLists);
+
+        List<Object> parameters = Lists.newArrayList(table.name());
+        parameters.addAll(teamIds);
+        com.google.common.collect.Table<Integer, String, Object> results = DatabaseHelper.query(
+                connection,
+                "SELECT teamId, version FROM hunt_state_versions WHERE tableName = ? AND teamId IN (" +
+                        Joiner.on(",").join(Collections.nCopies(teamIds.size(), "?")) + ")",
+                parameters);
+        ImmutableMap.Builder<String, Long> versions = ImmutableMap.builder();
+        for (Map<String, Object> row : results.rowMap().values()) {
+            versions.put((String) row.get("teamId"), ((Number) row.get("version")).longValue());
+        }
+        return versions.build();
+    }
+
+    private void refreshIfDue() {
+        if (clock.millis() < nextRefreshMillis) {
+            return;
+        }
+        // Only one reader refreshes, and the others carry on with the versions they have.
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            if (clock.millis() >= nextRefreshMillis) {
+                refresh();
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the versions from the database, to pick up the writes made by other servers.
+     */
+    void refresh() {
+        nextRefreshMillis = clock.millis() + REFRESH_INTERVAL.toMillis();
+        com.google.common.collect.Table<Integer, String, Object> results = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT tableName, teamId, version FROM hunt_state_versions",
+                ImmutableList.of());
+        synchronized (this) {
+            for (Map<String, Object> row : results.rowMap().values()) {
+                merge(
+                        Table.valueOf((String) row.get("tableName")),
+                        (String) row.get("teamId"),
+                        ((Number) row.get("version")).longValue());
+            }
+        }
+    }
+
+    // Versions only move up, so a version read before a later write is ignored.
+    private void merge(Table table, String teamId, long version) {
+        Long oldVersion = rowVersions.get(table).get(teamId);
+        long delta = oldVersion == null ? version : version - oldVersion;
+        if (delta <= 0) {
+            return;
+        }
+        rowVersions.get(table).put(teamId, version);
+        teamVersions.merge(teamId, delta, Long::sum);
+        tableVersions.addAndGet(table.ordinal(), delta);
+    }
+}
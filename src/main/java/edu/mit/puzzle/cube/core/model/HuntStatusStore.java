@@ -3,6 +3,7 @@ package edu.mit.puzzle.cube.core.model;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
+import com.google.auto.value.AutoValue;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -11,9 +12,11 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.Striped;
 
 import edu.mit.puzzle.cube.core.db.ConnectionFactory;
 import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.db.UnitOfWork;
 import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
 import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
@@ -31,11 +34,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -47,10 +56,25 @@ public class HuntStatusStore {
     private static ObjectMapper OBJECT_MAPPER = new ObjectMapper()
             .registerModule(new GuavaModule());
 
+    private static final String INSERT_VISIBILITY_HISTORY_SQL =
+            "INSERT INTO visibility_history (teamId, puzzleId, status, timestamp) VALUES (?, ?, ?, ?)";
+    static final String TEAM_SOLVED_SUBMISSIONS_QUERY =
+            "SELECT puzzleId, canonicalAnswer FROM submissions " +
+            "WHERE teamId = ? AND canonicalAnswer IS NOT NULL";
+    static final String VISIBILITY_HISTORY_QUERY =
+            "SELECT * FROM visibility_history WHERE teamId = ? AND puzzleId = ? ORDER BY timestamp ASC";
+
     private final ConnectionFactory connectionFactory;
     private final Clock clock;
     private final VisibilityStatusSet visibilityStatusSet;
     private final EventProcessor<Event> eventProcessor;
+    private final String insertDefaultVisibilitySql;
+    private final VisibilityCache visibilityCache;
+    private final HuntStateVersions huntStateVersions;
+
+    // Held while a team's visibilities are written, so that the visibility cache sees the
+    // writes for each team in the same order as the database.
+    private final Striped<Lock> teamVisibilityLocks = Striped.lock(64);
 
     public HuntStatusStore(
         ConnectionFactory connectionFactory,
@@ -70,6 +94,17 @@ public class HuntStatusStore {
         this.clock = checkNotNull(clock);
         this.visibilityStatusSet = checkNotNull(visibilityStatusSet);
         this.eventProcessor = checkNotNull(eventProcessor);
+        this.insertDefaultVisibilitySql = connectionFactory.getDatabaseDialect().insertIgnoringDuplicates(
+                "visibilities",
+                ImmutableList.of("teamId", "puzzleId"),
+                ImmutableList.of("teamId", "puzzleId"));
+        this.huntStateVersions = new HuntStateVersions(connectionFactory, clock);
+        this.visibilityCache = VisibilityCache.load(
+                connectionFactory, visibilityStatusSet, huntStateVersions);
+    }
+
+    public HuntStateVersions getHuntStateVersions() {
+        return huntStateVersions;
     }
 
     public VisibilityStatusSet getVisibilityStatusSet() {
@@ -77,6 +112,10 @@ public class HuntStatusStore {
     }
 
     public Visibility getVisibility(String teamId, String puzzleId) {
+        Optional<Visibility> cachedVisibility = visibilityCache.getVisibility(teamId, puzzleId);
+        if (cachedVisibility.isPresent()) {
+            return cachedVisibility.get();
+        }
         return getExplicitVisibility(teamId, puzzleId)
                 .orElse(Visibility.builder()
                         .setTeamId(teamId)
@@ -90,39 +129,20 @@ public class HuntStatusStore {
             Optional<String> teamId,
             Optional<String> puzzleId
     ) {
-        String whereClause = "";
         List<Object> parameters = Lists.newArrayList();
-        if (teamId.isPresent() && puzzleId.isPresent()) {
-            whereClause = " WHERE teamId = ? AND puzzleId = ?";
-            parameters.add(teamId.get());
-            parameters.add(puzzleId.get());
-        } else if (teamId.isPresent()) {
-            whereClause = " WHERE teamId = ?";
-            parameters.add(teamId.get());
-        } else if (puzzleId.isPresent()) {
-            whereClause = " WHERE puzzleId = ?";
-            parameters.add(puzzleId.get());
-        }
-
-        String visibilitiesQuery = "SELECT teamId, puzzleId, status FROM visibilities";
-        visibilitiesQuery += whereClause;
+        teamId.ifPresent(parameters::add);
+        puzzleId.ifPresent(parameters::add);
+
         List<Visibility> visibilities = DatabaseHelper.query(
                 connectionFactory,
-                visibilitiesQuery,
+                getExplicitVisibilitiesQuery(teamId.isPresent(), puzzleId.isPresent()),
                 parameters,
                 Visibility.class
         );
 
-        String submissionsQuery = "SELECT teamId, puzzleId, canonicalAnswer FROM submissions";
-        if (whereClause.isEmpty()) {
-            submissionsQuery += " WHERE ";
-        } else {
-            submissionsQuery += whereClause + " AND ";
-        }
-        submissionsQuery += "canonicalAnswer IS NOT NULL";
         List<Submission> submissions = DatabaseHelper.query(
                 connectionFactory,
-                submissionsQuery,
+                getSolvedSubmissionsQuery(teamId.isPresent(), puzzleId.isPresent()),
                 parameters,
                 Submission.class
         );
@@ -148,9 +168,53 @@ public class HuntStatusStore {
         return visibilities;
     }
 
+    static String getExplicitVisibilitiesQuery(boolean filterByTeam, boolean filterByPuzzle) {
+        return "SELECT teamId, puzzleId, status FROM visibilities" +
+                getTeamPuzzleWhereClause(filterByTeam, filterByPuzzle);
+    }
+
+    static String getSolvedSubmissionsQuery(boolean filterByTeam, boolean filterByPuzzle) {
+        return "SELECT teamId, puzzleId, canonicalAnswer FROM submissions" +
+                getTeamPuzzleWhereClause(filterByTeam, filterByPuzzle, "canonicalAnswer IS NOT NULL");
+    }
+
+    private static String getTeamPuzzleWhereClause(
+            boolean filterByTeam,
+            boolean filterByPuzzle,
+            String... otherClauses
+    ) {
+        List<String> whereClauses = new ArrayList<>();
+        if (filterByTeam) {
+            whereClauses.add("teamId = ?");
+        }
+        if (filterByPuzzle) {
+            whereClauses.add("puzzleId = ?");
+        }
+        whereClauses.addAll(Arrays.asList(otherClauses));
+        if (whereClauses.isEmpty()) {
+            return "";
+        }
+        return " WHERE " + Joiner.on(" AND ").join(whereClauses);
+    }
+
     public List<Visibility> getVisibilitiesForTeam(String teamId) {
+        Optional<List<Visibility>> cachedVisibilities = visibilityCache.getVisibilitiesForTeam(teamId);
+        if (cachedVisibilities.isPresent()) {
+            return cachedVisibilities.get();
+        }
+        try (Connection connection = connectionFactory.getConnection()) {
+            return getVisibilitiesForTeam(connection, teamId);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<Visibility> getVisibilitiesForTeam(
+            Connection connection,
+            String teamId
+    ) throws SQLException {
         List<Visibility> visibilities = DatabaseHelper.query(
-                connectionFactory,
+                connection,
                 "SELECT " +
                 "  ? AS teamId, " +
                 "  puzzles.puzzleId AS puzzleId, " +
@@ -165,11 +229,9 @@ public class HuntStatusStore {
                 Visibility.class
         );
 
-        String submissionsQuery = "SELECT puzzleId, canonicalAnswer FROM submissions " +
-                "WHERE teamId = ? AND canonicalAnswer IS NOT NULL";
         List<Submission> submissions = DatabaseHelper.query(
-                connectionFactory,
-                submissionsQuery,
+                connection,
+                TEAM_SOLVED_SUBMISSIONS_QUERY,
                 ImmutableList.of(teamId),
                 Submission.class
         );
@@ -254,8 +316,16 @@ public class HuntStatusStore {
     }
 
     public Team getTeam(String teamId) {
+        try (Connection connection = connectionFactory.getConnection()) {
+            return getTeam(connection, teamId);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Team getTeam(Connection connection, String teamId) throws SQLException {
         Table<Integer, String, Object> teamPropertiesResults = DatabaseHelper.query(
-                connectionFactory,
+                connection,
                 "SELECT teamId, propertyKey, propertyValue FROM team_properties " +
                         "WHERE teamId = ?",
                 Lists.newArrayList(teamId)
@@ -264,7 +334,7 @@ public class HuntStatusStore {
                 deserializeTeamProperties(teamPropertiesResults).get(teamId);
 
         List<Team> teams = DatabaseHelper.query(
-                connectionFactory,
+                connection,
                 "SELECT * FROM teams WHERE teamId = ?",
                 Lists.newArrayList(teamId),
                 Team.class
@@ -298,6 +368,48 @@ public class HuntStatusStore {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Reads a team, its visibilities, its most recent submissions and its hint requests in a
+     * single transaction, so that they are all consistent with each other.
+     *
+     * @param submissionLimit The maximum number of submissions to include
+     */
+    public TeamSnapshot getTeamSnapshot(String teamId, int submissionLimit) {
+        int retryCount = 0;
+        while (true) {
+            try (Connection connection = connectionFactory.getConnection()) {
+                connection.setAutoCommit(false);
+                TeamSnapshot snapshot = TeamSnapshot.builder()
+                        .setTeam(getTeam(connection, teamId))
+                        .setVisibilities(getVisibilitiesForTeam(connection, teamId))
+                        .setSubmissions(DatabaseHelper.query(
+                                connection,
+                                "SELECT * FROM submissions WHERE teamId = ? " +
+                                        "ORDER BY submissionId DESC LIMIT ?",
+                                Lists.newArrayList(teamId, submissionLimit),
+                                Submission.class))
+                        .setHintRequests(DatabaseHelper.query(
+                                connection,
+                                "SELECT * FROM hint_requests WHERE teamId = ? ORDER BY hintRequestId",
+                                Lists.newArrayList(teamId),
+                                HintRequest.class))
+                        .build();
+                connection.commit();
+                return snapshot;
+            } catch (SQLException e) {
+                // 40001 is the SQLSTATE error for a serialization failure.
+                if ("40001".equals(e.getSQLState())) {
+                    ++retryCount;
+                    if (retryCount > 3) {
+                        throw new RuntimeException(e);
+                    }
+                } else {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
     public boolean setTeamProperty(
             String teamId,
             Class<? extends Team.Property> propertyClass,
@@ -314,22 +426,30 @@ public class HuntStatusStore {
             throw new RuntimeException(e);
         }
 
-        Optional<Integer> generatedId = DatabaseHelper.insert(
-                connectionFactory,
-                "INSERT INTO team_properties (teamId, propertyKey, propertyValue) SELECT ?, ?, ? " +
-                "WHERE NOT EXISTS (SELECT 1 FROM team_properties WHERE teamId = ? AND propertyKey = ?)",
-                Lists.newArrayList(teamId, propertyKey, propertyValue, teamId, propertyKey));
-        if (generatedId.isPresent()) {
-            return true;
+        try {
+            return huntStateVersions.write(HuntStateVersions.Table.TEAMS, (connection, changedTeamIds) -> {
+                Optional<Integer> generatedId = DatabaseHelper.insert(
+                        connection,
+                        "INSERT INTO team_properties (teamId, propertyKey, propertyValue) SELECT ?, ?, ? " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM team_properties WHERE teamId = ? AND propertyKey = ?)",
+                        Lists.newArrayList(teamId, propertyKey, propertyValue, teamId, propertyKey));
+                if (!generatedId.isPresent()) {
+                    int updates = DatabaseHelper.update(
+                            connection,
+                            "UPDATE team_properties SET propertyValue = ? " +
+                                    "WHERE teamId = ? AND propertyKey = ?",
+                            Lists.newArrayList(propertyValue, teamId, propertyKey)
+                    );
+                    if (updates == 0) {
+                        return false;
+                    }
+                }
+                changedTeamIds.add(teamId);
+                return true;
+            }).getValue();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
-
-        int updates = DatabaseHelper.update(
-                connectionFactory,
-                "UPDATE team_properties SET propertyValue = ? " +
-                        "WHERE teamId = ? AND propertyKey = ?",
-                Lists.newArrayList(propertyValue, teamId, propertyKey)
-        );
-        return updates > 0;
     }
 
     public <P extends Team.Property> boolean mutateTeamProperty(
@@ -337,63 +457,57 @@ public class HuntStatusStore {
             Class<P> propertyClass,
             Function<P, P> mutator) {
         String propertyKey = propertyClass.getSimpleName();
-        int retryCount = 0;
-        while (true) {
-            try (
-                    Connection connection = connectionFactory.getConnection();
-                    PreparedStatement getPropertyStatement = connection.prepareStatement(
-                            "SELECT propertyValue FROM team_properties WHERE teamId = ? AND propertyKey = ?");
-                    PreparedStatement updatePropertyStatement = connection.prepareStatement(
-                            "UPDATE team_properties SET propertyValue = ? WHERE teamId = ? AND propertyKey = ?")
-            ) {
-                connection.setAutoCommit(false);
-
-                getPropertyStatement.setString(1, teamId);
-                getPropertyStatement.setString(2, propertyKey);
-                ResultSet resultSet = getPropertyStatement.executeQuery();
-                if (!resultSet.next()) {
-                    throw new RuntimeException("failed to read team property from database");
-                }
-                P property = OBJECT_MAPPER.readValue(resultSet.getString(1), propertyClass);
-
-                P mutatedProperty = mutator.apply(property);
-                String mutatedPropertyJson = OBJECT_MAPPER.writeValueAsString(mutatedProperty);
-
-                updatePropertyStatement.setString(1, mutatedPropertyJson);
-                updatePropertyStatement.setString(2, teamId);
-                updatePropertyStatement.setString(3, propertyKey);
-                boolean updated = updatePropertyStatement.executeUpdate() > 0;
+        try {
+            return huntStateVersions.write(HuntStateVersions.Table.TEAMS, (connection, changedTeamIds) -> {
+                try (
+                        PreparedStatement getPropertyStatement = connection.prepareStatement(
+                                "SELECT propertyValue FROM team_properties WHERE teamId = ? AND propertyKey = ?");
+                        PreparedStatement updatePropertyStatement = connection.prepareStatement(
+                                "UPDATE team_properties SET propertyValue = ? WHERE teamId = ? AND propertyKey = ?")
+                ) {
+                    getPropertyStatement.setString(1, teamId);
+                    getPropertyStatement.setString(2, propertyKey);
+                    ResultSet resultSet = getPropertyStatement.executeQuery();
+                    if (!resultSet.next()) {
+                        throw new RuntimeException("failed to read team property from database");
+                    }
+                    P property = OBJECT_MAPPER.readValue(resultSet.getString(1), propertyClass);
 
-                connection.commit();
+                    P mutatedProperty = mutator.apply(property);
+                    String mutatedPropertyJson = OBJECT_MAPPER.writeValueAsString(mutatedProperty);
 
-                return updated;
-            } catch (SQLException e) {
-                // 40001 is the SQLSTATE error for a serialization failure.
-                if (e.getSQLState().equals("40001")) {
-                    ++retryCount;
-                    if (retryCount > 3) {
-                        throw new RuntimeException(e);
+                    updatePropertyStatement.setString(1, mutatedPropertyJson);
+                    updatePropertyStatement.setString(2, teamId);
+                    updatePropertyStatement.setString(3, propertyKey);
+                    if (updatePropertyStatement.executeUpdate() == 0) {
+                        return false;
                     }
-                } else {
+                    changedTeamIds.add(teamId);
+                    return true;
+                } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            }).getValue();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
     }
 
     public void addTeam(Team team) {
-        try (
-                Connection connection = connectionFactory.getConnection();
-                PreparedStatement insertTeamStatement = connection.prepareStatement(
-                        "INSERT INTO teams (teamId, email, primaryPhone, secondaryPhone) VALUES (?,?,?,?)")
-        ) {
-            insertTeamStatement.setString(1, team.getTeamId());
-            insertTeamStatement.setString(2, team.getEmail());
-            insertTeamStatement.setString(3, team.getPrimaryPhone());
-            insertTeamStatement.setString(4, team.getSecondaryPhone());
-            insertTeamStatement.executeUpdate();
+        try {
+            huntStateVersions.write(HuntStateVersions.Table.TEAMS, (connection, changedTeamIds) -> {
+                try (PreparedStatement insertTeamStatement = connection.prepareStatement(
+                        "INSERT INTO teams (teamId, email, primaryPhone, secondaryPhone) VALUES (?,?,?,?)")) {
+                    insertTeamStatement.setString(1, team.getTeamId());
+                    insertTeamStatement.setString(2, team.getEmail());
+                    insertTeamStatement.setString(3, team.getPrimaryPhone());
+                    insertTeamStatement.setString(4, team.getSecondaryPhone());
+                    insertTeamStatement.executeUpdate();
+                }
+                changedTeamIds.add(team.getTeamId());
+                return null;
+            });
+            visibilityCache.addTeam(team.getTeamId());
         } catch (SQLException e) {
             throw new ResourceException(
                     Status.CLIENT_ERROR_BAD_REQUEST.getCode(),
@@ -403,17 +517,22 @@ public class HuntStatusStore {
     }
 
     public boolean updateTeam(Team team) {
-        try (
-                Connection connection = connectionFactory.getConnection();
-                PreparedStatement insertTeamStatement = connection.prepareStatement(
+        try {
+            return huntStateVersions.write(HuntStateVersions.Table.TEAMS, (connection, changedTeamIds) -> {
+                try (PreparedStatement insertTeamStatement = connection.prepareStatement(
                         "UPDATE teams SET email = ?, primaryPhone = ?, secondaryPhone = ? " +
-                        "WHERE teamId = ?")
-        ) {
-            insertTeamStatement.setString(1, team.getEmail());
-            insertTeamStatement.setString(2, team.getPrimaryPhone());
-            insertTeamStatement.setString(3, team.getSecondaryPhone());
-            insertTeamStatement.setString(4, team.getTeamId());
-            return insertTeamStatement.executeUpdate() > 0;
+                        "WHERE teamId = ?")) {
+                    insertTeamStatement.setString(1, team.getEmail());
+                    insertTeamStatement.setString(2, team.getPrimaryPhone());
+                    insertTeamStatement.setString(3, team.getSecondaryPhone());
+                    insertTeamStatement.setString(4, team.getTeamId());
+                    if (insertTeamStatement.executeUpdate() == 0) {
+                        return false;
+                    }
+                }
+                changedTeamIds.add(team.getTeamId());
+                return true;
+            }).getValue();
         } catch (SQLException e) {
             throw new ResourceException(
                     Status.CLIENT_ERROR_BAD_REQUEST.getCode(),
@@ -433,13 +552,26 @@ public class HuntStatusStore {
         }
     }
 
-    private boolean createExplicitDefaultVisibility(String teamId, String puzzleId) {
-        Optional<Integer> generatedId = DatabaseHelper.insert(
-                connectionFactory,
-                "INSERT INTO visibilities (teamId, puzzleId) SELECT ?, ? " +
-                "WHERE NOT EXISTS (SELECT 1 FROM visibilities WHERE teamId = ? AND puzzleId = ?)",
-                Lists.newArrayList(teamId, puzzleId, teamId, puzzleId));
-        return generatedId.isPresent();
+    /**
+     * @param submissionsVersion The version of the team's submissions as of the change to the
+     *                           submission
+     */
+    void updateCachedSolvedAnswers(Submission submission, long submissionsVersion) {
+        visibilityCache.setSolvedAnswer(
+                submission.getTeamId(),
+                submission.getPuzzleId(),
+                submission.getSubmissionId(),
+                submission.getCanonicalAnswer(),
+                submissionsVersion);
+    }
+
+    /**
+     * Records changes to submissions that didn't change any canonical answers.
+     *
+     * @param submissionsVersions The version of each changed team's submissions as of the change
+     */
+    void updateCachedSubmissionsVersions(Map<String, Long> submissionsVersions) {
+        submissionsVersions.forEach(visibilityCache::setSubmissionsVersion);
     }
 
     public boolean setVisibility(
@@ -461,20 +593,112 @@ public class HuntStatusStore {
             Table<String,String,String> teamPuzzleStatusTable,
             boolean isExternallyInitiated
     ) {
-        List<VisibilityChangeEvent> changeEvents =
-            teamPuzzleStatusTable.cellSet().stream()
-                .map(teamPuzzleStatusTableCell -> setSingleVisibility(
-                        teamPuzzleStatusTableCell.getRowKey(),
-                        teamPuzzleStatusTableCell.getColumnKey(),
-                        teamPuzzleStatusTableCell.getValue(),
-                        isExternallyInitiated))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
+        // Cells that move to the same status share the same allowed antecedent statuses, so
+        // each group can be applied with a single batched UPDATE statement.
+        Map<String, List<Table.Cell<String,String,String>>> cellsByStatus =
+                teamPuzzleStatusTable.cellSet().stream()
+                        .filter(cell -> visibilityStatusSet.isAllowedStatus(cell.getValue()))
+                        .collect(Collectors.groupingBy(Table.Cell::getValue));
+        if (cellsByStatus.isEmpty()) {
+            return false;
+        }
+
+        HuntStateVersions.Committed<List<Table.Cell<String,String,String>>> updatedCells;
+        List<Lock> locks = Lists.newArrayList(
+                teamVisibilityLocks.bulkGet(teamPuzzleStatusTable.rowKeySet()));
+        // The pinned connection must not be held while blocking on another writer, or enough
+        // concurrent writers could drain the pool.
+        for (Lock lock : locks) {
+            if (!lock.tryLock()) {
+                UnitOfWork.releasePinnedConnection();
+                lock.lock();
+            }
+        }
+        try {
+            updatedCells = applyVisibilityBatch(cellsByStatus, Timestamp.from(clock.instant()));
+            for (Table.Cell<String,String,String> cell : updatedCells.getValue()) {
+                visibilityCache.setStatus(
+                        cell.getRowKey(),
+                        cell.getColumnKey(),
+                        cell.getValue(),
+                        updatedCells.getVersions().get(cell.getRowKey()));
+            }
+        } finally {
+            Lists.reverse(locks).forEach(Lock::unlock);
+        }
+
+        List<VisibilityChangeEvent> changeEvents = updatedCells.getValue().stream()
+                .map(cell -> VisibilityChangeEvent.builder()
+                        .setVisibility(Visibility.builder()
+                                .setTeamId(cell.getRowKey())
+                                .setPuzzleId(cell.getColumnKey())
+                                .setStatus(cell.getValue())
+                                .build())
+                        .build())
                 .collect(Collectors.toList());
         eventProcessor.processBatch(changeEvents);
         return !changeEvents.isEmpty();
     }
 
+    private HuntStateVersions.Committed<List<Table.Cell<String,String,String>>> applyVisibilityBatch(
+            Map<String, List<Table.Cell<String,String,String>>> cellsByStatus,
+            Timestamp timestamp
+    ) {
+        try {
+            return huntStateVersions.write(HuntStateVersions.Table.VISIBILITIES, (connection, changedTeamIds) -> {
+                //Create with default status if necessary first
+                DatabaseHelper.updateBatch(
+                        connection,
+                        insertDefaultVisibilitySql,
+                        cellsByStatus.values().stream()
+                                .flatMap(List::stream)
+                                .map(cell -> ImmutableList.<Object>of(
+                                        cell.getRowKey(), cell.getColumnKey()))
+                                .collect(Collectors.toList()));
+
+                List<Table.Cell<String,String,String>> updatedCells = Lists.newArrayList();
+                for (Map.Entry<String, List<Table.Cell<String,String,String>>> entry :
+                        cellsByStatus.entrySet()) {
+                    String status = entry.getKey();
+                    Set<String> allowedCurrentStatuses =
+                            visibilityStatusSet.getAllowedAntecedents(status);
+                    if (allowedCurrentStatuses.isEmpty()) {
+                        continue;
+                    }
+                    List<Table.Cell<String,String,String>> cells = entry.getValue();
+                    List<Integer> updatedRows = DatabaseHelper.updateBatch(
+                            connection,
+                            getUpdateVisibilitySql(allowedCurrentStatuses),
+                            cells.stream()
+                                    .map(cell -> ImmutableList.<Object>builder()
+                                            .add(status, cell.getRowKey(), cell.getColumnKey())
+                                            .addAll(allowedCurrentStatuses)
+                                            .build())
+                                    .collect(Collectors.toList()));
+                    for (int i = 0; i < cells.size(); ++i) {
+                        if (DatabaseHelper.isUpdated(updatedRows.get(i))) {
+                            updatedCells.add(cells.get(i));
+                            changedTeamIds.add(cells.get(i).getRowKey());
+                        }
+                    }
+                }
+
+                //Log the history of everything we updated.
+                DatabaseHelper.insertBatch(
+                        connection,
+                        INSERT_VISIBILITY_HISTORY_SQL,
+                        updatedCells.stream()
+                                .map(cell -> ImmutableList.<Object>of(
+                                        cell.getRowKey(), cell.getColumnKey(), cell.getValue(), timestamp))
+                                .collect(Collectors.toList()));
+
+                return updatedCells;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private Optional<VisibilityChangeEvent> setSingleVisibility(
             String teamId,
             String puzzleId,
@@ -484,68 +708,253 @@ public class HuntStatusStore {
         if (!visibilityStatusSet.isAllowedStatus(status)) {
             return Optional.empty();
         }
+        Set<String> allowedCurrentStatuses = visibilityStatusSet.getAllowedAntecedents(status);
+        Timestamp timestamp = Timestamp.from(clock.instant());
+
+        Lock lock = teamVisibilityLocks.get(teamId);
+        if (!lock.tryLock()) {
+            UnitOfWork.releasePinnedConnection();
+            lock.lock();
+        }
+        try {
+            Optional<Long> visibilitiesVersion = applySingleVisibility(
+                    teamId, puzzleId, status, allowedCurrentStatuses, timestamp);
+            if (!visibilitiesVersion.isPresent()) {
+                return Optional.empty();
+            }
+            visibilityCache.setStatus(teamId, puzzleId, status, visibilitiesVersion.get());
+        } finally {
+            lock.unlock();
+        }
+
+        return Optional.of(VisibilityChangeEvent.builder()
+                .setVisibility(Visibility.builder()
+                        .setTeamId(teamId)
+                        .setPuzzleId(puzzleId)
+                        .setStatus(status)
+                        .build())
+                .build());
+    }
+
+    /**
+     * @return The version of the team's visibilities as of the change, or empty if the
+     * visibility wasn't changed
+     */
+    private Optional<Long> applySingleVisibility(
+            String teamId,
+            String puzzleId,
+            String status,
+            Set<String> allowedCurrentStatuses,
+            Timestamp timestamp
+    ) {
+        // Creating the default row, moving it to the new status and logging the history all
+        // happen in a single transaction on a single connection.
+        try {
+            return Optional.ofNullable(huntStateVersions.write(
+                    HuntStateVersions.Table.VISIBILITIES,
+                    (connection, changedTeamIds) -> {
+                        if (transitionVisibility(
+                                connection, teamId, puzzleId, status, allowedCurrentStatuses, timestamp)) {
+                            changedTeamIds.add(teamId);
+                        }
+                        return null;
+                    }).getVersions().get(teamId));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean transitionVisibility(
+            Connection connection,
+            String teamId,
+            String puzzleId,
+            String status,
+            Set<String> allowedCurrentStatuses,
+            Timestamp timestamp
+    ) throws SQLException {
         //Create with default status if necessary first
-        createExplicitDefaultVisibility(teamId, puzzleId);
+        try (PreparedStatement insertDefaultStatement =
+                     connection.prepareStatement(insertDefaultVisibilitySql)) {
+            insertDefaultStatement.setString(1, teamId);
+            insertDefaultStatement.setString(2, puzzleId);
+            insertDefaultStatement.executeUpdate();
+        }
 
-        Set<String> allowedCurrentStatuses = visibilityStatusSet.getAllowedAntecedents(status);
         if (allowedCurrentStatuses.isEmpty()) {
-            return Optional.empty();
+            return false;
         }
 
-        String preparedUpdateSql = "UPDATE visibilities SET status = ? " +
-                "WHERE teamId = ? AND puzzleId = ?" + " AND ";
-        List<Object> preparedParameters = Lists.newArrayList(status, teamId, puzzleId);
-        preparedUpdateSql += "(" +
-                Joiner.on(" OR ").join(allowedCurrentStatuses.stream()
-                        .map(s -> "status = ?")
-                        .collect(Collectors.toList())) +
-                ")";
-        preparedParameters.addAll(allowedCurrentStatuses);
-
-        int updates = DatabaseHelper.update(
-                connectionFactory,
-                preparedUpdateSql,
-                preparedParameters
-        );
+        try (PreparedStatement updateStatement = connection.prepareStatement(
+                getUpdateVisibilitySql(allowedCurrentStatuses))) {
+            updateStatement.setString(1, status);
+            updateStatement.setString(2, teamId);
+            updateStatement.setString(3, puzzleId);
+            int parameterIndex = 4;
+            for (String allowedCurrentStatus : allowedCurrentStatuses) {
+                updateStatement.setString(parameterIndex++, allowedCurrentStatus);
+            }
+            if (updateStatement.executeUpdate() == 0) {
+                return false;
+            }
+        }
 
         //If we made an update, log the history.
-        if (updates > 0) {
-            DatabaseHelper.update(
-                    connectionFactory,
-                    "INSERT INTO visibility_history (teamId, puzzleId, status, timestamp) VALUES (?, ?, ?, ?)",
-                    Lists.newArrayList(teamId, puzzleId, status, Timestamp.from(clock.instant())));
-
-            return Optional.of(VisibilityChangeEvent.builder()
-                    .setVisibility(Visibility.builder()
-                            .setTeamId(teamId)
-                            .setPuzzleId(puzzleId)
-                            .setStatus(status)
-                            .build())
-                    .build());
-        } else {
-            return Optional.empty();
+        try (PreparedStatement insertHistoryStatement = connection.prepareStatement(
+                INSERT_VISIBILITY_HISTORY_SQL)) {
+            insertHistoryStatement.setString(1, teamId);
+            insertHistoryStatement.setString(2, puzzleId);
+            insertHistoryStatement.setString(3, status);
+            insertHistoryStatement.setTimestamp(4, timestamp);
+            insertHistoryStatement.executeUpdate();
         }
+        return true;
+    }
 
+    private static String getUpdateVisibilitySql(Set<String> allowedCurrentStatuses) {
+        return "UPDATE visibilities SET status = ? " +
+                "WHERE teamId = ? AND puzzleId = ? AND status IN (" +
+                Joiner.on(",").join(Collections.nCopies(allowedCurrentStatuses.size(), "?")) +
+                ")";
     }
 
     public List<VisibilityChange> getVisibilityHistory(String teamId, String puzzleId) {
         return DatabaseHelper.query(
                 connectionFactory,
-                "SELECT * FROM visibility_history WHERE " +
-                        "teamId = ? AND puzzleId = ? ORDER BY timestamp ASC",
+                VISIBILITY_HISTORY_QUERY,
                 Lists.newArrayList(teamId, puzzleId),
                 VisibilityChange.class
         );
     }
 
-    // TODO: introduce some filtering and/or pagination on this API - always reading all
-    // visibility changes may not scale.
+    @AutoValue
+    public static abstract class VisibilityChangeFilterOptions {
+        @AutoValue.Builder
+        public static abstract class Builder {
+            public abstract Builder setTeamId(Optional<String> teamId);
+            public abstract Builder setPuzzleId(Optional<String> puzzleId);
+            public abstract Builder setStartTimestamp(Optional<Instant> startTimestamp);
+            public abstract Builder setEndTimestamp(Optional<Instant> endTimestamp);
+
+            public abstract VisibilityChangeFilterOptions build();
+        }
+
+        public static Builder builder() {
+            return new AutoValue_HuntStatusStore_VisibilityChangeFilterOptions.Builder()
+                    .setTeamId(Optional.empty())
+                    .setPuzzleId(Optional.empty())
+                    .setStartTimestamp(Optional.empty())
+                    .setEndTimestamp(Optional.empty());
+        }
+
+        public abstract Optional<String> getTeamId();
+        public abstract Optional<String> getPuzzleId();
+        // Inclusive.
+        public abstract Optional<Instant> getStartTimestamp();
+        // Exclusive.
+        public abstract Optional<Instant> getEndTimestamp();
+    }
+
+    @AutoValue
+    public static abstract class VisibilityChangePaginationOptions {
+        @AutoValue.Builder
+        public static abstract class Builder {
+            public abstract Builder setStartVisibilityHistoryId(Optional<Integer> startVisibilityHistoryId);
+            public abstract Builder setPageSize(Optional<Integer> pageSize);
+
+            public abstract VisibilityChangePaginationOptions build();
+        }
+
+        public static Builder builder() {
+            return new AutoValue_HuntStatusStore_VisibilityChangePaginationOptions.Builder()
+                    .setStartVisibilityHistoryId(Optional.empty())
+                    .setPageSize(Optional.empty());
+        }
+
+        public static VisibilityChangePaginationOptions none() {
+            return builder().build();
+        }
+
+        // Exclusive: a page starts after the last visibilityHistoryId of the previous page.
+        public abstract Optional<Integer> getStartVisibilityHistoryId();
+        public abstract Optional<Integer> getPageSize();
+    }
+
     public List<VisibilityChange> getVisibilityChanges() {
+        return getVisibilityChanges(
+                VisibilityChangeFilterOptions.builder().build(),
+                VisibilityChangePaginationOptions.none()
+        );
+    }
+
+    public List<VisibilityChange> getVisibilityChanges(
+            VisibilityChangeFilterOptions filterOptions,
+            VisibilityChangePaginationOptions paginationOptions
+    ) {
+        ImmutableList.Builder<Object> parameterList = ImmutableList.builder();
+        String query = getVisibilityChangesQuery(filterOptions, paginationOptions, parameterList);
         return DatabaseHelper.query(
                 connectionFactory,
-                "SELECT * FROM visibility_history",
-                ImmutableList.<Object>of(),
+                query,
+                parameterList.build(),
                 VisibilityChange.class
         );
     }
+
+    /**
+     * Like getVisibilityChanges, but passes each visibility change to a consumer as it is read
+     * from the database instead of collecting them into a list.
+     */
+    public void forEachVisibilityChange(
+            VisibilityChangeFilterOptions filterOptions,
+            VisibilityChangePaginationOptions paginationOptions,
+            Consumer<VisibilityChange> consumer
+    ) {
+        ImmutableList.Builder<Object> parameterList = ImmutableList.builder();
+        String query = getVisibilityChangesQuery(filterOptions, paginationOptions, parameterList);
+        DatabaseHelper.queryForEach(
+                connectionFactory,
+                query,
+                parameterList.build(),
+                VisibilityChange.class,
+                consumer
+        );
+    }
+
+    static String getVisibilityChangesQuery(
+            VisibilityChangeFilterOptions filterOptions,
+            VisibilityChangePaginationOptions paginationOptions,
+            ImmutableList.Builder<Object> parameterList
+    ) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT * FROM visibility_history");
+        List<String> whereClauses = new ArrayList<>();
+        if (filterOptions.getTeamId().isPresent()) {
+            whereClauses.add("teamId = ?");
+            parameterList.add(filterOptions.getTeamId().get());
+        }
+        if (filterOptions.getPuzzleId().isPresent()) {
+            whereClauses.add("puzzleId = ?");
+            parameterList.add(filterOptions.getPuzzleId().get());
+        }
+        if (filterOptions.getStartTimestamp().isPresent()) {
+            whereClauses.add("timestamp >= ?");
+            parameterList.add(Timestamp.from(filterOptions.getStartTimestamp().get()));
+        }
+        if (filterOptions.getEndTimestamp().isPresent()) {
+            whereClauses.add("timestamp < ?");
+            parameterList.add(Timestamp.from(filterOptions.getEndTimestamp().get()));
+        }
+        if (paginationOptions.getStartVisibilityHistoryId().isPresent()) {
+            whereClauses.add("visibilityHistoryId > ?");
+            parameterList.add(paginationOptions.getStartVisibilityHistoryId().get());
+        }
+        if (!whereClauses.isEmpty()) {
+            query.append(String.format(" WHERE %s", Joiner.on(" AND ").join(whereClauses)));
+        }
+        query.append(" ORDER BY visibilityHistoryId");
+        if (paginationOptions.getPageSize().isPresent()) {
+            query.append(String.format(" LIMIT %d", paginationOptions.getPageSize().get()));
+        }
+        return query.toString();
+    }
 }
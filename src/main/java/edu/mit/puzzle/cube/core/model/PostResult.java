@@ -13,6 +13,7 @@ public abstract class PostResult {
         @Nullable @JsonProperty("created") public abstract Builder setCreated(Boolean created);
         @Nullable @JsonProperty("processed") public abstract Builder setProcessed(Boolean processed);
         @Nullable @JsonProperty("updated") public abstract Builder setUpdated(Boolean updated);
+        @Nullable @JsonProperty("submission") public abstract Builder setSubmission(Submission submission);
         public abstract PostResult build();
     }
 
@@ -34,4 +35,13 @@ public abstract class PostResult {
     @JsonProperty("updated")
     @JsonInclude(JsonInclude.Include.NON_NULL)
     public abstract Boolean getUpdated();
+
+    /**
+     * For a new submission, the submission that was created, or the earlier submission that it
+     * duplicated.
+     */
+    @Nullable
+    @JsonProperty("submission")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public abstract Submission getSubmission();
 }
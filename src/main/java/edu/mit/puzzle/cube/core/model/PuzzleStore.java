@@ -29,4 +29,8 @@ public class PuzzleStore {
         }
         return puzzle;
     }
+
+    public boolean hasPuzzle(String puzzleId) {
+        return puzzles.containsKey(puzzleId);
+    }
 }
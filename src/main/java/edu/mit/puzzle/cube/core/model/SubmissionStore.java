@@ -4,8 +4,11 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+import com.google.common.hash.Hashing;
 
 import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseDialect;
 import edu.mit.puzzle.cube.core.db.DatabaseHelper;
 import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
@@ -14,14 +17,23 @@ import edu.mit.puzzle.cube.core.events.SubmissionCompleteEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class SubmissionStore {
@@ -31,35 +43,210 @@ public class SubmissionStore {
     private final ConnectionFactory connectionFactory;
     private final Clock clock;
     private final EventProcessor<Event> eventProcessor;
+    private final HuntStatusStore huntStatusStore;
+    private final Optional<AnswerIndex> answerIndex;
+
+    // The submission_keys table is the only record of which submissions are duplicates, so that
+    // rows deleted or added by other servers or by CubeTool are always seen.
+    private final String insertSubmissionKeySql;
+
+    @AutoValue
+    abstract static class SubmissionKey {
+        static SubmissionKey create(String teamId, String puzzleId, String submissionHash) {
+            return new AutoValue_SubmissionStore_SubmissionKey(teamId, puzzleId, submissionHash);
+        }
+
+        /**
+         * @return The key of a submission, or empty if it has nothing left after normalization,
+         * in which case it is never treated as a duplicate.
+         */
+        static Optional<SubmissionKey> forSubmission(Submission submission) {
+            if (submission.getSubmission() == null) {
+                return Optional.empty();
+            }
+            String normalizedSubmission = AnswerIndex.normalize(submission.getSubmission());
+            if (normalizedSubmission.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(create(
+                    submission.getTeamId(),
+                    submission.getPuzzleId(),
+                    Hashing.sha256().hashString(normalizedSubmission, StandardCharsets.UTF_8)
+                            .toString()));
+        }
+
+        abstract String getTeamId();
+        abstract String getPuzzleId();
+
+        /**
+         * The hex SHA-256 of the normalized submission, which keeps the key bounded however long
+         * the submission is.
+         */
+        abstract String getSubmissionHash();
+    }
 
     public SubmissionStore(
             ConnectionFactory connectionFactory,
-            EventProcessor<Event> eventProcessor
+            EventProcessor<Event> eventProcessor,
+            HuntStatusStore huntStatusStore
     ) {
-        this(connectionFactory, Clock.systemUTC(), eventProcessor);
+        this(connectionFactory, eventProcessor, huntStatusStore, Optional.empty());
+    }
+
+    public SubmissionStore(
+            ConnectionFactory connectionFactory,
+            EventProcessor<Event> eventProcessor,
+            HuntStatusStore huntStatusStore,
+            Optional<AnswerIndex> answerIndex
+    ) {
+        this(connectionFactory, Clock.systemUTC(), eventProcessor, huntStatusStore, answerIndex);
     }
 
     public SubmissionStore(
             ConnectionFactory connectionFactory,
             Clock clock,
-            EventProcessor<Event> eventProcessor
+            EventProcessor<Event> eventProcessor,
+            HuntStatusStore huntStatusStore
+    ) {
+        this(connectionFactory, clock, eventProcessor, huntStatusStore, Optional.empty());
+    }
+
+    /**
+     * @param answerIndex If present, new submissions that it can grade are stored as CORRECT or
+     *                    INCORRECT, and only the others are left SUBMITTED for a human to grade.
+     */
+    public SubmissionStore(
+            ConnectionFactory connectionFactory,
+            Clock clock,
+            EventProcessor<Event> eventProcessor,
+            HuntStatusStore huntStatusStore,
+            Optional<AnswerIndex> answerIndex
     ) {
         this.connectionFactory = checkNotNull(connectionFactory);
         this.clock = checkNotNull(clock);
         this.eventProcessor = checkNotNull(eventProcessor);
+        this.huntStatusStore = checkNotNull(huntStatusStore);
+        this.answerIndex = checkNotNull(answerIndex);
+        this.insertSubmissionKeySql = connectionFactory.getDatabaseDialect().insertIgnoringDuplicates(
+                "submission_keys",
+                ImmutableList.of("teamId", "puzzleId", "submissionHash"),
+                ImmutableList.of("teamId", "puzzleId", "submissionHash"));
     }
 
-    public boolean addSubmission(Submission submission) {
-        return DatabaseHelper.insert(
-                connectionFactory,
-                "INSERT INTO submissions (puzzleId, teamId, submission, timestamp) " +
-                        "VALUES (?,?,?,?)",
-                Lists.newArrayList(
-                        submission.getPuzzleId(),
-                        submission.getTeamId(),
-                        submission.getSubmission(),
-                        Timestamp.from(clock.instant()))
-        ).isPresent();
+    @AutoValue
+    public static abstract class AddResult {
+        static AddResult create(int submissionId, boolean created) {
+            return new AutoValue_SubmissionStore_AddResult(submissionId, created);
+        }
+
+        public abstract int getSubmissionId();
+
+        /**
+         * False if the submission duplicated an earlier one, in which case nothing was added and
+         * the submission ID is the earlier submission's.
+         */
+        public abstract boolean isCreated();
+    }
+
+    /**
+     * Adds a submission, unless the team has already made the same submission for the puzzle,
+     * after normalizing it the way AnswerIndex does.
+     *
+     * @return the ID of the new submission or of the earlier duplicate, or empty if it could not
+     * be added
+     */
+    public Optional<AddResult> addSubmission(Submission submission) {
+        Optional<SubmissionKey> key = SubmissionKey.forSubmission(submission);
+        Optional<Submission> gradedSubmission = answerIndex.flatMap(index -> index.grade(submission));
+        SubmissionStatus status = gradedSubmission.isPresent()
+                ? gradedSubmission.get().getStatus()
+                : SubmissionStatus.getDefault();
+
+        // The key is claimed first, in the same transaction as the submission, so the unique key
+        // decides which of a set of concurrent duplicates is added, on this server or any other.
+        // A duplicate's transaction changes nothing, and doesn't bump the submissions version.
+        HuntStateVersions.Committed<Optional<AddResult>> committed;
+        try {
+            committed = huntStatusStore.getHuntStateVersions().write(
+                    HuntStateVersions.Table.SUBMISSIONS,
+                    (connection, changedTeamIds) -> {
+                        if (key.isPresent()) {
+                            int insertedKeys = DatabaseHelper.update(
+                                    connection,
+                                    insertSubmissionKeySql,
+                                    Lists.newArrayList(
+                                            key.get().getTeamId(),
+                                            key.get().getPuzzleId(),
+                                            key.get().getSubmissionHash()));
+                            if (!DatabaseHelper.isUpdated(insertedKeys)) {
+                                return loadSubmissionId(connection, key.get())
+                                        .map(submissionId -> AddResult.create(submissionId, false));
+                            }
+                        }
+                        Optional<Integer> insertedId = DatabaseHelper.insert(
+                                connection,
+                                "INSERT INTO submissions " +
+                                "(puzzleId, teamId, submission, timestamp, status, canonicalAnswer) " +
+                                "VALUES (?,?,?,?,?,?)",
+                                Lists.newArrayList(
+                                        submission.getPuzzleId(),
+                                        submission.getTeamId(),
+                                        submission.getSubmission(),
+                                        Timestamp.from(clock.instant()),
+                                        status.toString(),
+                                        gradedSubmission.map(Submission::getCanonicalAnswer).orElse(null)));
+                        if (!insertedId.isPresent()) {
+                            // Roll back the claimed key.
+                            throw new SQLException("Failed to insert submission");
+                        }
+                        if (key.isPresent()) {
+                            DatabaseHelper.update(
+                                    connection,
+                                    "UPDATE submission_keys SET submissionId = ? " +
+                                    "WHERE teamId = ? AND puzzleId = ? AND submissionHash = ?",
+                                    Lists.newArrayList(
+                                            insertedId.get(),
+                                            key.get().getTeamId(),
+                                            key.get().getPuzzleId(),
+                                            key.get().getSubmissionHash()));
+                        }
+                        changedTeamIds.add(submission.getTeamId());
+                        return Optional.of(AddResult.create(insertedId.get(), true));
+                    });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        Optional<AddResult> result = committed.getValue();
+        if (!result.isPresent() || !result.get().isCreated()) {
+            return result;
+        }
+
+        if (status.isTerminal()) {
+            Submission storedSubmission = getSubmission(result.get().getSubmissionId()).get();
+            huntStatusStore.updateCachedSolvedAnswers(
+                    storedSubmission, committed.getVersions().get(submission.getTeamId()));
+            eventProcessor.process(SubmissionCompleteEvent.builder()
+                    .setSubmission(storedSubmission)
+                    .build());
+        } else {
+            huntStatusStore.updateCachedSubmissionsVersions(committed.getVersions());
+        }
+        return result;
+    }
+
+    private static Optional<Integer> loadSubmissionId(
+            Connection connection,
+            SubmissionKey key
+    ) throws SQLException {
+        Table<Integer, String, Object> results = DatabaseHelper.query(
+                connection,
+                "SELECT submissionId FROM submission_keys " +
+                        "WHERE teamId = ? AND puzzleId = ? AND submissionHash = ?",
+                Lists.newArrayList(key.getTeamId(), key.getPuzzleId(), key.getSubmissionHash()));
+        return results.column("submissionId").values().stream()
+                .filter(submissionId -> submissionId != null)
+                .map(submissionId -> ((Number) submissionId).intValue())
+                .findFirst();
     }
 
     @AutoValue
@@ -123,8 +310,22 @@ public class SubmissionStore {
             FilterOptions filterOptions,
             PaginationOptions paginationOptions
     ) {
-        StringBuilder query = new StringBuilder();
         ImmutableList.Builder<Object> parameterList = ImmutableList.builder();
+        String query = getSubmissionsQuery(filterOptions, paginationOptions, parameterList);
+        return DatabaseHelper.query(
+                connectionFactory,
+                query,
+                parameterList.build(),
+                Submission.class
+        );
+    }
+
+    static String getSubmissionsQuery(
+            FilterOptions filterOptions,
+            PaginationOptions paginationOptions,
+            ImmutableList.Builder<Object> parameterList
+    ) {
+        StringBuilder query = new StringBuilder();
         query.append("SELECT * FROM submissions");
         if (filterOptions.hasFilters() || paginationOptions.getStartSubmissionId().isPresent()) {
             List<String> whereClauses = new ArrayList<>();
@@ -160,12 +361,7 @@ public class SubmissionStore {
         if (paginationOptions.getPageSize().isPresent()) {
             query.append(String.format(" LIMIT %d", paginationOptions.getPageSize().get()));
         }
-        return DatabaseHelper.query(
-                connectionFactory,
-                query.toString(),
-                parameterList.build(),
-                Submission.class
-        );
+        return query.toString();
     }
 
     public List<Submission> getAllSubmissions(PaginationOptions paginationOptions) {
@@ -204,6 +400,225 @@ public class SubmissionStore {
         return getSubmissions(filterOptions, paginationOptions);
     }
 
+    /**
+     * Assigns up to count submissions that no caller has claimed yet to a caller, oldest first.
+     * Callers that claim submissions at the same time never claim the same one, and never wait
+     * for each other's claims to finish. Submissions for the preferred puzzles are claimed before
+     * any others.
+     *
+     * @return The claimed submissions, oldest first
+     */
+    public List<Submission> claimSubmissions(
+            String callerUsername,
+            int count,
+            List<String> preferredPuzzleIds
+    ) {
+        checkArgument(count > 0, "The number of submissions to claim must be positive");
+        List<Integer> claimedSubmissionIds = new ArrayList<>();
+        if (!preferredPuzzleIds.isEmpty()) {
+            claimedSubmissionIds.addAll(
+                    claimSubmissionIds(callerUsername, count, preferredPuzzleIds));
+        }
+        if (claimedSubmissionIds.size() < count) {
+            claimedSubmissionIds.addAll(claimSubmissionIds(
+                    callerUsername, count - claimedSubmissionIds.size(), ImmutableList.of()));
+        }
+        if (claimedSubmissionIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        return DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM submissions WHERE submissionId IN (" +
+                        Joiner.on(",").join(Collections.nCopies(claimedSubmissionIds.size(), "?")) +
+                        ") ORDER BY submissionId",
+                ImmutableList.copyOf(claimedSubmissionIds),
+                Submission.class);
+    }
+
+    private List<Integer> claimSubmissionIds(
+            String callerUsername,
+            int count,
+            List<String> puzzleIds
+    ) {
+        // The selected columns are filled in by each way of claiming.
+        StringBuilder candidatesQuery = new StringBuilder(
+                "SELECT %s FROM submissions WHERE status = ?");
+        List<Object> candidatesParameters = new ArrayList<>();
+        candidatesParameters.add(SubmissionStatus.SUBMITTED.toString());
+        if (!puzzleIds.isEmpty()) {
+            candidatesQuery.append(" AND puzzleId IN (")
+                    .append(Joiner.on(",").join(Collections.nCopies(puzzleIds.size(), "?")))
+                    .append(")");
+            candidatesParameters.addAll(puzzleIds);
+        }
+        candidatesQuery.append(" ORDER BY submissionId LIMIT ?");
+
+        DatabaseDialect dialect = connectionFactory.getDatabaseDialect();
+        HuntStateVersions huntStateVersions = huntStatusStore.getHuntStateVersions();
+        try {
+            if (!dialect.supportsSkipLocked()) {
+                return compareAndSetSubmissionIds(
+                        callerUsername, count, candidatesQuery.toString(), candidatesParameters);
+            }
+            try (Connection connection = connectionFactory.getConnection()) {
+                // SKIP LOCKED is meant to be used at READ COMMITTED. At the pool's default of
+                // SERIALIZABLE, concurrent claims fail with serialization errors instead of
+                // skipping each other's rows.
+                int defaultIsolation = connection.getTransactionIsolation();
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                HuntStateVersions.Committed<List<Integer>> committed;
+                try {
+                    committed = huntStateVersions.write(
+                            connection,
+                            HuntStateVersions.Table.SUBMISSIONS,
+                            (transaction, changedTeamIds) -> {
+                                if (dialect.supportsUpdateReturning()) {
+                                    return claimReturningSubmissionIds(
+                                            transaction,
+                                            callerUsername,
+                                            count,
+                                            candidatesQuery.toString(),
+                                            candidatesParameters,
+                                            changedTeamIds);
+                                } else {
+                                    return claimLockedSubmissionIds(
+                                            transaction,
+                                            callerUsername,
+                                            count,
+                                            candidatesQuery.toString(),
+                                            candidatesParameters,
+                                            changedTeamIds);
+                                }
+                            });
+                } finally {
+                    connection.setTransactionIsolation(defaultIsolation);
+                }
+                huntStatusStore.updateCachedSubmissionsVersions(committed.getVersions());
+                return committed.getValue();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private List<Integer> claimReturningSubmissionIds(
+            Connection connection,
+            String callerUsername,
+            int count,
+            String candidatesQuery,
+            List<Object> candidatesParameters,
+            Set<String> changedTeamIds
+    ) throws SQLException {
+        // A single statement locks the oldest rows that no other claim has locked, and assigns
+        // them.
+        List<Object> parameters = Lists.newArrayList(
+                SubmissionStatus.ASSIGNED.toString(), callerUsername);
+        parameters.addAll(candidatesParameters);
+        parameters.add(count);
+        parameters.add(SubmissionStatus.SUBMITTED.toString());
+        Table<Integer, String, Object> results = DatabaseHelper.query(
+                connection,
+                "UPDATE submissions SET status = ?, callerUsername = ? " +
+                        "WHERE submissionId IN (" + String.format(candidatesQuery, "submissionId") +
+                        " FOR UPDATE SKIP LOCKED) AND status = ? RETURNING submissionId, teamId",
+                parameters);
+        return collectClaimedSubmissionIds(results.rowMap().values(), changedTeamIds);
+    }
+
+    private List<Integer> claimLockedSubmissionIds(
+            Connection connection,
+            String callerUsername,
+            int count,
+            String candidatesQuery,
+            List<Object> candidatesParameters,
+            Set<String> changedTeamIds
+    ) throws SQLException {
+        List<Object> parameters = new ArrayList<>(candidatesParameters);
+        parameters.add(count);
+        Table<Integer, String, Object> candidates = DatabaseHelper.query(
+                connection,
+                String.format(candidatesQuery, "submissionId, teamId") + " FOR UPDATE SKIP LOCKED",
+                parameters);
+        List<Integer> submissionIds =
+                collectClaimedSubmissionIds(candidates.rowMap().values(), changedTeamIds);
+        DatabaseHelper.updateBatch(
+                connection,
+                "UPDATE submissions SET status = ?, callerUsername = ? WHERE submissionId = ?",
+                submissionIds.stream()
+                        .map(submissionId -> ImmutableList.<Object>of(
+                                SubmissionStatus.ASSIGNED.toString(), callerUsername, submissionId))
+                        .collect(Collectors.toList()));
+        return submissionIds;
+    }
+
+    private List<Integer> compareAndSetSubmissionIds(
+            String callerUsername,
+            int count,
+            String candidatesQuery,
+            List<Object> candidatesParameters
+    ) throws SQLException {
+        // Each candidate is only assigned if it is still unassigned, so a candidate that another
+        // claim took first is skipped, and replaced by the next oldest candidate.
+        List<Integer> claimedSubmissionIds = new ArrayList<>();
+        while (claimedSubmissionIds.size() < count) {
+            List<Object> parameters = new ArrayList<>(candidatesParameters);
+            parameters.add(count - claimedSubmissionIds.size());
+            HuntStateVersions.Committed<Optional<List<Integer>>> committed =
+                    huntStatusStore.getHuntStateVersions().write(
+                            HuntStateVersions.Table.SUBMISSIONS,
+                            (connection, changedTeamIds) -> {
+                                List<Map<String, Object>> candidates = ImmutableList.copyOf(
+                                        DatabaseHelper.query(
+                                                connection,
+                                                String.format(candidatesQuery, "submissionId, teamId"),
+                                                parameters)
+                                                .rowMap().values());
+                                if (candidates.isEmpty()) {
+                                    return Optional.<List<Integer>>empty();
+                                }
+                                List<Integer> updatedRows = DatabaseHelper.updateBatch(
+                                        connection,
+                                        "UPDATE submissions SET status = ?, callerUsername = ? " +
+                                                "WHERE submissionId = ? AND status = ?",
+                                        candidates.stream()
+                                                .map(candidate -> ImmutableList.<Object>of(
+                                                        SubmissionStatus.ASSIGNED.toString(),
+                                                        callerUsername,
+                                                        candidate.get("submissionId"),
+                                                        SubmissionStatus.SUBMITTED.toString()))
+                                                .collect(Collectors.toList()));
+                                List<Map<String, Object>> updatedCandidates = new ArrayList<>();
+                                for (int i = 0; i < candidates.size(); ++i) {
+                                    if (DatabaseHelper.isUpdated(updatedRows.get(i))) {
+                                        updatedCandidates.add(candidates.get(i));
+                                    }
+                                }
+                                return Optional.of(
+                                        collectClaimedSubmissionIds(updatedCandidates, changedTeamIds));
+                            });
+            huntStatusStore.updateCachedSubmissionsVersions(committed.getVersions());
+            Optional<List<Integer>> claimedIds = committed.getValue();
+            if (!claimedIds.isPresent()) {
+                break;
+            }
+            claimedSubmissionIds.addAll(claimedIds.get());
+        }
+        return claimedSubmissionIds;
+    }
+
+    private static List<Integer> collectClaimedSubmissionIds(
+            Collection<Map<String, Object>> claimedRows,
+            Set<String> changedTeamIds
+    ) {
+        List<Integer> submissionIds = new ArrayList<>();
+        for (Map<String, Object> row : claimedRows) {
+            submissionIds.add(((Number) row.get("submissionId")).intValue());
+            changedTeamIds.add((String) row.get("teamId"));
+        }
+        return submissionIds;
+    }
+
     public Optional<Submission> getSubmission(int submissionId) {
         List<Submission> submissions = DatabaseHelper.query(
                 connectionFactory,
@@ -227,28 +642,53 @@ public class SubmissionStore {
             @Nullable String callerUsername,
             @Nullable String canonicalAnswer
     ) {
-        boolean updated = DatabaseHelper.update(
-                connectionFactory,
-                "UPDATE submissions SET status = ?, callerUsername = ?, canonicalAnswer = ? " +
-                "WHERE submissionId = ? AND (status <> ? OR callerUsername <> ? OR canonicalAnswer <> ?)",
-                Lists.newArrayList(
-                        status.toString(),
-                        callerUsername,
-                        canonicalAnswer,
-                        submissionId,
-                        status.toString(),
-                        callerUsername,
-                        canonicalAnswer
-                )
-        ) > 0;
-
-        if (updated && status.isTerminal()) {
-            Submission submission = this.getSubmission(submissionId).get();
-            eventProcessor.process(SubmissionCompleteEvent.builder()
-                    .setSubmission(submission)
-                    .build());
+        HuntStateVersions.Committed<Optional<Submission>> committed;
+        try {
+            committed = huntStatusStore.getHuntStateVersions().write(
+                    HuntStateVersions.Table.SUBMISSIONS,
+                    (connection, changedTeamIds) -> {
+                        boolean updated = DatabaseHelper.update(
+                                connection,
+                                "UPDATE submissions SET status = ?, callerUsername = ?, canonicalAnswer = ? " +
+                                "WHERE submissionId = ? AND (status <> ? OR callerUsername <> ? OR canonicalAnswer <> ?)",
+                                Lists.newArrayList(
+                                        status.toString(),
+                                        callerUsername,
+                                        canonicalAnswer,
+                                        submissionId,
+                                        status.toString(),
+                                        callerUsername,
+                                        canonicalAnswer
+                                )
+                        ) > 0;
+                        if (!updated) {
+                            return Optional.<Submission>empty();
+                        }
+                        Submission submission = DatabaseHelper.query(
+                                connection,
+                                "SELECT * FROM submissions WHERE submissionId = ?",
+                                Lists.newArrayList(submissionId),
+                                Submission.class
+                        ).get(0);
+                        changedTeamIds.add(submission.getTeamId());
+                        return Optional.of(submission);
+                    });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        Optional<Submission> updatedSubmission = committed.getValue();
+        if (updatedSubmission.isPresent()) {
+            huntStatusStore.updateCachedSolvedAnswers(
+                    updatedSubmission.get(),
+                    committed.getVersions().get(updatedSubmission.get().getTeamId()));
+            if (status.isTerminal()) {
+                eventProcessor.process(SubmissionCompleteEvent.builder()
+                        .setSubmission(updatedSubmission.get())
+                        .build());
+            }
         }
 
-        return updated;
+        return updatedSubmission.isPresent();
     }
 }
@@ -0,0 +1,36 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * Everything a solving team's client shows about the team, read at a single point in time.
+ */
+@AutoValue
+@JsonDeserialize(builder = AutoValue_TeamSnapshot.Builder.class)
+public abstract class TeamSnapshot {
+    @AutoValue.Builder
+    public static abstract class Builder {
+        @JsonProperty("team") public abstract Builder setTeam(Team team);
+        @JsonProperty("visibilities") public abstract Builder setVisibilities(List<Visibility> visibilities);
+        @JsonProperty("submissions") public abstract Builder setSubmissions(List<Submission> submissions);
+        @JsonProperty("hintRequests") public abstract Builder setHintRequests(List<HintRequest> hintRequests);
+
+        public abstract TeamSnapshot build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_TeamSnapshot.Builder();
+    }
+
+    public abstract Builder toBuilder();
+
+    @JsonProperty("team") public abstract Team getTeam();
+    @JsonProperty("visibilities") public abstract List<Visibility> getVisibilities();
+    // The team's most recent submissions, newest first.
+    @JsonProperty("submissions") public abstract List<Submission> getSubmissions();
+    @JsonProperty("hintRequests") public abstract List<HintRequest> getHintRequests();
+}
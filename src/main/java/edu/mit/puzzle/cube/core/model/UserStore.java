@@ -8,6 +8,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
 
 import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.CubeJdbcRealm;
 import edu.mit.puzzle.cube.core.db.DatabaseHelper;
 import edu.mit.puzzle.cube.core.permissions.CubePermission;
 import edu.mit.puzzle.cube.core.permissions.CubeRole;
@@ -28,6 +29,7 @@ import java.sql.Types;
 import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -35,11 +37,24 @@ public class UserStore {
 
     private final ConnectionFactory connectionFactory;
     private final DefaultHashService hashService;
+    private final Optional<CubeJdbcRealm> realm;
 
     public UserStore(
         ConnectionFactory connectionFactory
+    ) {
+        this(connectionFactory, Optional.empty());
+    }
+
+    /**
+     * @param realm The realm that authenticates users, if it runs in this process. Its cached
+     *              credentials and permissions for a user are cleared whenever the user changes.
+     */
+    public UserStore(
+        ConnectionFactory connectionFactory,
+        Optional<CubeJdbcRealm> realm
     ) {
         this.connectionFactory = connectionFactory;
+        this.realm = realm;
 
         hashService = new DefaultHashService();
         hashService.setHashAlgorithmName("SHA-512");
@@ -97,6 +112,7 @@ public class UserStore {
             }
 
             connection.commit();
+            realm.ifPresent(r -> r.clearCachedUser(user.getUsername()));
         } catch (SQLException e) {
             throw new ResourceException(
                     Status.CLIENT_ERROR_BAD_REQUEST.getCode(),
@@ -282,6 +298,7 @@ public class UserStore {
             }
 
             connection.commit();
+            realm.ifPresent(r -> r.clearCachedUser(user.getUsername()));
 
             return passwordUpdated || rolesUpdated;
         } catch (SQLException e) {
@@ -0,0 +1,455 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+/**
+ * An in-memory copy of the visibility status and solved answers of every (team, puzzle) pair.
+ *
+ * Statuses are interned into a small code table, and each team has one row holding a byte per
+ * puzzle, so reading a status is a pair of map lookups and an array read. The cache is loaded
+ * from the visibilities and submissions tables when it is created, and after that it is kept
+ * current by HuntStatusStore and SubmissionStore writing through to it after each successful
+ * database write. The Visibility objects handed out are built once and kept until the cell
+ * changes, so a read that hits the cache doesn't allocate.
+ *
+ * Other servers and CubeTool change the tables too, so each team row records the team's
+ * HuntStateVersions versions of the visibilities and submissions tables that it is current
+ * with. A write by this server passes in the version it moved the team to, and the row is
+ * updated in place and moves to that version, unless the row missed a change in between. Each
+ * read compares the row with the versions that HuntStateVersions holds in memory, and reloads
+ * the row if it has fallen behind, so a read only goes to the database when the team was changed
+ * by another server. HuntStateVersions picks up those changes at most once every
+ * HuntStateVersions.REFRESH_INTERVAL, so they are seen within that interval.
+ *
+ * Teams and puzzles that the cache doesn't know about are reported as absent, so that callers
+ * can fall back to querying the database.
+ */
+class VisibilityCache {
+    static final String LOAD_SOLVED_ANSWERS_QUERY =
+            "SELECT submissionId, teamId, puzzleId, canonicalAnswer FROM submissions " +
+            "WHERE canonicalAnswer IS NOT NULL";
+    static final String LOAD_TEAM_VISIBILITIES_QUERY =
+            "SELECT teamId, puzzleId, status FROM visibilities WHERE teamId = ?";
+    static final String LOAD_TEAM_SOLVED_ANSWERS_QUERY =
+            "SELECT submissionId, teamId, puzzleId, canonicalAnswer FROM submissions " +
+            "WHERE teamId = ? AND canonicalAnswer IS NOT NULL";
+
+    private static class SolvedAnswers {
+        private static final SolvedAnswers NONE = new SolvedAnswers(ImmutableSortedMap.of());
+
+        private final ImmutableSortedMap<Integer, String> answersBySubmissionId;
+        private final ImmutableList<String> answers;
+
+        private SolvedAnswers(ImmutableSortedMap<Integer, String> answersBySubmissionId) {
+            this.answersBySubmissionId = answersBySubmissionId;
+            this.answers = answersBySubmissionId.values().asList();
+        }
+
+        private SolvedAnswers with(int submissionId, @Nullable String canonicalAnswer) {
+            Map<Integer, String> answers = new TreeMap<>(answersBySubmissionId);
+            if (canonicalAnswer == null) {
+                answers.remove(submissionId);
+            } else {
+                answers.put(submissionId, canonicalAnswer);
+            }
+            return new SolvedAnswers(ImmutableSortedMap.copyOf(answers));
+        }
+    }
+
+    private static class TeamRow {
+        private final byte[] statusCodes;
+        private final SolvedAnswers[] solvedAnswers;
+        // Built by the first read of each cell, and cleared by writes to it. They are only
+        // changed while holding the cache's lock, so a read can't put back a stale object.
+        private final Visibility[] visibilities;
+        private ImmutableList<Visibility> visibilityList;
+        // The versions of the team's visibilities and submissions that the row is current with.
+        // Only changed while holding the cache's lock, as is the write count.
+        private volatile long visibilitiesVersion;
+        private volatile long submissionsVersion;
+        private long writeCount = 0;
+
+        private TeamRow(
+                int puzzleCount,
+                byte defaultStatusCode,
+                long visibilitiesVersion,
+                long submissionsVersion
+        ) {
+            statusCodes = new byte[puzzleCount];
+            Arrays.fill(statusCodes, defaultStatusCode);
+            solvedAnswers = new SolvedAnswers[puzzleCount];
+            Arrays.fill(solvedAnswers, SolvedAnswers.NONE);
+            visibilities = new Visibility[puzzleCount];
+            this.visibilitiesVersion = visibilitiesVersion;
+            this.submissionsVersion = submissionsVersion;
+        }
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final HuntStateVersions huntStateVersions;
+    private final ImmutableList<String> puzzleIds;
+    private final ImmutableMap<String, Integer> puzzleIndexes;
+    private final ConcurrentMap<String, TeamRow> teamRows = new ConcurrentHashMap<>();
+    private final byte defaultStatusCode;
+
+    private final Map<String, Byte> statusCodes = new ConcurrentHashMap<>();
+    private volatile String[] statuses = new String[0];
+
+    // Written after every update to the cache, and read before every lookup, so that readers on
+    // other threads see the array elements written by the most recent update.
+    private volatile long updateCount = 0;
+
+    private VisibilityCache(
+            ConnectionFactory connectionFactory,
+            HuntStateVersions huntStateVersions,
+            List<String> puzzleIds,
+            String defaultStatus
+    ) {
+        this.connectionFactory = connectionFactory;
+        this.huntStateVersions = huntStateVersions;
+        this.puzzleIds = ImmutableList.copyOf(puzzleIds);
+        ImmutableMap.Builder<String, Integer> puzzleIndexes = ImmutableMap.builder();
+        for (int i = 0; i < puzzleIds.size(); ++i) {
+            puzzleIndexes.put(puzzleIds.get(i), i);
+        }
+        this.puzzleIndexes = puzzleIndexes.build();
+        this.defaultStatusCode = internStatus(defaultStatus);
+    }
+
+    static VisibilityCache load(
+            ConnectionFactory connectionFactory,
+            VisibilityStatusSet visibilityStatusSet,
+            HuntStateVersions huntStateVersions
+    ) {
+        Table<Integer, String, Object> puzzleResults = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT puzzleId FROM puzzles",
+                ImmutableList.of()
+        );
+        List<String> puzzleIds = puzzleResults.column("puzzleId").values().stream()
+                .map(puzzleId -> (String) puzzleId)
+                .collect(Collectors.toList());
+        VisibilityCache cache = new VisibilityCache(
+                connectionFactory,
+                huntStateVersions,
+                puzzleIds,
+                visibilityStatusSet.getDefaultVisibilityStatus());
+        for (String status : visibilityStatusSet.getAllowedStatuses()) {
+            cache.internStatus(status);
+        }
+
+        List<Team> teams = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT teamId FROM teams",
+                ImmutableList.of(),
+                Team.class
+        );
+        // The versions are read before the rows, so that a change made while the rows are read
+        // leaves the version older than the row, and the row is reloaded.
+        for (Team team : teams) {
+            cache.teamRows.put(team.getTeamId(), cache.newTeamRow(team.getTeamId()));
+        }
+
+        // The visibilities and solved puzzles are the largest tables read at startup, so stream
+        // them into the cache instead of loading them into lists first.
+        DatabaseHelper.queryForEach(
+                connectionFactory,
+                "SELECT teamId, puzzleId, status FROM visibilities",
+                ImmutableList.of(),
+                Visibility.class,
+                visibility -> cache.loadStatus(
+                        visibility.getTeamId(), visibility.getPuzzleId(), visibility.getStatus())
+        );
+
+        DatabaseHelper.queryForEach(
+                connectionFactory,
+                LOAD_SOLVED_ANSWERS_QUERY,
+                ImmutableList.of(),
+                Submission.class,
+                submission -> cache.loadSolvedAnswer(
+                        submission.getTeamId(),
+                        submission.getPuzzleId(),
+                        submission.getSubmissionId(),
+                        submission.getCanonicalAnswer())
+        );
+
+        return cache;
+    }
+
+    // The versions are read before the row is filled in, so that a change made while the row is
+    // read leaves the row behind, and it is reloaded.
+    private TeamRow newTeamRow(String teamId) {
+        return new TeamRow(
+                puzzleIds.size(),
+                defaultStatusCode,
+                huntStateVersions.getVersion(HuntStateVersions.Table.VISIBILITIES, teamId),
+                huntStateVersions.getVersion(HuntStateVersions.Table.SUBMISSIONS, teamId));
+    }
+
+    /**
+     * @return The team's row, after reloading it if it has fallen behind the team's versions, or
+     * null if the team isn't cached or couldn't be reloaded.
+     */
+    @Nullable
+    private TeamRow getCurrentTeamRow(String teamId) {
+        long unused = updateCount;
+        TeamRow teamRow = teamRows.get(teamId);
+        if (teamRow == null) {
+            return null;
+        }
+        if (huntStateVersions.getVersion(HuntStateVersions.Table.VISIBILITIES, teamId)
+                        <= teamRow.visibilitiesVersion
+                && huntStateVersions.getVersion(HuntStateVersions.Table.SUBMISSIONS, teamId)
+                        <= teamRow.submissionsVersion) {
+            return teamRow;
+        }
+        return reloadTeamRow(teamId);
+    }
+
+    @Nullable
+    private TeamRow reloadTeamRow(String teamId) {
+        long writeCount;
+        synchronized (this) {
+            writeCount = teamRows.get(teamId).writeCount;
+        }
+        TeamRow teamRow = newTeamRow(teamId);
+        List<Visibility> visibilities = DatabaseHelper.query(
+                connectionFactory,
+                LOAD_TEAM_VISIBILITIES_QUERY,
+                Lists.newArrayList(teamId),
+                Visibility.class);
+        List<Submission> submissions = DatabaseHelper.query(
+                connectionFactory,
+                LOAD_TEAM_SOLVED_ANSWERS_QUERY,
+                Lists.newArrayList(teamId),
+                Submission.class);
+
+        synchronized (this) {
+            // If this server wrote through to the old row while the new one was being read, the
+            // new one may be missing the write, so the caller reads from the database instead,
+            // and the row is reloaded by a later read.
+            if (teamRows.get(teamId).writeCount != writeCount) {
+                return null;
+            }
+            for (Visibility visibility : visibilities) {
+                Integer puzzleIndex = puzzleIndexes.get(visibility.getPuzzleId());
+                if (puzzleIndex != null) {
+                    teamRow.statusCodes[puzzleIndex] = internStatus(visibility.getStatus());
+                }
+            }
+            for (Submission submission : submissions) {
+                Integer puzzleIndex = puzzleIndexes.get(submission.getPuzzleId());
+                if (puzzleIndex != null) {
+                    teamRow.solvedAnswers[puzzleIndex] = teamRow.solvedAnswers[puzzleIndex].with(
+                            submission.getSubmissionId(), submission.getCanonicalAnswer());
+                }
+            }
+            teamRows.put(teamId, teamRow);
+            ++updateCount;
+        }
+        return teamRow;
+    }
+
+    private synchronized byte internStatus(String status) {
+        Byte code = statusCodes.get(status);
+        if (code != null) {
+            return code;
+        }
+        if (statuses.length > Byte.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct visibility statuses to cache");
+        }
+        String[] newStatuses = Arrays.copyOf(statuses, statuses.length + 1);
+        newStatuses[statuses.length] = status;
+        statuses = newStatuses;
+        statusCodes.put(status, (byte) (newStatuses.length - 1));
+        return (byte) (newStatuses.length - 1);
+    }
+
+    synchronized void addTeam(String teamId) {
+        teamRows.putIfAbsent(teamId, newTeamRow(teamId));
+        ++updateCount;
+    }
+
+    /**
+     * Records a change to a team's visibility that this server committed.
+     *
+     * @param visibilitiesVersion The version of the team's visibilities as of the change
+     */
+    synchronized void setStatus(
+            String teamId,
+            String puzzleId,
+            String status,
+            long visibilitiesVersion
+    ) {
+        TeamRow teamRow = teamRows.get(teamId);
+        // A row that is already past the change was loaded after it.
+        if (teamRow == null || teamRow.visibilitiesVersion > visibilitiesVersion) {
+            return;
+        }
+        Integer puzzleIndex = puzzleIndexes.get(puzzleId);
+        if (puzzleIndex != null) {
+            teamRow.statusCodes[puzzleIndex] = internStatus(status);
+            clearVisibility(teamRow, puzzleIndex);
+        }
+        // A row that missed a change in between stays behind, and is reloaded by the next read.
+        if (teamRow.visibilitiesVersion == visibilitiesVersion - 1) {
+            teamRow.visibilitiesVersion = visibilitiesVersion;
+        }
+        ++teamRow.writeCount;
+        ++updateCount;
+    }
+
+    /**
+     * Records a change to a team's submissions that this server committed, which may have
+     * changed the canonical answer of a submission.
+     *
+     * @param submissionsVersion The version of the team's submissions as of the change
+     */
+    synchronized void setSolvedAnswer(
+            String teamId,
+            String puzzleId,
+            int submissionId,
+            @Nullable String canonicalAnswer,
+            long submissionsVersion
+    ) {
+        TeamRow teamRow = teamRows.get(teamId);
+        if (teamRow == null || teamRow.submissionsVersion > submissionsVersion) {
+            return;
+        }
+        Integer puzzleIndex = puzzleIndexes.get(puzzleId);
+        if (puzzleIndex != null) {
+            SolvedAnswers solvedAnswers =
+                    teamRow.solvedAnswers[puzzleIndex].with(submissionId, canonicalAnswer);
+            if (!solvedAnswers.answers.equals(teamRow.solvedAnswers[puzzleIndex].answers)) {
+                clearVisibility(teamRow, puzzleIndex);
+            }
+            teamRow.solvedAnswers[puzzleIndex] = solvedAnswers;
+        }
+        advanceSubmissionsVersion(teamRow, submissionsVersion);
+        ++teamRow.writeCount;
+        ++updateCount;
+    }
+
+    /**
+     * Records a change to a team's submissions that this server committed, which didn't change
+     * any canonical answers.
+     *
+     * @param submissionsVersion The version of the team's submissions as of the change
+     */
+    synchronized void setSubmissionsVersion(String teamId, long submissionsVersion) {
+        TeamRow teamRow = teamRows.get(teamId);
+        if (teamRow == null) {
+            return;
+        }
+        advanceSubmissionsVersion(teamRow, submissionsVersion);
+        ++teamRow.writeCount;
+        ++updateCount;
+    }
+
+    private void advanceSubmissionsVersion(TeamRow teamRow, long submissionsVersion) {
+        if (teamRow.submissionsVersion == submissionsVersion - 1) {
+            teamRow.submissionsVersion = submissionsVersion;
+        }
+    }
+
+    private void clearVisibility(TeamRow teamRow, int puzzleIndex) {
+        teamRow.visibilities[puzzleIndex] = null;
+        teamRow.visibilityList = null;
+    }
+
+    // Only used while loading, before the cache is shared with other threads.
+    private void loadStatus(String teamId, String puzzleId, String status) {
+        TeamRow teamRow = teamRows.get(teamId);
+        Integer puzzleIndex = puzzleIndexes.get(puzzleId);
+        if (teamRow == null || puzzleIndex == null) {
+            return;
+        }
+        teamRow.statusCodes[puzzleIndex] = internStatus(status);
+    }
+
+    private void loadSolvedAnswer(
+            String teamId,
+            String puzzleId,
+            int submissionId,
+            @Nullable String canonicalAnswer
+    ) {
+        TeamRow teamRow = teamRows.get(teamId);
+        Integer puzzleIndex = puzzleIndexes.get(puzzleId);
+        if (teamRow == null || puzzleIndex == null) {
+            return;
+        }
+        teamRow.solvedAnswers[puzzleIndex] =
+                teamRow.solvedAnswers[puzzleIndex].with(submissionId, canonicalAnswer);
+    }
+
+    Optional<Visibility> getVisibility(String teamId, String puzzleId) {
+        Integer puzzleIndex = puzzleIndexes.get(puzzleId);
+        if (puzzleIndex == null) {
+            return Optional.empty();
+        }
+        TeamRow teamRow = getCurrentTeamRow(teamId);
+        if (teamRow == null) {
+            return Optional.empty();
+        }
+        Visibility visibility = teamRow.visibilities[puzzleIndex];
+        if (visibility == null) {
+            visibility = buildVisibility(teamId, teamRow, puzzleIndex);
+        }
+        return Optional.of(visibility);
+    }
+
+    Optional<List<Visibility>> getVisibilitiesForTeam(String teamId) {
+        TeamRow teamRow = getCurrentTeamRow(teamId);
+        if (teamRow == null) {
+            return Optional.empty();
+        }
+        ImmutableList<Visibility> visibilityList = teamRow.visibilityList;
+        if (visibilityList == null) {
+            visibilityList = buildVisibilityList(teamId, teamRow);
+        }
+        return Optional.of(visibilityList);
+    }
+
+    private synchronized ImmutableList<Visibility> buildVisibilityList(String teamId, TeamRow teamRow) {
+        if (teamRow.visibilityList == null) {
+            ImmutableList.Builder<Visibility> visibilities = ImmutableList.builder();
+            for (int i = 0; i < puzzleIds.size(); ++i) {
+                visibilities.add(buildVisibility(teamId, teamRow, i));
+            }
+            teamRow.visibilityList = visibilities.build();
+            ++updateCount;
+        }
+        return teamRow.visibilityList;
+    }
+
+    private synchronized Visibility buildVisibility(String teamId, TeamRow teamRow, int puzzleIndex) {
+        if (teamRow.visibilities[puzzleIndex] == null) {
+            teamRow.visibilities[puzzleIndex] = Visibility.builder()
+                    .setTeamId(teamId)
+                    .setPuzzleId(puzzleIds.get(puzzleIndex))
+                    .setStatus(statuses[teamRow.statusCodes[puzzleIndex]])
+                    .setSolvedAnswers(teamRow.solvedAnswers[puzzleIndex].answers)
+                    .build();
+            ++updateCount;
+        }
+        return teamRow.visibilities[puzzleIndex];
+    }
+}
@@ -0,0 +1,9 @@
+package edu.mit.puzzle.cube.core.permissions;
+
+public class MetricsPermission extends ActionLevelPermission {
+    private static final long serialVersionUID = 1L;
+
+    public MetricsPermission() {
+        super("metrics", new PermissionAction[]{PermissionAction.READ});
+    }
+}
@@ -0,0 +1,127 @@
+package edu.mit.puzzle.cube.core.ratelimit;
+
+import edu.mit.puzzle.cube.core.CubeConfig.RateLimitConfig;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the rate of requests that each team makes, both in total and for each puzzle, so that
+ * a misbehaving client is turned away before its requests reach the database.
+ *
+ * Each team and each (team, puzzle) pair has its own TokenBucket. The buckets are held in
+ * ConcurrentHashMaps, which only lock to add a bucket, and each bucket is updated with a single
+ * compare-and-set, so checking a limit never waits for a request from another team.
+ *
+ * A bucket that has refilled completely is no different from a new one, so once every
+ * EVICTION_INTERVAL the full buckets are dropped, and the maps only hold the teams and puzzles
+ * with recent requests. A request that races with the eviction may take its token from a bucket
+ * that was just dropped, which can let a team exceed its limit by a request.
+ */
+public class RateLimiter {
+    static final Duration EVICTION_INTERVAL = Duration.ofMinutes(1);
+
+    private static class TeamBuckets {
+        @Nullable private final TokenBucket teamBucket;
+        private final ConcurrentMap<String, TokenBucket> puzzleBuckets = new ConcurrentHashMap<>();
+
+        private TeamBuckets(@Nullable TokenBucket teamBucket) {
+            this.teamBucket = teamBucket;
+        }
+    }
+
+    private final Optional<RateLimitConfig> teamLimit;
+    private final Optional<RateLimitConfig> teamPuzzleLimit;
+    private final Clock clock;
+    private final ConcurrentMap<String, TeamBuckets> teamBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextEvictionNanos;
+
+    public RateLimiter(Optional<RateLimitConfig> teamLimit, Optional<RateLimitConfig> teamPuzzleLimit) {
+        this(teamLimit, teamPuzzleLimit, Clock.systemUTC());
+    }
+
+    public RateLimiter(
+            Optional<RateLimitConfig> teamLimit,
+            Optional<RateLimitConfig> teamPuzzleLimit,
+            Clock clock
+    ) {
+        this.teamLimit = teamLimit;
+        this.teamPuzzleLimit = teamPuzzleLimit;
+        this.clock = clock;
+        this.nextEvictionNanos = new AtomicLong(
+                TimeUnit.MILLISECONDS.toNanos(clock.millis()) + EVICTION_INTERVAL.toNanos());
+    }
+
+    /**
+     * Records a request by a team for a puzzle, if both of their limits allow it.
+     *
+     * @return Empty if the request is allowed, or otherwise how long the team should wait before
+     * trying again.
+     */
+    public Optional<Duration> tryAcquire(String teamId, String puzzleId) {
+        checkNotNull(teamId);
+        checkNotNull(puzzleId);
+        long nowNanos = TimeUnit.MILLISECONDS.toNanos(clock.millis());
+        long nextEviction = nextEvictionNanos.get();
+        if (nowNanos >= nextEviction && nextEvictionNanos.compareAndSet(
+                nextEviction, nowNanos + EVICTION_INTERVAL.toNanos())) {
+            evictFullBuckets(nowNanos);
+        }
+        TeamBuckets buckets = teamBuckets.computeIfAbsent(
+                teamId, id -> new TeamBuckets(teamLimit.map(RateLimiter::newBucket).orElse(null)));
+
+        TokenBucket puzzleBucket = null;
+        if (teamPuzzleLimit.isPresent()) {
+            puzzleBucket = buckets.puzzleBuckets.computeIfAbsent(
+                    puzzleId, id -> newBucket(teamPuzzleLimit.get()));
+            long wait = puzzleBucket.tryAcquire(nowNanos);
+            if (wait > 0) {
+                return Optional.of(Duration.ofNanos(wait));
+            }
+        }
+        if (buckets.teamBucket != null) {
+            long wait = buckets.teamBucket.tryAcquire(nowNanos);
+            if (wait > 0) {
+                if (puzzleBucket != null) {
+                    puzzleBucket.release();
+                }
+                return Optional.of(Duration.ofNanos(wait));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void evictFullBuckets(long nowNanos) {
+        for (Map.Entry<String, TeamBuckets> entry : teamBuckets.entrySet()) {
+            TeamBuckets buckets = entry.getValue();
+            buckets.puzzleBuckets.values().removeIf(bucket -> bucket.isFull(nowNanos));
+            if (buckets.puzzleBuckets.isEmpty()
+                    && (buckets.teamBucket == null || buckets.teamBucket.isFull(nowNanos))) {
+                teamBuckets.remove(entry.getKey(), buckets);
+            }
+        }
+    }
+
+    // The number of buckets being held, for tests.
+    int getBucketCount() {
+        int count = 0;
+        for (TeamBuckets buckets : teamBuckets.values()) {
+            count += buckets.puzzleBuckets.size() + (buckets.teamBucket == null ? 0 : 1);
+        }
+        return count;
+    }
+
+    private static TokenBucket newBucket(RateLimitConfig limit) {
+        return new TokenBucket(limit.getBurst(), TimeUnit.MINUTES.toNanos(1) / limit.getPerMinute());
+    }
+}
@@ -0,0 +1,56 @@
+package edu.mit.puzzle.cube.core.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that is updated with a single compare-and-set, so that callers never block
+ * each other.
+ *
+ * Instead of a token count and a refill time, the bucket keeps the time at which it would be
+ * full again if no more tokens were taken. Taking a token pushes that time back by one refill
+ * interval, which is allowed as long as it stays within burst refill intervals of now. This is
+ * the same as a token bucket that holds up to burst tokens and gains one every refill interval.
+ */
+class TokenBucket {
+    private final long refillIntervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullTimeNanos = new AtomicLong(Long.MIN_VALUE);
+
+    TokenBucket(int burst, long refillIntervalNanos) {
+        this.refillIntervalNanos = refillIntervalNanos;
+        this.capacityNanos = burst * refillIntervalNanos;
+    }
+
+    /**
+     * @return 0 if a token was taken, or otherwise how many nanoseconds it will be until one is
+     * available.
+     */
+    long tryAcquire(long nowNanos) {
+        while (true) {
+            long fullTime = fullTimeNanos.get();
+            long newFullTime = Math.max(fullTime, nowNanos) + refillIntervalNanos;
+            long wait = newFullTime - nowNanos - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullTimeNanos.compareAndSet(fullTime, newFullTime)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return true if the bucket has refilled completely, in which case it behaves the same as a
+     * new bucket.
+     */
+    boolean isFull(long nowNanos) {
+        return fullTimeNanos.get() <= nowNanos;
+    }
+
+    /**
+     * Returns a token taken by tryAcquire that wasn't used after all.
+     */
+    void release() {
+        fullTimeNanos.addAndGet(-refillIntervalNanos);
+    }
+}
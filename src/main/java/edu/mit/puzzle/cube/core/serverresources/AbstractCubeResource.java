@@ -1,17 +1,29 @@
 package edu.mit.puzzle.cube.core.serverresources;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.primitives.Longs;
 
 import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
+import edu.mit.puzzle.cube.core.events.EventStreamBroker;
 import edu.mit.puzzle.cube.core.model.HintRequestStore;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
 import edu.mit.puzzle.cube.core.model.PuzzleStore;
 import edu.mit.puzzle.cube.core.model.SubmissionStore;
 import edu.mit.puzzle.cube.core.model.UserStore;
+import edu.mit.puzzle.cube.core.ratelimit.RateLimiter;
 
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.Representation;
+import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
+import java.time.Duration;
+import java.util.Date;
+import java.util.Optional;
+
 public abstract class AbstractCubeResource extends ServerResource {
 
     protected static ObjectMapper MAPPER = new ObjectMapper();
@@ -22,6 +34,12 @@ public abstract class AbstractCubeResource extends ServerResource {
     public static final String PUZZLE_STORE_KEY = "PUZZLE_STORE";
     public static final String HINT_REQUEST_STORE_KEY = "HINT_REQUEST_STORE";
     public static final String EVENT_PROCESSOR_KEY = "EVENT_PROCESSOR";
+    public static final String EVENT_STREAM_BROKER_KEY = "EVENT_STREAM_BROKER";
+    public static final String CONNECTION_FACTORY_KEY = "CONNECTION_FACTORY";
+    public static final String SUBMISSION_RATE_LIMITER_KEY = "SUBMISSION_RATE_LIMITER";
+    public static final String HINT_REQUEST_RATE_LIMITER_KEY = "HINT_REQUEST_RATE_LIMITER";
+
+    private static final Status TOO_MANY_REQUESTS = Status.valueOf(429);
 
     protected SubmissionStore submissionStore;
     protected HuntStatusStore huntStatusStore;
@@ -29,6 +47,11 @@ public abstract class AbstractCubeResource extends ServerResource {
     protected PuzzleStore puzzleStore;
     protected HintRequestStore hintRequestStore;
     protected EventProcessor<Event> eventProcessor;
+    protected EventStreamBroker eventStreamBroker;
+    protected RateLimiter submissionRateLimiter;
+    protected RateLimiter hintRequestRateLimiter;
+
+    private Tag entityTag;
 
     public AbstractCubeResource() {
     }
@@ -40,5 +63,141 @@ public abstract class AbstractCubeResource extends ServerResource {
         this.puzzleStore = (PuzzleStore) getContext().getAttributes().get(PUZZLE_STORE_KEY);
         this.hintRequestStore = (HintRequestStore) getContext().getAttributes().get(HINT_REQUEST_STORE_KEY);
         this.eventProcessor = (EventProcessor<Event>) getContext().getAttributes().get(EVENT_PROCESSOR_KEY);
+        this.eventStreamBroker = (EventStreamBroker) getContext().getAttributes().get(EVENT_STREAM_BROKER_KEY);
+        this.submissionRateLimiter = (RateLimiter) getContext().getAttributes().get(SUBMISSION_RATE_LIMITER_KEY);
+        this.hintRequestRateLimiter = (RateLimiter) getContext().getAttributes().get(HINT_REQUEST_RATE_LIMITER_KEY);
+        // Restlet's own conditional handling computes the whole response before comparing tags,
+        // so conditional requests are handled by isNotModified instead.
+        setConditional(false);
+    }
+
+    /**
+     * Compares the request's If-None-Match tags with a tag for the HuntStateVersions versions
+     * that cover everything the response depends on. The versions must be read before anything
+     * else is, so that a concurrent change can only make the tag older than the response, and
+     * never newer.
+     *
+     * @return true if the client already has this version, in which case the status has been set
+     * to 304 Not Modified and the handler should return null without reading anything. Otherwise
+     * the tag is sent as the ETag of the response.
+     */
+    protected boolean isNotModified(long... versions) {
+        return isNotModified(Optional.empty(), versions);
+    }
+
+    /**
+     * Like isNotModified(long...), for a response that also depends on request parameters, such
+     * as which page was asked for, which are described by variant so that each variant of the
+     * response gets its own tag.
+     */
+    protected boolean isNotModified(String variant, long... versions) {
+        return isNotModified(Optional.of(variant), versions);
+    }
+
+    private boolean isNotModified(Optional<String> variant, long... versions) {
+        String versionsTag = Joiner.on('-').join(Longs.asList(versions));
+        Tag tag = new Tag(variant.isPresent() ? versionsTag + "-" + variant.get() : versionsTag);
+        for (Tag noneMatchTag : getRequest().getConditions().getNoneMatch()) {
+            if (noneMatchTag.equals(Tag.ALL) || noneMatchTag.equals(tag, false)) {
+                setStatus(Status.REDIRECTION_NOT_MODIFIED);
+                return true;
+            }
+        }
+        entityTag = tag;
+        return false;
+    }
+
+    /**
+     * Returns an integer query value, or empty if it is missing. Rejects the request with 400
+     * Bad Request if the value isn't an integer.
+     */
+    protected Optional<Integer> getIntegerQueryValue(String name) {
+        String value = getQueryValue(name);
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST, String.format("%s is not valid", name));
+        }
+    }
+
+    /**
+     * Returns a long query value, or empty if it is missing. Rejects the request with 400 Bad
+     * Request if the value isn't an integer.
+     */
+    protected Optional<Long> getLongQueryValue(String name) {
+        String value = getQueryValue(name);
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST, String.format("%s is not valid", name));
+        }
+    }
+
+    /**
+     * Returns the pageSize query value, or maxPageSize if it is missing or larger, so that a
+     * single request can't ask for an unbounded amount of work.
+     */
+    protected int getPageSize(int maxPageSize) {
+        return getOptionalPageSize(maxPageSize).orElse(maxPageSize);
+    }
+
+    /**
+     * Returns the pageSize query value, capped at maxPageSize, or empty if it is missing.
+     */
+    protected Optional<Integer> getOptionalPageSize(int maxPageSize) {
+        Optional<Integer> pageSize = getIntegerQueryValue("pageSize");
+        if (pageSize.isPresent() && pageSize.get() < 1) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST, "pageSize must be positive");
+        }
+        return pageSize.map(size -> Math.min(size, maxPageSize));
+    }
+
+    /**
+     * Rejects the request with 400 Bad Request if the puzzle ID is missing or unknown. This must
+     * be checked before the rate limit, so that made-up puzzle IDs don't get rate limit buckets.
+     */
+    protected void checkPuzzleId(String puzzleId) {
+        if (puzzleId == null || !puzzleStore.hasPuzzle(puzzleId)) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST,
+                    String.format("Unknown puzzle id %s", puzzleId));
+        }
+    }
+
+    /**
+     * Rejects the request with 429 Too Many Requests, and a Retry-After header, if the team has
+     * made too many requests recently. Does nothing if there's no rate limiter.
+     */
+    protected void checkRateLimit(RateLimiter rateLimiter, String teamId, String puzzleId) {
+        if (rateLimiter == null) {
+            return;
+        }
+        Optional<Duration> retryAfter = rateLimiter.tryAcquire(teamId, puzzleId);
+        if (retryAfter.isPresent()) {
+            // Retry-After is in whole seconds, so round up.
+            long retryAfterMillis = (retryAfter.get().toMillis() / 1000 + 1) * 1000;
+            getResponse().setRetryAfter(new Date(System.currentTimeMillis() + retryAfterMillis));
+            throw new ResourceException(
+                    TOO_MANY_REQUESTS,
+                    "Too many requests have been made for this team. Please try again later.");
+        }
+    }
+
+    @Override
+    public Representation handle() {
+        Representation result = super.handle();
+        if (result != null && entityTag != null) {
+            result.setTag(entityTag);
+        }
+        return result;
     }
 }
@@ -0,0 +1,159 @@
+package edu.mit.puzzle.cube.core.serverresources;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import edu.mit.puzzle.cube.core.events.EventStreamBroker;
+import edu.mit.puzzle.cube.core.events.StreamedEvent;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+import edu.mit.puzzle.cube.core.permissions.SubmissionsPermission;
+import edu.mit.puzzle.cube.core.permissions.VisibilitiesPermission;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.subject.Subject;
+import org.restlet.data.CacheDirective;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.OutputRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Streams visibility changes, submissions and hint responses as server-sent events.
+ *
+ * Each event is only sent to subscribers that have permission to read it. Clients that
+ * reconnect with a Last-Event-ID header (or a lastEventId query parameter) receive the events
+ * they missed, or a "reset" event if those events are no longer available, in which case they
+ * should reload their state through the other APIs.
+ */
+public class EventStreamResource extends AbstractCubeResource {
+
+    private static final MediaType TEXT_EVENT_STREAM = MediaType.valueOf("text/event-stream");
+    private static final int SUBSCRIPTION_CAPACITY = 256;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long RECONNECT_MILLIS = 5000;
+
+    private static class EventStreamRepresentation extends OutputRepresentation {
+        private final EventStreamBroker.Subscription subscription;
+        private final BooleanSupplier subscriberPermitted;
+
+        private EventStreamRepresentation(
+                EventStreamBroker.Subscription subscription,
+                BooleanSupplier subscriberPermitted
+        ) {
+            super(TEXT_EVENT_STREAM);
+            this.subscription = subscription;
+            this.subscriberPermitted = subscriberPermitted;
+            setTransient(true);
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            try {
+                writer.write("retry: " + RECONNECT_MILLIS + "\n\n");
+                if (subscription.hasMissedEvents()) {
+                    writer.write("event: reset\ndata: {}\n\n");
+                }
+                writer.flush();
+
+                while (true) {
+                    Optional<StreamedEvent> event =
+                            subscription.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                    if (event.isPresent()) {
+                        writer.write("id: " + event.get().getId() + "\n");
+                        writer.write("event: " + event.get().getEventType() + "\n");
+                        writer.write("data: " + event.get().getData() + "\n\n");
+                    } else if (subscription.isOverflowed()) {
+                        // The client fell behind. End the stream so that it reconnects and
+                        // resumes from the last event it received.
+                        break;
+                    } else if (!subscriberPermitted.getAsBoolean()) {
+                        // The subscriber's permissions were revoked while the stream was open.
+                        break;
+                    } else {
+                        writer.write(":\n\n");
+                    }
+                    writer.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                subscription.close();
+            }
+        }
+
+        @Override
+        public void release() {
+            subscription.close();
+            super.release();
+        }
+    }
+
+    private Optional<Long> getLastEventId() {
+        String lastEventId = getRequest().getHeaders().getFirstValue("Last-Event-ID", true);
+        if (lastEventId == null) {
+            lastEventId = getQueryValue("lastEventId");
+        }
+        if (lastEventId == null || lastEventId.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.parseLong(lastEventId));
+        } catch (NumberFormatException e) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST,
+                    "Invalid last event id: " + lastEventId);
+        }
+    }
+
+    @Get
+    public Representation handleGet() {
+        Optional<String> teamId = Optional.ofNullable(getQueryValue("teamId"));
+
+        Subject subject = SecurityUtils.getSubject();
+        VisibilitiesPermission visibilitiesPermission =
+                new VisibilitiesPermission(teamId.orElse("*"), PermissionAction.READ);
+        SubmissionsPermission submissionsPermission =
+                new SubmissionsPermission(teamId.orElse("*"), PermissionAction.READ);
+        if (!subject.isPermitted(submissionsPermission)) {
+            subject.checkPermission(visibilitiesPermission);
+        }
+
+        // Permissions are checked on the thread that writes the stream, rather than while the
+        // broker is publishing to every subscriber. There are just a few permissions for each
+        // team, so each one's result is kept, but only for a heartbeat interval, so that
+        // permissions revoked while the stream is open take effect.
+        LoadingCache<Permission, Boolean> permitted = CacheBuilder.newBuilder()
+                .expireAfterWrite(HEARTBEAT_SECONDS, TimeUnit.SECONDS)
+                .build(CacheLoader.from((Permission permission) -> subject.isPermitted(permission)));
+        Optional<EventStreamBroker.Subscription> subscription = eventStreamBroker.subscribe(
+                getLastEventId(),
+                event -> !teamId.isPresent() || teamId.get().equals(event.getTeamId()),
+                event -> permitted.getUnchecked(event.getRequiredPermission()),
+                SUBSCRIPTION_CAPACITY);
+        if (!subscription.isPresent()) {
+            throw new ResourceException(
+                    Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                    "Too many open event streams");
+        }
+
+        getResponse().getCacheDirectives().add(CacheDirective.noCache());
+        return new EventStreamRepresentation(
+                subscription.get(),
+                () -> subject.isPermitted(submissionsPermission)
+                        || subject.isPermitted(visibilitiesPermission));
+    }
+}
@@ -0,0 +1,51 @@
+package edu.mit.puzzle.cube.core.serverresources;
+
+import edu.mit.puzzle.cube.core.model.HintRequest;
+import edu.mit.puzzle.cube.core.model.HintRequests;
+import edu.mit.puzzle.cube.core.permissions.HintsPermission;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.restlet.data.Status;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+
+import java.util.List;
+
+/**
+ * Assigns the oldest hint requests in the queue to the current user, so that callers don't have
+ * to race each other to claim hint requests one at a time through /hintrequests/{id}.
+ */
+public class HintRequestClaimsResource extends AbstractCubeResource {
+    private static final int MAX_CLAIM_COUNT = 100;
+
+    private int getCount() {
+        String countString = getQueryValue("count");
+        if (countString == null) {
+            return 1;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(countString);
+        } catch (NumberFormatException e) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "count is not valid");
+        }
+        if (count < 1 || count > MAX_CLAIM_COUNT) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST,
+                    String.format("count must be between 1 and %d", MAX_CLAIM_COUNT));
+        }
+        return count;
+    }
+
+    @Post
+    public HintRequests handlePost() {
+        Subject subject = SecurityUtils.getSubject();
+        subject.checkPermission(new HintsPermission("*", PermissionAction.UPDATE));
+
+        List<HintRequest> hintRequests = hintRequestStore.claimHintRequests(
+                (String) subject.getPrincipal(), getCount());
+        return HintRequests.builder().setHintRequests(hintRequests).build();
+    }
+}
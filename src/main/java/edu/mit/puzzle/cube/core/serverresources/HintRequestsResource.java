@@ -4,6 +4,7 @@ import com.google.common.base.Preconditions;
 
 import edu.mit.puzzle.cube.core.model.HintRequest;
 import edu.mit.puzzle.cube.core.model.HintRequests;
+import edu.mit.puzzle.cube.core.model.HuntStateVersions;
 import edu.mit.puzzle.cube.core.model.PostResult;
 import edu.mit.puzzle.cube.core.model.Visibility;
 import edu.mit.puzzle.cube.core.permissions.HintsPermission;
@@ -16,8 +17,11 @@ import org.restlet.resource.Post;
 import org.restlet.resource.ResourceException;
 
 import java.util.List;
+import java.util.Optional;
 
 public class HintRequestsResource extends AbstractCubeResource {
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Get
     public HintRequests handleGet() {
         List<HintRequest> hintRequests;
@@ -37,7 +41,18 @@ public class HintRequestsResource extends AbstractCubeResource {
             SecurityUtils.getSubject().checkPermission(
                     new HintsPermission("*", PermissionAction.READ)
             );
-            hintRequests = hintRequestStore.getNonTerminalHintRequests();
+            // Without a pageSize, every request is listed, as it was before paging was added.
+            Optional<Integer> startHintRequestId = getIntegerQueryValue("startHintRequestId");
+            Optional<Integer> pageSize = getOptionalPageSize(MAX_PAGE_SIZE);
+            String page = String.format(
+                    "%s-%s",
+                    startHintRequestId.map(String::valueOf).orElse(""),
+                    pageSize.map(String::valueOf).orElse(""));
+            if (isNotModified(page, huntStatusStore.getHuntStateVersions().getTableVersion(
+                    HuntStateVersions.Table.HINT_REQUESTS))) {
+                return null;
+            }
+            hintRequests = hintRequestStore.getNonTerminalHintRequests(startHintRequestId, pageSize);
         }
         return HintRequests.builder().setHintRequests(hintRequests).build();
     }
@@ -46,6 +61,8 @@ public class HintRequestsResource extends AbstractCubeResource {
     public PostResult handlePost(HintRequest hintRequest) {
         SecurityUtils.getSubject().checkPermission(
                 new HintsPermission(hintRequest.getTeamId(), PermissionAction.CREATE));
+        checkPuzzleId(hintRequest.getPuzzleId());
+        checkRateLimit(hintRequestRateLimiter, hintRequest.getTeamId(), hintRequest.getPuzzleId());
         Visibility visibility = huntStatusStore.getVisibility(
                 hintRequest.getTeamId(),
                 hintRequest.getPuzzleId()
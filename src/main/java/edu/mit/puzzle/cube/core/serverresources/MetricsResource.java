@@ -0,0 +1,25 @@
+package edu.mit.puzzle.cube.core.serverresources;
+
+import edu.mit.puzzle.cube.core.metrics.MetricsRegistry;
+import edu.mit.puzzle.cube.core.permissions.MetricsPermission;
+
+import org.apache.shiro.SecurityUtils;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+public class MetricsResource extends AbstractCubeResource {
+
+    // The content type of version 0.0.4 of the Prometheus text exposition format.
+    private static final MediaType PROMETHEUS_TEXT_FORMAT =
+            MediaType.valueOf("text/plain; version=0.0.4");
+
+    @Get
+    public Representation handleGet() {
+        SecurityUtils.getSubject().checkPermission(new MetricsPermission());
+        return new StringRepresentation(
+                MetricsRegistry.getDefault().toPrometheusText(),
+                PROMETHEUS_TEXT_FORMAT);
+    }
+}
@@ -0,0 +1,60 @@
+package edu.mit.puzzle.cube.core.serverresources;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.model.Submission;
+import edu.mit.puzzle.cube.core.model.Submissions;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+import edu.mit.puzzle.cube.core.permissions.SubmissionsPermission;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.restlet.data.Status;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+
+import java.util.List;
+
+/**
+ * Assigns the oldest unassigned submissions to the current user, so that callers don't have to
+ * race each other to claim submissions one at a time through /submissions/{id}.
+ */
+public class SubmissionClaimsResource extends AbstractCubeResource {
+    private static final int MAX_CLAIM_COUNT = 100;
+
+    private int getCount() {
+        String countString = getQueryValue("count");
+        if (countString == null) {
+            return 1;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(countString);
+        } catch (NumberFormatException e) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "count is not valid");
+        }
+        if (count < 1 || count > MAX_CLAIM_COUNT) {
+            throw new ResourceException(
+                    Status.CLIENT_ERROR_BAD_REQUEST,
+                    String.format("count must be between 1 and %d", MAX_CLAIM_COUNT));
+        }
+        return count;
+    }
+
+    @Post
+    public Submissions handlePost() {
+        Subject subject = SecurityUtils.getSubject();
+        subject.checkPermission(new SubmissionsPermission("*", PermissionAction.UPDATE));
+
+        List<String> preferredPuzzleIds = ImmutableList.of();
+        if (getQueryValue("puzzleId") != null) {
+            preferredPuzzleIds = ImmutableList.copyOf(
+                    Splitter.on(",").omitEmptyStrings().split(getQueryValue("puzzleId")));
+        }
+
+        List<Submission> submissions = submissionStore.claimSubmissions(
+                (String) subject.getPrincipal(), getCount(), preferredPuzzleIds);
+        return Submissions.builder().setSubmissions(submissions).build();
+    }
+}
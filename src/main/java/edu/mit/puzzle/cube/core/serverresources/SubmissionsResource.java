@@ -3,6 +3,7 @@ package edu.mit.puzzle.cube.core.serverresources;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 
+import edu.mit.puzzle.cube.core.model.HuntStateVersions;
 import edu.mit.puzzle.cube.core.model.PostResult;
 import edu.mit.puzzle.cube.core.model.Submission;
 import edu.mit.puzzle.cube.core.model.SubmissionStatus;
@@ -62,6 +63,13 @@ public class SubmissionsResource extends AbstractCubeResource {
                     new SubmissionsPermission("*", PermissionAction.READ));
         }
 
+        HuntStateVersions versions = huntStatusStore.getHuntStateVersions();
+        if (isNotModified(teamId.isPresent()
+                ? versions.getTeamVersion(teamId.get())
+                : versions.getTableVersion(HuntStateVersions.Table.SUBMISSIONS))) {
+            return null;
+        }
+
         List<Submission> submissions = submissionStore.getSubmissions(
                 getFilterOptions(),
                 getPaginationOptions()
@@ -73,6 +81,8 @@ public class SubmissionsResource extends AbstractCubeResource {
     public PostResult handlePost(Submission submission) {
         SecurityUtils.getSubject().checkPermission(
                 new SubmissionsPermission(submission.getTeamId(), PermissionAction.CREATE));
+        checkPuzzleId(submission.getPuzzleId());
+        checkRateLimit(submissionRateLimiter, submission.getTeamId(), submission.getPuzzleId());
         Visibility visibility = huntStatusStore.getVisibility(
                 submission.getTeamId(),
                 submission.getPuzzleId()
@@ -83,7 +93,18 @@ public class SubmissionsResource extends AbstractCubeResource {
                     "This submission is not allowed due to puzzle visibility");
         }
 
-        boolean success = submissionStore.addSubmission(submission);
-        return PostResult.builder().setCreated(success).build();
+        Optional<SubmissionStore.AddResult> addResult = submissionStore.addSubmission(submission);
+        if (!addResult.isPresent()) {
+            return PostResult.builder().setCreated(false).build();
+        }
+        Optional<Submission> storedSubmission =
+                submissionStore.getSubmission(addResult.get().getSubmissionId());
+        if (addResult.get().isCreated()) {
+            storedSubmission.ifPresent(eventStreamBroker::publishSubmissionCreated);
+        }
+        return PostResult.builder()
+                .setCreated(addResult.get().isCreated())
+                .setSubmission(storedSubmission.orElse(null))
+                .build();
     }
 }
@@ -26,6 +26,9 @@ public class TeamResource extends AbstractCubeResource {
         String id = getId();
         SecurityUtils.getSubject().checkPermission(
                 new TeamsPermission(id, PermissionAction.READ));
+        if (isNotModified(huntStatusStore.getHuntStateVersions().getTeamVersion(id))) {
+            return null;
+        }
         return huntStatusStore.getTeam(id);
     }
 
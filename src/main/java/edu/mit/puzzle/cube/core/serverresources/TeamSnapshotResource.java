@@ -0,0 +1,55 @@
+package edu.mit.puzzle.cube.core.serverresources;
+
+import edu.mit.puzzle.cube.core.model.TeamSnapshot;
+import edu.mit.puzzle.cube.core.model.Visibility;
+import edu.mit.puzzle.cube.core.permissions.HintsPermission;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+import edu.mit.puzzle.cube.core.permissions.SubmissionsPermission;
+import edu.mit.puzzle.cube.core.permissions.TeamsPermission;
+import edu.mit.puzzle.cube.core.permissions.VisibilitiesPermission;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.restlet.resource.Get;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Returns everything a solving team's client shows in one response, instead of one request each
+ * to /teams/{id}, /visibilities, /submissions and /hintrequests.
+ */
+public class TeamSnapshotResource extends AbstractCubeResource {
+    private static final int SUBMISSION_LIMIT = 100;
+
+    private String getId() {
+        String idString = (String) getRequest().getAttributes().get("id");
+        if (idString == null) {
+            throw new IllegalArgumentException("id must be specified");
+        }
+        return idString;
+    }
+
+    @Get
+    public TeamSnapshot handleGet() {
+        String id = getId();
+        Subject subject = SecurityUtils.getSubject();
+        subject.checkPermission(new TeamsPermission(id, PermissionAction.READ));
+        subject.checkPermission(new VisibilitiesPermission(id, PermissionAction.READ));
+        subject.checkPermission(new SubmissionsPermission(id, PermissionAction.READ));
+        subject.checkPermission(new HintsPermission(id, PermissionAction.READ));
+        if (isNotModified(huntStatusStore.getHuntStateVersions().getTeamVersion(id))) {
+            return null;
+        }
+
+        TeamSnapshot snapshot = huntStatusStore.getTeamSnapshot(id, SUBMISSION_LIMIT);
+        List<Visibility> visibilities = snapshot.getVisibilities().stream()
+                .map(visibility -> visibility.toBuilder()
+                        .setPuzzleDisplayName(
+                                puzzleStore.getPuzzle(visibility.getPuzzleId()).getDisplayName())
+                        .build()
+                )
+                .collect(Collectors.toList());
+        return snapshot.toBuilder().setVisibilities(visibilities).build();
+    }
+}
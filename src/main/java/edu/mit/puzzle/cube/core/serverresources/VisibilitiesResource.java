@@ -1,5 +1,6 @@
 package edu.mit.puzzle.cube.core.serverresources;
 
+import edu.mit.puzzle.cube.core.model.HuntStateVersions;
 import edu.mit.puzzle.cube.core.model.Visibilities;
 import edu.mit.puzzle.cube.core.model.Visibility;
 import edu.mit.puzzle.cube.core.permissions.PermissionAction;
@@ -24,6 +25,17 @@ public class VisibilitiesResource extends AbstractCubeResource {
             SecurityUtils.getSubject().checkPermission(
                     new VisibilitiesPermission("*", PermissionAction.READ));
         }
+        // A team's version covers its submissions too, which visibilities include the solved
+        // answers from.
+        HuntStateVersions versions = huntStatusStore.getHuntStateVersions();
+        boolean notModified = teamId.isPresent()
+                ? isNotModified(versions.getTeamVersion(teamId.get()))
+                : isNotModified(
+                        versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES),
+                        versions.getTableVersion(HuntStateVersions.Table.SUBMISSIONS));
+        if (notModified) {
+            return null;
+        }
         Optional<String> puzzleId = Optional.ofNullable(getQueryValue("puzzleId"));
 
         List<Visibility> visibilities = huntStatusStore.getExplicitVisibilities(teamId, puzzleId);
@@ -1,22 +1,112 @@
 package edu.mit.puzzle.cube.core.serverresources;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore.VisibilityChangeFilterOptions;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore.VisibilityChangePaginationOptions;
 import edu.mit.puzzle.cube.core.model.VisibilityChanges;
 import edu.mit.puzzle.cube.core.permissions.PermissionAction;
 import edu.mit.puzzle.cube.core.permissions.VisibilitiesPermission;
 
 import org.apache.shiro.SecurityUtils;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
 import org.restlet.resource.Get;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Optional;
+
 public class VisibilityChangesResource extends AbstractCubeResource {
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final ObjectWriter STREAMING_WRITER =
+            MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Writes visibility changes to the response as they are read from the database, instead
+     * of building the whole list in memory first. The database connection is held until the
+     * last row has been written.
+     */
+    private static class StreamingVisibilityChangesRepresentation extends OutputRepresentation {
+        private final HuntStatusStore huntStatusStore;
+        private final VisibilityChangeFilterOptions filterOptions;
+        private final VisibilityChangePaginationOptions paginationOptions;
+
+        private StreamingVisibilityChangesRepresentation(
+                HuntStatusStore huntStatusStore,
+                VisibilityChangeFilterOptions filterOptions,
+                VisibilityChangePaginationOptions paginationOptions
+        ) {
+            super(MediaType.APPLICATION_JSON);
+            this.huntStatusStore = huntStatusStore;
+            this.filterOptions = filterOptions;
+            this.paginationOptions = paginationOptions;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException {
+            JsonGenerator generator = MAPPER.getFactory().createGenerator(outputStream);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("visibilityChanges");
+            try {
+                huntStatusStore.forEachVisibilityChange(
+                        filterOptions,
+                        paginationOptions,
+                        visibilityChange -> {
+                            try {
+                                STREAMING_WRITER.writeValue(generator, visibilityChange);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.flush();
+        }
+    }
+
+    private VisibilityChangeFilterOptions getFilterOptions() {
+        return VisibilityChangeFilterOptions.builder()
+                .setTeamId(Optional.ofNullable(getQueryValue("teamId")))
+                .setPuzzleId(Optional.ofNullable(getQueryValue("puzzleId")))
+                .setStartTimestamp(getLongQueryValue("startTimestamp").map(Instant::ofEpochMilli))
+                .setEndTimestamp(getLongQueryValue("endTimestamp").map(Instant::ofEpochMilli))
+                .build();
+    }
+
+    private VisibilityChangePaginationOptions getPaginationOptions(boolean stream) {
+        // A streamed response isn't built in memory, so it may be as long as the caller asks.
+        int maxPageSize = stream ? Integer.MAX_VALUE : MAX_PAGE_SIZE;
+        return VisibilityChangePaginationOptions.builder()
+                .setStartVisibilityHistoryId(getIntegerQueryValue("startVisibilityHistoryId"))
+                .setPageSize(Optional.of(getPageSize(maxPageSize)))
+                .build();
+    }
 
-    // TODO: introduce some filtering and/or pagination on this API - always reading all
-    // visibility changes may not scale.
     @Get
-    public VisibilityChanges handleGet() {
+    public Object handleGet() {
+        Optional<String> teamId = Optional.ofNullable(getQueryValue("teamId"));
         SecurityUtils.getSubject().checkPermission(
-                new VisibilitiesPermission("*", PermissionAction.READ));
+                new VisibilitiesPermission(teamId.orElse("*"), PermissionAction.READ));
+
+        boolean stream = Boolean.parseBoolean(getQueryValue("stream"));
+        VisibilityChangeFilterOptions filterOptions = getFilterOptions();
+        VisibilityChangePaginationOptions paginationOptions = getPaginationOptions(stream);
+        if (stream) {
+            return new StreamingVisibilityChangesRepresentation(
+                    huntStatusStore, filterOptions, paginationOptions);
+        }
         return VisibilityChanges.builder()
-                .setVisibilityChanges(huntStatusStore.getVisibilityChanges())
+                .setVisibilityChanges(huntStatusStore.getVisibilityChanges(filterOptions, paginationOptions))
                 .build();
     }
 }
@@ -0,0 +1,253 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.TreeMultimap;
+
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.ScoreThresholdEvent;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Run;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+/**
+ * A ScoreTracker maintains team scores made up of a puzzle score, the sum of the point rewards
+ * of the puzzles a team has solved, and a time score, one point for every timeScoreInterval
+ * since the hunt started. The puzzle score is updated as solves happen and the time score is
+ * computed from the hunt start time whenever a score is read, so neither has to be recomputed
+ * from the database, and nothing has to be written just because time has passed.
+ *
+ * Because the time score grows predictably, the tracker works out the exact instant at which
+ * each team's score will reach its next UnlockGraph score threshold. pollDueScores returns
+ * only the teams whose next threshold has come due. If the tracker has an EventScheduler, it
+ * keeps a ScoreThresholdEvent scheduled for the earliest of those instants, and hunt
+ * definitions should call pollDueScores when it is processed, so that nothing has to be checked
+ * on a timer.
+ *
+ * The tracker loads the hunt start time and every team's solves from the HuntStatusStore the
+ * first time it is used. Thresholds may have been crossed while nothing was tracking them, so
+ * after that load every team is due at once. A team that is added later is loaded when its
+ * score is first needed.
+ */
+public class ScoreTracker {
+    private final UnlockGraph unlockGraph;
+    private final HuntStatusStore huntStatusStore;
+    private final ToIntFunction<String> puzzleRewards;
+    private final Duration timeScoreInterval;
+    private final Optional<EventScheduler> eventScheduler;
+    private final Clock clock;
+
+    private boolean loaded = false;
+    private Optional<Instant> startTimestamp = Optional.empty();
+    private final Map<String, Integer> puzzleScores = new HashMap<>();
+    private final Map<String, Instant> dueTimestamps = new HashMap<>();
+    private final TreeMultimap<Instant, String> teamIdsByDueTimestamp = TreeMultimap.create();
+    private Optional<Instant> scheduledTimestamp = Optional.empty();
+    private Optional<Integer> scheduledEventId = Optional.empty();
+
+    public ScoreTracker(
+            UnlockGraph unlockGraph,
+            HuntStatusStore huntStatusStore,
+            ToIntFunction<String> puzzleRewards,
+            Duration timeScoreInterval
+    ) {
+        this(unlockGraph, huntStatusStore, puzzleRewards, timeScoreInterval,
+                Optional.empty(), Clock.systemUTC());
+    }
+
+    public ScoreTracker(
+            UnlockGraph unlockGraph,
+            HuntStatusStore huntStatusStore,
+            ToIntFunction<String> puzzleRewards,
+            Duration timeScoreInterval,
+            EventScheduler eventScheduler
+    ) {
+        this(unlockGraph, huntStatusStore, puzzleRewards, timeScoreInterval,
+                Optional.of(eventScheduler), Clock.systemUTC());
+    }
+
+    public ScoreTracker(
+            UnlockGraph unlockGraph,
+            HuntStatusStore huntStatusStore,
+            ToIntFunction<String> puzzleRewards,
+            Duration timeScoreInterval,
+            Optional<EventScheduler> eventScheduler,
+            Clock clock
+    ) {
+        this.unlockGraph = unlockGraph;
+        this.huntStatusStore = huntStatusStore;
+        this.puzzleRewards = puzzleRewards;
+        this.timeScoreInterval = timeScoreInterval;
+        this.eventScheduler = eventScheduler;
+        this.clock = clock;
+    }
+
+    /**
+     * Reloads the hunt start time after the hunt starts, and schedules every team's next score
+     * threshold from it.
+     *
+     * @return The score of every team.
+     */
+    public synchronized Map<String, Integer> huntStarted() {
+        Instant now = clock.instant();
+        loaded = false;
+        ensureLoaded(now);
+        ImmutableMap.Builder<String, Integer> scores = ImmutableMap.builder();
+        for (String teamId : ImmutableList.copyOf(puzzleScores.keySet())) {
+            scores.put(teamId, getScore(teamId, now));
+            schedule(teamId, now);
+        }
+        updateScheduledEvent();
+        return scores.build();
+    }
+
+    /**
+     * Adds the reward for a newly solved puzzle to a team's puzzle score.
+     *
+     * @return The team's new score.
+     */
+    public synchronized int recordSolve(String teamId, String puzzleId) {
+        Instant now = clock.instant();
+        // A team that was just loaded from the database already has the solve counted.
+        boolean loadedNow = ensureLoaded(now);
+        if (!puzzleScores.containsKey(teamId)) {
+            puzzleScores.put(teamId, loadPuzzleScore(teamId));
+        } else if (!loadedNow) {
+            puzzleScores.merge(teamId, puzzleRewards.applyAsInt(puzzleId), Integer::sum);
+        }
+        schedule(teamId, now);
+        updateScheduledEvent();
+        return getScore(teamId, now);
+    }
+
+    /**
+     * @return The teams that have reached a new score threshold since they were last returned,
+     * with their current scores.
+     */
+    public synchronized Map<String, Integer> pollDueScores() {
+        Instant now = clock.instant();
+        ensureLoaded(now);
+        List<String> dueTeamIds = ImmutableList.copyOf(Iterables.concat(
+                teamIdsByDueTimestamp.asMap().headMap(now, true).values()));
+        if (dueTeamIds.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        ImmutableMap.Builder<String, Integer> scores = ImmutableMap.builder();
+        for (String teamId : dueTeamIds) {
+            scores.put(teamId, getScore(teamId, now));
+            schedule(teamId, now);
+        }
+        updateScheduledEvent();
+        return scores.build();
+    }
+
+    public synchronized int getScore(String teamId) {
+        Instant now = clock.instant();
+        ensureLoaded(now);
+        return getScore(teamId, now);
+    }
+
+    public synchronized int getPuzzleScore(String teamId) {
+        ensureLoaded(clock.instant());
+        return getOrLoadPuzzleScore(teamId);
+    }
+
+    public synchronized Optional<Instant> getStartTimestamp() {
+        ensureLoaded(clock.instant());
+        return startTimestamp;
+    }
+
+    private boolean ensureLoaded(Instant now) {
+        if (loaded) {
+            return false;
+        }
+        startTimestamp = huntStatusStore.getHuntRunProperties().map(Run::getStartTimestamp);
+        puzzleScores.clear();
+        dueTimestamps.clear();
+        teamIdsByDueTimestamp.clear();
+        for (String teamId : huntStatusStore.getTeamIds()) {
+            puzzleScores.put(teamId, loadPuzzleScore(teamId));
+            if (startTimestamp.isPresent()) {
+                dueTimestamps.put(teamId, now);
+                teamIdsByDueTimestamp.put(now, teamId);
+            }
+        }
+        loaded = true;
+        updateScheduledEvent();
+        return true;
+    }
+
+    private int loadPuzzleScore(String teamId) {
+        return huntStatusStore.getVisibilitiesForTeam(teamId).stream()
+                .filter(visibility -> visibility.getStatus().equals(unlockGraph.getSolvedStatus()))
+                .mapToInt(visibility -> puzzleRewards.applyAsInt(visibility.getPuzzleId()))
+                .sum();
+    }
+
+    private int getOrLoadPuzzleScore(String teamId) {
+        return puzzleScores.computeIfAbsent(teamId, this::loadPuzzleScore);
+    }
+
+    private int getScore(String teamId, Instant now) {
+        return getOrLoadPuzzleScore(teamId) + getTimeScore(now);
+    }
+
+    private int getTimeScore(Instant now) {
+        if (!startTimestamp.isPresent() || now.isBefore(startTimestamp.get())) {
+            return 0;
+        }
+        return (int) (Duration.between(startTimestamp.get(), now).toMillis()
+                / timeScoreInterval.toMillis());
+    }
+
+    private void schedule(String teamId, Instant now) {
+        Instant previousDueTimestamp = dueTimestamps.remove(teamId);
+        if (previousDueTimestamp != null) {
+            teamIdsByDueTimestamp.remove(previousDueTimestamp, teamId);
+        }
+        if (!startTimestamp.isPresent()) {
+            return;
+        }
+        int puzzleScore = getOrLoadPuzzleScore(teamId);
+        Optional<Integer> nextThreshold =
+                unlockGraph.getNextScoreThreshold(puzzleScore + getTimeScore(now));
+        if (!nextThreshold.isPresent()) {
+            return;
+        }
+        Instant dueTimestamp = startTimestamp.get().plus(
+                timeScoreInterval.multipliedBy(nextThreshold.get() - puzzleScore));
+        dueTimestamps.put(teamId, dueTimestamp);
+        teamIdsByDueTimestamp.put(dueTimestamp, teamId);
+    }
+
+    /**
+     * Moves the scheduled ScoreThresholdEvent to the earliest due instant, if that has changed.
+     */
+    private void updateScheduledEvent() {
+        if (!eventScheduler.isPresent()) {
+            return;
+        }
+        Optional<Instant> nextDueTimestamp = teamIdsByDueTimestamp.isEmpty()
+                ? Optional.empty()
+                : Optional.of(teamIdsByDueTimestamp.keySet().first());
+        if (nextDueTimestamp.equals(scheduledTimestamp)) {
+            return;
+        }
+        // Cancelling an event that has already been processed does nothing.
+        if (scheduledEventId.isPresent()) {
+            eventScheduler.get().cancel(scheduledEventId.get());
+        }
+        scheduledEventId = nextDueTimestamp.map(dueTimestamp -> eventScheduler.get().schedule(
+                ScoreThresholdEvent.builder().build(), dueTimestamp));
+        scheduledTimestamp = nextDueTimestamp;
+    }
+}
@@ -0,0 +1,212 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table;
+
+import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.FullReleaseEvent;
+import edu.mit.puzzle.cube.core.events.PeriodicTimerEvent;
+import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Run;
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * An UnlockEngine applies an UnlockGraph to a running hunt. Each solve evaluates only the
+ * rules that have the solved puzzle as a prerequisite, and each score change or timer tick
+ * evaluates only the rules whose thresholds were crossed since the last one, so the cost of an
+ * update depends on how many puzzles it unlocks rather than on the size of the hunt. All of
+ * the puzzles unlocked by one update are set with a single setVisibilityBatch call.
+ *
+ * The engine remembers the highest score of each team and the last time it released puzzles, so
+ * that it doesn't re-evaluate thresholds it has already applied. After a restart it starts from
+ * scratch and re-applies every threshold once, which is harmless because unlocking an
+ * unlocked puzzle has no effect.
+ *
+ * Timed releases are either scheduled with an EventScheduler when the hunt starts, as
+ * FullReleaseEvents that the hunt definition handles like any other full release, or, if the
+ * engine has no EventScheduler, checked on every PeriodicTimerEvent.
+ */
+public class UnlockEngine {
+    private final UnlockGraph unlockGraph;
+    private final HuntStatusStore huntStatusStore;
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Integer> highestScores = new ConcurrentHashMap<>();
+    private Optional<Duration> lastReleaseTime = Optional.empty();
+    private Optional<EventScheduler> eventScheduler = Optional.empty();
+
+    public UnlockEngine(UnlockGraph unlockGraph, HuntStatusStore huntStatusStore) {
+        this(unlockGraph, huntStatusStore, Clock.systemUTC());
+    }
+
+    public UnlockEngine(UnlockGraph unlockGraph, HuntStatusStore huntStatusStore, Clock clock) {
+        this.unlockGraph = unlockGraph;
+        this.huntStatusStore = huntStatusStore;
+        this.clock = clock;
+    }
+
+    /**
+     * Registers the engine to unlock puzzles when their prerequisites are solved, and, if the
+     * graph has any timed releases, to check for them on every PeriodicTimerEvent.
+     */
+    public void addToEventProcessor(CompositeEventProcessor eventProcessor) {
+        addSolveProcessor(eventProcessor);
+        if (unlockGraph.hasTimedReleases()) {
+            eventProcessor.addEventProcessor(PeriodicTimerEvent.class, event -> releaseTimedPuzzles());
+        }
+    }
+
+    /**
+     * Registers the engine to unlock puzzles when their prerequisites are solved, and to
+     * schedule the graph's timed releases when the hunt starts.
+     */
+    public void addToEventProcessor(
+            CompositeEventProcessor eventProcessor,
+            EventScheduler eventScheduler
+    ) {
+        addSolveProcessor(eventProcessor);
+        this.eventScheduler = Optional.of(eventScheduler);
+    }
+
+    private void addSolveProcessor(CompositeEventProcessor eventProcessor) {
+        eventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
+            Visibility visibility = event.getVisibility();
+            if (visibility.getStatus().equals(unlockGraph.getSolvedStatus())) {
+                unlockAfterSolve(visibility.getTeamId(), visibility.getPuzzleId());
+            }
+        });
+    }
+
+    /**
+     * Unlocks the puzzles that are available from the start of the hunt, for every team, and
+     * schedules the timed releases if the engine has an EventScheduler. Hunt definitions should
+     * call this when they handle a HuntStartEvent that starts the hunt.
+     */
+    public void unlockAtHuntStart() {
+        unlockForAllTeams(unlockGraph.getHuntStartPuzzleIds());
+        if (eventScheduler.isPresent() && unlockGraph.hasTimedReleases()) {
+            Optional<Run> run = huntStatusStore.getHuntRunProperties();
+            if (!run.isPresent() || run.get().getStartTimestamp() == null) {
+                return;
+            }
+            Instant startTimestamp = run.get().getStartTimestamp();
+            for (Map.Entry<Duration, ImmutableList<String>> release
+                    : unlockGraph.getTimedReleases().entrySet()) {
+                for (String puzzleId : release.getValue()) {
+                    eventScheduler.get().schedule(
+                            FullReleaseEvent.builder().setPuzzleId(puzzleId).build(),
+                            startTimestamp.plus(release.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a team's new score, and unlocks the puzzles whose score thresholds it has reached
+     * for the first time.
+     */
+    public void updateScore(String teamId, int score) {
+        AtomicReference<Integer> previousHighestScore = new AtomicReference<>();
+        highestScores.compute(teamId, (id, highestScore) -> {
+            previousHighestScore.set(highestScore);
+            return highestScore == null ? score : Math.max(highestScore, score);
+        });
+        List<String> puzzleIds = unlockGraph.getPuzzleIdsForScore(
+                Optional.ofNullable(previousHighestScore.get()), score);
+        if (puzzleIds.isEmpty()) {
+            return;
+        }
+        Table<String, String, String> unlocks = HashBasedTable.create();
+        for (String puzzleId : puzzleIds) {
+            unlocks.put(teamId, puzzleId, unlockGraph.getUnlockedStatus());
+        }
+        huntStatusStore.setVisibilityBatch(unlocks, false);
+    }
+
+    void unlockAfterSolve(String teamId, String solvedPuzzleId) {
+        List<UnlockRule> rules = unlockGraph.getSolveRules(solvedPuzzleId);
+        if (rules.isEmpty()) {
+            return;
+        }
+
+        // Only rules that need more than one prerequisite have to look at the team's other
+        // solves, so only load them if there is such a rule.
+        Set<String> solvedPuzzleIds = null;
+        Table<String, String, String> unlocks = HashBasedTable.create();
+        for (UnlockRule rule : rules) {
+            if (rule.getRequiredSolveCount() > 1) {
+                if (solvedPuzzleIds == null) {
+                    solvedPuzzleIds = getSolvedPuzzleIds(teamId);
+                    solvedPuzzleIds.add(solvedPuzzleId);
+                }
+                long solveCount = rule.getPrerequisitePuzzleIds().stream()
+                        .filter(solvedPuzzleIds::contains)
+                        .count();
+                if (solveCount < rule.getRequiredSolveCount()) {
+                    continue;
+                }
+            }
+            unlocks.put(teamId, rule.getPuzzleId(), unlockGraph.getUnlockedStatus());
+        }
+        if (!unlocks.isEmpty()) {
+            huntStatusStore.setVisibilityBatch(unlocks, false);
+        }
+    }
+
+    void releaseTimedPuzzles() {
+        Optional<Run> run = huntStatusStore.getHuntRunProperties();
+        if (!run.isPresent() || run.get().getStartTimestamp() == null) {
+            return;
+        }
+        Instant now = clock.instant();
+        if (now.isBefore(run.get().getStartTimestamp())) {
+            return;
+        }
+        Duration elapsed = Duration.between(run.get().getStartTimestamp(), now);
+
+        List<String> puzzleIds;
+        synchronized (this) {
+            puzzleIds = unlockGraph.getPuzzleIdsForTime(lastReleaseTime, elapsed);
+            if (!lastReleaseTime.isPresent() || lastReleaseTime.get().compareTo(elapsed) < 0) {
+                lastReleaseTime = Optional.of(elapsed);
+            }
+        }
+        unlockForAllTeams(puzzleIds);
+    }
+
+    private void unlockForAllTeams(Collection<String> puzzleIds) {
+        if (puzzleIds.isEmpty()) {
+            return;
+        }
+        Table<String, String, String> unlocks = HashBasedTable.create();
+        for (String teamId : huntStatusStore.getTeamIds()) {
+            for (String puzzleId : puzzleIds) {
+                unlocks.put(teamId, puzzleId, unlockGraph.getUnlockedStatus());
+            }
+        }
+        huntStatusStore.setVisibilityBatch(unlocks, false);
+    }
+
+    private Set<String> getSolvedPuzzleIds(String teamId) {
+        return huntStatusStore.getVisibilitiesForTeam(teamId).stream()
+                .filter(visibility -> visibility.getStatus().equals(unlockGraph.getSolvedStatus()))
+                .map(Visibility::getPuzzleId)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,187 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * An UnlockGraph is the set of UnlockRules for a hunt, compiled into indexes that let an
+ * UnlockEngine find the rules affected by a solve, a score change or the passage of time
+ * without looking at any other rule. It is immutable, so a hunt definition can build it once
+ * and share it between every UnlockEngine.
+ */
+public class UnlockGraph {
+
+    public static class Builder {
+        private final ImmutableList.Builder<UnlockRule> rules = ImmutableList.builder();
+        private String unlockedStatus = "UNLOCKED";
+        private String solvedStatus = "SOLVED";
+
+        private Builder() {
+        }
+
+        public Builder addRule(UnlockRule rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        public Builder addRules(Collection<UnlockRule> rules) {
+            this.rules.addAll(rules);
+            return this;
+        }
+
+        /**
+         * Sets the visibility status that puzzles are moved to when they are unlocked. Defaults
+         * to UNLOCKED.
+         */
+        public Builder setUnlockedStatus(String unlockedStatus) {
+            this.unlockedStatus = unlockedStatus;
+            return this;
+        }
+
+        /**
+         * Sets the visibility status that marks a puzzle as solved, for prerequisite rules.
+         * Defaults to SOLVED.
+         */
+        public Builder setSolvedStatus(String solvedStatus) {
+            this.solvedStatus = solvedStatus;
+            return this;
+        }
+
+        public UnlockGraph build() {
+            return new UnlockGraph(rules.build(), unlockedStatus, solvedStatus);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final String unlockedStatus;
+    private final String solvedStatus;
+    private final ImmutableList<String> huntStartPuzzleIds;
+    private final ImmutableListMultimap<String, UnlockRule> solveRulesByPrerequisite;
+    private final ImmutableSortedMap<Integer, ImmutableList<String>> puzzleIdsByScoreThreshold;
+    private final ImmutableSortedMap<Duration, ImmutableList<String>> puzzleIdsByReleaseTime;
+
+    private UnlockGraph(List<UnlockRule> rules, String unlockedStatus, String solvedStatus) {
+        this.unlockedStatus = unlockedStatus;
+        this.solvedStatus = solvedStatus;
+
+        ImmutableList.Builder<String> huntStartPuzzleIds = ImmutableList.builder();
+        ImmutableListMultimap.Builder<String, UnlockRule> solveRulesByPrerequisite =
+                ImmutableListMultimap.builder();
+        Map<Integer, List<UnlockRule>> scoreRules = new TreeMap<>();
+        Map<Duration, List<UnlockRule>> timeRules = new TreeMap<>();
+        for (UnlockRule rule : rules) {
+            switch (rule.getTrigger()) {
+            case HUNT_START:
+                huntStartPuzzleIds.add(rule.getPuzzleId());
+                break;
+            case SOLVES:
+                for (String prerequisitePuzzleId : rule.getPrerequisitePuzzleIds()) {
+                    solveRulesByPrerequisite.put(prerequisitePuzzleId, rule);
+                }
+                break;
+            case SCORE:
+                scoreRules.computeIfAbsent(rule.getScoreThreshold(), t -> new ArrayList<>())
+                        .add(rule);
+                break;
+            case TIME:
+                timeRules.computeIfAbsent(rule.getReleaseTime(), t -> new ArrayList<>())
+                        .add(rule);
+                break;
+            default:
+                throw new IllegalStateException("Unhandled unlock rule trigger " + rule.getTrigger());
+            }
+        }
+        this.huntStartPuzzleIds = huntStartPuzzleIds.build();
+        this.solveRulesByPrerequisite = solveRulesByPrerequisite.build();
+        this.puzzleIdsByScoreThreshold = ImmutableSortedMap.copyOf(toPuzzleIds(scoreRules));
+        this.puzzleIdsByReleaseTime = ImmutableSortedMap.copyOf(toPuzzleIds(timeRules));
+    }
+
+    private static <K> Map<K, ImmutableList<String>> toPuzzleIds(Map<K, List<UnlockRule>> rules) {
+        return rules.entrySet().stream().collect(Collectors.toMap(
+                Map.Entry::getKey,
+                entry -> entry.getValue().stream()
+                        .map(UnlockRule::getPuzzleId)
+                        .collect(Collectors.collectingAndThen(
+                                Collectors.toList(), ImmutableList::copyOf))));
+    }
+
+    public String getUnlockedStatus() {
+        return unlockedStatus;
+    }
+
+    public String getSolvedStatus() {
+        return solvedStatus;
+    }
+
+    ImmutableList<String> getHuntStartPuzzleIds() {
+        return huntStartPuzzleIds;
+    }
+
+    /**
+     * @return The rules that have puzzleId as a prerequisite.
+     */
+    ImmutableList<UnlockRule> getSolveRules(String puzzleId) {
+        return solveRulesByPrerequisite.get(puzzleId);
+    }
+
+    /**
+     * @return The puzzles with a score threshold above previousScore, if there is one, and at
+     * most score.
+     */
+    List<String> getPuzzleIdsForScore(Optional<Integer> previousScore, int score) {
+        if (previousScore.isPresent() && previousScore.get() >= score) {
+            return ImmutableList.of();
+        }
+        NavigableMap<Integer, ImmutableList<String>> thresholds = previousScore.isPresent()
+                ? puzzleIdsByScoreThreshold.subMap(previousScore.get(), false, score, true)
+                : puzzleIdsByScoreThreshold.headMap(score, true);
+        return ImmutableList.copyOf(Iterables.concat(thresholds.values()));
+    }
+
+    /**
+     * @return The lowest score threshold above score, if there is one.
+     */
+    Optional<Integer> getNextScoreThreshold(int score) {
+        return Optional.ofNullable(puzzleIdsByScoreThreshold.higherKey(score));
+    }
+
+    /**
+     * @return The puzzles released after previousTime, if there is one, and at or before time.
+     */
+    List<String> getPuzzleIdsForTime(Optional<Duration> previousTime, Duration time) {
+        if (previousTime.isPresent() && previousTime.get().compareTo(time) >= 0) {
+            return ImmutableList.of();
+        }
+        NavigableMap<Duration, ImmutableList<String>> releaseTimes = previousTime.isPresent()
+                ? puzzleIdsByReleaseTime.subMap(previousTime.get(), false, time, true)
+                : puzzleIdsByReleaseTime.headMap(time, true);
+        return ImmutableList.copyOf(Iterables.concat(releaseTimes.values()));
+    }
+
+    /**
+     * @return The puzzles released at each release time, ordered by release time.
+     */
+    ImmutableSortedMap<Duration, ImmutableList<String>> getTimedReleases() {
+        return puzzleIdsByReleaseTime;
+    }
+
+    boolean hasTimedReleases() {
+        return !puzzleIdsByReleaseTime.isEmpty();
+    }
+}
@@ -0,0 +1,81 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A declarative condition under which a puzzle becomes unlocked for a team. A puzzle may have
+ * several rules, and is unlocked as soon as any one of them is satisfied.
+ */
+@AutoValue
+public abstract class UnlockRule {
+
+    public enum Trigger {
+        // Unlocked for every team when the hunt starts.
+        HUNT_START,
+        // Unlocked for a team once it has solved enough of the prerequisite puzzles.
+        SOLVES,
+        // Unlocked for a team once its score reaches the threshold.
+        SCORE,
+        // Unlocked for every team once the given time has passed since the hunt started.
+        TIME,
+    }
+
+    public static UnlockRule atHuntStart(String puzzleId) {
+        return new AutoValue_UnlockRule(
+                puzzleId, Trigger.HUNT_START, ImmutableSet.of(), 0, 0, Duration.ZERO);
+    }
+
+    /**
+     * Unlocks a puzzle once every one of the prerequisite puzzles is solved.
+     */
+    public static UnlockRule afterSolving(String puzzleId, String... prerequisitePuzzleIds) {
+        return afterSolving(puzzleId, prerequisitePuzzleIds.length, Arrays.asList(prerequisitePuzzleIds));
+    }
+
+    /**
+     * Unlocks a puzzle once requiredSolveCount of the prerequisite puzzles are solved.
+     */
+    public static UnlockRule afterSolving(
+            String puzzleId,
+            int requiredSolveCount,
+            Collection<String> prerequisitePuzzleIds
+    ) {
+        ImmutableSet<String> prerequisites = ImmutableSet.copyOf(prerequisitePuzzleIds);
+        Preconditions.checkArgument(
+                requiredSolveCount >= 1 && requiredSolveCount <= prerequisites.size(),
+                "Puzzle %s requires %s solves of %s prerequisites",
+                puzzleId, requiredSolveCount, prerequisites.size());
+        return new AutoValue_UnlockRule(
+                puzzleId, Trigger.SOLVES, prerequisites, requiredSolveCount, 0, Duration.ZERO);
+    }
+
+    public static UnlockRule atScore(String puzzleId, int scoreThreshold) {
+        return new AutoValue_UnlockRule(
+                puzzleId, Trigger.SCORE, ImmutableSet.of(), 0, scoreThreshold, Duration.ZERO);
+    }
+
+    public static UnlockRule afterHuntStart(String puzzleId, Duration releaseTime) {
+        Preconditions.checkArgument(!releaseTime.isNegative(), "Release times can't be negative");
+        return new AutoValue_UnlockRule(
+                puzzleId, Trigger.TIME, ImmutableSet.of(), 0, 0, releaseTime);
+    }
+
+    public abstract String getPuzzleId();
+    public abstract Trigger getTrigger();
+
+    // For SOLVES rules.
+    public abstract ImmutableSet<String> getPrerequisitePuzzleIds();
+    public abstract int getRequiredSolveCount();
+
+    // For SCORE rules.
+    public abstract int getScoreThreshold();
+
+    // For TIME rules, how long after the start of the hunt the puzzle is released.
+    public abstract Duration getReleaseTime();
+}
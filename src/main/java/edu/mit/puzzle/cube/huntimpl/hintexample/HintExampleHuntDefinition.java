@@ -11,7 +11,6 @@ import edu.mit.puzzle.cube.core.events.FullReleaseEvent;
 import edu.mit.puzzle.cube.core.events.HintCompleteEvent;
 import edu.mit.puzzle.cube.core.events.HuntStartEvent;
 import edu.mit.puzzle.cube.core.events.SubmissionCompleteEvent;
-import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
 import edu.mit.puzzle.cube.core.model.HintRequest;
 import edu.mit.puzzle.cube.core.model.HintRequestStatus;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
@@ -20,10 +19,14 @@ import edu.mit.puzzle.cube.core.model.Submission;
 import edu.mit.puzzle.cube.core.model.SubmissionStatus;
 import edu.mit.puzzle.cube.core.model.Team;
 import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
+import edu.mit.puzzle.cube.core.unlock.UnlockEngine;
+import edu.mit.puzzle.cube.core.unlock.UnlockGraph;
+import edu.mit.puzzle.cube.core.unlock.UnlockRule;
 import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
 
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 public class HintExampleHuntDefinition implements HuntDefinition {
     private static final VisibilityStatusSet VISIBILITY_STATUS_SET = new StandardVisibilityStatusSet();
@@ -42,6 +45,16 @@ public class HintExampleHuntDefinition implements HuntDefinition {
         @JsonProperty("tokens") public abstract int getTokens();
     }
 
+    // Everyone starts with all of the round puzzles unlocked. We'll unlock the meta after they
+    // solve at least one puzzle.
+    private static final List<String> ROUND_PUZZLE_IDS = ImmutableList.of("puzzle1", "puzzle2", "puzzle3");
+    private static final UnlockGraph UNLOCK_GRAPH = UnlockGraph.builder()
+            .addRules(ROUND_PUZZLE_IDS.stream()
+                    .map(UnlockRule::atHuntStart)
+                    .collect(Collectors.toList()))
+            .addRule(UnlockRule.afterSolving("meta", 1, ROUND_PUZZLE_IDS))
+            .build();
+
     @Override
     public VisibilityStatusSet getVisibilityStatusSet() {
         return VISIBILITY_STATUS_SET;
@@ -58,17 +71,18 @@ public class HintExampleHuntDefinition implements HuntDefinition {
     }
 
     @Override
-    public void addToEventProcessor(CompositeEventProcessor eventProcessor, HuntStatusStore huntStatusStore) {
+    public void addToEventProcessor(
+            CompositeEventProcessor eventProcessor,
+            HuntStatusStore huntStatusStore
+    ) {
+        UnlockEngine unlockEngine = new UnlockEngine(UNLOCK_GRAPH, huntStatusStore);
+        unlockEngine.addToEventProcessor(eventProcessor);
+
         eventProcessor.addEventProcessor(HuntStartEvent.class, event -> {
             boolean changed = huntStatusStore.recordHuntRunStart();
             if (changed) {
+                unlockEngine.unlockAtHuntStart();
                 for (String teamId : huntStatusStore.getTeamIds()) {
-                    // Everyone starts with all of the round puzzles unlocked. We'll unlock the meta
-                    // after they solve at least one puzzle.
-                    huntStatusStore.setVisibility(teamId, "puzzle1", "UNLOCKED", false);
-                    huntStatusStore.setVisibility(teamId, "puzzle2", "UNLOCKED", false);
-                    huntStatusStore.setVisibility(teamId, "puzzle3", "UNLOCKED", false);
-
                     // Everyone starts with one hint token.
                     huntStatusStore.setTeamProperty(
                             teamId,
@@ -96,17 +110,6 @@ public class HintExampleHuntDefinition implements HuntDefinition {
             }
         });
 
-        eventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
-            String teamId = event.getVisibility().getTeamId();
-            String puzzleId = event.getVisibility().getPuzzleId();
-            String status = event.getVisibility().getStatus();
-
-            if (status.equals("SOLVED") && puzzleId.startsWith("puzzle")) {
-                // We'll unlock the meta after a team solves at least one round puzzle.
-                huntStatusStore.setVisibility(teamId, "meta", "UNLOCKED", false);
-            }
-        });
-
         eventProcessor.addEventProcessor(FullReleaseEvent.class, event -> {
             for (String teamId : huntStatusStore.getTeamIds()) {
                 huntStatusStore.setVisibility(
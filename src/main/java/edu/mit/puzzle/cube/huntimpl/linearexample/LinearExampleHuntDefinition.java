@@ -1,25 +1,26 @@
 package edu.mit.puzzle.cube.huntimpl.linearexample;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 
-import com.google.common.collect.ImmutableTable;
 import edu.mit.puzzle.cube.core.HuntDefinition;
 import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
 import edu.mit.puzzle.cube.core.events.FullReleaseEvent;
 import edu.mit.puzzle.cube.core.events.HuntStartEvent;
 import edu.mit.puzzle.cube.core.events.SubmissionCompleteEvent;
-import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
 import edu.mit.puzzle.cube.core.model.Answer;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
 import edu.mit.puzzle.cube.core.model.Puzzle;
 import edu.mit.puzzle.cube.core.model.Submission;
 import edu.mit.puzzle.cube.core.model.SubmissionStatus;
 import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
+import edu.mit.puzzle.cube.core.unlock.UnlockEngine;
+import edu.mit.puzzle.cube.core.unlock.UnlockGraph;
+import edu.mit.puzzle.cube.core.unlock.UnlockRule;
 import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
 
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 
 public class LinearExampleHuntDefinition implements HuntDefinition {
 
@@ -49,13 +50,21 @@ public class LinearExampleHuntDefinition implements HuntDefinition {
         return PUZZLES;
     }
 
-    private static final Map<String,String> DIRECT_UNLOCK_PREREQS;
+    private static final UnlockGraph UNLOCK_GRAPH;
     static {
-        ImmutableMap.Builder<String,String> directPrereqBuilder = ImmutableMap.builder();
+        UnlockGraph.Builder unlockGraphBuilder = UnlockGraph.builder()
+                .addRule(UnlockRule.atHuntStart("puzzle1"));
         for (int i = 1; i <= 6; ++i) {
-            directPrereqBuilder.put("puzzle" + i, "puzzle" + (i+1));
+            unlockGraphBuilder.addRule(UnlockRule.afterSolving("puzzle" + (i+1), "puzzle" + i));
         }
-        DIRECT_UNLOCK_PREREQS = directPrereqBuilder.build();
+        UNLOCK_GRAPH = unlockGraphBuilder.build();
+    }
+
+    private Optional<EventScheduler> eventScheduler = Optional.empty();
+
+    @Override
+    public void addScheduledEvents(EventScheduler eventScheduler) {
+        this.eventScheduler = Optional.of(eventScheduler);
     }
 
     @Override
@@ -63,6 +72,13 @@ public class LinearExampleHuntDefinition implements HuntDefinition {
             CompositeEventProcessor eventProcessor,
             HuntStatusStore huntStatusStore
     ) {
+        UnlockEngine unlockEngine = new UnlockEngine(UNLOCK_GRAPH, huntStatusStore);
+        if (eventScheduler.isPresent()) {
+            unlockEngine.addToEventProcessor(eventProcessor, eventScheduler.get());
+        } else {
+            unlockEngine.addToEventProcessor(eventProcessor);
+        }
+
         eventProcessor.addEventProcessor(SubmissionCompleteEvent.class, event -> {
             Submission submission = event.getSubmission();
             if (submission.getStatus().equals(SubmissionStatus.CORRECT)) {
@@ -89,25 +105,8 @@ public class LinearExampleHuntDefinition implements HuntDefinition {
         eventProcessor.addEventProcessor(HuntStartEvent.class, event -> {
             boolean changed = huntStatusStore.recordHuntRunStart();
             if (changed) {
-                ImmutableTable.Builder<String,String,String> visibilityUpdateBatchBuilder =
-                        ImmutableTable.builder();
-                huntStatusStore.getTeamIds().forEach(teamId ->
-                        visibilityUpdateBatchBuilder.put(teamId, "puzzle1", "UNLOCKED"));
-                huntStatusStore.setVisibilityBatch(visibilityUpdateBatchBuilder.build(), false);
+                unlockEngine.unlockAtHuntStart();
             }
         });
-
-        for (Map.Entry<String,String> directPrereqEntry : DIRECT_UNLOCK_PREREQS.entrySet()) {
-            eventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
-                String teamId = event.getVisibility().getTeamId();
-                String puzzleId = event.getVisibility().getPuzzleId();
-                String status = event.getVisibility().getStatus();
-
-                if (status.equals("SOLVED") && puzzleId.equals(directPrereqEntry.getKey())) {
-                    huntStatusStore.setVisibility(teamId, directPrereqEntry.getValue(),
-                            "UNLOCKED", false);
-                }
-            });
-        }
     }
 }
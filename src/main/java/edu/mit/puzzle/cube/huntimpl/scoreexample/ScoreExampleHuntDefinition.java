@@ -2,6 +2,8 @@ package edu.mit.puzzle.cube.huntimpl.scoreexample;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -9,41 +11,54 @@ import com.google.common.collect.ImmutableMap;
 import edu.mit.puzzle.cube.core.HuntDefinition;
 import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
 import edu.mit.puzzle.cube.core.events.Event;
-import edu.mit.puzzle.cube.core.events.EventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
 import edu.mit.puzzle.cube.core.events.FullReleaseEvent;
 import edu.mit.puzzle.cube.core.events.HuntStartEvent;
-import edu.mit.puzzle.cube.core.events.PeriodicTimerEvent;
+import edu.mit.puzzle.cube.core.events.ScoreThresholdEvent;
 import edu.mit.puzzle.cube.core.events.SubmissionCompleteEvent;
 import edu.mit.puzzle.cube.core.events.VisibilityChangeEvent;
 import edu.mit.puzzle.cube.core.model.Answer;
 import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.InstantDeserializer;
+import edu.mit.puzzle.cube.core.model.InstantSerializer;
 import edu.mit.puzzle.cube.core.model.Puzzle;
-import edu.mit.puzzle.cube.core.model.Run;
 import edu.mit.puzzle.cube.core.model.Submission;
 import edu.mit.puzzle.cube.core.model.SubmissionStatus;
 import edu.mit.puzzle.cube.core.model.Team;
 import edu.mit.puzzle.cube.core.model.Visibility;
 import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
+import edu.mit.puzzle.cube.core.unlock.ScoreTracker;
+import edu.mit.puzzle.cube.core.unlock.UnlockEngine;
+import edu.mit.puzzle.cube.core.unlock.UnlockGraph;
+import edu.mit.puzzle.cube.core.unlock.UnlockRule;
 import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import javax.annotation.Nullable;
+
 public class ScoreExampleHuntDefinition implements HuntDefinition {
 
     private static final VisibilityStatusSet VISIBILITY_STATUS_SET = new StandardVisibilityStatusSet();
     private static final Map<String,PuzzleInfo> PUZZLE_INFO_MAP;
     private static final List<Puzzle> PUZZLES;
+    private static final UnlockGraph UNLOCK_GRAPH;
+    // Teams get one point for every minute since the start of the hunt.
+    private static final Duration TIME_SCORE_INTERVAL = Duration.ofMinutes(1);
     static {
         ImmutableMap.Builder<String,PuzzleInfo> puzzleInfoBuilder = ImmutableMap.builder();
         ImmutableList.Builder<Puzzle> puzzlesBuilder = ImmutableList.builder();
+        UnlockGraph.Builder unlockGraphBuilder = UnlockGraph.builder();
         for (int i = 1; i <= 7; ++i) {
             int reward = 25;
             int prereq = (i-1) * 20;
-            puzzleInfoBuilder.put("puzzle" + i, new PuzzleInfo(reward, prereq));
+            puzzleInfoBuilder.put("puzzle" + i, new PuzzleInfo(reward));
+            unlockGraphBuilder.addRule(UnlockRule.atScore("puzzle" + i, prereq));
             puzzlesBuilder.add(Puzzle.builder()
                     .setPuzzleId("puzzle" + i)
                     .setDisplayName("Puzzle " + i)
@@ -53,29 +68,65 @@ public class ScoreExampleHuntDefinition implements HuntDefinition {
         }
         PUZZLE_INFO_MAP = puzzleInfoBuilder.build();
         PUZZLES = puzzlesBuilder.build();
+        UNLOCK_GRAPH = unlockGraphBuilder.build();
     }
 
     private static class PuzzleInfo {
         public int pointReward;
-        public int pointPrereq;
-        public PuzzleInfo(int pointReward, int pointPrereq) {
+        public PuzzleInfo(int pointReward) {
             this.pointReward = pointReward;
-            this.pointPrereq = pointPrereq;
         }
     }
 
+    /**
+     * A team's score is its puzzle score plus the time score, which is derived from the start
+     * of the hunt, so the property stores the two inputs. The total is still serialized as score
+     * for clients, computed when the property is serialized.
+     */
     @AutoValue
     public abstract static class ScoreProperty extends Team.Property {
         static {
             registerClass(ScoreProperty.class);
         }
 
+        public static ScoreProperty create(int puzzleScore, @Nullable Instant startTimestamp) {
+            return new AutoValue_ScoreExampleHuntDefinition_ScoreProperty(puzzleScore, startTimestamp);
+        }
+
+        // Properties written before the puzzle score was stored only have the total score, which
+        // is kept as the puzzle score with no time score on top of it.
         @JsonCreator
-        public static ScoreProperty create(@JsonProperty("score") int score) {
-            return new AutoValue_ScoreExampleHuntDefinition_ScoreProperty(score);
+        private static ScoreProperty fromJson(
+                @Nullable @JsonProperty("score") Integer score,
+                @Nullable @JsonProperty("puzzleScore") Integer puzzleScore,
+                @Nullable @JsonProperty("startTimestamp") @JsonDeserialize(using=InstantDeserializer.class)
+                        Instant startTimestamp) {
+            if (puzzleScore == null) {
+                return create(score == null ? 0 : score, null);
+            }
+            return create(puzzleScore, startTimestamp);
         }
 
-        @JsonProperty("score") public abstract int getScore();
+        @JsonProperty("puzzleScore") public abstract int getPuzzleScore();
+
+        @Nullable
+        @JsonProperty("startTimestamp")
+        @JsonSerialize(using=InstantSerializer.class)
+        public abstract Instant getStartTimestamp();
+
+        @JsonProperty("score")
+        public int getScore() {
+            return getScore(Instant.now());
+        }
+
+        public int getScore(Instant now) {
+            if (getStartTimestamp() == null || now.isBefore(getStartTimestamp())) {
+                return getPuzzleScore();
+            }
+            long timeScore = Duration.between(getStartTimestamp(), now).toMillis()
+                    / TIME_SCORE_INTERVAL.toMillis();
+            return getPuzzleScore() + (int) timeScore;
+        }
     }
 
     @Override
@@ -88,11 +139,27 @@ public class ScoreExampleHuntDefinition implements HuntDefinition {
         return PUZZLES;
     }
 
+    private Optional<EventScheduler> eventScheduler = Optional.empty();
+
+    @Override
+    public void addScheduledEvents(EventScheduler eventScheduler) {
+        this.eventScheduler = Optional.of(eventScheduler);
+    }
+
     @Override
     public void addToEventProcessor(
             CompositeEventProcessor eventProcessor,
             HuntStatusStore huntStatusStore
     ) {
+        UnlockEngine unlockEngine = new UnlockEngine(UNLOCK_GRAPH, huntStatusStore);
+        ScoreTracker scoreTracker = new ScoreTracker(
+                UNLOCK_GRAPH,
+                huntStatusStore,
+                puzzleId -> PUZZLE_INFO_MAP.get(puzzleId).pointReward,
+                TIME_SCORE_INTERVAL,
+                eventScheduler,
+                Clock.systemUTC());
+
         eventProcessor.addEventProcessor(SubmissionCompleteEvent.class, event -> {
             Submission submission = event.getSubmission();
             if (submission.getStatus().equals(SubmissionStatus.CORRECT)) {
@@ -119,77 +186,56 @@ public class ScoreExampleHuntDefinition implements HuntDefinition {
         eventProcessor.addEventProcessor(HuntStartEvent.class, event -> {
             boolean changed = huntStatusStore.recordHuntRunStart();
             if (changed) {
-                for (String teamId : huntStatusStore.getTeamIds()) {
-                    huntStatusStore.setTeamProperty(
-                            teamId,
-                            ScoreProperty.class,
-                            ScoreProperty.create(0));
+                Map<String, Integer> scores = scoreTracker.huntStarted();
+                for (Map.Entry<String, Integer> score : scores.entrySet()) {
+                    writeScoreProperty(score.getKey(), scoreTracker, huntStatusStore);
                     eventProcessor.process(ScoreUpdateEvent.builder()
-                            .setTeamId(teamId)
-                            .setScore(0)
+                            .setTeamId(score.getKey())
+                            .setScore(score.getValue())
                             .build());
                 }
             }
         });
 
         eventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
-            updateStoredScore(event.getVisibility().getTeamId(), huntStatusStore, eventProcessor);
+            Visibility visibility = event.getVisibility();
+            if (visibility.getStatus().equals("SOLVED")) {
+                int score = scoreTracker.recordSolve(visibility.getTeamId(), visibility.getPuzzleId());
+                writeScoreProperty(visibility.getTeamId(), scoreTracker, huntStatusStore);
+                eventProcessor.process(ScoreUpdateEvent.builder()
+                        .setTeamId(visibility.getTeamId())
+                        .setScore(score)
+                        .build());
+            }
         });
 
         eventProcessor.addEventProcessor(ScoreUpdateEvent.class, event -> {
-            PUZZLE_INFO_MAP.entrySet().stream()
-                    .filter(puzzleEntry -> event.getScore() >= puzzleEntry.getValue().pointPrereq)
-                    .map(Map.Entry::getKey)
-                    .forEach(puzzleKey -> huntStatusStore.setVisibility(event.getTeamId(), puzzleKey, "UNLOCKED", false));
+            unlockEngine.updateScore(event.getTeamId(), event.getScore());
         });
 
-        eventProcessor.addEventProcessor(PeriodicTimerEvent.class, event -> {
-            for (String teamId : huntStatusStore.getTeamIds()) {
-                updateStoredScore(teamId, huntStatusStore, eventProcessor);
+        // The time score only matters when it carries a team over a score threshold, so the
+        // tracker schedules an event for when the next team reaches one.
+        eventProcessor.addEventProcessor(ScoreThresholdEvent.class, event -> {
+            for (Map.Entry<String, Integer> score : scoreTracker.pollDueScores().entrySet()) {
+                eventProcessor.process(ScoreUpdateEvent.builder()
+                        .setTeamId(score.getKey())
+                        .setScore(score.getValue())
+                        .build());
             }
         });
     }
 
-    private void updateStoredScore(
-            String teamId,
-            HuntStatusStore huntStatusStore,
-            EventProcessor<Event> eventProcessor
-    ) {
-        Optional<Integer> score = calculateTeamScore(teamId, huntStatusStore);
-        if (score.isPresent()) {
-            huntStatusStore.setTeamProperty(
-                    teamId,
-                    ScoreProperty.class,
-                    ScoreProperty.create(score.get()));
-            eventProcessor.process(ScoreUpdateEvent.builder()
-                    .setTeamId(teamId)
-                    .setScore(score.get())
-                    .build());
-        }
-    }
-
-    private Optional<Integer> calculateTeamScore(
+    private static void writeScoreProperty(
             String teamId,
+            ScoreTracker scoreTracker,
             HuntStatusStore huntStatusStore
     ) {
-        Optional<Run> run = huntStatusStore.getHuntRunProperties();
-        if (!run.isPresent()
-                || run.get().getStartTimestamp() == null
-                || Instant.now().isBefore(run.get().getStartTimestamp())) {
-            return Optional.empty();
-        }
-
-        int seconds = (int) Duration.between(run.get().getStartTimestamp(), Instant.now()).getSeconds();
-        int timeScore = seconds / 60; //1 point every minute
-
-        List<Visibility> visibilities = huntStatusStore.getVisibilitiesForTeam(teamId);
-        int puzzleScore = visibilities.stream()
-                .filter(visibility -> visibility.getStatus().equals("SOLVED"))
-                .map(Visibility::getPuzzleId)
-                .mapToInt(puzzleKey -> PUZZLE_INFO_MAP.get(puzzleKey).pointReward)
-                .sum();
-
-        return Optional.of(timeScore + puzzleScore);
+        huntStatusStore.setTeamProperty(
+                teamId,
+                ScoreProperty.class,
+                ScoreProperty.create(
+                        scoreTracker.getPuzzleScore(teamId),
+                        scoreTracker.getStartTimestamp().orElse(null)));
     }
 
     @AutoValue
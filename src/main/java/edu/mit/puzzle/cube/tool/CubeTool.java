@@ -7,6 +7,7 @@ import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import com.google.common.collect.ImmutableMap;
 
+import edu.mit.puzzle.cube.core.CubeApplication;
 import edu.mit.puzzle.cube.core.CubeConfig;
 import edu.mit.puzzle.cube.core.HuntDefinition;
 import edu.mit.puzzle.cube.core.db.CubeDatabaseSchema;
@@ -16,6 +17,8 @@ import edu.mit.puzzle.cube.core.model.Puzzle;
 import edu.mit.puzzle.cube.core.model.User;
 import edu.mit.puzzle.cube.core.model.UserStore;
 
+import org.restlet.Component;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -81,6 +84,34 @@ public class CubeTool {
         }
     }
 
+    @Parameters(
+            commandNames = {"upgradedb"},
+            commandDescription = "Upgrade a database created by an older version of Cube"
+    )
+    private class CommandUpgradeDb implements Command {
+        @Override
+        public void run() {
+            HuntDefinition huntDefinition = HuntDefinition.forClassName(
+                    cubeConfig.getHuntDefinitionClassName()
+            );
+            CubeDatabaseSchema cubeDatabaseSchema = new CubeDatabaseSchema(
+                    cubeConfig.getDatabaseConfig().getDriverClassName(),
+                    huntDefinition.getVisibilityStatusSet()
+            );
+            try (
+                    Connection connection = environment.getConnectionFactory().getConnection()
+            ) {
+                int previousVersion = cubeDatabaseSchema.upgrade(connection);
+                System.out.println(String.format(
+                        "Upgraded database schema from version %d to version %d",
+                        previousVersion,
+                        Math.max(previousVersion, CubeDatabaseSchema.SCHEMA_VERSION)));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     @Parameters(
             commandNames = {"resethunt"},
             commandDescription = "Delete all run progress data from the database"
@@ -94,18 +125,25 @@ public class CubeTool {
                             "UPDATE run SET startTimestamp = NULL");
                     PreparedStatement deleteTeamProperties = connection.prepareStatement(
                             "DELETE FROM team_properties");
+                    PreparedStatement deleteSubmissionKeys = connection.prepareStatement(
+                            "DELETE FROM submission_keys");
                     PreparedStatement deleteSubmissions = connection.prepareStatement(
                             "DELETE FROM submissions");
                     PreparedStatement deleteVisibilities = connection.prepareStatement(
                             "DELETE FROM visibilities");
                     PreparedStatement deleteVisibilityHistory = connection.prepareStatement(
                             "DELETE FROM visibility_history");
+                    // Running servers must not answer with 304 Not Modified for the old state.
+                    PreparedStatement bumpHuntStateVersions = connection.prepareStatement(
+                            "UPDATE hunt_state_versions SET version = version + 1");
             ) {
                 updateRun.executeUpdate();
                 deleteTeamProperties.executeUpdate();
+                deleteSubmissionKeys.executeUpdate();
                 deleteSubmissions.executeUpdate();
                 deleteVisibilities.executeUpdate();
                 deleteVisibilityHistory.executeUpdate();
+                bumpHuntStateVersions.executeUpdate();
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
@@ -151,11 +189,121 @@ public class CubeTool {
         }
     }
 
+    @Parameters(
+            commandNames = {"simulate"},
+            commandDescription = "Simulate hunt traffic against a server and report latencies"
+    )
+    private class CommandSimulate implements Command {
+        @Parameter(
+                names = {"--url"},
+                description = "The base URL of the server. Defaults to the configured port on localhost."
+        )
+        String url;
+
+        @Parameter(
+                names = {"--embedded"},
+                description = "Start a server in this process with the current config and simulate against it"
+        )
+        boolean embedded = false;
+
+        @Parameter(
+                names = {"-u", "--username"},
+                description = "The username used to set up the hunt and to resolve submissions and hints"
+        )
+        String username = "adminuser";
+
+        @Parameter(
+                names = {"-p", "--password"},
+                description = "The password of the caller user"
+        )
+        String password = "adminpassword";
+
+        @Parameter(
+                names = {"--team-prefix"},
+                description = "The prefix of the IDs of the simulated teams, which are created if needed"
+        )
+        String teamIdPrefix = "simteam";
+
+        @Parameter(names = {"--teams"}, description = "The number of simulated teams")
+        int teamCount = 10;
+
+        @Parameter(names = {"--callers"}, description = "The number of simulated callers")
+        int callerCount = 2;
+
+        @Parameter(names = {"--duration"}, description = "How long to simulate, in seconds")
+        int durationSeconds = 60;
+
+        @Parameter(
+                names = {"--submission-rate"},
+                description = "Submissions per team per minute"
+        )
+        double submissionsPerTeamPerMinute = 2;
+
+        @Parameter(
+                names = {"--hint-rate"},
+                description = "Hint requests per team per minute"
+        )
+        double hintRequestsPerTeamPerMinute = 0.2;
+
+        @Parameter(
+                names = {"--poll-rate"},
+                description = "Polls of team state per team per minute"
+        )
+        double pollsPerTeamPerMinute = 6;
+
+        @Parameter(
+                names = {"--correct-fraction"},
+                description = "The fraction of submissions that callers mark as correct"
+        )
+        double correctFraction = 0.3;
+
+        @Override
+        public void run() {
+            HuntDefinition huntDefinition = HuntDefinition.forClassName(
+                    cubeConfig.getHuntDefinitionClassName()
+            );
+            HuntSimulator.Options options = HuntSimulator.Options.builder()
+                    .setBaseUrl(url != null ? url : "http://localhost:" + cubeConfig.getPort())
+                    .setCallerUsername(username)
+                    .setCallerPassword(password)
+                    .setTeamIdPrefix(teamIdPrefix)
+                    .setTeamCount(teamCount)
+                    .setCallerCount(callerCount)
+                    .setDurationSeconds(durationSeconds)
+                    .setSubmissionsPerTeamPerMinute(submissionsPerTeamPerMinute)
+                    .setHintRequestsPerTeamPerMinute(hintRequestsPerTeamPerMinute)
+                    .setPollsPerTeamPerMinute(pollsPerTeamPerMinute)
+                    .setCorrectFraction(correctFraction)
+                    .build();
+
+            Component component = null;
+            try {
+                if (embedded) {
+                    component = CubeApplication.createComponent(cubeConfig);
+                    component.start();
+                }
+                new HuntSimulator(options, huntDefinition.getVisibilityStatusSet()).run(System.out);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (component != null) {
+                    try {
+                        component.stop();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+    }
+
     private void run(String[] args) {
         Map<String, Command> commands = ImmutableMap.of(
                 "initdb", new CommandInitDb(),
+                "upgradedb", new CommandUpgradeDb(),
                 "resethunt", new CommandResetHunt(),
-                "adduser", new CommandAddUser()
+                "adduser", new CommandAddUser(),
+                "simulate", new CommandSimulate()
         );
         for (Command command : commands.values()) {
             jCommander.addCommand(command);
@@ -0,0 +1,411 @@
+package edu.mit.puzzle.cube.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import edu.mit.puzzle.cube.core.model.VisibilityStatusSet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulates hunt traffic against a running Cube server over HTTP.
+ *
+ * Each simulated team polls its visibilities, team info and submissions, and makes
+ * submissions and hint requests for its unlocked puzzles at configurable rates. Simulated
+ * callers claim pending submissions and hint requests and resolve them. The latency of every
+ * request is recorded by route, and summarized along with the final hunt state once the
+ * simulation ends.
+ */
+public class HuntSimulator {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final long IDLE_CALLER_SLEEP_MILLIS = 200;
+
+    @AutoValue
+    public static abstract class Options {
+        @AutoValue.Builder
+        public static abstract class Builder {
+            public abstract Builder setBaseUrl(String baseUrl);
+            public abstract Builder setCallerUsername(String callerUsername);
+            public abstract Builder setCallerPassword(String callerPassword);
+            public abstract Builder setTeamIdPrefix(String teamIdPrefix);
+            public abstract Builder setTeamCount(int teamCount);
+            public abstract Builder setCallerCount(int callerCount);
+            public abstract Builder setDurationSeconds(int durationSeconds);
+            public abstract Builder setSubmissionsPerTeamPerMinute(double submissionsPerTeamPerMinute);
+            public abstract Builder setHintRequestsPerTeamPerMinute(double hintRequestsPerTeamPerMinute);
+            public abstract Builder setPollsPerTeamPerMinute(double pollsPerTeamPerMinute);
+            public abstract Builder setCorrectFraction(double correctFraction);
+
+            public abstract Options build();
+        }
+
+        public static Builder builder() {
+            return new AutoValue_HuntSimulator_Options.Builder();
+        }
+
+        public abstract String getBaseUrl();
+        public abstract String getCallerUsername();
+        public abstract String getCallerPassword();
+        public abstract String getTeamIdPrefix();
+        public abstract int getTeamCount();
+        public abstract int getCallerCount();
+        public abstract int getDurationSeconds();
+        public abstract double getSubmissionsPerTeamPerMinute();
+        public abstract double getHintRequestsPerTeamPerMinute();
+        public abstract double getPollsPerTeamPerMinute();
+        public abstract double getCorrectFraction();
+    }
+
+    private static class RequestFailedException extends RuntimeException {
+        private RequestFailedException(String message) {
+            super(message);
+        }
+    }
+
+    private final Options options;
+    private final VisibilityStatusSet visibilityStatusSet;
+    private final String callerAuthorization;
+    private final RouteLatencies routeLatencies = new RouteLatencies();
+    private final ConcurrentMap<String, List<String>> submittablePuzzlesByTeam = new ConcurrentHashMap<>();
+    private final AtomicInteger guessCounter = new AtomicInteger();
+    private volatile long deadlineNanos;
+
+    public HuntSimulator(Options options, VisibilityStatusSet visibilityStatusSet) {
+        this.options = options;
+        this.visibilityStatusSet = visibilityStatusSet;
+        this.callerAuthorization = authorization(options.getCallerUsername(), options.getCallerPassword());
+    }
+
+    private static String authorization(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString(
+                (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String getTeamId(int team) {
+        return options.getTeamIdPrefix() + team;
+    }
+
+    private String getTeamPassword(String teamId) {
+        return teamId + "password";
+    }
+
+    private JsonNode request(
+            String authorization,
+            String method,
+            String route,
+            String path,
+            Optional<JsonNode> body
+    ) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(options.getBaseUrl() + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Authorization", authorization);
+            connection.setRequestProperty("Accept", "application/json");
+            if (body.isPresent()) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    MAPPER.writeValue(outputStream, body.get());
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                try (InputStream errorStream = connection.getErrorStream()) {
+                    if (errorStream != null) {
+                        ByteStreams.copy(errorStream, ByteStreams.nullOutputStream());
+                    }
+                }
+                throw new RequestFailedException(
+                        String.format("%s %s returned %d", method, path, status));
+            }
+            JsonNode response;
+            try (InputStream inputStream = connection.getInputStream()) {
+                response = MAPPER.readTree(inputStream);
+            }
+            failed = false;
+            return response;
+        } catch (IOException e) {
+            throw new RequestFailedException(
+                    String.format("%s %s failed: %s", method, path, e.getMessage()));
+        } finally {
+            routeLatencies.record(method + " " + route, System.nanoTime() - startNanos, failed);
+        }
+    }
+
+    private JsonNode get(String authorization, String route, String path) {
+        return request(authorization, "GET", route, path, Optional.empty());
+    }
+
+    private JsonNode post(String authorization, String route, String path, JsonNode body) {
+        return request(authorization, "POST", route, path, Optional.of(body));
+    }
+
+    private boolean isRunning() {
+        return System.nanoTime() < deadlineNanos;
+    }
+
+    private void setUpTeams(PrintStream out) {
+        for (int team = 0; team < options.getTeamCount(); ++team) {
+            String teamId = getTeamId(team);
+            ObjectNode teamJson = MAPPER.createObjectNode()
+                    .put("teamId", teamId)
+                    .put("password", getTeamPassword(teamId));
+            try {
+                post(callerAuthorization, "/teams", "/teams", teamJson);
+            } catch (RequestFailedException e) {
+                out.println("Could not create team " + teamId + ", assuming it exists: " + e.getMessage());
+            }
+        }
+        try {
+            post(callerAuthorization, "/events", "/events",
+                    MAPPER.createObjectNode().put("eventType", "HuntStart"));
+        } catch (RequestFailedException e) {
+            out.println("Could not start the hunt: " + e.getMessage());
+        }
+    }
+
+    private void poll(String teamId, String authorization) {
+        JsonNode visibilities = get(authorization, "/visibilities", "/visibilities?teamId=" + teamId);
+        ImmutableList.Builder<String> submittablePuzzles = ImmutableList.builder();
+        for (JsonNode visibility : visibilities.get("visibilities")) {
+            if (visibilityStatusSet.allowsSubmissions(visibility.get("status").asText())) {
+                submittablePuzzles.add(visibility.get("puzzleId").asText());
+            }
+        }
+        submittablePuzzlesByTeam.put(teamId, submittablePuzzles.build());
+
+        get(authorization, "/teams/{id}", "/teams/" + teamId);
+        get(authorization, "/submissions", "/submissions?teamId=" + teamId);
+    }
+
+    private Optional<String> pickSubmittablePuzzle(String teamId) {
+        List<String> puzzleIds = submittablePuzzlesByTeam.getOrDefault(teamId, ImmutableList.of());
+        if (puzzleIds.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(puzzleIds.get(ThreadLocalRandom.current().nextInt(puzzleIds.size())));
+    }
+
+    private void submit(String teamId, String authorization) {
+        Optional<String> puzzleId = pickSubmittablePuzzle(teamId);
+        if (puzzleId.isPresent()) {
+            post(authorization, "/submissions", "/submissions", MAPPER.createObjectNode()
+                    .put("teamId", teamId)
+                    .put("puzzleId", puzzleId.get())
+                    .put("submission", "GUESS" + guessCounter.incrementAndGet()));
+        }
+    }
+
+    private void requestHint(String teamId, String authorization) {
+        Optional<String> puzzleId = pickSubmittablePuzzle(teamId);
+        if (puzzleId.isPresent()) {
+            post(authorization, "/hintrequests", "/hintrequests", MAPPER.createObjectNode()
+                    .put("teamId", teamId)
+                    .put("puzzleId", puzzleId.get())
+                    .put("request", "help"));
+        }
+    }
+
+    private void scheduleTeamAction(
+            ScheduledExecutorService executor,
+            double perMinute,
+            Runnable action
+    ) {
+        if (perMinute <= 0) {
+            return;
+        }
+        long periodMicros = (long) (TimeUnit.MINUTES.toMicros(1) / perMinute);
+        long initialDelayMicros = ThreadLocalRandom.current().nextLong(Math.max(periodMicros, 1));
+        executor.scheduleAtFixedRate(() -> {
+            if (!isRunning()) {
+                return;
+            }
+            try {
+                action.run();
+            } catch (RequestFailedException e) {
+                // Already recorded as a failure for its route.
+            }
+        }, initialDelayMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private <T> Optional<T> pickRandom(List<T> items) {
+        if (items.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(items.get(ThreadLocalRandom.current().nextInt(items.size())));
+    }
+
+    private boolean resolveSubmission() {
+        JsonNode submissions = get(callerAuthorization, "/submissions",
+                "/submissions?status=SUBMITTED&pageSize=20").get("submissions");
+        Optional<JsonNode> submission = pickRandom(ImmutableList.copyOf(submissions));
+        if (!submission.isPresent()) {
+            return false;
+        }
+        int submissionId = submission.get().get("submissionId").asInt();
+        String path = "/submissions/" + submissionId;
+        JsonNode claimed = post(callerAuthorization, "/submissions/{id}", path,
+                MAPPER.createObjectNode().put("status", "ASSIGNED"));
+        if (claimed.path("updated").asBoolean()) {
+            boolean correct = ThreadLocalRandom.current().nextDouble() < options.getCorrectFraction();
+            post(callerAuthorization, "/submissions/{id}", path,
+                    MAPPER.createObjectNode().put("status", correct ? "CORRECT" : "INCORRECT"));
+        }
+        return true;
+    }
+
+    private boolean resolveHintRequest() {
+        JsonNode hintRequests = get(callerAuthorization, "/hintrequests", "/hintrequests")
+                .get("hintRequests");
+        ImmutableList.Builder<JsonNode> requested = ImmutableList.builder();
+        for (JsonNode hintRequest : hintRequests) {
+            if (hintRequest.path("status").asText().equals("REQUESTED")) {
+                requested.add(hintRequest);
+            }
+        }
+        Optional<JsonNode> hintRequest = pickRandom(requested.build());
+        if (!hintRequest.isPresent()) {
+            return false;
+        }
+        String path = "/hintrequests/" + hintRequest.get().get("hintRequestId").asInt();
+        JsonNode claimed = post(callerAuthorization, "/hintrequests/{id}", path,
+                MAPPER.createObjectNode().put("status", "ASSIGNED"));
+        if (claimed.path("updated").asBoolean()) {
+            post(callerAuthorization, "/hintrequests/{id}", path, MAPPER.createObjectNode()
+                    .put("status", "ANSWERED")
+                    .put("response", "Have you tried looking at it sideways?"));
+        }
+        return true;
+    }
+
+    private void runCaller() {
+        boolean resolveHints = options.getHintRequestsPerTeamPerMinute() > 0;
+        while (isRunning()) {
+            boolean didWork = false;
+            try {
+                didWork |= resolveSubmission();
+                if (resolveHints) {
+                    didWork |= resolveHintRequest();
+                }
+            } catch (RequestFailedException e) {
+                // Already recorded as a failure for its route. Another caller may have
+                // claimed the same item first.
+                didWork = true;
+            }
+            if (!didWork) {
+                try {
+                    Thread.sleep(IDLE_CALLER_SLEEP_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets up the teams and starts the hunt, simulates traffic for the configured duration,
+     * and then prints the per-route latencies and final hunt state.
+     */
+    public void run(PrintStream out) throws InterruptedException {
+        setUpTeams(out);
+
+        deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+
+        int teamThreads = Math.max(1, Math.min(options.getTeamCount(), 64));
+        ScheduledExecutorService teamExecutor = Executors.newScheduledThreadPool(teamThreads);
+        for (int team = 0; team < options.getTeamCount(); ++team) {
+            String teamId = getTeamId(team);
+            String authorization = authorization(teamId, getTeamPassword(teamId));
+            scheduleTeamAction(teamExecutor, options.getPollsPerTeamPerMinute(),
+                    () -> poll(teamId, authorization));
+            scheduleTeamAction(teamExecutor, options.getSubmissionsPerTeamPerMinute(),
+                    () -> submit(teamId, authorization));
+            scheduleTeamAction(teamExecutor, options.getHintRequestsPerTeamPerMinute(),
+                    () -> requestHint(teamId, authorization));
+        }
+
+        ExecutorService callerExecutor = Executors.newFixedThreadPool(Math.max(1, options.getCallerCount()));
+        for (int caller = 0; caller < options.getCallerCount(); ++caller) {
+            callerExecutor.execute(this::runCaller);
+        }
+
+        callerExecutor.shutdown();
+        callerExecutor.awaitTermination(options.getDurationSeconds() + 60, TimeUnit.SECONDS);
+        teamExecutor.shutdown();
+        teamExecutor.awaitTermination(60, TimeUnit.SECONDS);
+
+        printLatencies(out);
+        printHuntState(out);
+    }
+
+    private void printLatencies(PrintStream out) {
+        out.println();
+        out.println(String.format("%-28s %8s %8s %8s %10s %10s %10s",
+                "Route", "Count", "Req/s", "Failed", "p50 (ms)", "p99 (ms)", "max (ms)"));
+        for (Map.Entry<String, RouteLatencies.Summary> entry : routeLatencies.summarize().entrySet()) {
+            RouteLatencies.Summary summary = entry.getValue();
+            out.println(String.format("%-28s %8d %8.1f %8d %10.1f %10.1f %10.1f",
+                    entry.getKey(),
+                    summary.getCount(),
+                    (double) summary.getCount() / options.getDurationSeconds(),
+                    summary.getFailures(),
+                    summary.getPercentileMillis(50),
+                    summary.getPercentileMillis(99),
+                    summary.getMaxMillis()));
+        }
+    }
+
+    private static Map<String, Integer> countByField(JsonNode items, String field) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (JsonNode item : items) {
+            counts.merge(item.path(field).asText(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private void printHuntState(PrintStream out) {
+        out.println();
+        out.println("Final hunt state:");
+        try {
+            out.println("  Teams: " + get(callerAuthorization, "/teams", "/teams").get("teams").size());
+            out.println("  Visibilities by status: " + countByField(
+                    get(callerAuthorization, "/visibilities", "/visibilities").get("visibilities"),
+                    "status"));
+            out.println("  Submissions by status: " + countByField(
+                    get(callerAuthorization, "/submissions", "/submissions").get("submissions"),
+                    "status"));
+            out.println("  Open hint requests: " +
+                    get(callerAuthorization, "/hintrequests", "/hintrequests").get("hintRequests").size());
+        } catch (RequestFailedException e) {
+            out.println("  Could not read the hunt state: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.mit.puzzle.cube.tool;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects request latencies and failures per route, and summarizes them as percentiles.
+ */
+public class RouteLatencies {
+
+    public static class Summary {
+        private final int count;
+        private final int failures;
+        private final long[] sortedLatenciesNanos;
+
+        private Summary(int count, int failures, long[] sortedLatenciesNanos) {
+            this.count = count;
+            this.failures = failures;
+            this.sortedLatenciesNanos = sortedLatenciesNanos;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns the latency that the given fraction of requests completed within, using the
+         * nearest-rank method.
+         */
+        public double getPercentileMillis(double percentile) {
+            if (sortedLatenciesNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * sortedLatenciesNanos.length);
+            int index = Math.min(Math.max(rank - 1, 0), sortedLatenciesNanos.length - 1);
+            return sortedLatenciesNanos[index] / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return getPercentileMillis(100);
+        }
+    }
+
+    private static class Route {
+        private long[] latenciesNanos = new long[64];
+        private int count = 0;
+        private int failures = 0;
+
+        private synchronized void record(long latencyNanos, boolean failed) {
+            if (count == latenciesNanos.length) {
+                latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+            }
+            latenciesNanos[count++] = latencyNanos;
+            if (failed) {
+                failures++;
+            }
+        }
+
+        private synchronized Summary summarize() {
+            long[] sorted = Arrays.copyOf(latenciesNanos, count);
+            Arrays.sort(sorted);
+            return new Summary(count, failures, sorted);
+        }
+    }
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    public void record(String route, long latencyNanos, boolean failed) {
+        routes.computeIfAbsent(route, r -> new Route()).record(latencyNanos, failed);
+    }
+
+    /**
+     * @return a summary of each route, ordered by route
+     */
+    public Map<String, Summary> summarize() {
+        ImmutableSortedMap.Builder<String, Summary> summaries = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            summaries.put(entry.getKey(), entry.getValue().summarize());
+        }
+        return summaries.build();
+    }
+}
@@ -0,0 +1,6 @@
+CREATE TABLE scheduled_events (
+       scheduledEventId ${auto_increment_type},
+       dueTimestamp TIMESTAMP,
+       event TEXT,
+       PRIMARY KEY(scheduledEventId)
+);
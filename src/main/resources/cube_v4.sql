@@ -0,0 +1,8 @@
+CREATE TABLE submission_keys (
+       teamId VARCHAR(20),
+       puzzleId VARCHAR(40),
+       submissionHash VARCHAR(64),
+       submissionId INTEGER,
+       PRIMARY KEY(teamId, puzzleId, submissionHash),
+       FOREIGN KEY(submissionId) REFERENCES submissions(submissionId)
+);
@@ -0,0 +1 @@
+ALTER TABLE hint_requests ADD COLUMN assignedTimestamp TIMESTAMP NULL;
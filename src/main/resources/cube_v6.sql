@@ -0,0 +1,6 @@
+CREATE TABLE hunt_state_versions (
+       tableName VARCHAR(20),
+       teamId VARCHAR(20),
+       version BIGINT NOT NULL,
+       PRIMARY KEY(tableName, teamId)
+);
@@ -7,8 +7,11 @@ import edu.mit.puzzle.cube.core.db.CubeJdbcRealm;
 import org.apache.shiro.authz.AuthorizationException;
 import org.apache.shiro.realm.Realm;
 import org.junit.Test;
+import org.restlet.Request;
+import org.restlet.Response;
 import org.restlet.data.ChallengeResponse;
 import org.restlet.data.ChallengeScheme;
+import org.restlet.data.Method;
 import org.restlet.data.Status;
 
 import static org.junit.Assert.assertEquals;
@@ -174,4 +177,29 @@ public class AuthorizationTest extends RestletTest {
         assertTrue(json.has("authorized"));
         assertTrue(json.get("authorized").asBoolean());
     }
+
+    @Test
+    public void metricsRequireAdmin() {
+        JsonNode json = post("/users", String.format(
+                "{\"username\":\"%s\",\"password\":\"%s\",\"roles\":[\"writingteam\"]}",
+                NEWTEAM_CREDENTIALS.getIdentifier(),
+                new String(NEWTEAM_CREDENTIALS.getSecret())
+        ));
+        assertTrue(json.get("created").asBoolean());
+
+        currentUserCredentials = NEWTEAM_CREDENTIALS;
+        assertEquals(
+                Status.CLIENT_ERROR_FORBIDDEN.getCode(),
+                getExpectFailure("/metrics").getCode());
+
+        currentUserCredentials = ADMIN_CREDENTIALS;
+        Request request = new Request(Method.GET, "/metrics");
+        request.setChallengeResponse(currentUserCredentials);
+        Response response = restlet.handle(request);
+        assertEquals(Status.SUCCESS_OK.getCode(), response.getStatus().getCode());
+        String metrics = response.getEntityAsText();
+        assertTrue(metrics.contains("# TYPE cube_http_request_duration_seconds histogram"));
+        assertTrue(metrics.contains(
+                "cube_http_responses_total{route=\"/metrics\",method=\"GET\",status=\"403\"}"));
+    }
 }
@@ -9,6 +9,9 @@ import edu.mit.puzzle.cube.core.db.ConnectionFactory;
 import edu.mit.puzzle.cube.core.environments.DevelopmentEnvironment;
 import edu.mit.puzzle.cube.core.environments.ServiceEnvironment;
 import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.Event;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.EventStreamBroker;
 import edu.mit.puzzle.cube.core.model.*;
 import edu.mit.puzzle.cube.core.permissions.CubeRole;
 import edu.mit.puzzle.cube.core.serverresources.AbstractCubeResource;
@@ -80,7 +83,8 @@ public abstract class RestletTest {
         );
         SubmissionStore submissionStore = new SubmissionStore(
                 connectionFactory,
-                eventProcessor
+                eventProcessor,
+                huntStatusStore
         );
         UserStore userStore = new UserStore(
                 connectionFactory
@@ -95,10 +99,18 @@ public abstract class RestletTest {
                 eventProcessor
         );
 
+        EventScheduler eventScheduler = new EventScheduler(connectionFactory, eventProcessor);
+        huntDefinition.addScheduledEvents(eventScheduler);
         huntDefinition.addToEventProcessor(eventProcessor, huntStatusStore);
+        eventScheduler.loadScheduledEvents();
+
+        EventStreamBroker eventStreamBroker = new EventStreamBroker(16);
+        eventProcessor.addEventProcessor(Event.class, eventStreamBroker);
 
         context.getAttributes().put(AbstractCubeResource.PUZZLE_STORE_KEY, puzzleStore);
         context.getAttributes().put(AbstractCubeResource.EVENT_PROCESSOR_KEY, eventProcessor);
+        context.getAttributes().put(AbstractCubeResource.EVENT_STREAM_BROKER_KEY, eventStreamBroker);
+        context.getAttributes().put(AbstractCubeResource.CONNECTION_FACTORY_KEY, connectionFactory);
         context.getAttributes().put(AbstractCubeResource.HINT_REQUEST_STORE_KEY, hintRequestStore);
         context.getAttributes().put(AbstractCubeResource.HUNT_STATUS_STORE_KEY, huntStatusStore);
         context.getAttributes().put(AbstractCubeResource.SUBMISSION_STORE_KEY, submissionStore);
@@ -0,0 +1,82 @@
+package edu.mit.puzzle.cube.core.db;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.User;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static edu.mit.puzzle.cube.core.db.QueryPlans.assertUsesIndex;
+import static edu.mit.puzzle.cube.core.db.QueryPlans.explainQueryPlan;
+
+public class CubeDatabaseSchemaTest {
+
+    private ConnectionFactory connectionFactory;
+
+    @Before
+    public void setup() throws SQLException {
+        connectionFactory = new InMemoryConnectionFactory(
+                new StandardVisibilityStatusSet(),
+                ImmutableList.of("testerteam"),
+                ImmutableList.of(Puzzle.create("puzzle", "ANSWER")),
+                ImmutableList.<User>of());
+    }
+
+    @Test
+    public void upgradeCreatesMissingTablesAndIndexes() throws SQLException {
+        CubeDatabaseSchema schema = new CubeDatabaseSchema(
+                DatabaseDialect.SQLITE.getDriverClassName(),
+                new StandardVisibilityStatusSet());
+        try (Connection connection = connectionFactory.getConnection()) {
+            assertThat(CubeDatabaseSchema.getVersion(connection))
+                    .isEqualTo(CubeDatabaseSchema.SCHEMA_VERSION);
+
+            // Roll the database back to the version 1 schema.
+            for (CubeDatabaseSchema.Index index : CubeDatabaseSchema.INDEXES) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DROP INDEX " + index.getName())) {
+                    statement.execute();
+                }
+            }
+            for (String table : ImmutableList.of(
+                    "schema_version", "scheduled_events", "submission_keys",
+                    "hunt_state_versions")) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DROP TABLE " + table)) {
+                    statement.execute();
+                }
+            }
+            // SQLite can't drop columns, so copy hint_requests without the columns added later.
+            for (String sql : ImmutableList.of(
+                    "CREATE TABLE hint_requests_v1 AS SELECT hintRequestId, teamId, puzzleId, " +
+                            "status, timestamp, request, response, callerUsername FROM hint_requests",
+                    "DROP TABLE hint_requests",
+                    "ALTER TABLE hint_requests_v1 RENAME TO hint_requests")) {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.execute();
+                }
+            }
+            assertThat(CubeDatabaseSchema.getVersion(connection)).isEqualTo(1);
+
+            assertThat(schema.upgrade(connection)).isEqualTo(1);
+            assertThat(CubeDatabaseSchema.getVersion(connection))
+                    .isEqualTo(CubeDatabaseSchema.SCHEMA_VERSION);
+            assertThat(schema.upgrade(connection)).isEqualTo(CubeDatabaseSchema.SCHEMA_VERSION);
+        }
+        assertUsesIndex(
+                connectionFactory,
+                "SELECT * FROM hint_requests WHERE status IN (?,?)",
+                "hint_requests_status");
+        explainQueryPlan(connectionFactory, "SELECT * FROM scheduled_events");
+        explainQueryPlan(connectionFactory, "SELECT * FROM submission_keys");
+        explainQueryPlan(connectionFactory, "SELECT * FROM hunt_state_versions");
+    }
+}
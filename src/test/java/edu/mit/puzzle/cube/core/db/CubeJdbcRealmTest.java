@@ -0,0 +1,89 @@
+package edu.mit.puzzle.cube.core.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.User;
+import edu.mit.puzzle.cube.core.model.UserStore;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.Subject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class CubeJdbcRealmTest {
+
+    private static String TEST_TEAM_ID = "testerteam";
+
+    private CubeJdbcRealm realm;
+    private DefaultSecurityManager securityManager;
+    private UserStore userStore;
+
+    @Before
+    public void setup() throws SQLException {
+        ConnectionFactory connectionFactory = new InMemoryConnectionFactory(
+                new StandardVisibilityStatusSet(),
+                Lists.newArrayList(TEST_TEAM_ID),
+                Lists.newArrayList(Puzzle.create("a_test_puzzle", "ANSWER")),
+                ImmutableList.<User>of(User.builder()
+                        .setUsername("testuser")
+                        .setPassword("password")
+                        .setRoles(ImmutableList.of("writingteam"))
+                        .build()));
+        realm = new CubeJdbcRealm();
+        realm.setDataSource(connectionFactory.getDataSource());
+        securityManager = new DefaultSecurityManager(realm);
+        userStore = new UserStore(connectionFactory, Optional.of(realm));
+    }
+
+    private Subject login(String username, String password) {
+        Subject subject = new Subject.Builder(securityManager).buildSubject();
+        subject.login(new UsernamePasswordToken(username, password));
+        return subject;
+    }
+
+    private void assertLoginFails(String username, String password) {
+        try {
+            login(username, password);
+            fail("Expected login to fail");
+        } catch (AuthenticationException e) {
+        }
+    }
+
+    @Test
+    public void loginRepeatedly() {
+        for (int i = 0; i < 3; ++i) {
+            Subject subject = login("testuser", "password");
+            assertThat(subject.hasRole("writingteam")).isTrue();
+            assertThat(subject.hasRole("admin")).isFalse();
+        }
+        assertLoginFails("testuser", "wrongpassword");
+        assertLoginFails("nosuchuser", "password");
+    }
+
+    @Test
+    public void updateUserClearsCachedCredentials() {
+        login("testuser", "password");
+
+        userStore.updateUser(User.builder()
+                .setUsername("testuser")
+                .setPassword("newpassword")
+                .setRoles(ImmutableList.of("admin"))
+                .build());
+
+        assertLoginFails("testuser", "password");
+        Subject subject = login("testuser", "newpassword");
+        assertThat(subject.hasRole("admin")).isTrue();
+        assertThat(subject.hasRole("writingteam")).isFalse();
+    }
+}
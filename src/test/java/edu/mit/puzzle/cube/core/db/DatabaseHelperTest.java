@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
 
 import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.Submission;
 import edu.mit.puzzle.cube.core.model.SubmissionStatus;
 import edu.mit.puzzle.cube.core.model.User;
 import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
@@ -13,7 +14,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -110,4 +119,106 @@ public class DatabaseHelperTest {
         }
     }
 
+    @Test
+    public void testIsUpdated() {
+        assertEquals(true, DatabaseHelper.isUpdated(1));
+        assertEquals(true, DatabaseHelper.isUpdated(Statement.SUCCESS_NO_INFO));
+        assertEquals(false, DatabaseHelper.isUpdated(0));
+    }
+
+    @Test
+    public void testQueryModel() {
+        Instant timestamp = Instant.ofEpochMilli(1475000000123L);
+        DatabaseHelper.insert(
+                connectionFactory,
+                "INSERT INTO submissions (teamId, puzzleId, submission, timestamp) VALUES (?,?,?,?)",
+                Lists.newArrayList(TEST_TEAM_ID, TEST_PUZZLE_ID, "guess", Timestamp.from(timestamp))
+        );
+        DatabaseHelper.update(
+                connectionFactory,
+                "UPDATE submissions SET status = ?, canonicalAnswer = ? WHERE submissionId = ?",
+                Lists.newArrayList(SubmissionStatus.CORRECT.toString(), "ANSWER", 1)
+        );
+
+        List<Submission> submissions = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM submissions",
+                ImmutableList.of(),
+                Submission.class
+        );
+        assertEquals(1, submissions.size());
+        assertEquals(
+                Submission.builder()
+                        .setSubmissionId(1)
+                        .setTeamId(TEST_TEAM_ID)
+                        .setPuzzleId(TEST_PUZZLE_ID)
+                        .setSubmission("guess")
+                        .setStatus(SubmissionStatus.CORRECT)
+                        .setCanonicalAnswer("ANSWER")
+                        .setTimestamp(timestamp)
+                        .build(),
+                submissions.get(0)
+        );
+
+        // A different column selection for the same model maps only the selected properties.
+        submissions = DatabaseHelper.query(
+                connectionFactory,
+                "SELECT puzzleId AS PUZZLEID, canonicalAnswer FROM submissions WHERE teamId = ?",
+                ImmutableList.of(TEST_TEAM_ID),
+                Submission.class
+        );
+        assertEquals(
+                ImmutableList.of(Submission.builder()
+                        .setPuzzleId(TEST_PUZZLE_ID)
+                        .setCanonicalAnswer("ANSWER")
+                        .build()),
+                submissions
+        );
+    }
+
+    @Test
+    public void testQueryStream() {
+        DatabaseHelper.insertBatch(
+                connectionFactory,
+                "INSERT INTO submissions (teamId, puzzleId, submission) VALUES (?,?,?)",
+                IntStream.range(0, 5)
+                        .mapToObj(i -> ImmutableList.<Object>of(TEST_TEAM_ID, TEST_PUZZLE_ID, "guess" + i))
+                        .collect(Collectors.toList())
+        );
+
+        try (Stream<Submission> submissions = DatabaseHelper.queryStream(
+                connectionFactory,
+                "SELECT submissionId, submission FROM submissions WHERE teamId = ? ORDER BY submissionId",
+                ImmutableList.of(TEST_TEAM_ID),
+                Submission.class,
+                2
+        )) {
+            // Stopping early leaves the remaining rows unread.
+            assertEquals(
+                    ImmutableList.of("guess0", "guess1", "guess2"),
+                    submissions.limit(3).map(Submission::getSubmission).collect(Collectors.toList())
+            );
+        }
+
+        List<Integer> submissionIds = new ArrayList<>();
+        DatabaseHelper.queryForEach(
+                connectionFactory,
+                "SELECT submissionId FROM submissions ORDER BY submissionId DESC",
+                ImmutableList.of(),
+                Submission.class,
+                submission -> submissionIds.add(submission.getSubmissionId())
+        );
+        assertEquals(ImmutableList.of(5, 4, 3, 2, 1), submissionIds);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testQueryStreamInvalidQuery() {
+        DatabaseHelper.queryStream(
+                connectionFactory,
+                "SELECT * FROM nonexistent_table",
+                ImmutableList.of(),
+                Submission.class,
+                DatabaseHelper.DEFAULT_FETCH_SIZE
+        ).close();
+    }
 }
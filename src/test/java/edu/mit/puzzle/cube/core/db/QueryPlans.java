@@ -0,0 +1,59 @@
+package edu.mit.puzzle.cube.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Checks SQLite query plans, so that tests can assert that the queries the stores run are
+ * served by an index instead of a full table scan.
+ */
+public class QueryPlans {
+    private QueryPlans() {
+    }
+
+    public static List<String> explainQueryPlan(
+            ConnectionFactory connectionFactory,
+            String query
+    ) throws SQLException {
+        List<String> details = new ArrayList<>();
+        try (
+                Connection connection = connectionFactory.getConnection();
+                PreparedStatement statement = connection.prepareStatement(
+                        "EXPLAIN QUERY PLAN " + query)
+        ) {
+            // The plan doesn't depend on the parameter values, but they must all be bound.
+            int parameterCount = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameterCount; ++i) {
+                statement.setString(i, "");
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    details.add(resultSet.getString("detail"));
+                }
+            }
+        }
+        return details;
+    }
+
+    public static void assertUsesIndex(
+            ConnectionFactory connectionFactory,
+            String query,
+            String indexName
+    ) throws SQLException {
+        List<String> details = explainQueryPlan(connectionFactory, query);
+        for (String detail : details) {
+            if (detail.startsWith("SCAN TABLE")) {
+                assertWithMessage("Query plan for " + query).that(detail).contains("INDEX");
+            }
+        }
+        assertWithMessage("Query plan for " + query)
+                .that(details.toString())
+                .contains("INDEX " + indexName);
+    }
+}
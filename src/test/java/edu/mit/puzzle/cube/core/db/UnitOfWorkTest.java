@@ -0,0 +1,106 @@
+package edu.mit.puzzle.cube.core.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.User;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class UnitOfWorkTest {
+
+    private ConnectionFactory connectionFactory;
+
+    @Before
+    public void setup() throws SQLException {
+        connectionFactory = new InMemoryConnectionFactory(
+                new StandardVisibilityStatusSet(),
+                Lists.newArrayList("testerteam"),
+                Lists.newArrayList(Puzzle.create("a_test_puzzle", "ANSWER")),
+                ImmutableList.<User>of());
+    }
+
+    private static Connection getUnderlyingConnection(Connection connection) throws SQLException {
+        return connection.getMetaData().getConnection();
+    }
+
+    private int countTeams() {
+        return DatabaseHelper.query(
+                connectionFactory,
+                "SELECT * FROM teams",
+                ImmutableList.<Object>of()
+        ).rowKeySet().size();
+    }
+
+    @Test
+    public void reusePinnedConnection() throws SQLException {
+        Connection pinnedConnection;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(connectionFactory)) {
+            try (Connection connection = connectionFactory.getConnection()) {
+                pinnedConnection = getUnderlyingConnection(connection);
+                try (Connection nestedConnection = connectionFactory.getConnection()) {
+                    // The pinned connection is in use, so a separate connection is borrowed.
+                    assertThat(getUnderlyingConnection(nestedConnection)).isNotSameAs(pinnedConnection);
+                }
+            }
+            try (UnitOfWork nestedUnitOfWork = UnitOfWork.begin(connectionFactory);
+                 Connection connection = connectionFactory.getConnection()) {
+                assertThat(getUnderlyingConnection(connection)).isSameAs(pinnedConnection);
+            }
+            assertThat(pinnedConnection.isClosed()).isFalse();
+        }
+        assertThat(pinnedConnection.isClosed()).isTrue();
+
+        try (Connection connection = connectionFactory.getConnection()) {
+            assertThat(getUnderlyingConnection(connection)).isNotSameAs(pinnedConnection);
+        }
+    }
+
+    @Test
+    public void openTransactionRolledBackWhenConnectionClosed() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(connectionFactory)) {
+            try (Connection connection = connectionFactory.getConnection()) {
+                connection.setAutoCommit(false);
+                connection.createStatement().executeUpdate(
+                        "INSERT INTO teams (teamId) VALUES ('uncommittedteam')");
+            }
+            try (Connection connection = connectionFactory.getConnection()) {
+                assertThat(connection.getAutoCommit()).isTrue();
+            }
+            assertThat(countTeams()).isEqualTo(1);
+
+            DatabaseHelper.update(
+                    connectionFactory,
+                    "INSERT INTO teams (teamId) VALUES (?)",
+                    Lists.newArrayList("committedteam"));
+        }
+        assertThat(countTeams()).isEqualTo(2);
+    }
+
+    @Test
+    public void releasePinnedConnection() throws SQLException {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(connectionFactory)) {
+            Connection pinnedConnection;
+            try (Connection connection = connectionFactory.getConnection()) {
+                pinnedConnection = getUnderlyingConnection(connection);
+                // A connection that is in use stays pinned.
+                UnitOfWork.releasePinnedConnection();
+                assertThat(pinnedConnection.isClosed()).isFalse();
+            }
+
+            UnitOfWork.releasePinnedConnection();
+            assertThat(pinnedConnection.isClosed()).isTrue();
+            try (Connection connection = connectionFactory.getConnection()) {
+                assertThat(getUnderlyingConnection(connection)).isNotSameAs(pinnedConnection);
+            }
+        }
+    }
+}
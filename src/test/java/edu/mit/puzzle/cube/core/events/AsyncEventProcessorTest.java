@@ -0,0 +1,127 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncEventProcessorTest {
+
+    private CompositeEventProcessor compositeEventProcessor;
+    private AsyncEventProcessor asyncEventProcessor;
+    private List<Visibility> processedVisibilities;
+
+    @Before
+    public void setup() {
+        compositeEventProcessor = new CompositeEventProcessor();
+        asyncEventProcessor = new AsyncEventProcessor(compositeEventProcessor, 4, 2);
+        processedVisibilities = Collections.synchronizedList(new ArrayList<>());
+        compositeEventProcessor.addEventProcessor(VisibilityChangeEvent.class, event ->
+                processedVisibilities.add(event.getVisibility()));
+    }
+
+    @After
+    public void tearDown() {
+        asyncEventProcessor.shutdown();
+    }
+
+    private static VisibilityChangeEvent visibilityChange(String teamId, String puzzleId) {
+        return VisibilityChangeEvent.builder()
+                .setVisibility(Visibility.builder()
+                        .setTeamId(teamId)
+                        .setPuzzleId(puzzleId)
+                        .setStatus("UNLOCKED")
+                        .build())
+                .build();
+    }
+
+    private List<String> getProcessedPuzzleIds(String teamId) {
+        synchronized (processedVisibilities) {
+            return processedVisibilities.stream()
+                    .filter(visibility -> visibility.getTeamId().equals(teamId))
+                    .map(Visibility::getPuzzleId)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void processInOrderWithinTeam() throws InterruptedException {
+        List<String> puzzleIds = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            puzzleIds.add("puzzle" + i);
+            for (String teamId : ImmutableList.of("team1", "team2", "team3")) {
+                asyncEventProcessor.process(visibilityChange(teamId, "puzzle" + i));
+            }
+        }
+
+        assertTrue(asyncEventProcessor.flush(10, TimeUnit.SECONDS));
+        assertThat(getProcessedPuzzleIds("team1")).containsExactlyElementsIn(puzzleIds).inOrder();
+        assertThat(getProcessedPuzzleIds("team2")).containsExactlyElementsIn(puzzleIds).inOrder();
+        assertThat(getProcessedPuzzleIds("team3")).containsExactlyElementsIn(puzzleIds).inOrder();
+    }
+
+    @Test
+    public void flushWaitsForCascadingEvents() throws InterruptedException {
+        compositeEventProcessor.addEventProcessor(HuntStartEvent.class, event -> {
+            for (int i = 0; i < 20; ++i) {
+                asyncEventProcessor.process(visibilityChange("team" + i, "puzzle1"));
+            }
+        });
+        compositeEventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
+            if (event.getVisibility().getPuzzleId().equals("puzzle1")) {
+                asyncEventProcessor.process(
+                        visibilityChange(event.getVisibility().getTeamId(), "puzzle2"));
+            }
+        });
+
+        asyncEventProcessor.process(HuntStartEvent.builder().build());
+
+        assertTrue(asyncEventProcessor.flush(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; ++i) {
+            assertThat(getProcessedPuzzleIds("team" + i))
+                    .containsExactly("puzzle1", "puzzle2").inOrder();
+        }
+    }
+
+    @Test
+    public void cascadingEventsForOtherTeamsAreQueued() throws InterruptedException {
+        AsyncEventProcessor singleThreadProcessor =
+                new AsyncEventProcessor(compositeEventProcessor, 1, 2);
+        CountDownLatch team2Submitted = new CountDownLatch(1);
+        compositeEventProcessor.addEventProcessor(VisibilityChangeEvent.class, event -> {
+            if (event.getVisibility().getTeamId().equals("team1")) {
+                try {
+                    team2Submitted.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                singleThreadProcessor.process(visibilityChange("team2", "puzzle2"));
+            }
+        });
+
+        try {
+            singleThreadProcessor.process(visibilityChange("team1", "puzzle1"));
+            singleThreadProcessor.process(visibilityChange("team2", "puzzle1"));
+            team2Submitted.countDown();
+
+            assertTrue(singleThreadProcessor.flush(10, TimeUnit.SECONDS));
+            assertThat(getProcessedPuzzleIds("team2"))
+                    .containsExactly("puzzle1", "puzzle2").inOrder();
+        } finally {
+            singleThreadProcessor.shutdown();
+        }
+    }
+}
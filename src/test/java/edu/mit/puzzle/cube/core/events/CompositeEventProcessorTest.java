@@ -0,0 +1,75 @@
+package edu.mit.puzzle.cube.core.events;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class CompositeEventProcessorTest {
+
+    private CompositeEventProcessor compositeEventProcessor;
+    private EventProcessor<PeriodicTimerEvent> timerEventProcessor;
+    private EventProcessor<PeriodicTimerEvent> otherTimerEventProcessor;
+    private EventProcessor<Event> allEventProcessor;
+    private EventProcessor<HuntStartEvent> huntStartEventProcessor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        compositeEventProcessor = new CompositeEventProcessor();
+        timerEventProcessor = mock(EventProcessor.class);
+        otherTimerEventProcessor = mock(EventProcessor.class);
+        allEventProcessor = mock(EventProcessor.class);
+        huntStartEventProcessor = mock(EventProcessor.class);
+    }
+
+    @Test
+    public void processEachProcessorOnce() {
+        compositeEventProcessor.addEventProcessor(PeriodicTimerEvent.class, timerEventProcessor);
+        compositeEventProcessor.addEventProcessor(PeriodicTimerEvent.class, otherTimerEventProcessor);
+        compositeEventProcessor.addEventProcessor(Event.class, allEventProcessor);
+        compositeEventProcessor.addEventProcessor(HuntStartEvent.class, huntStartEventProcessor);
+
+        PeriodicTimerEvent event = PeriodicTimerEvent.builder().build();
+        compositeEventProcessor.process(event);
+
+        verify(timerEventProcessor, times(1)).process(event);
+        verify(otherTimerEventProcessor, times(1)).process(event);
+        verify(allEventProcessor, times(1)).process(event);
+        verifyZeroInteractions(huntStartEventProcessor);
+    }
+
+    @Test
+    public void processInRegistrationOrder() {
+        compositeEventProcessor.addEventProcessor(PeriodicTimerEvent.class, timerEventProcessor);
+        compositeEventProcessor.addEventProcessor(Event.class, allEventProcessor);
+        compositeEventProcessor.addEventProcessor(PeriodicTimerEvent.class, otherTimerEventProcessor);
+
+        PeriodicTimerEvent event = PeriodicTimerEvent.builder().build();
+        compositeEventProcessor.process(event);
+
+        InOrder inOrder = inOrder(timerEventProcessor, allEventProcessor, otherTimerEventProcessor);
+        inOrder.verify(timerEventProcessor).process(event);
+        inOrder.verify(allEventProcessor).process(event);
+        inOrder.verify(otherTimerEventProcessor).process(event);
+    }
+
+    @Test
+    public void addEventProcessorAfterProcessing() {
+        compositeEventProcessor.addEventProcessor(PeriodicTimerEvent.class, timerEventProcessor);
+
+        PeriodicTimerEvent event = PeriodicTimerEvent.builder().build();
+        compositeEventProcessor.process(event);
+        verify(timerEventProcessor, times(1)).process(event);
+
+        compositeEventProcessor.addEventProcessor(Event.class, allEventProcessor);
+        compositeEventProcessor.process(event);
+        verify(timerEventProcessor, times(2)).process(event);
+        verify(allEventProcessor, times(1)).process(event);
+    }
+}
@@ -0,0 +1,113 @@
+package edu.mit.puzzle.cube.core.events;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.AdjustableClock;
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
+import edu.mit.puzzle.cube.core.model.Puzzle;
+import edu.mit.puzzle.cube.core.model.User;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class EventSchedulerTest {
+
+    private static final Instant NOW = Instant.ofEpochSecond(1000);
+
+    private ConnectionFactory connectionFactory;
+    private EventProcessor<Event> eventProcessor;
+    private AdjustableClock clock;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws SQLException {
+        connectionFactory = new InMemoryConnectionFactory(
+                new StandardVisibilityStatusSet(),
+                ImmutableList.of("testerteam"),
+                ImmutableList.of(Puzzle.create("puzzle", "ANSWER")),
+                ImmutableList.<User>of());
+        eventProcessor = mock(EventProcessor.class);
+        clock = new AdjustableClock(Clock.fixed(NOW, ZoneId.of("UTC")));
+    }
+
+    private EventScheduler createEventScheduler() {
+        EventScheduler eventScheduler = new EventScheduler(connectionFactory, eventProcessor, clock);
+        eventScheduler.loadScheduledEvents();
+        return eventScheduler;
+    }
+
+    private void advance(Duration duration) {
+        clock.adjustClock(c -> Clock.offset(c, duration));
+    }
+
+    private int countScheduledEvents() {
+        return DatabaseHelper.query(
+                connectionFactory,
+                "SELECT scheduledEventId FROM scheduled_events",
+                ImmutableList.of()
+        ).rowKeySet().size();
+    }
+
+    @Test
+    public void processesEventsWhenDue() {
+        EventScheduler eventScheduler = createEventScheduler();
+        FullReleaseEvent event = FullReleaseEvent.builder().setPuzzleId("puzzle").build();
+        eventScheduler.schedule(event, NOW.plus(Duration.ofMinutes(5)));
+        assertThat(countScheduledEvents()).isEqualTo(1);
+
+        advance(Duration.ofMinutes(4));
+        eventScheduler.fireDueEvents();
+        verify(eventProcessor, never()).process(any());
+
+        advance(Duration.ofMinutes(1));
+        eventScheduler.fireDueEvents();
+        eventScheduler.fireDueEvents();
+        verify(eventProcessor, times(1)).process(event);
+        assertThat(countScheduledEvents()).isEqualTo(0);
+        assertThat(eventScheduler.getPendingEventCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void scheduledEventsSurviveRestarts() {
+        FullReleaseEvent event = FullReleaseEvent.builder().setPuzzleId("puzzle").build();
+        createEventScheduler().schedule(event, NOW.plus(Duration.ofMinutes(5)));
+
+        // An event that came due while nothing was running is processed straight away.
+        advance(Duration.ofMinutes(10));
+        EventScheduler eventScheduler = createEventScheduler();
+        assertThat(eventScheduler.getPendingEventCount()).isEqualTo(1);
+        eventScheduler.fireDueEvents();
+        verify(eventProcessor, times(1)).process(event);
+        assertThat(countScheduledEvents()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancelledEventsAreNotProcessed() {
+        EventScheduler eventScheduler = createEventScheduler();
+        int scheduledEventId = eventScheduler.schedule(
+                HuntStartEvent.builder().build(), NOW.plusSeconds(30));
+        assertThat(eventScheduler.cancel(scheduledEventId)).isTrue();
+        assertThat(eventScheduler.cancel(scheduledEventId)).isFalse();
+        assertThat(countScheduledEvents()).isEqualTo(0);
+
+        advance(Duration.ofMinutes(1));
+        eventScheduler.fireDueEvents();
+        verify(eventProcessor, never()).process(any());
+    }
+}
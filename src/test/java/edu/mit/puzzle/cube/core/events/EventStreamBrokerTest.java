@@ -0,0 +1,158 @@
+package edu.mit.puzzle.cube.core.events;
+
+import edu.mit.puzzle.cube.core.model.Submission;
+import edu.mit.puzzle.cube.core.model.Visibility;
+import edu.mit.puzzle.cube.core.permissions.PermissionAction;
+import edu.mit.puzzle.cube.core.permissions.SubmissionsPermission;
+import edu.mit.puzzle.cube.core.permissions.VisibilitiesPermission;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EventStreamBrokerTest {
+
+    private EventStreamBroker broker;
+
+    @Before
+    public void setup() {
+        broker = new EventStreamBroker(
+                Clock.fixed(Instant.ofEpochMilli(1), ZoneId.of("UTC")), 4, 3);
+    }
+
+    private void publishVisibilityChange(String teamId, String puzzleId) {
+        broker.process(VisibilityChangeEvent.builder()
+                .setVisibility(Visibility.builder()
+                        .setTeamId(teamId)
+                        .setPuzzleId(puzzleId)
+                        .setStatus("UNLOCKED")
+                        .build())
+                .build());
+    }
+
+    private static List<StreamedEvent> drain(EventStreamBroker.Subscription subscription)
+            throws InterruptedException {
+        List<StreamedEvent> events = new ArrayList<>();
+        Optional<StreamedEvent> event;
+        while ((event = subscription.poll(0, TimeUnit.SECONDS)).isPresent()) {
+            events.add(event.get());
+        }
+        return events;
+    }
+
+    @Test
+    public void filterAndSerializeEvents() throws InterruptedException {
+        EventStreamBroker.Subscription subscription = broker.subscribe(
+                Optional.empty(),
+                event -> "team1".equals(event.getTeamId()),
+                16).get();
+
+        publishVisibilityChange("team1", "puzzle1");
+        publishVisibilityChange("team2", "puzzle1");
+        broker.publishSubmissionCreated(Submission.builder()
+                .setSubmissionId(7)
+                .setTeamId("team1")
+                .setPuzzleId("puzzle1")
+                .setSubmission("ANSWER")
+                .build());
+
+        List<StreamedEvent> events = drain(subscription);
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getId()).isEqualTo(1000L);
+        assertThat(events.get(0).getEventType()).isEqualTo("VisibilityChange");
+        assertThat(events.get(0).getRequiredPermission())
+                .isEqualTo(new VisibilitiesPermission("team1", PermissionAction.READ));
+        assertThat(events.get(0).getData()).contains("\"puzzleId\":\"puzzle1\"");
+        assertThat(events.get(1).getId()).isEqualTo(1002L);
+        assertThat(events.get(1).getEventType()).isEqualTo("SubmissionCreated");
+        assertThat(events.get(1).getRequiredPermission())
+                .isEqualTo(new SubmissionsPermission("team1", PermissionAction.READ));
+        assertThat(events.get(1).getData()).contains("\"submissionId\":7");
+
+        subscription.close();
+        publishVisibilityChange("team1", "puzzle2");
+        assertThat(drain(subscription)).isEmpty();
+    }
+
+    @Test
+    public void permissionsAreCheckedWhenPolling() throws InterruptedException {
+        List<String> checkedTeamIds = new ArrayList<>();
+        EventStreamBroker.Subscription subscription = broker.subscribe(
+                Optional.empty(),
+                event -> true,
+                event -> {
+                    checkedTeamIds.add(event.getTeamId());
+                    return "team1".equals(event.getTeamId());
+                },
+                16).get();
+
+        publishVisibilityChange("team2", "puzzle1");
+        publishVisibilityChange("team1", "puzzle1");
+        assertThat(checkedTeamIds).isEmpty();
+
+        List<StreamedEvent> events = drain(subscription);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getTeamId()).isEqualTo("team1");
+        assertThat(checkedTeamIds).containsExactly("team2", "team1").inOrder();
+    }
+
+    @Test
+    public void resumeFromLastEventId() throws InterruptedException {
+        for (int i = 0; i < 6; ++i) {
+            publishVisibilityChange("team1", "puzzle" + i);
+        }
+
+        EventStreamBroker.Subscription resumed =
+                broker.subscribe(Optional.of(1003L), event -> true, 16).get();
+        assertThat(resumed.hasMissedEvents()).isFalse();
+        List<StreamedEvent> events = drain(resumed);
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getId()).isEqualTo(1004L);
+        assertThat(events.get(1).getId()).isEqualTo(1005L);
+
+        EventStreamBroker.Subscription tooOld =
+                broker.subscribe(Optional.of(1000L), event -> true, 16).get();
+        assertThat(tooOld.hasMissedEvents()).isTrue();
+        assertThat(drain(tooOld)).isEmpty();
+
+        EventStreamBroker.Subscription fromEarlierServer =
+                broker.subscribe(Optional.of(5000L), event -> true, 16).get();
+        assertThat(fromEarlierServer.hasMissedEvents()).isTrue();
+    }
+
+    @Test
+    public void overflowWhenSubscriberFallsBehind() throws InterruptedException {
+        EventStreamBroker.Subscription subscription =
+                broker.subscribe(Optional.empty(), event -> true, 2).get();
+        publishVisibilityChange("team1", "puzzle1");
+        publishVisibilityChange("team1", "puzzle2");
+        assertThat(subscription.isOverflowed()).isFalse();
+        publishVisibilityChange("team1", "puzzle3");
+        assertThat(subscription.isOverflowed()).isTrue();
+
+        List<StreamedEvent> events = drain(subscription);
+        assertThat(events).hasSize(2);
+        assertThat(events.get(1).getId()).isEqualTo(1001L);
+    }
+
+    @Test
+    public void limitSubscribers() {
+        List<EventStreamBroker.Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            subscriptions.add(broker.subscribe(Optional.empty(), event -> true, 16).get());
+        }
+        assertThat(broker.subscribe(Optional.empty(), event -> true, 16).isPresent()).isFalse();
+
+        subscriptions.get(0).close();
+        assertThat(broker.subscribe(Optional.empty(), event -> true, 16).isPresent()).isTrue();
+    }
+}
@@ -0,0 +1,63 @@
+package edu.mit.puzzle.cube.core.events;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TimerWheelTest {
+
+    private static final Instant START = Instant.ofEpochSecond(1000);
+
+    private TimerWheel<String> timerWheel;
+
+    @Before
+    public void setup() {
+        timerWheel = new TimerWheel<>(Duration.ofSeconds(1), START);
+    }
+
+    @Test
+    public void releasesItemsOnceDue() {
+        timerWheel.add("a", START.plusSeconds(5));
+        timerWheel.add("b", START.plusMillis(5500));
+        assertThat(timerWheel.advance(START.plusSeconds(4))).isEmpty();
+        assertThat(timerWheel.advance(START.plusSeconds(5))).containsExactly("a");
+        // Due times are rounded up to the next tick, so nothing is released early.
+        assertThat(timerWheel.advance(START.plusMillis(5999))).isEmpty();
+        assertThat(timerWheel.advance(START.plusSeconds(6))).containsExactly("b");
+        assertThat(timerWheel.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void overdueItemsAreReleasedByTheNextAdvance() {
+        timerWheel.advance(START.plusSeconds(10));
+        timerWheel.add("late", START.plusSeconds(3));
+        assertThat(timerWheel.size()).isEqualTo(1);
+        assertThat(timerWheel.advance(START.plusSeconds(10))).containsExactly("late");
+    }
+
+    @Test
+    public void cascadesItemsFromHigherLevels() {
+        timerWheel.add("minutes", START.plus(Duration.ofMinutes(10)));
+        timerWheel.add("hours", START.plus(Duration.ofHours(20)));
+        timerWheel.add("days", START.plus(Duration.ofDays(300)));
+        assertThat(timerWheel.advance(START.plus(Duration.ofMinutes(10)).minusSeconds(1))).isEmpty();
+        assertThat(timerWheel.advance(START.plus(Duration.ofMinutes(10)))).containsExactly("minutes");
+        assertThat(timerWheel.advance(START.plus(Duration.ofHours(20)).minusSeconds(1))).isEmpty();
+        assertThat(timerWheel.advance(START.plus(Duration.ofHours(20)))).containsExactly("hours");
+        assertThat(timerWheel.advance(START.plus(Duration.ofDays(300)).minusSeconds(1))).isEmpty();
+        assertThat(timerWheel.advance(START.plus(Duration.ofDays(300)))).containsExactly("days");
+    }
+
+    @Test
+    public void releasesInDueOrderWhenAdvancingFarAtOnce() {
+        timerWheel.add("c", START.plus(Duration.ofHours(3)));
+        timerWheel.add("a", START.plusSeconds(30));
+        timerWheel.add("b", START.plus(Duration.ofMinutes(30)));
+        assertThat(timerWheel.advance(START.plus(Duration.ofDays(1))))
+                .containsExactly("a", "b", "c").inOrder();
+    }
+}
@@ -0,0 +1,71 @@
+package edu.mit.puzzle.cube.core.metrics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void prometheusTextFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test_requests_total", "Requests.", "route", "status");
+        Histogram histogram = registry.histogram(
+                "test_duration_seconds", "Durations.", new double[] {0.1, 1}, "route");
+
+        counter.inc("/teams", "200");
+        counter.add(2, "/teams", "200");
+        counter.inc("/say \"hi\"", "500");
+        histogram.observe(0.05, "/teams");
+        histogram.observe(0.5, "/teams");
+        histogram.observe(3, "/teams");
+
+        assertThat(counter.get("/teams", "200")).isEqualTo(3L);
+        assertThat(histogram.getCount("/teams")).isEqualTo(3L);
+        assertThat(histogram.getSum("/teams")).isWithin(1e-9).of(3.55);
+
+        String text = registry.toPrometheusText();
+        assertThat(text).contains(
+                "# HELP test_duration_seconds Durations.\n" +
+                "# TYPE test_duration_seconds histogram\n" +
+                "test_duration_seconds_bucket{route=\"/teams\",le=\"0.1\"} 1\n" +
+                "test_duration_seconds_bucket{route=\"/teams\",le=\"1\"} 2\n" +
+                "test_duration_seconds_bucket{route=\"/teams\",le=\"+Inf\"} 3\n" +
+                "test_duration_seconds_sum{route=\"/teams\"} 3.55\n" +
+                "test_duration_seconds_count{route=\"/teams\"} 3\n");
+        assertThat(text).contains("# TYPE test_requests_total counter\n");
+        assertThat(text).contains("test_requests_total{route=\"/teams\",status=\"200\"} 3\n");
+        assertThat(text).contains("test_requests_total{route=\"/say \\\"hi\\\"\",status=\"500\"} 1\n");
+        // Metrics are written in order of name.
+        assertThat(text.indexOf("test_duration_seconds"))
+                .isLessThan(text.indexOf("test_requests_total"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateMetricName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "A counter.");
+        registry.counter("test_total", "Another counter.");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfLabelValues() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "A counter.", "route").inc("/teams", "200");
+    }
+
+    @Test
+    public void sqlFingerprint() {
+        assertThat(CubeMetrics.computeSqlFingerprint(
+                "SELECT * FROM submissions WHERE teamId = ? AND  submissionId > 10\n" +
+                "ORDER BY submissionId LIMIT 20"))
+                .isEqualTo(
+                        "SELECT * FROM submissions WHERE teamId = ? AND submissionId > ? " +
+                        "ORDER BY submissionId LIMIT ?");
+        assertThat(CubeMetrics.computeSqlFingerprint(
+                "SELECT * FROM hint_requests WHERE status IN (?,?, ?) AND teamId = 'it''s'"))
+                .isEqualTo("SELECT * FROM hint_requests WHERE status IN (?) AND teamId = ?");
+        assertThat(CubeMetrics.computeSqlFingerprint("SELECT * FROM table2"))
+                .isEqualTo("SELECT * FROM table2");
+    }
+}
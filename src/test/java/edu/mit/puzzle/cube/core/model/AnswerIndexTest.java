@@ -0,0 +1,73 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AnswerIndexTest {
+
+    private static final AnswerIndex ANSWER_INDEX = new AnswerIndex(ImmutableList.of(
+            Puzzle.create("puzzle1", "DEJA VU"),
+            Puzzle.builder()
+                    .setPuzzleId("puzzle2")
+                    .setDisplayName("puzzle2")
+                    .setAnswers(ImmutableList.of(
+                            Answer.builder()
+                                    .setCanonicalAnswer("RED")
+                                    .setAcceptableAnswers(ImmutableList.of("RED", "CRIMSON", "RE-D"))
+                                    .build(),
+                            Answer.builder()
+                                    .setCanonicalAnswer("BLUE")
+                                    .setAcceptableAnswers(ImmutableList.of("BLUE", "RED!"))
+                                    .build()))
+                    .build(),
+            Puzzle.builder()
+                    .setPuzzleId("puzzle3")
+                    .setDisplayName("puzzle3")
+                    .build()));
+
+    private static Optional<Submission> grade(String puzzleId, String submission) {
+        return ANSWER_INDEX.grade(Submission.builder()
+                .setTeamId("team")
+                .setPuzzleId(puzzleId)
+                .setSubmission(submission)
+                .build());
+    }
+
+    @Test
+    public void normalize() {
+        assertThat(AnswerIndex.normalize(" Déjà  vu! ")).isEqualTo("DEJAVU");
+        assertThat(AnswerIndex.normalize("ＦＵＬＬ-width 42")).isEqualTo("FULLWIDTH42");
+        assertThat(AnswerIndex.normalize("?!")).isEmpty();
+    }
+
+    @Test
+    public void matchingSubmissionIsCorrect() {
+        Submission submission = grade("puzzle1", "déjà-vu").get();
+        assertThat(submission.getStatus()).isEqualTo(SubmissionStatus.CORRECT);
+        assertThat(submission.getCanonicalAnswer()).isEqualTo("DEJA VU");
+
+        submission = grade("puzzle2", "crimson").get();
+        assertThat(submission.getStatus()).isEqualTo(SubmissionStatus.CORRECT);
+        assertThat(submission.getCanonicalAnswer()).isEqualTo("RED");
+    }
+
+    @Test
+    public void otherSubmissionIsIncorrect() {
+        Submission submission = grade("puzzle1", "jamais vu").get();
+        assertThat(submission.getStatus()).isEqualTo(SubmissionStatus.INCORRECT);
+        assertThat(submission.getCanonicalAnswer()).isNull();
+    }
+
+    @Test
+    public void ambiguousSubmissionIsNotGraded() {
+        // RED and RED! are acceptable answers for different answers.
+        assertThat(grade("puzzle2", "red")).isEqualTo(Optional.empty());
+        assertThat(grade("puzzle1", "...")).isEqualTo(Optional.empty());
+        assertThat(grade("puzzle3", "anything")).isEqualTo(Optional.empty());
+    }
+}
@@ -0,0 +1,171 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.AdjustableClock;
+import edu.mit.puzzle.cube.core.HuntDefinition;
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
+import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
+import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.Event;
+import edu.mit.puzzle.cube.core.events.EventProcessor;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class HintRequestStoreTest {
+    private static final String TEST_TEAM_ID = "testerteam";
+    private static final String TEST_PUZZLE_ID = "a_test_puzzle";
+
+    private ConnectionFactory connectionFactory;
+    private AdjustableClock clock;
+    private HintRequestStore hintRequestStore;
+
+    @Before
+    public void setup() throws SQLException {
+        VisibilityStatusSet visibilityStatusSet = new StandardVisibilityStatusSet();
+        List<Puzzle> puzzles = ImmutableList.of(Puzzle.create(TEST_PUZZLE_ID, "ANSWER"));
+        connectionFactory = new InMemoryConnectionFactory(
+                visibilityStatusSet,
+                ImmutableList.of(TEST_TEAM_ID),
+                puzzles,
+                ImmutableList.of(
+                        User.builder()
+                                .setUsername("writingteamuser")
+                                .setPassword("password")
+                                .setRoles(ImmutableList.of("writingteam"))
+                                .build(),
+                        User.builder()
+                                .setUsername("otherwritingteamuser")
+                                .setPassword("password")
+                                .setRoles(ImmutableList.of("writingteam"))
+                                .build()));
+        clock = new AdjustableClock(Clock.fixed(
+                Instant.now().truncatedTo(ChronoUnit.MILLIS), ZoneId.of("UTC")));
+        EventProcessor<Event> eventProcessor = mock(EventProcessor.class);
+
+        HuntDefinition huntDefinition = new HuntDefinition() {
+            @Override
+            public VisibilityStatusSet getVisibilityStatusSet() {
+                return visibilityStatusSet;
+            }
+
+            @Override
+            public List<Puzzle> getPuzzles() {
+                return puzzles;
+            }
+
+            @Override
+            public void addToEventProcessor(
+                    CompositeEventProcessor eventProcessor,
+                    HuntStatusStore huntStatusStore
+            ) {
+            }
+        };
+        HuntStatusStore huntStatusStore = new HuntStatusStore(
+                connectionFactory, clock, visibilityStatusSet, eventProcessor);
+        hintRequestStore = new HintRequestStore(
+                connectionFactory, clock, huntDefinition, huntStatusStore, eventProcessor);
+
+        for (int i = 0; i < 3; i++) {
+            hintRequestStore.createHintRequest(HintRequest.builder()
+                    .setTeamId(TEST_TEAM_ID)
+                    .setPuzzleId(TEST_PUZZLE_ID)
+                    .setRequest(String.format("request%d", i))
+                    .build());
+        }
+    }
+
+    private static List<String> getRequests(List<HintRequest> hintRequests) {
+        return hintRequests.stream().map(HintRequest::getRequest).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testClaimHintRequests() {
+        List<HintRequest> claimed = hintRequestStore.claimHintRequests("writingteamuser", 2);
+        assertThat(getRequests(claimed)).containsExactly("request0", "request1").inOrder();
+        for (HintRequest hintRequest : claimed) {
+            assertThat(hintRequest.getStatus()).isEqualTo(HintRequestStatus.ASSIGNED);
+            assertThat(hintRequest.getCallerUsername()).isEqualTo("writingteamuser");
+            assertThat(hintRequest.getAssignedTimestamp()).isEqualTo(clock.instant());
+        }
+
+        claimed = hintRequestStore.claimHintRequests("otherwritingteamuser", 5);
+        assertThat(getRequests(claimed)).containsExactly("request2");
+        assertThat(hintRequestStore.claimHintRequests("otherwritingteamuser", 5)).isEmpty();
+    }
+
+    @Test
+    public void testExpiredClaimsReturnToQueue() {
+        hintRequestStore.claimHintRequests("writingteamuser", 3);
+        hintRequestStore.updateHintRequest(
+                1, HintRequestStatus.ANSWERED, "writingteamuser", "response");
+
+        clock.setWrappedClock(Clock.fixed(
+                clock.instant().plus(HintRequestStore.CLAIM_LEASE_DURATION).plusSeconds(1),
+                clock.getZone()));
+        List<HintRequest> claimed = hintRequestStore.claimHintRequests("otherwritingteamuser", 5);
+        assertThat(getRequests(claimed)).containsExactly("request1", "request2").inOrder();
+        for (HintRequest hintRequest : claimed) {
+            assertThat(hintRequest.getCallerUsername()).isEqualTo("otherwritingteamuser");
+            assertThat(hintRequest.getAssignedTimestamp()).isEqualTo(clock.instant());
+        }
+        assertThat(hintRequestStore.getHintRequest(1).get().getStatus())
+                .isEqualTo(HintRequestStatus.ANSWERED);
+    }
+
+    @Test
+    public void testClaimsWithoutLeaseReturnToQueue() {
+        // Requests assigned before leases were recorded have no assignedTimestamp.
+        DatabaseHelper.update(
+                connectionFactory,
+                "UPDATE hint_requests SET status = ?, callerUsername = ? WHERE hintRequestId = ?",
+                ImmutableList.of(HintRequestStatus.ASSIGNED.toString(), "writingteamuser", 1));
+
+        List<HintRequest> claimed = hintRequestStore.claimHintRequests("otherwritingteamuser", 1);
+        assertThat(getRequests(claimed)).containsExactly("request0");
+        assertThat(claimed.get(0).getAssignedTimestamp()).isEqualTo(clock.instant());
+    }
+
+    @Test
+    public void testUnassigningEndsClaim() {
+        hintRequestStore.claimHintRequests("writingteamuser", 1);
+        hintRequestStore.updateHintRequest(1, HintRequestStatus.REQUESTED, null, null);
+        assertThat(hintRequestStore.getHintRequest(1).get().getAssignedTimestamp()).isNull();
+
+        List<HintRequest> claimed = hintRequestStore.claimHintRequests("otherwritingteamuser", 1);
+        assertThat(getRequests(claimed)).containsExactly("request0");
+    }
+
+    @Test
+    public void testNonTerminalHintRequestPagination() {
+        hintRequestStore.updateHintRequest(
+                2, HintRequestStatus.REJECTED, "writingteamuser", "response");
+
+        assertThat(getRequests(hintRequestStore.getNonTerminalHintRequests()))
+                .containsExactly("request0", "request2").inOrder();
+        List<HintRequest> page = hintRequestStore.getNonTerminalHintRequests(
+                Optional.empty(), Optional.of(1));
+        assertThat(getRequests(page)).containsExactly("request0");
+        page = hintRequestStore.getNonTerminalHintRequests(
+                Optional.of(page.get(0).getHintRequestId()), Optional.of(1));
+        assertThat(getRequests(page)).containsExactly("request2");
+        page = hintRequestStore.getNonTerminalHintRequests(
+                Optional.of(page.get(0).getHintRequestId()), Optional.of(1));
+        assertThat(page).isEmpty();
+    }
+}
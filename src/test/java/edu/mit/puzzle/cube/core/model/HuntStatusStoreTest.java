@@ -3,11 +3,15 @@ package edu.mit.puzzle.cube.core.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
 
 import edu.mit.puzzle.cube.core.AdjustableClock;
 import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseDialect;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
 import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
 import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
@@ -16,19 +20,26 @@ import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import javax.sql.DataSource;
+
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -114,6 +125,29 @@ public class HuntStatusStoreTest {
         verifyZeroInteractions(eventProcessor);
     }
 
+    @Test
+    public void setVisibilityWithExplicitDefaultStatus() {
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID,
+                visibilityStatusSet.getDefaultVisibilityStatus(), false);
+        assertThat(huntStatusStore.getExplicitVisibilities(
+                Optional.of(TEST_TEAM_ID), Optional.of(TEST_PUZZLE_ID)))
+                .hasSize(1);
+
+        boolean statusChanged = huntStatusStore.setVisibility(
+                TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false);
+        assertTrue(statusChanged);
+        assertEquals("UNLOCKED", huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus());
+        assertThat(huntStatusStore.getExplicitVisibilities(
+                Optional.of(TEST_TEAM_ID), Optional.of(TEST_PUZZLE_ID)))
+                .hasSize(1);
+
+        List<VisibilityChange> history = huntStatusStore.getVisibilityHistory(TEST_TEAM_ID, TEST_PUZZLE_ID);
+        assertEquals(1, history.size());
+        assertEquals("UNLOCKED", history.get(0).getStatus());
+
+        verify(eventProcessor, times(1)).process(any(Event.class));
+    }
+
     @Test
     public void setVisibilityWithIllegalCurrentStatus() {
         boolean statusChanged = huntStatusStore.setVisibility(
@@ -156,6 +190,47 @@ public class HuntStatusStoreTest {
         verify(eventProcessor, times(2)).process(any(Event.class));
     }
 
+    @Test
+    public void getVisibilityChangesWithFiltersAndPagination() {
+        Instant firstTimestamp = clock.instant();
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false);
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID_2, "UNLOCKED", false);
+        clock.setWrappedClock(Clock.fixed(firstTimestamp.plus(5, ChronoUnit.MINUTES), ZoneId.of("UTC")));
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "SOLVED", false);
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID_3, "UNLOCKED", false);
+
+        List<VisibilityChange> allChanges = huntStatusStore.getVisibilityChanges();
+        assertThat(allChanges).hasSize(4);
+
+        List<VisibilityChange> firstPage = huntStatusStore.getVisibilityChanges(
+                HuntStatusStore.VisibilityChangeFilterOptions.builder().build(),
+                HuntStatusStore.VisibilityChangePaginationOptions.builder()
+                        .setPageSize(Optional.of(3))
+                        .build());
+        assertThat(firstPage).containsExactlyElementsIn(allChanges.subList(0, 3)).inOrder();
+        List<VisibilityChange> secondPage = huntStatusStore.getVisibilityChanges(
+                HuntStatusStore.VisibilityChangeFilterOptions.builder().build(),
+                HuntStatusStore.VisibilityChangePaginationOptions.builder()
+                        .setStartVisibilityHistoryId(Optional.of(firstPage.get(2).getVisibilityHistoryId()))
+                        .setPageSize(Optional.of(3))
+                        .build());
+        assertThat(secondPage).containsExactly(allChanges.get(3));
+
+        HuntStatusStore.VisibilityChangeFilterOptions filterOptions =
+                HuntStatusStore.VisibilityChangeFilterOptions.builder()
+                        .setPuzzleId(Optional.of(TEST_PUZZLE_ID))
+                        .setStartTimestamp(Optional.of(firstTimestamp.plus(1, ChronoUnit.MINUTES)))
+                        .build();
+        List<VisibilityChange> streamedChanges = Lists.newArrayList();
+        huntStatusStore.forEachVisibilityChange(
+                filterOptions,
+                HuntStatusStore.VisibilityChangePaginationOptions.none(),
+                streamedChanges::add);
+        assertThat(streamedChanges).hasSize(1);
+        assertEquals(TEST_PUZZLE_ID, streamedChanges.get(0).getPuzzleId());
+        assertEquals("SOLVED", streamedChanges.get(0).getStatus());
+    }
+
     @Test
     public void setMultipleVisibilities() throws InterruptedException {
         huntStatusStore.setVisibility(
@@ -175,6 +250,48 @@ public class HuntStatusStoreTest {
         );
     }
 
+    @Test
+    public void setVisibilityBatch() {
+        huntStatusStore.setVisibility(
+                TEST_TEAM_ID, TEST_PUZZLE_ID_3, "UNLOCKED", false);
+
+        Table<String, String, String> teamPuzzleStatusTable = HashBasedTable.create();
+        teamPuzzleStatusTable.put(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED");
+        teamPuzzleStatusTable.put(TEST_TEAM_ID, TEST_PUZZLE_ID_2, "SOLVED");
+        teamPuzzleStatusTable.put(TEST_TEAM_ID, TEST_PUZZLE_ID_3, "SOLVED");
+        boolean statusChanged = huntStatusStore.setVisibilityBatch(teamPuzzleStatusTable, false);
+        assertTrue(statusChanged);
+
+        List<Visibility> visibilities = huntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID);
+        Visibility.Builder visibilityBuilder = Visibility.builder()
+                .setTeamId(TEST_TEAM_ID);
+        assertThat(visibilities).containsExactly(
+                visibilityBuilder.setPuzzleId(TEST_PUZZLE_ID).setStatus("UNLOCKED").build(),
+                visibilityBuilder.setPuzzleId(TEST_PUZZLE_ID_2).setStatus(visibilityStatusSet.getDefaultVisibilityStatus()).build(),
+                visibilityBuilder.setPuzzleId(TEST_PUZZLE_ID_3).setStatus("SOLVED").build()
+        );
+
+        assertEquals(1, huntStatusStore.getVisibilityHistory(TEST_TEAM_ID, TEST_PUZZLE_ID).size());
+        assertEquals(0, huntStatusStore.getVisibilityHistory(TEST_TEAM_ID, TEST_PUZZLE_ID_2).size());
+        assertEquals(2, huntStatusStore.getVisibilityHistory(TEST_TEAM_ID, TEST_PUZZLE_ID_3).size());
+
+        verify(eventProcessor, times(1)).processBatch(argThat(events -> events.size() == 2));
+    }
+
+    @Test
+    public void loadVisibilitiesFromDatabase() {
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false);
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "SOLVED", false);
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID_2, "UNLOCKED", false);
+
+        HuntStatusStore reloadedHuntStatusStore = new HuntStatusStore(
+                connectionFactory, clock, visibilityStatusSet, eventProcessor);
+        assertThat(reloadedHuntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID))
+                .containsExactlyElementsIn(huntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID));
+        assertEquals("SOLVED",
+                reloadedHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus());
+    }
+
     @AutoValue
     public abstract static class HuntStatusStoreTestProperty extends Team.Property {
         static {
@@ -248,4 +365,167 @@ public class HuntStatusStoreTest {
         Team readTeam = huntStatusStore.getTeam(TEST_TEAM_ID);
         assertThat(readTeam).isEqualTo(team);
     }
+
+    @Test
+    public void warmCacheReadsDontQueryDatabase() throws SQLException {
+        AtomicInteger connectionCount = new AtomicInteger();
+        ConnectionFactory countingConnectionFactory = new ConnectionFactory() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connectionCount.incrementAndGet();
+                return connectionFactory.getConnection();
+            }
+
+            @Override
+            public DataSource getDataSource() {
+                return connectionFactory.getDataSource();
+            }
+
+            @Override
+            public DatabaseDialect getDatabaseDialect() {
+                return connectionFactory.getDatabaseDialect();
+            }
+        };
+        HuntStatusStore countingHuntStatusStore = new HuntStatusStore(
+                countingConnectionFactory, clock, visibilityStatusSet, eventProcessor);
+        // The team's first write creates its version, which the cache hasn't seen, so the next
+        // read reloads the team once.
+        assertTrue(countingHuntStatusStore.setVisibility(
+                TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false));
+        countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID);
+
+        connectionCount.set(0);
+        for (int i = 0; i < 10; ++i) {
+            assertThat(countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus())
+                    .isEqualTo("UNLOCKED");
+            assertThat(countingHuntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID)).hasSize(3);
+        }
+        assertThat(connectionCount.get()).isEqualTo(0);
+        assertThat(countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID))
+                .isSameAs(countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID));
+        assertThat(countingHuntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID))
+                .isSameAs(countingHuntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID));
+
+        // This server's own writes update the cache in place.
+        assertTrue(countingHuntStatusStore.setVisibility(
+                TEST_TEAM_ID, TEST_PUZZLE_ID, "SOLVED", false));
+        connectionCount.set(0);
+        for (int i = 0; i < 10; ++i) {
+            assertThat(countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus())
+                    .isEqualTo("SOLVED");
+        }
+        assertThat(connectionCount.get()).isEqualTo(0);
+
+        // Other servers' writes are polled for once per interval, not once per read.
+        clock.adjustClock(c -> Clock.offset(c, HuntStateVersions.REFRESH_INTERVAL));
+        for (int i = 0; i < 10; ++i) {
+            countingHuntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID);
+        }
+        assertThat(connectionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedVisibilitiesSeeChangesFromOtherServers() {
+        assertThat(huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus())
+                .isEqualTo("INVISIBLE");
+        HuntStatusStore otherHuntStatusStore = new HuntStatusStore(
+                connectionFactory, clock, visibilityStatusSet, eventProcessor);
+        assertTrue(otherHuntStatusStore.setVisibility(
+                TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false));
+
+        clock.adjustClock(c -> Clock.offset(c, HuntStateVersions.REFRESH_INTERVAL));
+        assertThat(huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getStatus())
+                .isEqualTo("UNLOCKED");
+        assertThat(huntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID).stream()
+                .filter(visibility -> visibility.getPuzzleId().equals(TEST_PUZZLE_ID))
+                .map(Visibility::getStatus)
+                .collect(Collectors.toList()))
+                .containsExactly("UNLOCKED");
+    }
+
+    @Test
+    public void stateVersionsAdvanceOnlyWhenStateChanges() {
+        HuntStateVersions versions = huntStatusStore.getHuntStateVersions();
+        long initialTeamVersion = versions.getTeamVersion(TEST_TEAM_ID);
+        long initialVisibilitiesVersion =
+                versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES);
+        long initialSubmissionsVersion = versions.getTableVersion(HuntStateVersions.Table.SUBMISSIONS);
+
+        assertTrue(huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false));
+        long teamVersion = versions.getTeamVersion(TEST_TEAM_ID);
+        assertThat(teamVersion).isGreaterThan(initialTeamVersion);
+        assertThat(versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES))
+                .isGreaterThan(initialVisibilitiesVersion);
+
+        // Other servers see the same versions.
+        HuntStatusStore otherHuntStatusStore = new HuntStatusStore(
+                connectionFactory, clock, visibilityStatusSet, eventProcessor);
+        assertThat(otherHuntStatusStore.getHuntStateVersions().getTeamVersion(TEST_TEAM_ID))
+                .isEqualTo(teamVersion);
+
+        assertFalse(huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false));
+        assertThat(versions.getTeamVersion(TEST_TEAM_ID)).isEqualTo(teamVersion);
+
+        assertThat(huntStatusStore.setTeamProperty(
+                TEST_TEAM_ID,
+                HuntStatusStoreTestProperty.class,
+                HuntStatusStoreTestProperty.create("SOME_VALUE"))).isTrue();
+        assertThat(versions.getTeamVersion(TEST_TEAM_ID)).isGreaterThan(teamVersion);
+        assertThat(versions.getTableVersion(HuntStateVersions.Table.SUBMISSIONS))
+                .isEqualTo(initialSubmissionsVersion);
+        assertThat(versions.getTeamVersion("otherteam")).isEqualTo(initialTeamVersion);
+
+        // Changes made by other servers are seen once the versions are refreshed.
+        long visibilitiesVersion = versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES);
+        assertTrue(otherHuntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "SOLVED", false));
+        assertThat(versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES))
+                .isEqualTo(visibilitiesVersion);
+        versions.refresh();
+        assertThat(versions.getTableVersion(HuntStateVersions.Table.VISIBILITIES))
+                .isGreaterThan(visibilitiesVersion);
+        assertThat(versions.getVersion(HuntStateVersions.Table.VISIBILITIES, TEST_TEAM_ID))
+                .isEqualTo(otherHuntStatusStore.getHuntStateVersions().getVersion(
+                        HuntStateVersions.Table.VISIBILITIES, TEST_TEAM_ID));
+    }
+
+    @Test
+    public void getTeamSnapshot() {
+        huntStatusStore.setTeamProperty(
+                TEST_TEAM_ID,
+                HuntStatusStoreTestProperty.class,
+                HuntStatusStoreTestProperty.create("SOME_VALUE"));
+        huntStatusStore.setVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID, "UNLOCKED", false);
+        SubmissionStore submissionStore = new SubmissionStore(
+                connectionFactory, clock, eventProcessor, huntStatusStore);
+        for (String guess : ImmutableList.of("ANSWER", "guess2", "guess3")) {
+            submissionStore.addSubmission(Submission.builder()
+                    .setTeamId(TEST_TEAM_ID)
+                    .setPuzzleId(TEST_PUZZLE_ID)
+                    .setSubmission(guess)
+                    .build());
+        }
+        submissionStore.setSubmissionStatus(1, SubmissionStatus.CORRECT, null, "ANSWER");
+        DatabaseHelper.insert(
+                connectionFactory,
+                "INSERT INTO hint_requests (puzzleId, teamId, request, timestamp) VALUES (?,?,?,?)",
+                Lists.newArrayList(
+                        TEST_PUZZLE_ID, TEST_TEAM_ID, "help", Timestamp.from(clock.instant())));
+
+        TeamSnapshot snapshot = huntStatusStore.getTeamSnapshot(TEST_TEAM_ID, 2);
+        assertThat(snapshot.getTeam()).isEqualTo(huntStatusStore.getTeam(TEST_TEAM_ID));
+        assertThat(snapshot.getVisibilities())
+                .containsExactlyElementsIn(huntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID));
+        Visibility visibility = snapshot.getVisibilities().stream()
+                .filter(v -> v.getPuzzleId().equals(TEST_PUZZLE_ID))
+                .findFirst()
+                .get();
+        assertThat(visibility.getStatus()).isEqualTo("UNLOCKED");
+        assertThat(visibility.getSolvedAnswers()).containsExactly("ANSWER");
+        assertThat(snapshot.getSubmissions().stream()
+                .map(Submission::getSubmission)
+                .collect(Collectors.toList()))
+                .containsExactly("guess3", "guess2").inOrder();
+        assertThat(snapshot.getHintRequests()).hasSize(1);
+        assertThat(snapshot.getHintRequests().get(0).getRequest()).isEqualTo("help");
+    }
 }
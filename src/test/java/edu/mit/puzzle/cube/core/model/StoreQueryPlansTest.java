@@ -0,0 +1,163 @@
+package edu.mit.puzzle.cube.core.model;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
+import edu.mit.puzzle.cube.modules.model.StandardVisibilityStatusSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Optional;
+
+import static edu.mit.puzzle.cube.core.db.QueryPlans.assertUsesIndex;
+
+/**
+ * Checks that the queries the stores run are served by the indexes in the schema. The queries
+ * are built the same way the stores build them, so that a change to a query can't leave it
+ * without an index unnoticed.
+ */
+public class StoreQueryPlansTest {
+
+    private ConnectionFactory connectionFactory;
+
+    @Before
+    public void setup() throws SQLException {
+        connectionFactory = new InMemoryConnectionFactory(
+                new StandardVisibilityStatusSet(),
+                ImmutableList.of("testerteam"),
+                ImmutableList.of(Puzzle.create("puzzle", "ANSWER")),
+                ImmutableList.<User>of());
+    }
+
+    private static String getSubmissionsQuery(
+            SubmissionStore.FilterOptions.Builder filterOptions,
+            SubmissionStore.PaginationOptions paginationOptions
+    ) {
+        return SubmissionStore.getSubmissionsQuery(
+                filterOptions.build(), paginationOptions, ImmutableList.builder());
+    }
+
+    private static String getVisibilityChangesQuery(
+            HuntStatusStore.VisibilityChangeFilterOptions.Builder filterOptions
+    ) {
+        return HuntStatusStore.getVisibilityChangesQuery(
+                filterOptions.build(),
+                HuntStatusStore.VisibilityChangePaginationOptions.builder().build(),
+                ImmutableList.builder());
+    }
+
+    @Test
+    public void submissionStoreQueriesUseIndexes() throws SQLException {
+        // SubmissionStore.getSubmissions, with each of the filters the API exposes.
+        assertUsesIndex(
+                connectionFactory,
+                getSubmissionsQuery(
+                        SubmissionStore.FilterOptions.builder()
+                                .setTeamId(Optional.of("testerteam"))
+                                .setPuzzleId(Optional.of("puzzle")),
+                        SubmissionStore.PaginationOptions.none()),
+                "submissions_team_puzzle");
+        assertUsesIndex(
+                connectionFactory,
+                getSubmissionsQuery(
+                        SubmissionStore.FilterOptions.builder()
+                                .setTeamId(Optional.of("testerteam")),
+                        SubmissionStore.PaginationOptions.none()),
+                "submissions_team_puzzle");
+        assertUsesIndex(
+                connectionFactory,
+                getSubmissionsQuery(
+                        SubmissionStore.FilterOptions.builder()
+                                .setStatuses(ImmutableList.of(SubmissionStatus.SUBMITTED)),
+                        SubmissionStore.PaginationOptions.builder()
+                                .setStartSubmissionId(Optional.of(10))
+                                .setPageSize(Optional.of(20))
+                                .build()),
+                "submissions_status");
+        assertUsesIndex(
+                connectionFactory,
+                getSubmissionsQuery(
+                        SubmissionStore.FilterOptions.builder()
+                                .setStatuses(ImmutableList.of(
+                                        SubmissionStatus.SUBMITTED, SubmissionStatus.ASSIGNED)),
+                        SubmissionStore.PaginationOptions.none()),
+                "submissions_status");
+        assertUsesIndex(
+                connectionFactory,
+                getSubmissionsQuery(
+                        SubmissionStore.FilterOptions.builder()
+                                .setCallerUsername(Optional.of("writingteamuser")),
+                        SubmissionStore.PaginationOptions.none()),
+                "submissions_caller");
+    }
+
+    @Test
+    public void solvedPuzzleQueriesUsePartialIndex() throws SQLException {
+        assertUsesIndex(
+                connectionFactory,
+                HuntStatusStore.TEAM_SOLVED_SUBMISSIONS_QUERY,
+                "submissions_solved");
+        assertUsesIndex(
+                connectionFactory,
+                HuntStatusStore.getSolvedSubmissionsQuery(true, false),
+                "submissions_solved");
+        assertUsesIndex(
+                connectionFactory,
+                VisibilityCache.LOAD_SOLVED_ANSWERS_QUERY,
+                "submissions_solved");
+        assertUsesIndex(
+                connectionFactory,
+                VisibilityCache.LOAD_TEAM_SOLVED_ANSWERS_QUERY,
+                "submissions_solved");
+    }
+
+    @Test
+    public void visibilityQueriesUseIndexes() throws SQLException {
+        assertUsesIndex(
+                connectionFactory,
+                HuntStatusStore.getExplicitVisibilitiesQuery(false, true),
+                "visibilities_puzzle");
+        assertUsesIndex(
+                connectionFactory,
+                HuntStatusStore.VISIBILITY_HISTORY_QUERY,
+                "visibility_history_team_puzzle");
+        assertUsesIndex(
+                connectionFactory,
+                getVisibilityChangesQuery(HuntStatusStore.VisibilityChangeFilterOptions.builder()
+                        .setTeamId(Optional.of("testerteam"))),
+                "visibility_history_team_puzzle");
+        assertUsesIndex(
+                connectionFactory,
+                getVisibilityChangesQuery(HuntStatusStore.VisibilityChangeFilterOptions.builder()
+                        .setStartTimestamp(Optional.of(Instant.EPOCH))
+                        .setEndTimestamp(Optional.of(Instant.now()))),
+                "visibility_history_timestamp");
+    }
+
+    @Test
+    public void hintRequestStoreQueriesUseIndexes() throws SQLException {
+        assertUsesIndex(
+                connectionFactory,
+                HintRequestStore.getNonTerminalHintRequestsQuery(
+                        Optional.empty(), Optional.empty(), new ArrayList<>()),
+                "hint_requests_status");
+        assertUsesIndex(
+                connectionFactory,
+                HintRequestStore.getNonTerminalHintRequestsQuery(
+                        Optional.of(10), Optional.of(20), new ArrayList<>()),
+                "hint_requests_status");
+        assertUsesIndex(
+                connectionFactory,
+                HintRequestStore.CLAIM_CANDIDATES_QUERY,
+                "hint_requests_status");
+        assertUsesIndex(
+                connectionFactory,
+                HintRequestStore.TEAM_PUZZLE_HINT_REQUESTS_QUERY,
+                "hint_requests_team_puzzle");
+    }
+}
@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 
 import edu.mit.puzzle.cube.core.AdjustableClock;
 import edu.mit.puzzle.cube.core.db.ConnectionFactory;
+import edu.mit.puzzle.cube.core.db.DatabaseHelper;
 import edu.mit.puzzle.cube.core.db.InMemoryConnectionFactory;
 import edu.mit.puzzle.cube.core.events.Event;
 import edu.mit.puzzle.cube.core.events.EventProcessor;
@@ -20,6 +21,7 @@ import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -34,26 +36,38 @@ public class SubmissionStoreTest {
     private ConnectionFactory connectionFactory;
     private AdjustableClock clock;
     private SubmissionStore submissionStore;
+    private HuntStatusStore huntStatusStore;
     private EventProcessor<Event> eventProcessor;
 
     private static String TEST_TEAM_ID = "testerteam";
     private static String TEST_PUZZLE_ID = "a_test_puzzle";
+    private static String OTHER_PUZZLE_ID = "b_test_puzzle";
 
     @Before
     public void setup() throws SQLException {
+        VisibilityStatusSet visibilityStatusSet = new StandardVisibilityStatusSet();
         connectionFactory = new InMemoryConnectionFactory(
-                new StandardVisibilityStatusSet(),
+                visibilityStatusSet,
                 Lists.newArrayList(TEST_TEAM_ID),
-                Lists.newArrayList(Puzzle.create(TEST_PUZZLE_ID, "ANSWER")),
-                ImmutableList.<User>of(User.builder()
-                        .setUsername("writingteamuser")
-                        .setPassword("password")
-                        .setRoles(ImmutableList.of("writingteam"))
-                        .build()));
+                Lists.newArrayList(
+                        Puzzle.create(TEST_PUZZLE_ID, "ANSWER"),
+                        Puzzle.create(OTHER_PUZZLE_ID, "OTHER")),
+                ImmutableList.<User>of(
+                        User.builder()
+                                .setUsername("writingteamuser")
+                                .setPassword("password")
+                                .setRoles(ImmutableList.of("writingteam"))
+                                .build(),
+                        User.builder()
+                                .setUsername("otherwritingteamuser")
+                                .setPassword("password")
+                                .setRoles(ImmutableList.of("writingteam"))
+                                .build()));
         clock = new AdjustableClock(Clock.fixed(Instant.now(), ZoneId.of("UTC")));
         eventProcessor = mock(EventProcessor.class);
 
-        submissionStore = new SubmissionStore(connectionFactory, clock, eventProcessor);
+        huntStatusStore = new HuntStatusStore(connectionFactory, clock, visibilityStatusSet, eventProcessor);
+        submissionStore = new SubmissionStore(connectionFactory, clock, eventProcessor, huntStatusStore);
     }
 
     @Test
@@ -198,6 +212,163 @@ public class SubmissionStoreTest {
         verify(eventProcessor, times(1)).process(any(Event.class));
     }
 
+    @Test
+    public void testAutoGradedSubmissions() {
+        submissionStore = new SubmissionStore(
+                connectionFactory,
+                clock,
+                eventProcessor,
+                huntStatusStore,
+                Optional.of(new AnswerIndex(ImmutableList.of(Puzzle.create(TEST_PUZZLE_ID, "ANSWER")))));
+        submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("guess1")
+                .build());
+        submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("answer")
+                .build());
+
+        assertEquals(SubmissionStatus.INCORRECT, submissionStore.getSubmission(1).get().getStatus());
+        Submission submission = submissionStore.getSubmission(2).get();
+        assertEquals(SubmissionStatus.CORRECT, submission.getStatus());
+        assertEquals("ANSWER", submission.getCanonicalAnswer());
+        assertThat(huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getSolvedAnswers())
+                .containsExactly("ANSWER");
+        verify(eventProcessor, times(2)).process(any(Event.class));
+    }
+
+    @Test
+    public void testDuplicateSubmissionsAreCoalesced() {
+        SubmissionStore otherSubmissionStore =
+                new SubmissionStore(connectionFactory, clock, eventProcessor, huntStatusStore);
+        SubmissionStore.AddResult first = submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("Some Guess")
+                .build()).get();
+        assertThat(first.isCreated()).isTrue();
+        long submissionsVersion = huntStatusStore.getHuntStateVersions()
+                .getTableVersion(HuntStateVersions.Table.SUBMISSIONS);
+
+        SubmissionStore.AddResult duplicate = submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("some guess!")
+                .build()).get();
+        assertThat(duplicate.isCreated()).isFalse();
+        assertThat(duplicate.getSubmissionId()).isEqualTo(first.getSubmissionId());
+        assertThat(submissionStore.getAllSubmissions(SubmissionStore.PaginationOptions.none()))
+                .hasSize(1);
+        assertThat(huntStatusStore.getHuntStateVersions()
+                .getTableVersion(HuntStateVersions.Table.SUBMISSIONS))
+                .isEqualTo(submissionsVersion);
+
+        // A new store finds the earlier submission in the database.
+        SubmissionStore reloadedSubmissionStore =
+                new SubmissionStore(connectionFactory, clock, eventProcessor, huntStatusStore);
+        duplicate = reloadedSubmissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("SOMEGUESS")
+                .build()).get();
+        assertThat(duplicate.isCreated()).isFalse();
+        assertThat(duplicate.getSubmissionId()).isEqualTo(first.getSubmissionId());
+
+        // A store that was created before the earlier submission was added also finds it.
+        duplicate = otherSubmissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("some-guess")
+                .build()).get();
+        assertThat(duplicate.isCreated()).isFalse();
+        assertThat(duplicate.getSubmissionId()).isEqualTo(first.getSubmissionId());
+        assertThat(submissionStore.getAllSubmissions(SubmissionStore.PaginationOptions.none()))
+                .hasSize(1);
+
+        assertThat(submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("another guess")
+                .build()).get().isCreated()).isTrue();
+    }
+
+    @Test
+    public void testDeletedSubmissionsAreNotDuplicates() {
+        submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("Some Guess")
+                .build());
+
+        // Clear the submissions the way CubeTool resethunt does.
+        DatabaseHelper.update(
+                connectionFactory, "DELETE FROM submission_keys", ImmutableList.of());
+        DatabaseHelper.update(
+                connectionFactory, "DELETE FROM submissions", ImmutableList.of());
+
+        assertThat(submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("Some Guess")
+                .build()).get().isCreated()).isTrue();
+    }
+
+    @Test
+    public void testClaimSubmissions() {
+        for (int i = 0; i < 3; i++) {
+            submissionStore.addSubmission(Submission.builder()
+                    .setTeamId(TEST_TEAM_ID)
+                    .setPuzzleId(TEST_PUZZLE_ID)
+                    .setSubmission(String.format("guess%d", i))
+                    .build());
+            submissionStore.addSubmission(Submission.builder()
+                    .setTeamId(TEST_TEAM_ID)
+                    .setPuzzleId(OTHER_PUZZLE_ID)
+                    .setSubmission(String.format("other%d", i))
+                    .build());
+        }
+        submissionStore.setSubmissionStatus(1, SubmissionStatus.INCORRECT, "writingteamuser", null);
+
+        List<Submission> claimed = submissionStore.claimSubmissions(
+                "writingteamuser", 2, ImmutableList.of());
+        assertThat(claimed.stream().map(Submission::getSubmission).collect(Collectors.toList()))
+                .containsExactly("other0", "guess1").inOrder();
+        for (Submission submission : claimed) {
+            assertThat(submission.getStatus()).isEqualTo(SubmissionStatus.ASSIGNED);
+            assertThat(submission.getCallerUsername()).isEqualTo("writingteamuser");
+        }
+
+        claimed = submissionStore.claimSubmissions("otherwritingteamuser", 3, ImmutableList.of(OTHER_PUZZLE_ID));
+        assertThat(claimed.stream().map(Submission::getSubmission).collect(Collectors.toList()))
+                .containsExactly("other1", "guess2", "other2").inOrder();
+
+        assertThat(submissionStore.claimSubmissions("writingteamuser", 5, ImmutableList.of())).isEmpty();
+        assertThat(submissionStore.getSubmission(1).get().getStatus())
+                .isEqualTo(SubmissionStatus.INCORRECT);
+        assertThat(submissionStore.getSubmission(2).get().getCallerUsername())
+                .isEqualTo("writingteamuser");
+    }
+
+    @Test
+    public void testSolvedAnswersUpdatedWithSubmissionStatus() {
+        submissionStore.addSubmission(Submission.builder()
+                .setTeamId(TEST_TEAM_ID)
+                .setPuzzleId(TEST_PUZZLE_ID)
+                .setSubmission("guess1")
+                .build());
+        assertThat(huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getSolvedAnswers())
+                .isEmpty();
+
+        submissionStore.setSubmissionStatus(1, SubmissionStatus.CORRECT, "writingteamuser", "ANSWER");
+        assertThat(huntStatusStore.getVisibility(TEST_TEAM_ID, TEST_PUZZLE_ID).getSolvedAnswers())
+                .containsExactly("ANSWER");
+        assertThat(huntStatusStore.getVisibilitiesForTeam(TEST_TEAM_ID).get(0).getSolvedAnswers())
+                .containsExactly("ANSWER");
+    }
+
     @Test
     public void testPagination() {
         for (int i = 0; i < 50; i++) {
@@ -0,0 +1,90 @@
+package edu.mit.puzzle.cube.core.ratelimit;
+
+import edu.mit.puzzle.cube.core.AdjustableClock;
+import edu.mit.puzzle.cube.core.CubeConfig.RateLimitConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RateLimiterTest {
+
+    private AdjustableClock clock;
+    private RateLimiter rateLimiter;
+
+    @Before
+    public void setup() {
+        clock = new AdjustableClock(Clock.fixed(Instant.ofEpochSecond(1000), ZoneId.of("UTC")));
+        rateLimiter = new RateLimiter(
+                Optional.of(RateLimitConfig.create(3, 6)),
+                Optional.of(RateLimitConfig.create(2, 1)),
+                clock);
+    }
+
+    private void advance(Duration duration) {
+        clock.adjustClock(c -> Clock.offset(c, duration));
+    }
+
+    @Test
+    public void puzzleLimitAllowsABurstAndThenRefills() {
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.of(Duration.ofMinutes(1)));
+
+        advance(Duration.ofSeconds(45));
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.of(Duration.ofSeconds(15)));
+        advance(Duration.ofSeconds(15));
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+
+        // Other teams have their own limits.
+        assertThat(rateLimiter.tryAcquire("team2", "puzzle1")).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void teamLimitCoversEveryPuzzle() {
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle2")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle3")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle4")).isEqualTo(Optional.of(Duration.ofSeconds(10)));
+
+        // The rejected request didn't use up puzzle4's limit.
+        advance(Duration.ofSeconds(10));
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle4")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle4")).isEqualTo(Optional.of(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    public void fullBucketsAreEvicted() {
+        for (int i = 0; i < 3; ++i) {
+            assertThat(rateLimiter.tryAcquire("team" + i, "puzzle1")).isEqualTo(Optional.empty());
+        }
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(6);
+
+        // Every bucket has refilled by the time the eviction runs, so only the buckets for the
+        // request that ran it are left.
+        advance(RateLimiter.EVICTION_INTERVAL);
+        assertThat(rateLimiter.tryAcquire("team0", "puzzle1")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(2);
+
+        // A bucket that is still refilling is kept, along with its team's bucket.
+        assertThat(rateLimiter.tryAcquire("team0", "puzzle1")).isEqualTo(Optional.empty());
+        advance(RateLimiter.EVICTION_INTERVAL);
+        assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void noLimits() {
+        rateLimiter = new RateLimiter(Optional.empty(), Optional.empty(), clock);
+        for (int i = 0; i < 100; ++i) {
+            assertThat(rateLimiter.tryAcquire("team1", "puzzle1")).isEqualTo(Optional.empty());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.mit.puzzle.cube.core.AdjustableClock;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.ScoreThresholdEvent;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Run;
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScoreTrackerTest {
+
+    private static final Instant HUNT_START = Instant.ofEpochSecond(1000);
+
+    private static final UnlockGraph UNLOCK_GRAPH = UnlockGraph.builder()
+            .addRule(UnlockRule.atScore("puzzle1", 0))
+            .addRule(UnlockRule.atScore("puzzle2", 10))
+            .addRule(UnlockRule.atScore("puzzle3", 30))
+            .build();
+
+    private HuntStatusStore huntStatusStore;
+    private Run run;
+    private AdjustableClock clock;
+    private ScoreTracker scoreTracker;
+
+    @Before
+    public void setup() {
+        huntStatusStore = mock(HuntStatusStore.class);
+        when(huntStatusStore.getTeamIds()).thenReturn(ImmutableSet.of("team1", "team2"));
+        when(huntStatusStore.getVisibilitiesForTeam(anyString())).thenReturn(ImmutableList.of());
+        run = mock(Run.class);
+        when(run.getStartTimestamp()).thenReturn(HUNT_START);
+        when(huntStatusStore.getHuntRunProperties()).thenReturn(Optional.of(run));
+        clock = new AdjustableClock(Clock.fixed(HUNT_START, ZoneId.of("UTC")));
+        scoreTracker = new ScoreTracker(
+                UNLOCK_GRAPH, huntStatusStore, puzzleId -> 5, Duration.ofMinutes(1),
+                Optional.empty(), clock);
+    }
+
+    private void advance(Duration duration) {
+        clock.adjustClock(c -> Clock.offset(c, duration));
+    }
+
+    @Test
+    public void timeScoreIsComputedOnRead() {
+        assertThat(scoreTracker.huntStarted()).isEqualTo(ImmutableMap.of("team1", 0, "team2", 0));
+        advance(Duration.ofSeconds(150));
+        assertThat(scoreTracker.getScore("team1")).isEqualTo(2);
+        assertThat(scoreTracker.getPuzzleScore("team1")).isEqualTo(0);
+    }
+
+    @Test
+    public void pollReturnsOnlyTeamsThatReachedAThreshold() {
+        scoreTracker.huntStarted();
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+
+        // team1's two solves move its next threshold from 10 minutes to now.
+        scoreTracker.recordSolve("team1", "a");
+        assertThat(scoreTracker.recordSolve("team1", "b")).isEqualTo(10);
+        advance(Duration.ofMinutes(9));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+
+        advance(Duration.ofMinutes(1));
+        assertThat(scoreTracker.pollDueScores()).isEqualTo(ImmutableMap.of("team2", 10));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+
+        // team1 has 10 puzzle points, so it reaches 30 after 20 minutes.
+        advance(Duration.ofMinutes(10));
+        assertThat(scoreTracker.pollDueScores()).isEqualTo(ImmutableMap.of("team1", 30));
+        advance(Duration.ofMinutes(10));
+        assertThat(scoreTracker.pollDueScores()).isEqualTo(ImmutableMap.of("team2", 30));
+
+        // There are no thresholds left.
+        advance(Duration.ofHours(1));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+    }
+
+    @Test
+    public void everyTeamIsDueAfterLoading() {
+        advance(Duration.ofMinutes(5));
+        when(huntStatusStore.getVisibilitiesForTeam("team1")).thenReturn(ImmutableList.of(
+                Visibility.builder().setTeamId("team1").setPuzzleId("a").setStatus("SOLVED").build(),
+                Visibility.builder().setTeamId("team1").setPuzzleId("b").setStatus("UNLOCKED").build()));
+        assertThat(scoreTracker.pollDueScores()).isEqualTo(ImmutableMap.of("team1", 10, "team2", 5));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+        verify(huntStatusStore, times(1)).getHuntRunProperties();
+    }
+
+    @Test
+    public void solveLoadedWithTheTeamIsNotCountedTwice() {
+        when(huntStatusStore.getVisibilitiesForTeam("team3")).thenReturn(ImmutableList.of(
+                Visibility.builder().setTeamId("team3").setPuzzleId("a").setStatus("SOLVED").build()));
+        scoreTracker.huntStarted();
+        assertThat(scoreTracker.recordSolve("team3", "a")).isEqualTo(5);
+        assertThat(scoreTracker.recordSolve("team3", "b")).isEqualTo(10);
+    }
+
+    @Test
+    public void scheduledEventFollowsTheEarliestThreshold() {
+        EventScheduler eventScheduler = mock(EventScheduler.class);
+        when(eventScheduler.schedule(any(ScoreThresholdEvent.class), any(Instant.class)))
+                .thenReturn(1, 2, 3);
+        scoreTracker = new ScoreTracker(
+                UNLOCK_GRAPH, huntStatusStore, puzzleId -> 5, Duration.ofMinutes(1),
+                Optional.of(eventScheduler), clock);
+
+        // Every team is due when the tracker loads, and then due again 10 minutes in.
+        scoreTracker.huntStarted();
+        verify(eventScheduler).schedule(any(ScoreThresholdEvent.class), eq(HUNT_START));
+        verify(eventScheduler).cancel(1);
+        verify(eventScheduler).schedule(
+                any(ScoreThresholdEvent.class), eq(HUNT_START.plus(Duration.ofMinutes(10))));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+
+        // team1's solve moves the earliest threshold to 5 minutes in.
+        scoreTracker.recordSolve("team1", "a");
+        verify(eventScheduler).cancel(2);
+        verify(eventScheduler).schedule(
+                any(ScoreThresholdEvent.class), eq(HUNT_START.plus(Duration.ofMinutes(5))));
+
+        // A solve that doesn't change the earliest threshold leaves the event alone.
+        scoreTracker.recordSolve("team2", "a");
+        verify(eventScheduler, times(3)).schedule(any(ScoreThresholdEvent.class), any(Instant.class));
+    }
+
+    @Test
+    public void nothingIsDueBeforeTheHuntStarts() {
+        when(run.getStartTimestamp()).thenReturn(null);
+        when(huntStatusStore.getVisibilitiesForTeam("team1")).thenReturn(ImmutableList.of(
+                Visibility.builder().setTeamId("team1").setPuzzleId("a").setStatus("SOLVED").build()));
+        assertThat(scoreTracker.recordSolve("team1", "a")).isEqualTo(5);
+        advance(Duration.ofHours(1));
+        assertThat(scoreTracker.pollDueScores()).isEmpty();
+        assertThat(scoreTracker.getScore("team1")).isEqualTo(5);
+    }
+}
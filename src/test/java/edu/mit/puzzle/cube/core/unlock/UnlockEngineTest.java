@@ -0,0 +1,173 @@
+package edu.mit.puzzle.cube.core.unlock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+
+import edu.mit.puzzle.cube.core.AdjustableClock;
+import edu.mit.puzzle.cube.core.events.CompositeEventProcessor;
+import edu.mit.puzzle.cube.core.events.EventScheduler;
+import edu.mit.puzzle.cube.core.events.FullReleaseEvent;
+import edu.mit.puzzle.cube.core.model.HuntStatusStore;
+import edu.mit.puzzle.cube.core.model.Run;
+import edu.mit.puzzle.cube.core.model.Visibility;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnlockEngineTest {
+
+    private static final Instant HUNT_START = Instant.ofEpochSecond(1000);
+
+    private static final UnlockGraph UNLOCK_GRAPH = UnlockGraph.builder()
+            .addRule(UnlockRule.atHuntStart("puzzle1"))
+            .addRule(UnlockRule.atHuntStart("puzzle2"))
+            .addRule(UnlockRule.afterSolving("puzzle3", "puzzle1"))
+            .addRule(UnlockRule.afterSolving("puzzle4", "puzzle1"))
+            .addRule(UnlockRule.afterSolving("meta", 2, ImmutableList.of("puzzle1", "puzzle2", "puzzle3")))
+            .addRule(UnlockRule.atScore("bonus1", 10))
+            .addRule(UnlockRule.atScore("bonus2", 20))
+            .addRule(UnlockRule.afterHuntStart("timed1", Duration.ofMinutes(10)))
+            .addRule(UnlockRule.afterHuntStart("timed2", Duration.ofMinutes(20)))
+            .build();
+
+    private HuntStatusStore huntStatusStore;
+    private AdjustableClock clock;
+    private UnlockEngine unlockEngine;
+
+    @Before
+    public void setup() {
+        huntStatusStore = mock(HuntStatusStore.class);
+        when(huntStatusStore.getTeamIds()).thenReturn(ImmutableSet.of("team1", "team2"));
+        Run run = mock(Run.class);
+        when(run.getStartTimestamp()).thenReturn(HUNT_START);
+        when(huntStatusStore.getHuntRunProperties()).thenReturn(Optional.of(run));
+        clock = new AdjustableClock(Clock.fixed(HUNT_START, ZoneId.of("UTC")));
+        unlockEngine = new UnlockEngine(UNLOCK_GRAPH, huntStatusStore, clock);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Table<String, String, String> verifyBatch() {
+        ArgumentCaptor<Table> captor = ArgumentCaptor.forClass(Table.class);
+        verify(huntStatusStore, times(1)).setVisibilityBatch(captor.capture(), anyBoolean());
+        return captor.getValue();
+    }
+
+    private void solved(String... puzzleIds) {
+        ImmutableList.Builder<Visibility> visibilities = ImmutableList.builder();
+        for (String puzzleId : puzzleIds) {
+            visibilities.add(Visibility.builder()
+                    .setTeamId("team1")
+                    .setPuzzleId(puzzleId)
+                    .setStatus("SOLVED")
+                    .build());
+        }
+        when(huntStatusStore.getVisibilitiesForTeam("team1")).thenReturn(visibilities.build());
+    }
+
+    @Test
+    public void unlockAtHuntStart() {
+        unlockEngine.unlockAtHuntStart();
+        assertThat(verifyBatch()).isEqualTo(ImmutableTable.builder()
+                .put("team1", "puzzle1", "UNLOCKED")
+                .put("team1", "puzzle2", "UNLOCKED")
+                .put("team2", "puzzle1", "UNLOCKED")
+                .put("team2", "puzzle2", "UNLOCKED")
+                .build());
+    }
+
+    @Test
+    public void unlockSuccessorsInOneBatch() {
+        solved("puzzle1");
+        unlockEngine.unlockAfterSolve("team1", "puzzle1");
+        assertThat(verifyBatch()).isEqualTo(ImmutableTable.builder()
+                .put("team1", "puzzle3", "UNLOCKED")
+                .put("team1", "puzzle4", "UNLOCKED")
+                .build());
+    }
+
+    @Test
+    public void solveCountThreshold() {
+        solved("puzzle2");
+        unlockEngine.unlockAfterSolve("team1", "puzzle2");
+        verify(huntStatusStore, never()).setVisibilityBatch(any(), anyBoolean());
+
+        solved("puzzle2", "puzzle3");
+        unlockEngine.unlockAfterSolve("team1", "puzzle3");
+        assertThat(verifyBatch()).isEqualTo(ImmutableTable.builder()
+                .put("team1", "meta", "UNLOCKED")
+                .build());
+    }
+
+    @Test
+    public void puzzleWithoutSuccessorsDoesNothing() {
+        unlockEngine.unlockAfterSolve("team1", "meta");
+        verify(huntStatusStore, never()).getVisibilitiesForTeam(anyString());
+        verify(huntStatusStore, never()).setVisibilityBatch(any(), anyBoolean());
+    }
+
+    @Test
+    public void scoreThresholdsAreAppliedOnce() {
+        unlockEngine.updateScore("team1", 15);
+        assertThat(verifyBatch()).isEqualTo(ImmutableTable.builder()
+                .put("team1", "bonus1", "UNLOCKED")
+                .build());
+
+        // Neither staying below the next threshold nor going down unlocks anything new.
+        unlockEngine.updateScore("team1", 19);
+        unlockEngine.updateScore("team1", 5);
+        verifyBatch();
+
+        unlockEngine.updateScore("team1", 25);
+        verify(huntStatusStore).setVisibilityBatch(
+                ImmutableTable.of("team1", "bonus2", "UNLOCKED"), false);
+        verify(huntStatusStore, times(2)).setVisibilityBatch(any(), anyBoolean());
+    }
+
+    @Test
+    public void timedReleases() {
+        unlockEngine.releaseTimedPuzzles();
+        verify(huntStatusStore, never()).setVisibilityBatch(any(), anyBoolean());
+
+        clock.setWrappedClock(Clock.fixed(HUNT_START.plus(Duration.ofMinutes(15)), ZoneId.of("UTC")));
+        unlockEngine.releaseTimedPuzzles();
+        assertThat(verifyBatch()).isEqualTo(ImmutableTable.builder()
+                .put("team1", "timed1", "UNLOCKED")
+                .put("team2", "timed1", "UNLOCKED")
+                .build());
+
+        unlockEngine.releaseTimedPuzzles();
+        verifyBatch();
+    }
+
+    @Test
+    public void timedReleasesAreScheduledAtHuntStart() {
+        EventScheduler eventScheduler = mock(EventScheduler.class);
+        unlockEngine.addToEventProcessor(new CompositeEventProcessor(), eventScheduler);
+        unlockEngine.unlockAtHuntStart();
+        verify(eventScheduler).schedule(
+                FullReleaseEvent.builder().setPuzzleId("timed1").build(),
+                HUNT_START.plus(Duration.ofMinutes(10)));
+        verify(eventScheduler).schedule(
+                FullReleaseEvent.builder().setPuzzleId("timed2").build(),
+                HUNT_START.plus(Duration.ofMinutes(20)));
+    }
+}
@@ -85,6 +85,43 @@ public class HintRequestsTest extends RestletTest {
         assertThat(status.getCode()).isEqualTo(400);
     }
 
+    @Test
+    public void testInvalidPagination() {
+        setCurrentUserCredentials(USER_ONE);
+        assertThat(getExpectFailure("/hintrequests?pageSize=abc").getCode()).isEqualTo(400);
+        assertThat(getExpectFailure("/hintrequests?pageSize=0").getCode()).isEqualTo(400);
+        assertThat(getExpectFailure("/hintrequests?startHintRequestId=abc").getCode())
+                .isEqualTo(400);
+    }
+
+    @Test
+    public void testPagination() {
+        postVisibility(TEAM.getIdentifier(), PUZZLE_ID, "UNLOCKED");
+
+        setCurrentUserCredentials(TEAM);
+        for (String request : new String[] {"one", "two", "three"}) {
+            post(
+                    "/hintrequests",
+                    HintRequest.builder()
+                            .setTeamId(TEAM.getIdentifier())
+                            .setPuzzleId(PUZZLE_ID)
+                            .setRequest(request)
+                            .build()
+            );
+        }
+
+        setCurrentUserCredentials(USER_ONE);
+        assertThat(get("/hintrequests").get("hintRequests").size()).isEqualTo(3);
+
+        JsonNode firstPage = get("/hintrequests?pageSize=2").get("hintRequests");
+        assertThat(firstPage.size()).isEqualTo(2);
+        JsonNode secondPage = get(String.format(
+                "/hintrequests?pageSize=2&startHintRequestId=%d",
+                firstPage.get(1).get("hintRequestId").asInt())).get("hintRequests");
+        assertThat(secondPage.size()).isEqualTo(1);
+        assertThat(secondPage.get(0).get("request").asText()).isEqualTo("three");
+    }
+
     @Test
     public void testRequestAndResolveHint() {
         postVisibility(TEAM.getIdentifier(), PUZZLE_ID, "UNLOCKED");
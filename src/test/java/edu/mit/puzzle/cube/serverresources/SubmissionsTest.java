@@ -17,6 +17,7 @@ import org.apache.shiro.realm.Realm;
 import org.junit.Test;
 import org.restlet.data.ChallengeResponse;
 import org.restlet.data.ChallengeScheme;
+import org.restlet.data.Status;
 
 import java.sql.SQLException;
 import java.util.List;
@@ -99,6 +100,17 @@ public class SubmissionsTest extends RestletTest {
         assertThat(submissions.size()).isEqualTo(2);
     }
 
+    @Test
+    public void testUnknownPuzzle() {
+        setCurrentUserCredentials(TEAM);
+        Status status = postExpectFailure(
+                "/submissions",
+                String.format(
+                        "{\"teamId\":\"%s\",\"puzzleId\":\"nosuchpuzzle\",\"submission\":\"guess\"}",
+                        TEAM.getIdentifier()));
+        assertThat(status.getCode()).isEqualTo(400);
+    }
+
     @Test
     public void testPagination() {
         setCurrentUserCredentials(TEAM);
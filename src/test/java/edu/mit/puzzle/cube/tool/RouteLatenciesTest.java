@@ -0,0 +1,34 @@
+package edu.mit.puzzle.cube.tool;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RouteLatenciesTest {
+
+    @Test
+    public void summarizePercentilesPerRoute() {
+        RouteLatencies routeLatencies = new RouteLatencies();
+        for (int i = 100; i >= 1; --i) {
+            routeLatencies.record("GET /teams", TimeUnit.MILLISECONDS.toNanos(i), i > 98);
+        }
+        routeLatencies.record("POST /submissions", TimeUnit.MILLISECONDS.toNanos(7), false);
+
+        Map<String, RouteLatencies.Summary> summaries = routeLatencies.summarize();
+        assertThat(summaries.keySet()).containsExactly("GET /teams", "POST /submissions").inOrder();
+
+        RouteLatencies.Summary teams = summaries.get("GET /teams");
+        assertThat(teams.getCount()).isEqualTo(100);
+        assertThat(teams.getFailures()).isEqualTo(2);
+        assertThat(teams.getPercentileMillis(50)).isWithin(1e-9).of(50);
+        assertThat(teams.getPercentileMillis(99)).isWithin(1e-9).of(99);
+        assertThat(teams.getMaxMillis()).isWithin(1e-9).of(100);
+
+        RouteLatencies.Summary submissions = summaries.get("POST /submissions");
+        assertThat(submissions.getPercentileMillis(50)).isWithin(1e-9).of(7);
+        assertThat(submissions.getPercentileMillis(99)).isWithin(1e-9).of(7);
+    }
+}